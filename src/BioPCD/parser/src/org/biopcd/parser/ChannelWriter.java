@@ -0,0 +1,354 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.biopcd.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * <p>A Writer which writes text to a file through a large, direct byte buffer
+ * and a FileChannel.</p>
+ *
+ * <p>Previously, canvases wrote files for PCD commands (see TempFile) through
+ * a FileWriter; therefore, each of the thousands of small append calls made
+ * while writing a file passed through the FileWriter's charset encoder
+ * separately, and the file was written in small (8 KB) blocks.  Instead, this
+ * class copies ASCII characters (i.e. almost all of the text written by
+ * BioLegato) into the byte buffer, one byte per character, and writes the
+ * buffer to the file only when the buffer is full.  Any other characters are
+ * encoded using the platform's default charset (i.e. the same charset used by
+ * FileWriter); therefore, the file written is identical to the file a
+ * FileWriter would write.</p>
+ *
+ * <p>The ASCII fast path is only used if the default charset encodes ASCII
+ * characters as single bytes of the same value (e.g. UTF-8, ISO-8859-1);
+ * otherwise, all characters are encoded using the charset.</p>
+ *
+ * <p><i>NOTE: like FileWriter, this class is not thread-safe; each thread
+ *       must write to its own ChannelWriter object.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+public class ChannelWriter extends Writer {
+    /**
+     * The file channel to write to.
+     */
+    private final FileChannel channel;
+    /**
+     * The buffer to store the encoded text before it is written to the file.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The buffer used to collect ASCII characters before they are copied into
+     * the direct buffer.  The ASCII encoder is much faster when encoding into
+     * an array-backed buffer (the JIT compiler replaces its encoding loop with
+     * vector instructions), and the bytes are then copied into the direct
+     * buffer in bulk.
+     */
+    private final ByteBuffer staging = ByteBuffer.allocate(STAGING_SIZE);
+    /**
+     * The encoder used for the ASCII fast path.  The encoder stops at the
+     * first character which is not ASCII (it reports the character as
+     * unmappable or malformed, rather than replacing it).
+     */
+    private final CharsetEncoder asciiEncoder
+            = Charset.forName("US-ASCII").newEncoder();
+    /**
+     * The encoder used for all characters which are not written through the
+     * ASCII fast path.
+     */
+    private final CharsetEncoder encoder;
+    /**
+     * Whether ASCII characters can be written directly into the buffer
+     * (see the class description).
+     */
+    private final boolean ascii;
+    /**
+     * A high surrogate character left over from the end of the last block of
+     * text encoded (i.e. the first half of a surrogate pair which was split
+     * between two write calls), or zero if there is no character left over.
+     */
+    private char surrogate = 0;
+    /**
+     * The total number of bytes written to the file.
+     */
+    private long written = 0;
+    /**
+     * Whether the writer has been closed.
+     */
+    private boolean closed = false;
+    /**
+     * The default buffer size (in bytes) for writing files.
+     */
+    public static final int DEFAULT_BUFF_SIZE = 1024 * 1024;
+    /**
+     * The size of the staging array (in bytes).
+     */
+    private static final int STAGING_SIZE = 8192;
+    /**
+     * The maximum length of a run of text which is copied directly into the
+     * staging buffer, rather than through the ASCII encoder.
+     */
+    private static final int SHORT_RUN = 32;
+
+    /**
+     * Creates a new channel writer, which writes to a file using the default
+     * buffer size.  The file is created if it does not exist, and truncated
+     * if it does (as with FileWriter).
+     **
+     * @param  file the file to write to.
+     * @throws IOException if the file cannot be opened for writing.
+     */
+    public ChannelWriter(File file) throws IOException {
+        this(file, DEFAULT_BUFF_SIZE);
+    }
+
+    /**
+     * Creates a new channel writer, which writes to a file.  The file is
+     * created if it does not exist, and truncated if it does (as with
+     * FileWriter).
+     **
+     * @param  file     the file to write to.
+     * @param  buffsize the size of the buffer to use (in bytes).
+     * @throws IOException if the file cannot be opened for writing.
+     */
+    public ChannelWriter(File file, int buffsize) throws IOException {
+        // The default charset (used by FileWriter).
+        final Charset charset = Charset.defaultCharset();
+        // Every ASCII character, used to test the default charset.
+        final char[] test = new char[128];
+
+        for (int index = 0; index < test.length; index++) {
+            test[index] = (char) index;
+        }
+
+        this.channel = new FileOutputStream(file).getChannel();
+        this.buffer = ByteBuffer.allocateDirect(
+                Math.max(STAGING_SIZE, buffsize));
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.ascii = Arrays.equals(new String(test).getBytes(charset),
+                                   new String(test).getBytes("US-ASCII"));
+    }
+
+    /**
+     * Writes a block of characters to the file.
+     **
+     * @param  cbuf the array containing the characters to write.
+     * @param  off  the position of the first character to write.
+     * @param  len  the number of characters to write.
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        // The position after the last character to write.
+        final int end = off + len;
+        // The position after the end of the current run of characters.
+        int stop;
+        // The current run of ASCII characters.
+        CharBuffer run;
+        // The position in the staging buffer to copy a short run to.
+        int position;
+        // The array backing the staging buffer.
+        final byte[] bytes = staging.array();
+
+        ensureOpen();
+        if (off < 0 || len < 0 || end > cbuf.length || end < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (off < end) {
+            if (ascii && surrogate == 0 && cbuf[off] < 0x80) {
+                // Copy a run of ASCII characters into the staging buffer
+                // (one byte per character).  The run ends at the first
+                // character which is not ASCII, or at the end of the text.
+                if (end - off <= SHORT_RUN
+                        && staging.remaining() >= end - off) {
+                    // Copy short runs (e.g. the names and keywords written
+                    // by the data formats) directly, because calling the
+                    // encoder costs more than copying a few characters.
+                    position = staging.position();
+                    for (; off < end && cbuf[off] < 0x80; off++, position++) {
+                        bytes[position] = (byte) cbuf[off];
+                    }
+                    staging.position(position);
+                } else {
+                    run = CharBuffer.wrap(cbuf, off, end - off);
+                    while (asciiEncoder.encode(run, staging, false)
+                            .isOverflow()) {
+                        spill();
+                    }
+                    off = run.position();
+                }
+            } else {
+                // Encode a run of non-ASCII characters using the charset.
+                stop = off + 1;
+                while (stop < end && !(ascii && cbuf[stop] < 0x80)) {
+                    stop++;
+                }
+                encode(CharBuffer.wrap(cbuf, off, stop - off), false);
+                off = stop;
+            }
+        }
+    }
+
+    /**
+     * Writes any buffered text to the file.
+     **
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+    }
+
+    /**
+     * Writes any buffered text to the file, and closes the file.
+     **
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            try {
+                // Encode any surrogate character left over (which, because
+                // there is no more text, is a malformed character).
+                encode(CharBuffer.allocate(0), true);
+                while (encoder.flush(buffer).isOverflow()) {
+                    drain();
+                }
+                drain();
+            } finally {
+                closed = true;
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the total number of bytes written to the file (not including
+     * any text which is still in the buffer).
+     **
+     * @return the number of bytes written.
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+
+    /**
+     * Returns the size of the buffer used to write the file.
+     **
+     * @return the size of the buffer (in bytes).
+     */
+    public int getBufferSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Encodes a block of characters into the buffer using the charset,
+     * writing the buffer to the file whenever it fills up.
+     **
+     * @param  in    the characters to encode.
+     * @param  last  whether this is the last block of text to encode.
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    private void encode(CharBuffer in, boolean last) throws IOException {
+        // The result of each encoding step.
+        CoderResult result;
+
+        // Keep the text in order (i.e. copy any ASCII characters which
+        // preceded the block into the buffer first).
+        spill();
+
+        // Join any surrogate character left over from the last block of text
+        // with the first character of this block.
+        while (surrogate != 0 && (in.hasRemaining() || last)) {
+            final CharBuffer pair = (in.hasRemaining()
+                    ? CharBuffer.wrap(new char[] { surrogate, in.get() })
+                    : CharBuffer.wrap(new char[] { surrogate }));
+
+            surrogate = 0;
+            encode(pair, last && !in.hasRemaining());
+        }
+
+        // Encode the block.
+        do {
+            result = encoder.encode(in, buffer, last);
+            if (result.isOverflow()) {
+                drain();
+            }
+        } while (result.isOverflow());
+
+        // Keep any character which could not be encoded yet (i.e. the first
+        // half of a surrogate pair at the end of the block).
+        if (in.hasRemaining()) {
+            surrogate = in.get();
+        }
+    }
+
+    /**
+     * Copies the contents of the staging buffer into the buffer (writing the
+     * buffer to the file first, if the buffer is too full).
+     **
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    private void spill() throws IOException {
+        staging.flip();
+        if (buffer.remaining() < staging.remaining()) {
+            writeBuffer();
+        }
+        buffer.put(staging);
+        staging.clear();
+    }
+
+    /**
+     * Writes the contents of the staging buffer and the buffer to the file,
+     * and empties them both.
+     **
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    private void drain() throws IOException {
+        spill();
+        writeBuffer();
+    }
+
+    /**
+     * Writes the contents of the buffer to the file, and empties the buffer.
+     **
+     * @throws IOException if an error occurs while writing to the file.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Ensures that the writer has not been closed.
+     **
+     * @throws IOException if the writer has been closed.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
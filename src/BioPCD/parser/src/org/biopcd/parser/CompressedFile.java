@@ -0,0 +1,676 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.biopcd.parser;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Transparent support for reading compressed files.</p>
+ *
+ * <p>Sequence and table data are often stored compressed (e.g. ".fa.gz" or
+ * ".gb.gz" files).  The methods in this class detect the compression format
+ * of a file from its first few bytes (not from its name), and open the file
+ * so that the decompressed data can be read.  Uncompressed files are read
+ * normally.  The following formats are detected:</p>
+ *
+ * <ul>
+ *  <li>gzip (GZIP) -- a file compressed by the gzip program.</li>
+ *  <li>BGZF (BGZF) -- the blocked gzip format written by the bgzip program
+ *      (a series of small gzip members, each holding at most 64 KB of data,
+ *      and each recording its compressed size).  BGZF files are valid gzip
+ *      files, so they are read the same way as gzip files; however, because
+ *      each block can be decompressed separately, any part of a BGZF file can
+ *      also be read without decompressing the whole file (see BgzfIndex).
+ *      </li>
+ *  <li>Zstandard (ZSTD) -- detected, but not supported, because no pure-Java
+ *      Zstandard decoder is bundled with BioLegato.  Opening a Zstandard file
+ *      throws an IOException explaining this.</li>
+ * </ul>
+ *
+ * <p>Compressed data is decompressed on a separate thread (see
+ * PipelineInputStream), so the decompression overlaps the parsing of the
+ * data.</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+public final class CompressedFile {
+    /**
+     * Compression format: the file is not compressed.
+     */
+    public static final int NONE = 0;
+    /**
+     * Compression format: the file is a (non-BGZF) gzip file.
+     */
+    public static final int GZIP = 1;
+    /**
+     * Compression format: the file is a BGZF (bgzip) file.
+     */
+    public static final int BGZF = 2;
+    /**
+     * Compression format: the file is a Zstandard file (not supported).
+     */
+    public static final int ZSTD = 3;
+    /**
+     * The number of bytes read from the beginning of a file to detect its
+     * compression format (the length of a BGZF block header).
+     */
+    private static final int HEADER_LENGTH = 18;
+    /**
+     * The size of the chunks of decompressed data passed from the
+     * decompression thread to the reading thread.
+     */
+    private static final int CHUNK_SIZE = 65536;
+    /**
+     * The maximum number of chunks of decompressed data which may be waiting
+     * to be read (this limits how far the decompression thread may run ahead
+     * of the reading thread).
+     */
+    private static final int CHUNKS_AHEAD = 8;
+
+    /**
+     * This class only contains static methods.
+     */
+    private CompressedFile() {
+    }
+
+    /**
+     * Detects the compression format of a file.
+     **
+     * @param  file the file to test.
+     * @return the compression format of the file (NONE, GZIP, BGZF or ZSTD).
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public static int detect(File file) throws IOException {
+        // The beginning of the file.
+        final byte[] header = new byte[HEADER_LENGTH];
+        // The number of bytes read from the beginning of the file.
+        int length = 0;
+        // The stream used to read the beginning of the file.
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            for (int count = 0; count >= 0 && length < header.length;
+                                                        length += count) {
+                count = in.read(header, length, header.length - length);
+                if (count < 0) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return detect(header, length);
+    }
+
+    /**
+     * Determines whether a file is compressed (in any format).
+     **
+     * @param  file the file to test.
+     * @return whether the file is compressed.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        return detect(file) != NONE;
+    }
+
+    /**
+     * Opens a file for reading, decompressing the file if necessary.
+     * Compressed files are decompressed on a separate thread.
+     **
+     * @param  file the file to open.
+     * @return a stream of the (decompressed) contents of the file.
+     * @throws IOException if the file cannot be opened, or is compressed in
+     *                     an unsupported format.
+     */
+    public static InputStream open(File file) throws IOException {
+        // The compression format of the file.
+        final int format = detect(file);
+        // The stream to return.
+        InputStream result;
+
+        if (format == ZSTD) {
+            throw new IOException("Cannot read " + file + ": Zstandard"
+                    + " compressed files are not supported (decompress the"
+                    + " file with zstd -d, or recompress it with gzip)");
+        } else if (format != NONE) {
+            // NOTE: GZIPInputStream reads every member of a multi-member gzip
+            // file (such as a BGZF file).
+            result = new PipelineInputStream(new GZIPInputStream(
+                    new FileInputStream(file), CHUNK_SIZE), file.getName());
+        } else {
+            result = new FileInputStream(file);
+        }
+        return result;
+    }
+
+    /**
+     * Opens a file for reading as text (using the default character set, as
+     * FileReader does), decompressing the file if necessary.
+     **
+     * @param  file the file to open.
+     * @return a Reader object for the (decompressed) contents of the file.
+     * @throws IOException if the file cannot be opened, or is compressed in
+     *                     an unsupported format.
+     */
+    public static Reader openReader(File file) throws IOException {
+        return new InputStreamReader(open(file));
+    }
+
+    /**
+     * Detects a compression format from the beginning of a file.
+     **
+     * @param  header the beginning of the file.
+     * @param  length the number of bytes in the array which were read.
+     * @return the compression format (NONE, GZIP, BGZF or ZSTD).
+     */
+    private static int detect(byte[] header, int length) {
+        // The compression format detected.
+        int result = NONE;
+
+        if (length >= 4 && (header[0] & 0xFF) == 0x28
+                && (header[1] & 0xFF) == 0xB5 && (header[2] & 0xFF) == 0x2F
+                && (header[3] & 0xFF) == 0xFD) {
+            result = ZSTD;
+        } else if (length >= 3 && (header[0] & 0xFF) == 0x1F
+                && (header[1] & 0xFF) == 0x8B && header[2] == 8) {
+            result = (isBgzfHeader(header, length) ? BGZF : GZIP);
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether a gzip member header is a BGZF block header (i.e.
+     * has an extra field whose first subfield is the BGZF "BC" subfield).
+     **
+     * @param  header the gzip member header.
+     * @param  length the number of bytes of the header available.
+     * @return whether the header is a BGZF block header.
+     */
+    private static boolean isBgzfHeader(byte[] header, int length) {
+        return length >= HEADER_LENGTH && (header[3] & 0x04) != 0
+                && header[10] == 6 && header[11] == 0
+                && header[12] == 'B' && header[13] == 'C'
+                && header[14] == 2 && header[15] == 0;
+    }
+
+    /**
+     * <p>An input stream which reads another input stream on a separate
+     * thread (e.g. so that decompressing a file overlaps parsing it).</p>
+     *
+     * <p>The separate thread reads the source stream into chunks, and passes
+     * the chunks to the reading thread through a bounded queue.  Any error
+     * which occurs while reading the source stream is thrown by the next call
+     * to read, once the chunks read before the error have been read.</p>
+     */
+    private static final class PipelineInputStream extends InputStream {
+
+        /**
+         * The chunks of data read from the source stream.  An empty chunk
+         * marks the end of the source stream (or an error).
+         */
+        private final BlockingQueue<byte[]> chunks
+                = new ArrayBlockingQueue<byte[]>(CHUNKS_AHEAD);
+        /**
+         * The thread reading the source stream.
+         */
+        private final Thread thread;
+        /**
+         * The chunk currently being read (null before the first read).
+         */
+        private byte[] chunk = null;
+        /**
+         * The position of the next byte to read within the current chunk.
+         */
+        private int position = 0;
+        /**
+         * The error which occurred while reading the source stream (if any).
+         */
+        private volatile IOException error = null;
+        /**
+         * Whether the end of the source stream has been reached.
+         */
+        private boolean finished = false;
+
+        /**
+         * Creates a new pipeline stream, and starts reading the source stream.
+         **
+         * @param source the stream to read.
+         * @param name   the name of the source (used to name the thread).
+         */
+        PipelineInputStream(final InputStream source, String name) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        pump(source);
+                    } catch (InterruptedException ie) {
+                        // The stream was closed by the reading thread.
+                    }
+                }
+            }, "Decompress " + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Reads a single byte from the stream.
+         **
+         * @return the byte read (or -1 at the end of the stream).
+         * @throws IOException if an error occurs while reading the source.
+         */
+        @Override
+        public int read() throws IOException {
+            return (fill() ? chunk[position++] & 0xFF : -1);
+        }
+
+        /**
+         * Reads bytes from the stream into an array.
+         **
+         * @param  b    the array to read into.
+         * @param  off  the offset within the array.
+         * @param  len  the maximum number of bytes to read.
+         * @return the number of bytes read (or -1 at the end of the stream).
+         * @throws IOException if an error occurs while reading the source.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // The number of bytes read.
+            int result = 0;
+
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len > 0) {
+                if (fill()) {
+                    result = Math.min(len, chunk.length - position);
+                    System.arraycopy(chunk, position, b, off, result);
+                    position += result;
+                } else {
+                    result = -1;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the number of bytes which can be read without blocking.
+         **
+         * @return the number of bytes left in the current chunk.
+         */
+        @Override
+        public int available() {
+            return (chunk != null ? chunk.length - position : 0);
+        }
+
+        /**
+         * Closes the stream, and stops reading the source stream.
+         */
+        @Override
+        public void close() {
+            finished = true;
+            chunk = null;
+            thread.interrupt();
+            chunks.clear();
+        }
+
+        /**
+         * Ensures that there is data to read (i.e. waits for the next chunk,
+         * if all of the current chunk has been read).
+         **
+         * @return whether there is data left to read.
+         * @throws IOException if an error occurred while reading the source.
+         */
+        private boolean fill() throws IOException {
+            while (!finished && (chunk == null || position >= chunk.length)) {
+                try {
+                    chunk = chunks.take();
+                    position = 0;
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException("Interrupted while"
+                            + " reading " + thread.getName());
+                }
+                if (chunk.length == 0) {
+                    finished = true;
+                    chunk = null;
+                    if (error != null) {
+                        throw error;
+                    }
+                }
+            }
+            return !finished;
+        }
+
+        /**
+         * Reads the source stream into chunks, and passes the chunks to the
+         * reading thread (this is run by the separate thread).
+         **
+         * @param  source the stream to read.
+         * @throws InterruptedException if the stream is closed.
+         */
+        private void pump(InputStream source) throws InterruptedException {
+            // The current chunk.
+            byte[] buffer = new byte[CHUNK_SIZE];
+            // The number of bytes in the current chunk.
+            int length = 0;
+            // The number of bytes read by each call to the source stream.
+            int count = 0;
+
+            try {
+                while (count >= 0) {
+                    count = source.read(buffer, length, buffer.length - length);
+                    if (count > 0) {
+                        length += count;
+                    }
+                    if (length > 0 && (length == buffer.length || count < 0)) {
+                        chunks.put(length == buffer.length ? buffer
+                                : Arrays.copyOf(buffer, length));
+                        buffer = new byte[CHUNK_SIZE];
+                        length = 0;
+                    }
+                }
+            } catch (IOException ioe) {
+                error = ioe;
+            } finally {
+                try {
+                    source.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace(System.err);
+                }
+                chunks.put(new byte[0]);
+            }
+        }
+    }
+
+    /**
+     * <p>An index of the blocks of a BGZF file, which allows any range of the
+     * decompressed data to be read without decompressing the whole file (e.g.
+     * to re-read the header of a sequence from a compressed file on demand).
+     * </p>
+     *
+     * <p>The index records the position of each block within the file, and
+     * the position of the block's data within the decompressed data.  It is
+     * built by reading only the header and the trailer of each block (the
+     * blocks are not decompressed).  The index of a file is cached (see
+     * forFile) until the file changes.</p>
+     */
+    public static final class BgzfIndex {
+
+        /**
+         * The file indexed.
+         */
+        private final File file;
+        /**
+         * The size of the file when it was indexed.
+         */
+        private final long size;
+        /**
+         * The modification time of the file when it was indexed.
+         */
+        private final long modified;
+        /**
+         * The position of each block within the file (with an extra element
+         * for the end of the file).
+         */
+        private final long[] blocks;
+        /**
+         * The position of each block's data within the decompressed data
+         * (with an extra element for the length of the decompressed data).
+         */
+        private final long[] starts;
+        /**
+         * The cached indexes of BGZF files.
+         */
+        private static final Map<File, SoftReference<BgzfIndex>> CACHE
+                = new HashMap<File, SoftReference<BgzfIndex>>();
+
+        /**
+         * Indexes the blocks of a BGZF file.
+         **
+         * @param  file the file to index.
+         * @throws IOException if an error occurs while reading the file, or
+         *                     the file is not a valid BGZF file.
+         */
+        private BgzfIndex(File file) throws IOException {
+            // The header of each block.
+            final byte[] header = new byte[HEADER_LENGTH];
+            // The trailer of each block.
+            final byte[] trailer = new byte[4];
+            // The file to read the block headers from.
+            final RandomAccessFile in = new RandomAccessFile(file, "r");
+            // The positions of the blocks within the file.
+            long[] blockList = new long[64];
+            // The positions of the blocks' data within the decompressed data.
+            long[] startList = new long[64];
+            // The number of blocks indexed.
+            int count = 0;
+            // The position of the current block within the file.
+            long position = 0;
+            // The position of the current block within the decompressed data.
+            long start = 0;
+
+            this.file = file;
+            this.size = file.length();
+            this.modified = file.lastModified();
+
+            try {
+                while (position < size) {
+                    if (count + 1 >= blockList.length) {
+                        blockList = Arrays.copyOf(blockList, count * 2);
+                        startList = Arrays.copyOf(startList, count * 2);
+                    }
+                    in.seek(position);
+                    in.readFully(header);
+                    if (detect(header, header.length) != BGZF) {
+                        throw new IOException("Invalid BGZF block at "
+                                + position + " in " + file);
+                    }
+                    blockList[count] = position;
+                    startList[count] = start;
+                    count++;
+
+                    // Read the uncompressed size of the block (ISIZE) from
+                    // the block's trailer, and move to the next block.
+                    position += blockSize(header);
+                    in.seek(position - 4);
+                    in.readFully(trailer);
+                    start += (trailer[0] & 0xFFL)
+                            | (trailer[1] & 0xFFL) << 8
+                            | (trailer[2] & 0xFFL) << 16
+                            | (trailer[3] & 0xFFL) << 24;
+                }
+            } catch (EOFException eofe) {
+                throw new IOException("Truncated BGZF file: " + file);
+            } finally {
+                in.close();
+            }
+            blockList[count] = position;
+            startList[count] = start;
+            this.blocks = Arrays.copyOf(blockList, count + 1);
+            this.starts = Arrays.copyOf(startList, count + 1);
+        }
+
+        /**
+         * Returns the index of a BGZF file (from the cache, if the file has
+         * not changed since it was indexed).
+         **
+         * @param  file the file to index.
+         * @return the index of the file.
+         * @throws IOException if an error occurs while reading the file, or
+         *                     the file is not a valid BGZF file.
+         */
+        public static BgzfIndex forFile(File file) throws IOException {
+            // The cached index of the file.
+            BgzfIndex result;
+
+            synchronized (CACHE) {
+                result = (CACHE.containsKey(file) ? CACHE.get(file).get()
+                                                  : null);
+            }
+            if (result == null || result.size != file.length()
+                    || result.modified != file.lastModified()) {
+                result = new BgzfIndex(file);
+                synchronized (CACHE) {
+                    CACHE.put(file, new SoftReference<BgzfIndex>(result));
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the length of the decompressed data.
+         **
+         * @return the length of the decompressed data (in bytes).
+         */
+        public long length() {
+            return starts[starts.length - 1];
+        }
+
+        /**
+         * Reads a range of the decompressed data.  Only the blocks containing
+         * the range are decompressed.
+         **
+         * @param  position the position of the range within the decompressed
+         *                  data.
+         * @param  dst      the array to read the range into.
+         * @param  offset   the position in the array to read the range into.
+         * @param  length   the length of the range.
+         * @throws IOException if an error occurs while reading the file, or
+         *                     the range extends past the end of the data.
+         */
+        public void readFully(long position, byte[] dst, int offset,
+                              int length) throws IOException {
+            // The index of the block containing the start of the range.
+            int block = Arrays.binarySearch(starts, position);
+            // The compressed data of each block.
+            byte[] compressed = null;
+            // The decompressed data of each block.
+            byte[] data = null;
+            // The decompressor.
+            final Inflater inflater = new Inflater(true);
+            // The file to read the blocks from.
+            final RandomAccessFile in = new RandomAccessFile(file, "r");
+
+            if (position < 0 || position + length > length()) {
+                in.close();
+                throw new EOFException("Cannot read " + length + " bytes at "
+                        + position + " from " + file);
+            }
+
+            // NOTE: binarySearch returns (-(insertion point) - 1) for
+            // positions within a block.  Empty blocks share their start with
+            // the following block, so skip ahead to the last such block.
+            if (block < 0) {
+                block = -block - 2;
+            }
+            while (block + 1 < starts.length - 1
+                    && starts[block + 1] == starts[block]) {
+                block++;
+            }
+
+            try {
+                while (length > 0) {
+                    // The size of the block within the file.
+                    final int blockSize = (int) (blocks[block + 1]
+                                                 - blocks[block]);
+                    // The length of the block's decompressed data.
+                    final int dataSize = (int) (starts[block + 1]
+                                                - starts[block]);
+                    // The position of the range within the block's data.
+                    final int skip = (int) (position - starts[block]);
+                    // The number of bytes to copy from the block.
+                    final int count = Math.min(length, dataSize - skip);
+
+                    if (count > 0) {
+                        if (compressed == null
+                                || compressed.length < blockSize) {
+                            compressed = new byte[blockSize];
+                        }
+                        if (data == null || data.length < dataSize) {
+                            data = new byte[dataSize];
+                        }
+
+                        // Decompress the block (skipping its header and
+                        // trailer).
+                        in.seek(blocks[block]);
+                        in.readFully(compressed, 0, blockSize);
+                        inflater.reset();
+                        inflater.setInput(compressed, HEADER_LENGTH,
+                                          blockSize - HEADER_LENGTH - 8);
+                        inflate(inflater, data, dataSize);
+
+                        System.arraycopy(data, skip, dst, offset, count);
+                        position += count;
+                        offset += count;
+                        length -= count;
+                    }
+                    block++;
+                }
+            } finally {
+                inflater.end();
+                in.close();
+            }
+        }
+
+        /**
+         * Returns the size of a BGZF block (from its header).
+         **
+         * @param  header the header of the block.
+         * @return the size of the block within the file (in bytes).
+         */
+        private static int blockSize(byte[] header) {
+            // NOTE: the BSIZE field holds the block size minus one.
+            return ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+        }
+
+        /**
+         * Decompresses a BGZF block's data.
+         **
+         * @param  inflater the decompressor (holding the block's data).
+         * @param  data     the array to decompress the data into.
+         * @param  length   the length of the decompressed data.
+         * @throws IOException if the block's data is invalid.
+         */
+        private void inflate(Inflater inflater, byte[] data, int length)
+                                                            throws IOException {
+            // The number of bytes decompressed.
+            int count = 0;
+
+            try {
+                while (count < length && !inflater.finished()) {
+                    final int read = inflater.inflate(data, count,
+                                                      length - count);
+
+                    if (read == 0 && (inflater.needsInput()
+                                      || inflater.needsDictionary())) {
+                        break;
+                    }
+                    count += read;
+                }
+            } catch (DataFormatException dfe) {
+                throw new IOException("Invalid BGZF block in " + file, dfe);
+            }
+            if (count < length) {
+                throw new IOException("Truncated BGZF block in " + file);
+            }
+        }
+    }
+}
@@ -7,8 +7,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import javax.swing.AbstractAction;
 import javax.swing.Box;
@@ -25,6 +23,9 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
+import org.biopcd.parser.ChannelWriter;
+import org.biopcd.parser.CompressedFile;
+import org.biopcd.parser.PCD;
 import org.biopcd.parser.PCDIO;
 
 /**
@@ -182,7 +183,10 @@ public class TempFile extends SimpleWidget {
             // the contents from the canvas to the temporary file.
             if (input && format != null) {
                 // Create the file writer object to write the file with.
-                FileWriter writer = new FileWriter(currentFile);
+                // NOTE: the canvas writes the file through many small append
+                // calls, so a buffered channel writer is used (rather than an
+                // unbuffered FileWriter, which encodes each call separately).
+                ChannelWriter writer = new ChannelWriter(currentFile);
 
                 // Write the contents of the canvas to the file.
                 canvas.writeFile(format, writer, forceall);
@@ -193,6 +197,14 @@ public class TempFile extends SimpleWidget {
                 // to write will be in cache memory and not on disk).
                 writer.flush();
                 writer.close();
+
+                // Print the size of the file written (in debug mode).
+                if (PCD.debug) {
+                    System.out.println("PCD TempFile (" + name + ") wrote "
+                            + writer.getBytesWritten() + " bytes to "
+                            + currentFile.getName() + " (buffer size "
+                            + writer.getBufferSize() + " bytes)");
+                }
             } else if (format == null) {
                 // Print an error message if the format field is set to null.
                 System.err.println("PCD TempFile (" + name
@@ -246,9 +258,11 @@ public class TempFile extends SimpleWidget {
                         // Make sure that the format is NOT null.
                         if (format != null) {
                             try {
-                                // Read the file into the canvas.
+                                // Read the file into the canvas (decompress
+                                // the file, if the command compressed it).
                                 canvas.readFile(format,
-                                        new FileReader(closeFile), overwrite, forceall);
+                                        CompressedFile.openReader(closeFile),
+                                        overwrite, forceall);
                             } catch (IOException ioe) {
                                 ioe.printStackTrace(System.err);
                             }
@@ -6,7 +6,10 @@
 package org.biolegato.sequence.canvas;
 
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -89,6 +92,18 @@ public final class ColourMask {
      * The name of the colour mask (used for displaying to the user).
      */
     private String name;
+    /**
+     * The index of the colour of each of the first 256 characters, for
+     * character based colour masks (null for position based colour masks).
+     * This lookup table avoids calling Character.digit for every character
+     * drawn (see colourIndex).
+     */
+    private final int[] lookup;
+    /**
+     * The column statistics used to colour each character, for computed
+     * colour masks (null for colour masks read from files).
+     */
+    private final ColumnProfile profile;
 
     /**
      * <p>These are the default colours specified in GDE colour mask files.</p>
@@ -184,7 +199,23 @@ public final class ColourMask {
      * (i.e. is it a character or position based mask)
      */
     public static enum MaskType {
-        POSITION, CHARACTER;
+        POSITION, CHARACTER,
+        /**
+         * Computed colour mask -- colours each residue by the conservation of
+         * its column (the fraction of sequences sharing the column's
+         * consensus residue).
+         */
+        CONSERVATION,
+        /**
+         * Computed colour mask -- colours each residue by whether it matches
+         * the consensus residue of its column.
+         */
+        CONSENSUS,
+        /**
+         * Computed colour mask -- colours each residue by the fraction of
+         * sequences containing a gap in its column.
+         */
+        GAPS;
     }
     
     /**
@@ -196,6 +227,11 @@ public final class ColourMask {
      * NOTE: 36 hash size = 26 letters + 10 numerical digits (0 to 9).
      */
     public static final int HASH_SIZE = 36;
+    /**
+     * The number of colour levels used by the computed conservation and gap
+     * fraction colour masks.
+     */
+    private static final int LEVELS = 10;
 
     /**
      * Creates a new instance of a colour mask
@@ -210,11 +246,76 @@ public final class ColourMask {
         this.type = type;
         this.colours = colours;
         this.name = name;
+        this.profile = null;
+
+        // Build the character lookup table for character based colour masks.
+        if (type == MaskType.CHARACTER) {
+            lookup = new int[256];
+            for (int c = 0; c < lookup.length; c++) {
+                lookup[c] = hash(Character.digit((char) c, HASH_SIZE));
+            }
+        } else {
+            lookup = null;
+        }
+    }
+
+    /**
+     * <p>Creates a new computed colour mask.  Computed colour masks colour
+     * each character using the statistics of its column within the canvas
+     * (see ColumnProfile), rather than a colour mask file.  Characters which
+     * are not letters (e.g. gaps), and characters in columns which have not
+     * yet been calculated, are drawn in the standard foreground colour.</p>
+     *
+     * <p>The colours used by each type of computed colour mask are:</p>
+     * <ul>
+     *     <li>CONSERVATION - light grey (unconserved) to dark blue (fully
+     *                        conserved), in LEVELS steps.</li>
+     *     <li>CONSENSUS    - blue if the residue matches the consensus residue
+     *                        of its column, red otherwise.</li>
+     *     <li>GAPS         - black (no gaps) to red (mostly gaps), in LEVELS
+     *                        steps.</li>
+     * </ul>
+     **
+     * @param type     the type of the colour mask (CONSERVATION, CONSENSUS or
+     *                 GAPS).
+     * @param name     the name of the colour mask
+     *                      (used in comboboxes for human identification)
+     * @param profile  the column statistics to colour the characters with.
+     */
+    ColourMask (MaskType type, String name, ColumnProfile profile) {
+        this.type = type;
+        this.name = name;
+        this.profile = profile;
+        this.lookup = null;
+
+        if (type == MaskType.CONSENSUS) {
+            // Match (blue) and mismatch (red).
+            colours = new Color[] {new Color(0, 0, 200), new Color(220, 0, 0)};
+        } else {
+            colours = new Color[LEVELS];
+            for (int level = 0; level < LEVELS; level++) {
+                // The fraction of the way along the colour ramp.
+                final float f = (float) level / (LEVELS - 1);
+
+                if (type == MaskType.CONSERVATION) {
+                    colours[level] = new Color((int) (190 - 190 * f),
+                            (int) (190 - 190 * f), (int) (190 - 50 * f));
+                } else {
+                    colours[level] = new Color((int) (220 * f), 0, 0);
+                }
+            }
+        }
     }
 
     /**
-     * Draws a character string using the character colour coding specified by
-     * the ColourMask object.
+     * <p>Draws a character string using the character colour coding specified
+     * by the ColourMask object.</p>
+     *
+     * <p>Each character is copied from a pre-rendered glyph atlas for its
+     * colour (see GlyphAtlas), rather than being drawn as text.  If an atlas
+     * cannot be used (e.g. when printing), then the characters are drawn as
+     * text instead; each run of adjacent characters of the same colour is
+     * drawn using a single setColor and drawChars call.</p>
      **
      * @param gfx    the Graphics object to draw the text string to.
      * @param array  the array of characters to draw in colour.
@@ -225,41 +326,216 @@ public final class ColourMask {
      */
     public void drawString (Graphics gfx, char[] array, int offset,
                             int length, int xstart, int ystart) {
+        drawString(gfx, array, offset, length, xstart, ystart, 0);
+    }
+
+    /**
+     * <p>Draws a character string, extracted from a sequence, using the
+     * character colour coding specified by the ColourMask object.</p>
+     *
+     * <p>This method is the same as the method above, except that the
+     * position of the array within the sequence is specified.  Position based
+     * colour masks use the position of each character within the sequence
+     * (rather than within the array) to determine the colour of the character;
+     * therefore, a sequence is coloured the same way, regardless of which
+     * part of the sequence is being drawn.</p>
+     **
+     * @param gfx    the Graphics object to draw the text string to.
+     * @param array  the array of characters to draw in colour.
+     * @param offset the offset, within the array, to begin drawing characters.
+     * @param length the number of characters, within the array, to draw.
+     * @param xstart the X-coordinate to begin drawing characters at.
+     * @param ystart the Y-coordinate to begin drawing characters at.
+     * @param column the position, within the sequence, of the first character
+     *               of the array.
+     */
+    public void drawString (Graphics gfx, char[] array, int offset,
+                            int length, int xstart, int ystart, int column) {
         // The hash key to find the colour of the current character.
         int hash_key = 0;
+        // The hash key of the character after the current run of characters.
+        int next = 0;
+        // The end of the current run of characters.
+        int run;
+        // The font metrics used to measure the characters.
+        final FontMetrics metrics = gfx.getFontMetrics();
         // Obtain the width of the character (assuming a fixed width font,
         // all characters should have equal width; however, for non-fixed width
         // fonts, the G character is generally one of the widest characters,
         // and is, thus, used as the standard width).
-        final int width = gfx.getFontMetrics().charWidth('G');
+        final int width = metrics.charWidth('G');
         // the maximum position to draw within the character array.
         final int end = Math.min(array.length - 1, offset + length);
+        // The glyph atlases for each colour in the mask (the last element is
+        // used for the standard BioLegato foreground colour).  Each atlas is
+        // obtained the first time its colour is used.
+        final GlyphAtlas[] atlases = new GlyphAtlas[colours.length + 1];
+        // Whether the glyph atlases can be used for the Graphics object.
+        final boolean useAtlas = (GlyphAtlas.get(gfx, FOREG) != null);
+        // Whether characters may be advanced by fractional widths (in which
+        // case, runs of characters would not line up with the columns).
+        final boolean fractional = (gfx instanceof Graphics2D
+                && RenderingHints.VALUE_FRACTIONALMETRICS_ON.equals(
+                    ((Graphics2D) gfx).getRenderingHint(
+                        RenderingHints.KEY_FRACTIONALMETRICS)));
+        // The atlas of the current character.
+        GlyphAtlas atlas;
+
+        if (useAtlas) {
+            // Loop through all of the characters in the array.  Also, track
+            // the current x position of the character to draw.
+            for (int index = offset, x = xstart; index < end;
+                                                    index++, x += width) {
+                // Obtain the colour from the mask.
+                hash_key = colourIndex(array[index], column + index);
+
+                // Draw the character to the screen.
+                atlas = atlases[hash_key];
+                if (atlas == null) {
+                    atlas = atlases[hash_key]
+                          = GlyphAtlas.get(gfx, colour(hash_key));
+                }
+                atlas.drawChar(gfx, array, index, x, ystart);
+            }
+        } else {
+            // Loop through all of the runs of characters of the same colour in
+            // the array, and draw each run with a single drawChars call.  A
+            // run is also ended by any character whose width differs from the
+            // standard width (so that every character stays in its column).
+            if (offset < end) {
+                hash_key = colourIndex(array[offset], column + offset);
+            }
+            for (int index = offset, x = xstart; index < end;
+                        x += (run - index) * width, index = run,
+                        hash_key = next) {
+                for (run = index + 1; run < end; run++) {
+                    next = colourIndex(array[run], column + run);
+                    if (next != hash_key || fractional
+                            || metrics.charWidth(array[run - 1]) != width) {
+                        break;
+                    }
+                }
+                gfx.setColor(colour(hash_key));
+                gfx.drawChars(array, index, run - index, x, ystart);
+            }
+        }
+    }
 
-        // Loop through all of the characters in the array.  Also, track
-        // the current x position of the character to draw.
-        for (int index = offset, x = xstart; index < end; index++, x+= width) {
-            // Handle position based colour masks.
-            hash_key = index;
+    /**
+     * Obtains the colour of a character, within a sequence, using the colour
+     * coding specified by the ColourMask object.
+     **
+     * @param  c        the character.
+     * @param  position the position of the character within the sequence.
+     * @return the colour of the character.
+     */
+    Color getColour(char c, int position) {
+        return colour(colourIndex(c, position));
+    }
 
-            // Handle character based colour masks.
-            if (type == MaskType.CHARACTER) {
-                hash_key = Character.digit(array[index], HASH_SIZE);
-            }
+    /**
+     * Obtains a colour from the colour mask by its index.
+     **
+     * @param  hash_key the index of the colour (see colourIndex).
+     * @return the colour (the standard BioLegato foreground colour, if the
+     *         index is the length of the colour array).
+     */
+    private Color colour(int hash_key) {
+        return (hash_key < colours.length ? colours[hash_key] : FOREG);
+    }
 
-            // Obtain the colour from the mask based on the hash_key.
-            // If the hash_key is out of bounds (e.g. the string is longer than
-            // the maximum position in a position-based colour mask), then just
-            // use the standard BioLegato foreground colour.
-            if (hash_key >= 0 && hash_key < colours.length) {
-                gfx.setColor(colours[hash_key]);
+    /**
+     * Obtains the index of the colour of a character within the colour mask.
+     * If the hash key for the character is out of bounds (e.g. the string is
+     * longer than the maximum position in a position-based colour mask), then
+     * the index returned is the length of the colour array (indicating that
+     * the standard BioLegato foreground colour should be used).
+     **
+     * @param  c        the character.
+     * @param  position the position of the character within the sequence.
+     * @return the index of the character's colour.
+     */
+    private int colourIndex(char c, int position) {
+        // The index of the colour.
+        int hash_key;
+
+        if (profile != null) {
+            // Handle computed colour masks.
+            hash_key = computedIndex(c, position);
+        } else if (lookup != null && c < lookup.length) {
+            // Handle character based colour masks (using the lookup table).
+            hash_key = lookup[c];
+        } else if (type == MaskType.CHARACTER) {
+            // Handle character based colour masks (for characters outside of
+            // the lookup table).
+            hash_key = hash(Character.digit(c, HASH_SIZE));
+        } else {
+            // Handle position based colour masks.
+            hash_key = hash(position);
+        }
+        return hash_key;
+    }
+
+    /**
+     * Obtains the index of the colour of a character within a computed colour
+     * mask (see the computed colour mask constructor).
+     **
+     * @param  c        the character.
+     * @param  position the position (column) of the character.
+     * @return the index of the character's colour (or the length of the
+     *         colour array, for the standard foreground colour).
+     */
+    private int computedIndex(char c, int position) {
+        // The current column statistics (null if not yet calculated).
+        final ColumnProfile.Stats stats = profile.getStats();
+        // The index of the colour.
+        int hash_key = colours.length;
+
+        if (stats != null && position >= 0 && position < stats.columns
+                && Character.isLetter(c)) {
+            if (type == MaskType.CONSENSUS) {
+                hash_key = (Character.toUpperCase(c)
+                            == stats.consensus[position] ? 0 : 1);
+            } else if (type == MaskType.CONSERVATION) {
+                hash_key = level(stats.conservation[position]);
             } else {
-                gfx.setColor(FOREG);
+                hash_key = level(stats.gaps[position]);
             }
+        }
+        return hash_key;
+    }
+
+    /**
+     * Determines whether the colour mask is a computed colour mask (i.e.
+     * whether its colours depend on the column statistics of the canvas --
+     * see ColumnProfile).
+     **
+     * @return whether the colour mask is a computed colour mask.
+     */
+    boolean isComputed() {
+        return profile != null;
+    }
 
-            // Draw the character to the screen.
-            gfx.drawChars(array, index, 1, x, ystart);
+    /**
+     * Converts a fraction (0 to 1) into a colour level (0 to LEVELS - 1).
+     **
+     * @param  fraction the fraction to convert.
+     * @return the colour level.
+     */
+    private static int level(float fraction) {
+        return Math.max(0, Math.min(LEVELS - 1, (int) (fraction * LEVELS)));
+    }
 
-        }
+    /**
+     * Ensures that a hash key is within the bounds of the colour array.
+     **
+     * @param  hash_key the hash key to test.
+     * @return the hash key (or the length of the colour array, if the hash
+     *         key is out of bounds).
+     */
+    private int hash(int hash_key) {
+        return (hash_key < 0 || hash_key >= colours.length
+                ? colours.length : hash_key);
     }
 
     /**
@@ -0,0 +1,551 @@
+/*
+ * ColumnProfile.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import org.biolegato.main.BLMain;
+import org.biolegato.sequence.data.Dataset;
+import org.biolegato.sequence.data.TextLengthListener;
+
+/**
+ * <p>Per-column statistics of every sequence in a canvas (used by computed
+ * colour masks -- see ColourMask.MaskType).</p>
+ *
+ * <p>For each column of the alignment, the profile stores the consensus
+ * residue (the most frequent letter in the column, ignoring case), the
+ * conservation (the fraction of sequences which contain the consensus residue
+ * in the column) and the gap fraction (the fraction of sequences which
+ * contain a gap, or any other character which is not a letter, in the column;
+ * sequences which end before the column are counted as gaps).</p>
+ *
+ * <p>The statistics are calculated on a background thread, using a fork/join
+ * pool to process blocks of columns in parallel.  The profile is only
+ * calculated once a computed colour mask is first drawn.  After that, any
+ * modification to the canvas's sequences schedules the affected columns to be
+ * recalculated: an insertion or deletion (see textLengthChanged) only affects
+ * the columns from the position of the modification onward; any other
+ * modification affects every column.  Modifications are collected for a short
+ * delay before the statistics are recalculated.  Once the new statistics
+ * are available, only the columns whose statistics actually changed are
+ * repainted (see SequenceCanvas.masksChanged).</p>
+ *
+ * <p>If, when the statistics are due to be recalculated, no sequence is
+ * coloured by a computed colour mask (e.g. the masks were changed back to
+ * colour mask files), then the statistics are no longer calculated until a
+ * computed colour mask requests them again.</p>
+ *
+ * <p><i>NOTE: the statistics may be read from any thread (e.g. by the
+ *       sequence overview's background threads); each calculation produces a
+ *       new, immutable set of statistics, which replaces the previous one.
+ *       Each calculation reads a snapshot of the Dataset, taken on the event
+ *       dispatch thread when the calculation starts (see Dataset.snapshot),
+ *       so the Dataset itself is never read by a background thread.  Every
+ *       other method must be called from the Swing event dispatch
+ *       thread.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class ColumnProfile implements ListDataListener, TextLengthListener {
+
+    /**
+     * The canvas to notify when the statistics change.
+     */
+    private final SequenceCanvas canvas;
+    /**
+     * The data model to calculate the statistics of.
+     */
+    private final Dataset datamodel;
+    /**
+     * The current statistics (null until the statistics are first
+     * calculated).
+     */
+    private volatile Stats stats = null;
+    /**
+     * Whether any computed colour mask has requested the statistics (the
+     * statistics are only calculated once they are requested, and while a
+     * computed colour mask is in use -- see build).
+     */
+    private volatile boolean requested = false;
+    /**
+     * The first column modified since the statistics were last calculated.
+     */
+    private int dirtyStart = 0;
+    /**
+     * Whether any columns were modified since the statistics were last
+     * calculated.
+     */
+    private boolean dirty = true;
+    /**
+     * The background worker currently calculating the statistics (null if no
+     * calculation is running).
+     */
+    private Builder builder = null;
+    /**
+     * The timer used to delay recalculating the statistics after a
+     * modification.
+     */
+    private final Timer timer;
+    /**
+     * The number of columns processed by each fork/join task.
+     */
+    private static final int BLOCK = 512;
+    /**
+     * The number of letters counted for each column (A to Z).
+     */
+    private static final int LETTERS = 26;
+    /**
+     * The delay (in milliseconds) between a modification and recalculating
+     * the statistics.
+     */
+    private static final int DELAY = 300;
+
+    /**
+     * Creates a new (uncalculated) column profile.
+     **
+     * @param canvas     the canvas to notify when the statistics change.
+     * @param datamodel  the data model to calculate the statistics of.
+     */
+    ColumnProfile(SequenceCanvas canvas, Dataset datamodel) {
+        this.canvas = canvas;
+        this.datamodel = datamodel;
+
+        // Create the timer used to delay recalculating the statistics.
+        timer = new Timer(DELAY, new ActionListener() {
+            /**
+             * Starts recalculating the statistics.
+             **
+             * @param e ignored by this method.
+             */
+            public void actionPerformed(ActionEvent e) {
+                build();
+            }
+        });
+        timer.setRepeats(false);
+
+        datamodel.addListDataListener(this);
+        datamodel.addTextLengthListener(this);
+    }
+
+    /**
+     * Obtains the current statistics.  The first time this method is called,
+     * the statistics are scheduled to be calculated (until then, null is
+     * returned).  This method may be called from any thread.
+     **
+     * @return the current statistics (or null if not yet calculated).
+     */
+    Stats getStats() {
+        if (!requested) {
+            requested = true;
+            SwingUtilities.invokeLater(new Runnable() {
+                /**
+                 * Schedules the statistics to be calculated.
+                 */
+                public void run() {
+                    timer.restart();
+                }
+            });
+        }
+        return stats;
+    }
+
+////////////////////////
+//********************//
+//* LISTENER METHODS *//
+//********************//
+////////////////////////
+    /**
+     * Schedules every column to be recalculated, when sequences are modified.
+     **
+     * @param e ignored by this method.
+     */
+    public void contentsChanged(ListDataEvent e) {
+        invalidate(0);
+    }
+
+    /**
+     * Schedules every column to be recalculated, when sequences are added.
+     **
+     * @param e ignored by this method.
+     */
+    public void intervalAdded(ListDataEvent e) {
+        invalidate(0);
+    }
+
+    /**
+     * Schedules every column to be recalculated, when sequences are removed.
+     **
+     * @param e ignored by this method.
+     */
+    public void intervalRemoved(ListDataEvent e) {
+        invalidate(0);
+    }
+
+    /**
+     * Schedules the columns affected by an insertion or deletion to be
+     * recalculated.  Because the insertion or deletion shifts every character
+     * after it, every column from the position of the insertion or deletion
+     * onward is affected.
+     **
+     * @param x the column where the text length change began.
+     * @param y the row where the text length was changed.
+     * @param length the number of characters, by which the line was extended.
+     */
+    public void textLengthChanged(int x, int y, int length) {
+        invalidate(Math.max(0, x));
+    }
+
+    /**
+     * Schedules the statistics to be recalculated, from a given column onward.
+     **
+     * @param start the first column modified.
+     */
+    private void invalidate(int start) {
+        dirtyStart = (dirty ? Math.min(dirtyStart, start) : start);
+        dirty = true;
+        if (requested) {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Starts recalculating the modified columns, on a background thread.  If
+     * a calculation is already running, then the calculation is postponed.
+     * If no sequence is coloured by a computed colour mask, then the
+     * calculation is skipped, and the statistics are not calculated again
+     * until they are next requested (see getStats).
+     */
+    private void build() {
+        if (builder == null && dirty) {
+            if (inUse()) {
+                builder = new Builder(stats, dirtyStart);
+                dirty = false;
+                builder.execute();
+            } else {
+                requested = false;
+            }
+        }
+    }
+
+    /**
+     * Determines whether any sequence is coloured by a computed colour mask
+     * (sequences without a colour mask are coloured by the canvas's default
+     * colour mask).
+     **
+     * @return whether the statistics are in use.
+     */
+    private boolean inUse() {
+        // Whether a computed colour mask is in use.
+        boolean result = false;
+
+        for (int row = 0; !result && row < datamodel.getSize(); row++) {
+            // The colour mask of the sequence.
+            final ColourMask mask = (datamodel.getMask(row) != null
+                    ? datamodel.getMask(row) : canvas.DEFAULT_MASK);
+
+            result = (mask != null && mask.isComputed());
+        }
+        return result;
+    }
+
+    /**
+     * The statistics of every column in the alignment.  Each set of statistics
+     * is immutable once calculated.
+     */
+    static final class Stats {
+
+        /**
+         * The number of columns in the alignment.
+         */
+        final int columns;
+        /**
+         * The consensus residue of each column (upper case; a space if the
+         * column contains no letters).
+         */
+        final char[] consensus;
+        /**
+         * The fraction of sequences containing the consensus residue in each
+         * column.
+         */
+        final float[] conservation;
+        /**
+         * The fraction of sequences containing a gap in each column.
+         */
+        final float[] gaps;
+
+        /**
+         * Creates a new set of statistics.
+         **
+         * @param columns  the number of columns in the alignment.
+         */
+        Stats(int columns) {
+            this.columns = columns;
+            this.consensus = new char[columns];
+            this.conservation = new float[columns];
+            this.gaps = new float[columns];
+        }
+    }
+
+    /**
+     * A background worker which calculates the statistics.
+     */
+    private final class Builder extends SwingWorker<Stats, Void> {
+
+        /**
+         * The first column to calculate.
+         */
+        private final int start;
+        /**
+         * The previous statistics (or null, if none).
+         */
+        private final Stats old;
+        /**
+         * The first column whose statistics changed (see doInBackground).
+         */
+        private int changedStart = 0;
+        /**
+         * The column after the last column whose statistics changed (if this
+         * is not greater than 'changedStart', then no statistics changed).
+         */
+        private int changedEnd = 0;
+        /**
+         * The snapshot of the sequences to calculate the statistics of.
+         */
+        private final Dataset data;
+        /**
+         * The number of rows in the alignment.
+         */
+        private final int rows;
+        /**
+         * The new statistics.
+         */
+        private final Stats result;
+
+        /**
+         * Creates a new background worker (on the event dispatch thread).
+         * The statistics of the columns before 'start' are copied from the
+         * previous statistics.
+         **
+         * @param old    the previous statistics (or null, if none).
+         * @param start  the first column to calculate.
+         */
+        Builder(Stats old, int start) {
+            this.data = datamodel.snapshot();
+            this.rows = data.getSize();
+            this.old = old;
+            this.result = new Stats(data.getLongestSequence());
+            this.start = (old != null ? Math.min(start, old.columns) : 0);
+
+            if (this.start > 0) {
+                System.arraycopy(old.consensus, 0, result.consensus, 0,
+                                 Math.min(this.start, result.columns));
+                System.arraycopy(old.conservation, 0, result.conservation, 0,
+                                 Math.min(this.start, result.columns));
+                System.arraycopy(old.gaps, 0, result.gaps, 0,
+                                 Math.min(this.start, result.columns));
+            }
+        }
+
+        /**
+         * Calculates the statistics (on a background thread), and finds the
+         * range of columns whose statistics changed.
+         **
+         * @return the new statistics.
+         * @throws Exception if the calculation fails.
+         */
+        @Override
+        protected Stats doInBackground() throws Exception {
+            // The time the calculation started (used for debugging).
+            final long time = System.nanoTime();
+
+            if (start < result.columns) {
+                ForkJoinPool.commonPool().invoke(
+                        new Block(start, result.columns));
+            }
+            findChanges();
+
+            if (BLMain.debug) {
+                System.err.println("ColumnProfile - calculated columns "
+                        + start + "-" + result.columns + " of " + rows
+                        + " sequences in "
+                        + ((System.nanoTime() - time) / 1000000) + " ms");
+            }
+            return result;
+        }
+
+        /**
+         * Installs the new statistics (on the event dispatch thread), and
+         * notifies the canvas.  Any calculation which was postponed is then
+         * started.
+         */
+        @Override
+        protected void done() {
+            builder = null;
+            try {
+                stats = get();
+                if (changedStart < changedEnd) {
+                    canvas.masksChanged(changedStart, changedEnd - 1);
+                }
+            } catch (InterruptedException ie) {
+                ie.printStackTrace(System.err);
+            } catch (ExecutionException ee) {
+                ee.getCause().printStackTrace(System.err);
+            }
+            if (dirty) {
+                timer.restart();
+            }
+        }
+
+        /**
+         * Finds the range of columns whose statistics differ from the
+         * previous statistics (see changedStart and changedEnd).  Columns
+         * which are only present in either the previous or the new
+         * statistics are counted as changed.
+         */
+        private void findChanges() {
+            // The number of columns present in both sets of statistics.
+            final int common = (old != null
+                    ? Math.min(old.columns, result.columns) : 0);
+            // The first and last columns which differ.
+            int first = start;
+            int last = Math.max(result.columns,
+                                (old != null ? old.columns : 0));
+
+            while (first < common && same(first)) {
+                first++;
+            }
+            if (last <= common) {
+                while (last > first && same(last - 1)) {
+                    last--;
+                }
+            }
+            changedStart = first;
+            changedEnd = last;
+        }
+
+        /**
+         * Determines whether the statistics of a column are the same in the
+         * previous and the new statistics.
+         **
+         * @param  column the column to compare.
+         * @return whether the statistics of the column are unchanged.
+         */
+        private boolean same(int column) {
+            return old.consensus[column] == result.consensus[column]
+                    && old.conservation[column] == result.conservation[column]
+                    && old.gaps[column] == result.gaps[column];
+        }
+
+        /**
+         * A fork/join task which calculates the statistics of a block of
+         * columns.  Blocks larger than BLOCK columns are split in half.
+         */
+        private final class Block extends RecursiveAction {
+
+            /**
+             * The first column of the block.
+             */
+            private final int from;
+            /**
+             * The column after the last column of the block.
+             */
+            private final int to;
+            /**
+             * Used for serialization purposes.
+             */
+            private static final long serialVersionUID = 7526472295622777047L;
+
+            /**
+             * Creates a new block task.
+             **
+             * @param from  the first column of the block.
+             * @param to    the column after the last column of the block.
+             */
+            Block(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            /**
+             * Calculates the statistics of the block (or splits the block).
+             */
+            @Override
+            protected void compute() {
+                if (to - from > BLOCK) {
+                    final int middle = (from + to) >>> 1;
+
+                    invokeAll(new Block(from, middle), new Block(middle, to));
+                } else {
+                    calculate();
+                }
+            }
+
+            /**
+             * Calculates the statistics of the block.  The letters in each
+             * column are counted (ignoring case), one sequence at a time.
+             */
+            private void calculate() {
+                // The width of the block.
+                final int width = to - from;
+                // The number of each letter in each column of the block.
+                final int[] counts = new int[width * LETTERS];
+                // The buffer to read the sequences into.
+                final char[] buffer = new char[width];
+
+                for (int row = 0; row < rows; row++) {
+                    // The number of characters read.
+                    final int count = data.getSequence(buffer, row, from,
+                                                       width);
+
+                    for (int index = 0; index < count; index++) {
+                        // The index of the letter (A = 0 to Z = 25).
+                        final int letter
+                                = (Character.toUpperCase(buffer[index]) - 'A');
+
+                        if (letter >= 0 && letter < LETTERS) {
+                            counts[index * LETTERS + letter]++;
+                        }
+                    }
+                }
+
+                for (int index = 0; index < width; index++) {
+                    // The most frequent letter, and the total number of
+                    // letters, in the column.
+                    int best = -1;
+                    int total = 0;
+
+                    for (int letter = 0; letter < LETTERS; letter++) {
+                        final int count = counts[index * LETTERS + letter];
+
+                        total += count;
+                        if (count > 0 && (best < 0 || count
+                                > counts[index * LETTERS + best])) {
+                            best = letter;
+                        }
+                    }
+
+                    result.consensus[from + index]
+                            = (best >= 0 ? (char) ('A' + best) : ' ');
+                    result.conservation[from + index] = (best >= 0 && rows > 0
+                            ? (float) counts[index * LETTERS + best] / rows
+                            : 0f);
+                    result.gaps[from + index] = (rows > 0
+                            ? (float) (rows - total) / rows : 0f);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * GlyphAtlas.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A cache of pre-rendered characters (glyphs) for a single font and colour.
+ * </p>
+ *
+ * <p>Drawing text through Graphics.drawChars is expensive: every call lays out
+ * the text and rasterizes each glyph.  The sequence text area draws one
+ * character at a time (so that each character can have its own colour -- see
+ * ColourMask.drawString); therefore, a full repaint of a large window performs
+ * tens of thousands of separate text draws.  Instead, each glyph is rendered
+ * only once, into a cell of a translucent image (the atlas), and is then
+ * copied to the screen with Graphics.drawImage.  Image copies of compatible
+ * images are handled by the graphics pipeline (and are usually accelerated),
+ * and are much cheaper than text rendering.</p>
+ *
+ * <p>The atlas contains cells for the first 256 characters (i.e. every
+ * character which can be stored in a sequence -- see ResidueStore).  Each
+ * cell is rendered the first time its character is drawn.  Atlases are
+ * cached for each combination of font, colour and text antialiasing setting;
+ * the cache is bounded, and the least recently used atlases are discarded.</p>
+ *
+ * <p><i>NOTE: atlases are only used when the Graphics object is not scaled
+ *       or rotated (e.g. when printing, or on high resolution displays, the
+ *       text is drawn normally, so it is not blurred by scaling the atlas).
+ *       Atlases are also not used for sub-pixel (LCD) antialiased text, or
+ *       when the display does not accelerate image copies (in which case
+ *       drawChars is faster than drawImage).
+ *       This class, like all Swing painting code, must only be used from the
+ *       Swing event dispatch thread.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class GlyphAtlas {
+
+    /**
+     * The font used to render the glyphs.
+     */
+    private final Font font;
+    /**
+     * The colour used to render the glyphs.
+     */
+    private final Color colour;
+    /**
+     * The width of each cell within the atlas.
+     */
+    private final int cellWidth;
+    /**
+     * The height of each cell within the atlas.
+     */
+    private final int cellHeight;
+    /**
+     * The distance from the left edge of a cell to the glyph's origin.  The
+     * cells are sized to fit the pixel bounds of every glyph in the atlas, so
+     * glyphs which extend beyond their advance (e.g. italic glyphs) are not
+     * clipped.
+     */
+    private final int originX;
+    /**
+     * The distance from the top edge of a cell to the glyph's baseline.
+     */
+    private final int originY;
+    /**
+     * The atlas image (a grid of GRID x GRID cells).
+     */
+    private final BufferedImage image;
+    /**
+     * The cell of each character within the atlas (as a sub-image sharing the
+     * atlas's pixels).  Each element is null until the character is rendered.
+     */
+    private final BufferedImage[] glyphs = new BufferedImage[GRID * GRID];
+    /**
+     * The text antialiasing setting used to render the glyphs.
+     */
+    private final Object antialias;
+    /**
+     * The number of cells in each row (and column) of the atlas.
+     */
+    private static final int GRID = 16;
+    /**
+     * The maximum number of atlases to keep in the cache.
+     */
+    private static final int MAX_ATLASES = 128;
+    /**
+     * The cache of atlases (ordered by most recent access).
+     */
+    private static final Map<Key, GlyphAtlas> CACHE
+            = new LinkedHashMap<Key, GlyphAtlas>(16, 0.75f, true) {
+        /**
+         * Used for serialization purposes.
+         */
+        private static final long serialVersionUID = 7526472295622777043L;
+
+        /**
+         * Discards the least recently used atlas, when the cache is full.
+         **
+         * @param  eldest the least recently used entry.
+         * @return whether to remove the entry.
+         */
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, GlyphAtlas> eldest) {
+            return size() > MAX_ATLASES;
+        }
+    };
+
+    /**
+     * Creates a new (empty) glyph atlas.
+     **
+     * @param gfx        the graphics object the atlas will be drawn to (used
+     *                   to measure the glyphs).
+     * @param font       the font to render the glyphs with.
+     * @param colour     the colour to render the glyphs with.
+     * @param antialias  the text antialiasing setting to render with.
+     */
+    private GlyphAtlas(Graphics2D gfx, Font font, Color colour,
+                       Object antialias) {
+        // The font rendering context used to measure the glyphs.
+        final FontRenderContext frc = gfx.getFontRenderContext();
+        // The union of the pixel bounds of every glyph in the atlas (relative
+        // to the glyph's origin).
+        Rectangle bounds = new Rectangle(0, 0, 1, 1);
+
+        for (char c = 0; c < GRID * GRID; c++) {
+            bounds = bounds.union(font.createGlyphVector(frc, new char[] {c})
+                    .getPixelBounds(frc, 0, 0));
+        }
+
+        this.font = font;
+        this.colour = colour;
+        this.antialias = antialias;
+        this.originX = 1 - bounds.x;
+        this.originY = 1 - bounds.y;
+        this.cellWidth = bounds.width + 2;
+        this.cellHeight = bounds.height + 2;
+        this.image = new BufferedImage(cellWidth * GRID, cellHeight * GRID,
+                                       BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * Obtains the glyph atlas for drawing in a given colour to a graphics
+     * object (using the graphics object's current font).  If the graphics
+     * object is scaled or rotated (e.g. when printing), then null is returned,
+     * and the text should be drawn normally.
+     **
+     * @param  gfx      the graphics object to draw to.
+     * @param  colour   the colour to draw the glyphs in.
+     * @return the glyph atlas (or null, if an atlas cannot be used).
+     */
+    static GlyphAtlas get(Graphics gfx, Color colour) {
+        GlyphAtlas result = null;
+
+        if (gfx instanceof Graphics2D && (((Graphics2D) gfx).getTransform()
+                .getType() & ~AffineTransform.TYPE_TRANSLATION) == 0) {
+            final Graphics2D g2d = (Graphics2D) gfx;
+            final Object antialias = g2d.getRenderingHint(
+                    RenderingHints.KEY_TEXT_ANTIALIASING);
+
+            if (isAccelerated(g2d) && !isLCD(antialias)) {
+                final Key key = new Key(gfx.getFont(), colour, antialias);
+
+                result = CACHE.get(key);
+                if (result == null) {
+                    result = new GlyphAtlas(g2d, gfx.getFont(), colour,
+                                            antialias);
+                    CACHE.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether image copies to a graphics object are accelerated.
+     * When images are copied in software (e.g. on headless or remote X
+     * displays), copying a glyph from the atlas is slower than rasterizing it
+     * with drawChars (measured at about 1.2 us per glyph for drawImage, versus
+     * 0.7 us per glyph for drawChars); therefore, atlases are only used when
+     * the destination device accelerates image copies.
+     **
+     * @param  gfx  the graphics object to test.
+     * @return whether images are accelerated for the graphics object.
+     */
+    private static boolean isAccelerated(Graphics2D gfx) {
+        final GraphicsConfiguration config = gfx.getDeviceConfiguration();
+
+        return config != null
+                && config.getImageCapabilities().isAccelerated();
+    }
+
+    /**
+     * Determines whether a text antialiasing setting is a sub-pixel (LCD)
+     * setting.  Sub-pixel text is blended with the pixels behind it, so it
+     * cannot be pre-rendered onto a transparent atlas.
+     **
+     * @param  antialias  the text antialiasing setting to test.
+     * @return whether the setting is an LCD setting.
+     */
+    private static boolean isLCD(Object antialias) {
+        return antialias == RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB
+                || antialias == RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HBGR
+                || antialias == RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VRGB
+                || antialias == RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VBGR;
+    }
+
+    /**
+     * Draws a single character from the atlas.  Characters beyond the end of
+     * the atlas are drawn normally.
+     **
+     * @param gfx  the graphics object to draw to.
+     * @param text the array containing the character.
+     * @param index the index of the character within the array.
+     * @param x    the X-coordinate of the character's origin.
+     * @param y    the Y-coordinate of the character's baseline.
+     */
+    void drawChar(Graphics gfx, char[] text, int index, int x, int y) {
+        // The character to draw.
+        final char c = text[index];
+
+        if (c < glyphs.length) {
+            if (glyphs[c] == null) {
+                render(c);
+            }
+            gfx.drawImage(glyphs[c], x - originX, y - originY, null);
+        } else {
+            gfx.setColor(colour);
+            gfx.drawChars(text, index, 1, x, y);
+        }
+    }
+
+    /**
+     * Renders a character into its cell of the atlas.
+     **
+     * @param c   the character to render.
+     */
+    private void render(char c) {
+        // The position of the character's cell within the atlas.
+        final int sx = (c % GRID) * cellWidth;
+        final int sy = (c / GRID) * cellHeight;
+        // The graphics object used to render into the atlas.
+        final Graphics2D gfx = image.createGraphics();
+
+        try {
+            gfx.setFont(font);
+            gfx.setColor(colour);
+            if (antialias != null) {
+                gfx.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                                     antialias);
+            }
+            gfx.clipRect(sx, sy, cellWidth, cellHeight);
+            gfx.drawChars(new char[] {c}, 0, 1, sx + originX, sy + originY);
+            glyphs[c] = image.getSubimage(sx, sy, cellWidth, cellHeight);
+        } finally {
+            gfx.dispose();
+        }
+    }
+
+    /**
+     * The key used to look up atlases within the cache.
+     */
+    private static final class Key {
+
+        /**
+         * The font of the atlas.
+         */
+        private final Font font;
+        /**
+         * The colour of the atlas.
+         */
+        private final Color colour;
+        /**
+         * The text antialiasing setting of the atlas.
+         */
+        private final Object antialias;
+
+        /**
+         * Creates a new cache key.
+         **
+         * @param font       the font of the atlas.
+         * @param colour     the colour of the atlas.
+         * @param antialias  the text antialiasing setting of the atlas.
+         */
+        Key(Font font, Color colour, Object antialias) {
+            this.font = font;
+            this.colour = colour;
+            this.antialias = antialias;
+        }
+
+        /**
+         * Tests whether two keys are equal.
+         **
+         * @param  obj  the object to compare to.
+         * @return true if the keys have the same font, colour and setting.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            boolean result = false;
+
+            if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                result = font.equals(other.font) && colour.equals(other.colour)
+                        && (antialias == null ? other.antialias == null
+                                : antialias.equals(other.antialias));
+            }
+            return result;
+        }
+
+        /**
+         * Calculates the hash code of the key.
+         **
+         * @return the hash code.
+         */
+        @Override
+        public int hashCode() {
+            return (font.hashCode() * 31 + colour.hashCode()) * 31
+                    + (antialias == null ? 0 : antialias.hashCode());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * RepaintScheduler.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/**
+ * <p>Collects the areas (damage rectangles) of the views of a Dataset which
+ * need to be repainted, and repaints each view once.</p>
+ *
+ * <p>Previously, every insertion or deletion was drawn immediately by each
+ * sequence text area, by moving part of the screen with getGraphics().copyArea
+ * outside of the normal paint cycle.  With a split text area, every edit was
+ * therefore drawn twice, synchronously, on the event dispatch thread; and an
+ * operation which modifies many rows (e.g. a paste into a column of
+ * sequences) moved the screen once per row, per view.</p>
+ *
+ * <p>Instead, the views report the areas affected by each modification to the
+ * scheduler (see damage).  The areas reported for each view are merged into a
+ * single rectangle, and the views are repainted once, after the event which
+ * caused the modifications has been processed.  Because the text areas draw
+ * from cached tiles (see TileCache), repainting an area is cheap; therefore,
+ * any number of views of the same Dataset can be open at once.</p>
+ *
+ * <p><i>NOTE: like all Swing painting code, this class must only be used
+ *       from the Swing event dispatch thread.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class RepaintScheduler implements Runnable {
+
+    /**
+     * The area of each view which needs to be repainted (in the order the
+     * views were first damaged).  A null area indicates that the whole view
+     * needs to be repainted.
+     */
+    private final Map<JComponent, Rectangle> damaged
+            = new LinkedHashMap<JComponent, Rectangle>();
+    /**
+     * Whether the scheduler has been queued to repaint the damaged views.
+     */
+    private boolean queued = false;
+
+    /**
+     * Records that an area of a view needs to be repainted.  The area is
+     * merged with any other area of the view which has not yet been repainted.
+     **
+     * @param view   the view to repaint.
+     * @param x      the X-coordinate of the area to repaint.
+     * @param y      the Y-coordinate of the area to repaint.
+     * @param width  the width of the area to repaint.
+     * @param height the height of the area to repaint.
+     */
+    void damage(JComponent view, int x, int y, int width, int height) {
+        if (width > 0 && height > 0) {
+            if (!damaged.containsKey(view)) {
+                damaged.put(view, new Rectangle(x, y, width, height));
+            } else if (damaged.get(view) != null) {
+                damaged.get(view).add(new Rectangle(x, y, width, height));
+            }
+            queue();
+        }
+    }
+
+    /**
+     * Records that a whole view needs to be repainted.
+     **
+     * @param view  the view to repaint.
+     */
+    void damage(JComponent view) {
+        damaged.put(view, null);
+        queue();
+    }
+
+    /**
+     * Repaints every damaged view (this is called by the event dispatch
+     * thread, after the event which damaged the views has been processed).
+     */
+    public void run() {
+        // The damaged areas (copied, because repainting may damage a view).
+        final Map<JComponent, Rectangle> areas
+                = new LinkedHashMap<JComponent, Rectangle>(damaged);
+
+        damaged.clear();
+        queued = false;
+        for (Map.Entry<JComponent, Rectangle> entry : areas.entrySet()) {
+            if (entry.getValue() != null) {
+                entry.getKey().repaint(entry.getValue());
+            } else {
+                entry.getKey().repaint();
+            }
+        }
+    }
+
+    /**
+     * Queues the scheduler to repaint the damaged views (if it is not already
+     * queued).
+     */
+    private void queue() {
+        if (!queued) {
+            queued = true;
+            SwingUtilities.invokeLater(this);
+        }
+    }
+}
@@ -14,15 +14,15 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Toolkit;
 import java.awt.datatransfer.DataFlavor;
-import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.ActionEvent;
+import java.io.BufferedReader;
 import java.io.Reader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -30,19 +30,25 @@ import java.util.Scanner;
 import javax.swing.AbstractAction;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSplitPane;
+import javax.swing.KeyStroke;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import org.biolegato.main.BLMain;
 import org.biolegato.main.DataCanvas;
+import org.biopcd.parser.ChannelWriter;
+import org.biopcd.parser.CompressedFile;
 import org.biopcd.parser.PCD;
 import org.biolegato.sequence.data.Dataset;
+import org.biolegato.sequence.data.SequenceSelection;
 import org.biolegato.sequence.data.DataFormat;
 
 /**
@@ -148,6 +154,9 @@ public final class SequenceCanvas extends DataCanvas
             // A variable for storing all of the files the user selects inside
             // the JFileChooser window.
             File[] openFiles;
+            // The file format to read the files with (null indicates that the
+            // format of each file should be auto-detected).
+            DataFormat format = null;
             // The JFileChooser windwow, from which the user selects the file
             // to open.
             JFileChooser openDlg = new JFileChooser();
@@ -179,36 +188,94 @@ public final class SequenceCanvas extends DataCanvas
 
                 // Prevent parsing a null value for openFiles.
                 if (openFiles != null) {
-                    // Iterate through all of the files selected in the
-                    // JFileChooser object.
-                    for (File opf : openFiles) {
-                        // Ensure that the file exists and is a file (i.e. skip
-                        // directories and non-existent files).
-                        if (opf.exists() && opf.isFile() && opf.length() > 0) {
-                            try {
-                                // Branch.  If a file filter was selected, then
-                                // use the file filter object to parse the file.
-                                // (All file filters in the JFileChooser are
-                                // DataFormat objects, which have code to parse
-                                // their files.)
-                                if (openDlg.getFileFilter() != null
-                                        && !openDlg.getFileFilter().equals(
-                                        openDlg.getAcceptAllFileFilter())) {
-                                    readFile((DataFormat)
-                                            openDlg.getFileFilter(),
-                                            new FileReader(opf), false,false);
-                                } else {
-                                    // Autodetect the file type.
-                                    readFile("", new FileReader(opf), false,false);
-                                }
-                            } catch (Throwable e) {
-                                // Print a stack trace if any error occurs.
-                                e.printStackTrace(System.err);
-                            }
-                        }
+                    // Branch.  If a file filter was selected, then use the
+                    // file filter object to parse the files.  (All file
+                    // filters in the JFileChooser are DataFormat objects,
+                    // which have code to parse their files.)  Otherwise,
+                    // autodetect the file type of each file.
+                    if (openDlg.getFileFilter() != null
+                            && !openDlg.getFileFilter().equals(
+                            openDlg.getAcceptAllFileFilter())) {
+                        format = (DataFormat) openDlg.getFileFilter();
                     }
+
+                    // Read the files on a pool of background threads, so the
+                    // user interface does not freeze (see SequenceImporter).
+                    importFiles(format, openFiles, false);
+                }
+
+                // Update the PCD working directory.
+                if (openDlg.getCurrentDirectory() != null) {
+                    PCD.setCurrentPWD(openDlg.getCurrentDirectory());
+                }
+            }
+        }
+    };
+
+    /**
+     * The "Open Large File..." menu item action.  This action opens files in
+     * the same manner as the "Open..." action, except that the files are
+     * memory-mapped, and only an index of each file's sequences is read into
+     * memory.  The residues of each sequence are read from the mapped file as
+     * they are displayed, and are only copied into memory when the sequence is
+     * modified.  This allows very large files (e.g. multi-gigabyte alignments)
+     * to be browsed with a small heap.  File formats which do not support
+     * memory-mapping are read normally.
+     **
+     * @see org.biolegato.sequence.data.DataFormat#convertMapped(org.biolegato.sequence.data.Dataset, java.io.File, int)
+     */
+    public final AbstractAction openMappedAction
+            = new AbstractAction("Open Large File...") {
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777042L;
+
+        /**
+         * Sets the mnemonic for the event.
+         */
+        {
+            putValue(MNEMONIC_KEY, new Integer(java.awt.event.KeyEvent.VK_L));
+        }
+
+        /**
+         * Event handler - displays a JFileChooser so that the user can select
+         * and open a file (see openAction).  Each file selected is then read
+         * into the canvas using DataFormat.convertMapped (on a pool of
+         * background threads -- see SequenceImporter).
+         **
+         * @param evt ignored by this method.
+         * @see org.biolegato.sequence.data.DataFormat#convertMapped(org.biolegato.sequence.data.Dataset, java.io.File, int)
+         */
+        public void actionPerformed(java.awt.event.ActionEvent evt) {
+            // The file format to read the files with (null indicates that the
+            // format of each file should be auto-detected).
+            DataFormat format = null;
+            // The JFileChooser windwow, from which the user selects the file
+            // to open.
+            JFileChooser openDlg = new JFileChooser();
+
+            // Configure the JFileChooser object (see openAction).
+            openDlg.setCurrentDirectory(PCD.getCurrentPWD());
+            openDlg.setAcceptAllFileFilterUsed(true);
+            openDlg.setMultiSelectionEnabled(true);
+            for (DataFormat currentFormat : DataFormat.FORMAT_LIST) {
+                openDlg.addChoosableFileFilter(currentFormat);
+            }
+            openDlg.setFileFilter(openDlg.getAcceptAllFileFilter());
+
+            if (openDlg.showOpenDialog(getJFrame())
+                    == JFileChooser.APPROVE_OPTION
+                    && openDlg.getSelectedFiles() != null) {
+                // Determine the format of the files (either from the file
+                // filter, or via. auto-detection).
+                if (openDlg.getFileFilter() instanceof DataFormat) {
+                    format = (DataFormat) openDlg.getFileFilter();
                 }
 
+                // Read the files on a pool of background threads.
+                importFiles(format, openDlg.getSelectedFiles(), true);
+
                 // Update the PCD working directory.
                 if (openDlg.getCurrentDirectory() != null) {
                     PCD.setCurrentPWD(openDlg.getCurrentDirectory());
@@ -287,9 +354,21 @@ public final class SequenceCanvas extends DataCanvas
                         != javax.swing.JOptionPane.CANCEL_OPTION)) {
                 // Write to the actual file.
                 try {
-                    // Create a file writer object to write to the file.
-                    FileWriter writer
-                            = new FileWriter(saveDialog.getSelectedFile());
+                    // Ensure that no sequence is still read from the file
+                    // (i.e. if the file was opened as a large file) before
+                    // the file is truncated.
+                    datamodel.releaseFile(saveDialog.getSelectedFile());
+                } catch (IOException ioe) {
+                    javax.swing.JOptionPane.showMessageDialog(getJFrame(),
+                            ioe.getMessage(), "Cannot save file",
+                            javax.swing.JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                try {
+                    // Create a file writer object to write to the file
+                    // (buffered -- see ChannelWriter).
+                    ChannelWriter writer
+                            = new ChannelWriter(saveDialog.getSelectedFile());
 
                     // Write the actual data to the file.
                     writeFile(((DataFormat) saveDialog.getFileFilter()),
@@ -299,6 +378,13 @@ public final class SequenceCanvas extends DataCanvas
                     // the file is written properly to disk.
                     writer.flush();
                     writer.close();
+
+                    // Print the size of the file written (in debug mode).
+                    if (BLMain.debug) {
+                        System.err.println("Sequence canvas - wrote "
+                                + writer.getBytesWritten() + " bytes (buffer "
+                                + "size " + writer.getBufferSize() + " bytes)");
+                    }
                 } catch (Throwable e) {
                     // Print a stack trace if any error occurs.
                     e.printStackTrace(System.err);
@@ -350,6 +436,90 @@ public final class SequenceCanvas extends DataCanvas
         }
     };
 
+    /**
+     * <p>The "Undo" menu item action.  This action will reverse the most recent
+     *    step of modifications to the sequence text (see Dataset.undo).</p>
+     *
+     * <p><i>Please note that this method will not work if the read only
+     *       property is set.  This method will check the readonly property by
+     *       checking the editable field.  If the editable field is set to false
+     *       this method will not execute any further code.</i></p>
+     **
+     * @see org.biolegato.sequence.data.Dataset#undo()
+     */
+    public final AbstractAction undoAct = new AbstractAction("Undo") {
+
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777049L;
+
+        /**
+         * Sets the mnemonic and keyboard shortcut (CTRL+Z) for the event.
+         */
+        {
+            putValue(MNEMONIC_KEY, new Integer(java.awt.event.KeyEvent.VK_U));
+            putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(
+                    java.awt.event.KeyEvent.VK_Z,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        }
+
+        /**
+         * Reverses the most recent step of modifications to the sequences.
+         **
+         * @param evt ignored by this method.
+         * @see org.biolegato.sequence.data.Dataset#undo()
+         */
+        public void actionPerformed(java.awt.event.ActionEvent evt) {
+            // Handle the read only property (i.e. prevent any possible
+            // data manipulation if editable is set to false!)
+            if (editable && !datamodel.undo()) {
+                Toolkit.getDefaultToolkit().beep();
+            }
+        }
+    };
+
+    /**
+     * <p>The "Redo" menu item action.  This action will re-apply the most
+     *    recently undone step of modifications (see Dataset.redo).</p>
+     *
+     * <p><i>Please note that this method will not work if the read only
+     *       property is set.</i></p>
+     **
+     * @see org.biolegato.sequence.data.Dataset#redo()
+     */
+    public final AbstractAction redoAct = new AbstractAction("Redo") {
+
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777049L;
+
+        /**
+         * Sets the mnemonic and keyboard shortcut (CTRL+Y) for the event.
+         */
+        {
+            putValue(MNEMONIC_KEY, new Integer(java.awt.event.KeyEvent.VK_R));
+            putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(
+                    java.awt.event.KeyEvent.VK_Y,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        }
+
+        /**
+         * Re-applies the most recently undone step of modifications.
+         **
+         * @param evt ignored by this method.
+         * @see org.biolegato.sequence.data.Dataset#redo()
+         */
+        public void actionPerformed(java.awt.event.ActionEvent evt) {
+            // Handle the read only property (i.e. prevent any possible
+            // data manipulation if editable is set to false!)
+            if (editable && !datamodel.redo()) {
+                Toolkit.getDefaultToolkit().beep();
+            }
+        }
+    };
+
     /**
      * <p>The "Cut" menu item action.  This action will copy any content
      *    currently selected in the canvas to the clipboard, and then delete
@@ -441,6 +611,57 @@ public final class SequenceCanvas extends DataCanvas
         }
     };
 
+    /**
+     * The "Copy as FastA" menu item action.  This action will copy any content
+     * currently selected in the canvas to the clipboard in FastA format, which
+     * is much cheaper to generate than GenBank format (e.g. for copying large
+     * blocks of sequence).
+     **
+     * @see org.biolegato.sequence.canvas.SequenceCanvas#copyClipboard(org.biolegato.sequence.data.DataFormat)
+     */
+    public final AbstractAction copyFastaAct
+                                        = new AbstractAction("Copy as FastA") {
+
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777050L;
+
+        /**
+         * Copies the selected content to the clipboard in FastA format.
+         **
+         * @param evt ignored by this method.
+         */
+        public void actionPerformed(java.awt.event.ActionEvent evt) {
+            copyClipboard(DataFormat.FASTA);
+        }
+    };
+
+    /**
+     * The "Copy as raw sequence" menu item action.  This action will copy the
+     * residues of any content currently selected in the canvas to the
+     * clipboard as plain text (one line per sequence, without any names).
+     **
+     * @see org.biolegato.sequence.canvas.SequenceCanvas#copyClipboard(org.biolegato.sequence.data.DataFormat)
+     */
+    public final AbstractAction copyRawAct
+                                = new AbstractAction("Copy as raw sequence") {
+
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777050L;
+
+        /**
+         * Copies the residues of the selected content to the clipboard.
+         **
+         * @param evt ignored by this method.
+         */
+        public void actionPerformed(java.awt.event.ActionEvent evt) {
+            copyClipboard(null);
+        }
+    };
+
     /**
      * <p>The "Paste" menu item action.  This action will delete any currently
      * selected content, and then write the content in the clipboard (if any)
@@ -588,7 +809,7 @@ public final class SequenceCanvas extends DataCanvas
             splitPane.setDividerLocation(0.5);
             splitPane.setResizeWeight(0.5);
             splitPane.doLayout();
-            canvasPane.add(splitPane);
+            canvasPane.add(splitPane, 0);
             
             // Ensure that the scroll bar for the split canvas is syncrhonized.
             altDataPane.setVerticalScrollBar(dataPane.getVerticalScrollBar());
@@ -647,6 +868,13 @@ public final class SequenceCanvas extends DataCanvas
                 currentPane = dataCollector;
             }
 
+            // Stop the alternate text area from listening to the Dataset (it
+            // is no longer displayed).
+            if (altDataCollector != null) {
+                altDataCollector.detach();
+                altDataCollector = null;
+            }
+
             // If the split panel is not null (it should be not null), then
             // remove it from the canvas, and replace it with the original text
             // area.
@@ -654,7 +882,7 @@ public final class SequenceCanvas extends DataCanvas
                 canvasPane.remove(splitPane);
                 splitPane = null;
                 altDataPane = null;
-                canvasPane.add(dataPane);
+                canvasPane.add(dataPane, 0);
             }
             
             // Fix the scrollbar.
@@ -671,6 +899,88 @@ public final class SequenceCanvas extends DataCanvas
             dataCollector.popup.add(splitMenuItem);
         }
     };
+    /**
+     * Action for showing (or hiding) the sequence overview.  The overview is
+     * a zoomed-out image of every sequence in the canvas, which is displayed
+     * to the right of the sequence text area(s).  Clicking within the overview
+     * scrolls the main sequence text area to the position clicked.
+     **
+     * @see org.biolegato.sequence.canvas.SequenceOverview
+     */
+    private final AbstractAction overviewAction
+                                        = new AbstractAction("Overview") {
+
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777046L;
+
+        /**
+         * Action for showing (or hiding) the sequence overview.  The overview
+         * is created the first time it is shown.
+         **
+         * @param evt ignored by this method.
+         */
+        public void actionPerformed(ActionEvent evt) {
+            if (overview == null) {
+                overview = new SequenceOverview(canvasSelf, datamodel,
+                                                dataCollector, dataPane);
+            }
+
+            // Add the overview to (or remove the overview from) the right of
+            // the canvas pane.
+            if (overview.getParent() == null) {
+                canvasPane.add(overview);
+            } else {
+                canvasPane.remove(overview);
+            }
+
+            // Refresh the display.
+            canvasPane.doLayout();
+            canvasPane.validate();
+            canvasPane.repaint(50L);
+        }
+    };
+    /**
+     * The "Find..." menu item action.  This action opens the search window,
+     * which searches the residues of the sequences in the canvas for a motif
+     * (see SequenceSearch).
+     **
+     * @see org.biolegato.sequence.canvas.SequenceSearch
+     */
+    public final AbstractAction searchAction = new AbstractAction("Find...") {
+
+        /**
+         * Serialization number - required for no warnings
+         */
+        private static final long serialVersionUID = 7526472295622777051L;
+
+        /**
+         * Sets the mnemonic and keyboard shortcut (CTRL+F) for the event.
+         */
+        {
+            putValue(MNEMONIC_KEY, new Integer(java.awt.event.KeyEvent.VK_F));
+            putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(
+                    java.awt.event.KeyEvent.VK_F,
+                    Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        }
+
+        /**
+         * Opens the search window.  The search window is created the first
+         * time it is opened (so the results of the last search are kept
+         * while the window is closed).
+         **
+         * @param evt ignored by this method.
+         */
+        public void actionPerformed(ActionEvent evt) {
+            if (search == null) {
+                search = new SequenceSearch(getJFrame(), datamodel,
+                                            dataCollector);
+            }
+            search.setVisible(true);
+            search.toFront();
+        }
+    };
     /**
      * The current font for the Sequence canvas.  This font is used by the
      * sequence list and sequence text areas.  This font is set by the function:
@@ -708,7 +1018,7 @@ public final class SequenceCanvas extends DataCanvas
      * the right-most side of the canvas, and is used for editing the individual
      * characters of the sequences in the canvas.
      */
-    private static SequenceTextArea dataCollector = null;
+    private SequenceTextArea dataCollector = null;
     /**
      * The alternate text area for data manipulation (for splits).  This text
      * area is only displayed when the text area is split.  This text area is
@@ -718,7 +1028,36 @@ public final class SequenceCanvas extends DataCanvas
      * @see org.biolegato.sequence.canvas.SequenceCanvas#joinAction
      * @see org.biolegato.sequence.canvas.SequenceCanvas#splitAction
      */
-    private static SequenceTextArea altDataCollector = null;
+    private SequenceTextArea altDataCollector = null;
+    /**
+     * The overview of the sequences in the canvas (null until the overview is
+     * first shown).  Like the sequence text areas, the overview listens to
+     * the canvas's Dataset object for modifications.
+     **
+     * @see org.biolegato.sequence.canvas.SequenceCanvas#overviewAction
+     */
+    private SequenceOverview overview = null;
+    /**
+     * The search window for the canvas (null until the window is first
+     * opened).
+     **
+     * @see org.biolegato.sequence.canvas.SequenceCanvas#searchAction
+     */
+    private SequenceSearch search = null;
+    /**
+     * The per-column statistics of the sequences in the canvas (used by the
+     * computed colour masks -- see ColumnProfile).  Like the sequence text
+     * areas, the profile listens to the canvas's Dataset object for
+     * modifications.
+     */
+    private ColumnProfile profile = null;
+    /**
+     * Coordinates the repainting of every view of the canvas's Dataset object
+     * (e.g. both text areas of a split text area).  The views report the areas
+     * affected by each modification to the scheduler, which repaints each view
+     * once per event (see RepaintScheduler).
+     */
+    final RepaintScheduler repaints = new RepaintScheduler();
     /**
      * Stores which canvas contains the cursor and any current data selections.
      * This is used for determining which canvas to call with selection
@@ -948,11 +1287,14 @@ public final class SequenceCanvas extends DataCanvas
         // Add the "Open" button.
         addMenuHeading("File").insert(new JMenuItem(openAction), 0);
 
+        // Add the "Open Large File..." button.
+        addMenuHeading("File").insert(new JMenuItem(openMappedAction), 1);
+
         // Add the "Save As..." button.
-        addMenuHeading("File").insert(new JMenuItem(saveAsAction), 1);
+        addMenuHeading("File").insert(new JMenuItem(saveAsAction), 2);
 
         // Add the "Properties" button.
-        addMenuHeading("File").insert(new JMenuItem(propertiesAction), 2);
+        addMenuHeading("File").insert(new JMenuItem(propertiesAction), 3);
 
         // Handle the read only property (i.e. prevent any possible
         // data manipulation if readonly is set to true!
@@ -962,8 +1304,13 @@ public final class SequenceCanvas extends DataCanvas
             //       variable length menus or simple re-ordering of choices.
             // NOTE: the parameter 1 is used to ensure that the Edit menu is
             //       inserted just left of the File menu.
-            addMenuHeading(1,"Edit").insert(new JMenuItem(cutAct), mcount++);
+            addMenuHeading(1,"Edit").insert(new JMenuItem(undoAct), mcount++);
+            addMenuHeading("Edit").insert(new JMenuItem(redoAct), mcount++);
+            addMenuHeading("Edit").insert(new JMenuItem(cutAct), mcount++);
             addMenuHeading("Edit").insert(new JMenuItem(copyAct), mcount++);
+            addMenuHeading("Edit").insert(new JMenuItem(copyFastaAct),
+                    mcount++);
+            addMenuHeading("Edit").insert(new JMenuItem(copyRawAct), mcount++);
             addMenuHeading("Edit").insert(new JMenuItem(pasteAct), mcount++);
         }
         // Add menu items from the sequence list object.
@@ -977,6 +1324,7 @@ public final class SequenceCanvas extends DataCanvas
         addMenuHeading("Edit").insert(new JMenuItem(changeCaseAction),
                 mcount++);
         addMenuHeading("Edit").insert(selectByNameMenuItem, mcount++);
+        addMenuHeading("Edit").insert(new JMenuItem(searchAction), mcount++);
 
         // Create a new text area object.
         dataCollector = new SequenceTextArea(canvasSelf, datamodel);
@@ -984,6 +1332,19 @@ public final class SequenceCanvas extends DataCanvas
         // Setup listeners for the sequence list.
         nameList.addListSelectionListener(canvasSelf);
 
+        // Create the column statistics, and add the computed colour masks
+        // (which colour each residue using the statistics of its column).
+        profile = new ColumnProfile(canvasSelf, datamodel);
+        colourMasks.add(new ColourMask(ColourMask.MaskType.CONSERVATION,
+                "Conservation (computed)", profile));
+        colourMasks.add(new ColourMask(ColourMask.MaskType.CONSENSUS,
+                "Consensus match (computed)", profile));
+        colourMasks.add(new ColourMask(ColourMask.MaskType.GAPS,
+                "Gap fraction (computed)", profile));
+
+        // Add the overview menu item to the main text area's popup menu.
+        dataCollector.popup.add(new JCheckBoxMenuItem(overviewAction));
+
         // Add the split text area menu item to the main text area's popup menu.
         dataCollector.popup.add(splitMenuItem);
 
@@ -1217,25 +1578,21 @@ public final class SequenceCanvas extends DataCanvas
     }
 
     /**
-     * Coordinates text length changes between split text areas.  This method is
-     * called by the Dataset sequence object container's insert and delete
-     * methods to ensure that there is consistency between the scroll bars in
-     * the main and alternate text areas (in a split text area).  This will also
-     * ensure that the area affected will be repainted.
+     * Repaints a range of columns in every view of the sequences, when the
+     * colours of the computed colour masks change.  This method is called by
+     * the column statistics (see ColumnProfile), once the statistics have been
+     * recalculated.
      **
-     * @param x the text X-coordinate (column) the change occurred.
-     * @param y the text Y-coordinate (row) the change occurred.
-     * @param length the length of text length changed (can be negative).
+     * @param startcol  the first column whose colours changed.
+     * @param stopcol   the last column whose colours changed.
      */
-    public static void textLengthChanged(int x, int y, int length) {
-        // Ensure that the text length change event is conveyed to the main
-        // sequence text area.
-        dataCollector.textLengthChanged(x, y, length);
-
-        // If the text area is split, then also convey the text length change
-        // to the secondary sequence text area.
+    void masksChanged(int startcol, int stopcol) {
+        dataCollector.masksChanged(startcol, stopcol);
         if (altDataCollector != null) {
-            altDataCollector.textLengthChanged(x, y, length);
+            altDataCollector.masksChanged(startcol, stopcol);
+        }
+        if (overview != null) {
+            overview.masksChanged(startcol, stopcol);
         }
     }
 
@@ -1294,7 +1651,16 @@ public final class SequenceCanvas extends DataCanvas
     }
     
     /**
-     * Writes data out from the canvas.
+     * <p>Writes data out from the canvas.</p>
+     *
+     * <p>This method may be called by any thread.  PCD commands (see
+     * TempFile) call this method from their own thread, while the user may
+     * continue to edit the sequences.  In that case, a snapshot of the data
+     * to write is taken on the event dispatch thread (see Dataset.snapshot),
+     * and the snapshot is written out by the calling thread; therefore, the
+     * data written is consistent, and the event dispatch thread is only
+     * blocked while the snapshot is taken (not while the data is written).
+     * </p>
      **
      * @param  format      the file format to use for writing the file.
      * @param  out         the "file" (or stream) to write out to.
@@ -1306,21 +1672,42 @@ public final class SequenceCanvas extends DataCanvas
      * @see org.biolegato.sequence.data.DataFormat#convertTo(java.lang.Appendable, org.biolegato.sequence.data.Dataset, int)
      * @see org.biolegato.sequence.canvas.SequenceCanvasObject#writeOut(org.biolegato.sequence.data.DataFormat, java.lang.Appendable) 
      */
-    public void writeFile(DataFormat format, Appendable out, boolean forceall)
-                                                            throws IOException {
-        final int maxlines = datamodel.getSize();
+    public void writeFile(final DataFormat format, Appendable out,
+                          final boolean forceall) throws IOException {
+        // The snapshot of the data to write (used when this method is not
+        // called by the event dispatch thread).
+        final SequenceSelection[] snapshot = new SequenceSelection[1];
 
         // Ensure that the format is supported by the canvas.
-        if (format != null) {
+        if (format != null && !SwingUtilities.isEventDispatchThread()) {
+            // Take a snapshot of the data to write on the event dispatch
+            // thread, and then write the snapshot from this thread.
+            try {
+                SwingUtilities.invokeAndWait(new Runnable() {
+                    public void run() {
+                        snapshot[0] = (forceall || currentPane == null
+                                ? new SequenceSelection(datamodel.snapshot(),
+                                                        0, -1, format)
+                                : currentPane.snapshotSelection(format));
+                    }
+                });
+            } catch (InterruptedException ie) {
+                throw new InterruptedIOException("Interrupted while taking"
+                        + " a snapshot of the canvas");
+            } catch (InvocationTargetException ite) {
+                throw new IOException(ite.getCause());
+            }
+            snapshot[0].writeTo(out);
+        } else if (format != null) {
             // If forceall is set to true, do NOT obtain the file content from
             // the any text or sequences selecte in the canvas.  Instead, dump
             // the contents of the entire canvas (i.e. not just the data
             // selected) into the Appendable object.
             if (forceall) {
-                // Convert and write the data to the Appendable object.
-                for (int count = 0; count < maxlines; count++) {
-                    format.convertTo(out, datamodel, count);
-                }
+                // Convert and write the data to the Appendable object (the
+                // data is formatted in parallel -- see SequenceSelection).
+                new SequenceSelection(datamodel.snapshot(), 0, -1, format)
+                        .writeTo(out);
             } else if (currentPane != null) {
                 // Convert and write the current selection to the Appendable
                 // object.
@@ -1358,11 +1745,11 @@ public final class SequenceCanvas extends DataCanvas
         // preferred way to indicate autodetection should occur.
         if (formatString == null || "".equals(formatString)) {
             // Autodeted the data format
-            readFile((DataFormat) null, in, overwrite,forceall);
+            readFile((DataFormat) null, in, null, overwrite,forceall);
         } else {
             // Retrieve the data format object that corresponds to the
             // data format string passed.
-            readFile(DataFormat.getFormat(formatString), in, overwrite,forceall);
+            readFile(DataFormat.getFormat(formatString), in, null, overwrite,forceall);
         }
     }
 
@@ -1373,29 +1760,30 @@ public final class SequenceCanvas extends DataCanvas
      *                      null value is passed, then the data format should be
      *                      auto detected.
      * @param  in           the "file" (or stream) to read in from.
+     * @param  source       the file which the reader 'in' reads from (or null,
+     *                      if not applicable).  When available, parsers may
+     *                      re-read data lazily from the file, rather than
+     *                      storing a copy (e.g. GenBank headers).
      * @param  overwrite    whether to overwrite the currently selected
      *                      data in the current canvas with the data
      *                      being imported by this function/method.
      * @throws IOException  if an error occurs while reading
      * @see java.util.Scanner
-     * @see org.biolegato.sequence.data.DataFormat#autodetect(java.util.Scanner)
-     * @see org.biolegato.sequence.data.DataFormat#convertFrom(org.biolegato.sequence.data.Dataset, java.util.Scanner, int, int)
+     * @see org.biolegato.sequence.data.DataFormat#autodetect(java.io.Reader)
+     * @see org.biolegato.sequence.data.DataFormat#convertFrom(org.biolegato.sequence.data.Dataset, java.io.Reader, java.io.File, int, int)
      * @see org.biolegato.sequence.canvas.SequenceCanvasObject#readIn(org.biolegato.sequence.data.DataFormat, java.util.Scanner, boolean)
      */
-    private void readFile(DataFormat format, Reader in, boolean overwrite, boolean forceall)
+    private void readFile(DataFormat format, Reader in, File source,
+                    boolean overwrite, boolean forceall)
                                                             throws IOException {
-        Scanner scanner = null;
-
-        // Create a scanner object to pass to the data format parser, thereby
-        // simplifying the whole parsing process.  This scanner will read the
-        // file in a similar manner to the BufferedReader class, except that the
-        // scanner can use different delimiters and pattern matching.  Be sure
-        // to always set your delimiter within parsing methods.
-        scanner = new Scanner(in);
+        // Buffer the reader, so the data format can be auto-detected without
+        // consuming any of the data (via. mark and reset).
+        BufferedReader reader = (in instanceof BufferedReader
+                ? (BufferedReader) in : new BufferedReader(in));
 
         // Perform format autodetection, if the format parameter is null.
         if (format == null) {
-            format = DataFormat.autodetect(scanner);
+            format = DataFormat.autodetect(reader);
         }
 
         // Handle the overwrite parameter.  If the overwrite flag parameter is
@@ -1403,10 +1791,75 @@ public final class SequenceCanvas extends DataCanvas
         // calling the current canvas pane's read method).  If the overwrite
         // flag is set to false, then the sequences should, instead, be added to
         // the end of the data storage model.
+        //
+        // NOTE: when overwriting, a scanner object is passed to the canvas
+        // pane's read method.  This scanner will read the file in a similar
+        // manner to the BufferedReader class, except that the scanner can use
+        // different delimiters and pattern matching.  When adding to the end
+        // of the data model, the reader is passed directly to the data format,
+        // so formats with streaming parsers (e.g. FastA) can avoid the
+        // overhead of the scanner's regular expressions.
         if (overwrite) {
-            currentPane.readIn(format, scanner, overwrite);
+            currentPane.readIn(format, new Scanner(reader), overwrite);
         } else {
-            format.convertFrom(datamodel, scanner, 0, datamodel.getSize());
+            format.convertFrom(datamodel, reader, source, 0,
+                               datamodel.getSize());
+        }
+    }
+
+    /**
+     * Reads files into the canvas on a pool of background threads (see
+     * SequenceImporter).  Files which do not exist, are not files (e.g. are
+     * directories), or are empty are skipped.  The sequences read are added to
+     * the end of the canvas, in the order of the files, once all of the files
+     * have been read.  This method must be called from the Swing event
+     * dispatch thread, and returns without waiting for the files to be read.
+     **
+     * @param format  the file format to use for parsing the files (null
+     *                indicates that the format of each file should be
+     *                auto-detected).
+     * @param files   the files to read.
+     * @param mapped  whether to memory-map the files (see
+     *                DataFormat.convertMapped).
+     */
+    public void importFiles(DataFormat format, File[] files, boolean mapped) {
+        // The files to read.
+        final List<File> readable = new ArrayList<File>(files.length);
+
+        // Ensure that each file exists and is a file (i.e. skip directories
+        // and non-existent files).
+        for (File opf : files) {
+            if (opf.exists() && opf.isFile() && opf.length() > 0) {
+                readable.add(opf);
+            }
+        }
+
+        if (!readable.isEmpty()) {
+            new SequenceImporter(this, datamodel, format,
+                    readable.toArray(new File[readable.size()]), mapped)
+                    .execute();
+        }
+    }
+
+    /**
+     * Auto-detects the data format of a file (without reading the entire
+     * file).
+     **
+     * @param  file         the file to detect the format of.
+     * @return the data format of the file.
+     * @throws IOException  if an error occurs while reading the file.
+     * @see org.biolegato.sequence.data.DataFormat#autodetect(java.io.Reader)
+     */
+    static DataFormat detectFormat(File file) throws IOException {
+        // The reader used to read the beginning of the file (decompressed,
+        // if the file is compressed).
+        BufferedReader reader = new BufferedReader(
+                CompressedFile.openReader(file));
+
+        try {
+            return DataFormat.autodetect(reader);
+        } finally {
+            reader.close();
         }
     }
 
@@ -1457,12 +1910,23 @@ public final class SequenceCanvas extends DataCanvas
             try {
                 // Ensure that the Transferrable object is not null
                 if (t != null) {
-                    if (t.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+                    // Read the clipboard data through a Reader object, if
+                    // possible (i.e. without generating the entire text of a
+                    // sequence selection at once -- see SequenceSelection).
+                    if (t.isDataFlavorSupported(
+                            SequenceSelection.READER_FLAVOR)) {
+                        scanner = new Scanner((Reader) t.getTransferData(
+                                SequenceSelection.READER_FLAVOR));
+                    } else if (t.isDataFlavorSupported(
+                            DataFlavor.stringFlavor)) {
                         // Create a new scanner object to parse the clipboard
                         // data with.
                         scanner = new Scanner((String)
                                 t.getTransferData(DataFlavor.stringFlavor));
-
+                    } else {
+                        scanner = null;
+                    }
+                    if (scanner != null) {
                         // TODO: add caret position update functionality?
 
                         // Obtain the data format of the clipboard data
@@ -1480,10 +1944,20 @@ public final class SequenceCanvas extends DataCanvas
                             currentPane.readIn(format, scanner,
                                     (currentPane != nameList));
                         }
+
+                        // Report any error which occurred while reading the
+                        // clipboard (the Scanner treats the error as the end
+                        // of the clipboard contents).
+                        if (scanner.ioException() != null) {
+                            throw scanner.ioException();
+                        }
                     }
                 }
             } catch (UnsupportedFlavorException e) {
             } catch (IOException e) {
+                javax.swing.JOptionPane.showMessageDialog(getJFrame(),
+                        e.getMessage(), "Cannot paste",
+                        javax.swing.JOptionPane.ERROR_MESSAGE);
             }
         }
     }
@@ -1496,26 +1970,34 @@ public final class SequenceCanvas extends DataCanvas
      **
      * @see org.biolegato.sequence.data.DataFormat#GENBANK
      * @see org.biolegato.sequence.data.GenBankFile2008
-     * @see org.biolegato.sequence.canvas.SequenceCanvasObject#writeOut(org.biolegato.sequence.data.DataFormat, java.lang.Appendable)
+     * @see org.biolegato.sequence.canvas.SequenceCanvas#copyClipboard(org.biolegato.sequence.data.DataFormat)
      */
     public void copyClipboard() {
-        // The string builder used to store the convertd canvas data (instead
-        // of a file stream) from the writeOut method.  This data is later
-        // passed to the clipboard.  The StringBuilder object was chosen because
-        // of its speed, and because it implements the Appendable interface.
-        StringBuilder result = new StringBuilder();
+        copyClipboard(DataFormat.GENBANK);
+    }
 
-        try {
-            // Write the canvas data to the StringBuilder object.
-            currentPane.writeOut(DataFormat.GENBANK, result);
-
-            // Update the clipboard to store the same data in the StringBuilder
-            // object.
-            Toolkit.getDefaultToolkit().getSystemClipboard()
-                    .setContents(new StringSelection(result.toString()), null);
-        } catch (IOException ioe) {
-            ioe.printStackTrace(System.err);
-        }
+    /**
+     * <p>Copies the currently selected sequences or text from the sequence
+     * canvas to the clipboard, in a given format.</p>
+     *
+     * <p>Only a snapshot of the selection is taken by this method (which is
+     * fast, even for large selections).  The text is generated in the given
+     * format when the clipboard contents are pasted (see SequenceSelection).
+     * </p>
+     **
+     * @param format the format to copy the data in (null copies raw sequence
+     *               text, without any names).
+     * @see org.biolegato.sequence.data.SequenceSelection
+     * @see org.biolegato.sequence.canvas.SequenceCanvasObject#snapshotSelection(org.biolegato.sequence.data.DataFormat)
+     */
+    public void copyClipboard(DataFormat format) {
+        // The lazy clipboard selection.
+        final SequenceSelection selection
+                = currentPane.snapshotSelection(format);
+
+        // Update the clipboard to store the selection.
+        Toolkit.getDefaultToolkit().getSystemClipboard()
+                .setContents(selection, selection);
     }
 
     /**
@@ -12,6 +12,7 @@ package org.biolegato.sequence.canvas;
 import java.util.Scanner;
 import java.io.IOException;
 import org.biolegato.sequence.data.DataFormat;
+import org.biolegato.sequence.data.SequenceSelection;
 
 /**
  * An interface for abstracting the two canvas objects (SequenceTextArea and
@@ -39,6 +40,21 @@ public interface SequenceCanvasObject {
      */
     public void writeOut(DataFormat format, Appendable dest) throws IOException;
 
+    /**
+     * Takes a snapshot of the content selected in the canvas object.  The
+     * snapshot may be written out by any thread (e.g. by a PCD command, or
+     * when the clipboard contents are pasted), while the canvas continues to
+     * be edited; taking the snapshot does not copy any residues (see
+     * Dataset.snapshot).  This method must be called on the Swing event
+     * dispatch thread.
+     **
+     * @param  format the format to write the snapshot in (null for raw
+     *                sequence text).
+     * @return the snapshot of the selected content.
+     * @see org.biolegato.sequence.data.SequenceSelection
+     */
+    public SequenceSelection snapshotSelection(DataFormat format);
+
     /**
      * Reads contents into the current sequence canvas object.
      **
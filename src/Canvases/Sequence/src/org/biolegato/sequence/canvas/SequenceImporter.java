@@ -0,0 +1,505 @@
+/*
+ * SequenceImporter.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import org.biolegato.main.BLMain;
+import org.biolegato.sequence.data.DataFormat;
+import org.biolegato.sequence.data.Dataset;
+import org.biopcd.parser.CompressedFile;
+
+/**
+ * <p>Reads files into a sequence canvas on a pool of background threads.</p>
+ *
+ * <p>Each file (and, for file formats which support it, each range of entries
+ * within a large file -- see DataFormat.split) is parsed by a separate task
+ * into its own scratch Dataset object.  Because the scratch Dataset objects
+ * are not displayed, parsing does not fire any events to the canvas, and does
+ * not block the Swing event dispatch thread.  Once every task is complete, the
+ * sequences are merged, in their original order, into the canvas's Dataset
+ * object (on the event dispatch thread) using a single addSequences call.</p>
+ *
+ * <p>Compressed files (see CompressedFile) are decompressed on a separate
+ * thread while they are parsed.  Because a compressed file can neither be
+ * memory-mapped nor divided into ranges of bytes, each compressed file is
+ * parsed by a single task.</p>
+ *
+ * <p>A progress monitor is displayed while the files are read.  If the user
+ * cancels the progress monitor, then none of the sequences are added.  The
+ * progress monitor is checked every POLL milliseconds (even while a single
+ * large file is being read); once it is cancelled, the parsing threads are
+ * interrupted, and each parser stops at its next read from the file (see
+ * InterruptibleReader).</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class SequenceImporter extends SwingWorker<Dataset, Integer> {
+
+    /**
+     * The canvas to read the files into.
+     */
+    private final SequenceCanvas canvas;
+    /**
+     * The Dataset object to add the sequences read to.
+     */
+    private final Dataset datamodel;
+    /**
+     * The file format to read the files with (null indicates that the format
+     * of each file should be auto-detected).
+     */
+    private final DataFormat format;
+    /**
+     * The files to read.
+     */
+    private final File[] files;
+    /**
+     * Whether to memory-map the files (see DataFormat.convertMapped).
+     */
+    private final boolean mapped;
+    /**
+     * The progress monitor to display while the files are read.
+     */
+    private final ProgressMonitor monitor;
+    /**
+     * The number of threads used to parse the files.
+     */
+    private static final int THREADS
+            = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * The interval (in milliseconds) between checks of whether the progress
+     * monitor has been cancelled.
+     */
+    private static final long POLL = 200;
+
+    /**
+     * Creates a new importer (this must be called from the Swing event
+     * dispatch thread).  To start reading the files, call 'execute'.
+     **
+     * @param canvas     the canvas to read the files into.
+     * @param datamodel  the Dataset object to add the sequences to.
+     * @param format     the file format to read the files with (null indicates
+     *                   that the format of each file should be auto-detected).
+     * @param files      the files to read.
+     * @param mapped     whether to memory-map the files.
+     */
+    SequenceImporter(SequenceCanvas canvas, Dataset datamodel,
+                     DataFormat format, File[] files, boolean mapped) {
+        this.canvas = canvas;
+        this.datamodel = datamodel;
+        this.format = format;
+        this.files = files;
+        this.mapped = mapped;
+        this.monitor = new ProgressMonitor(canvas.getJFrame(),
+                "Reading files...", null, 0, 100);
+    }
+
+    /**
+     * Reads the files (on a background thread).  The files are divided into
+     * tasks which are submitted to a thread pool, and the result of each task
+     * is merged, in order, into a single scratch Dataset object.  While
+     * waiting for each task, the progress is published every POLL
+     * milliseconds, so a cancellation of the progress monitor is noticed
+     * promptly (see process).  Cancelling the importer interrupts this thread,
+     * which in turn interrupts the tasks (see InterruptibleReader).
+     **
+     * @return the sequences read from the files.
+     * @throws Exception if the reading is interrupted.
+     */
+    @Override
+    protected Dataset doInBackground() throws Exception {
+        // The sequences read from all of the files.
+        final Dataset result = new Dataset(canvas);
+        // The parsing tasks, in the order of their sequences.
+        final List<Future<Dataset>> tasks = new ArrayList<Future<Dataset>>();
+        // The thread pool used to run the tasks.
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        // The time the reading started (used for debugging).
+        final long time = System.nanoTime();
+
+        try {
+            for (File file : files) {
+                try {
+                    submit(pool, tasks, file);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace(System.err);
+                }
+            }
+
+            // Wait for each task (in order), and merge its sequences into the
+            // result.  Any task which fails is skipped.
+            for (int count = 0; count < tasks.size() && !isCancelled();
+                                                                    count++) {
+                // Whether the task is complete.
+                boolean complete = false;
+
+                while (!complete && !isCancelled()) {
+                    try {
+                        result.addSequences(result.getSize(), tasks.get(count)
+                                .get(POLL, TimeUnit.MILLISECONDS));
+                        complete = true;
+                    } catch (TimeoutException te) {
+                        publish(count * 100 / tasks.size());
+                    } catch (ExecutionException ee) {
+                        ee.getCause().printStackTrace(System.err);
+                        complete = true;
+                    }
+                }
+                publish((count + 1) * 100 / tasks.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (BLMain.debug) {
+            System.err.println("Importer - read " + result.getSize()
+                    + " sequences using " + tasks.size() + " tasks in "
+                    + ((System.nanoTime() - time) / 1000000) + " ms");
+        }
+        return result;
+    }
+
+    /**
+     * Updates the progress monitor (on the event dispatch thread).  If the
+     * user has cancelled the progress monitor, then the importer is cancelled.
+     **
+     * @param chunks the percentages of the tasks complete.
+     */
+    @Override
+    protected void process(List<Integer> chunks) {
+        monitor.setProgress(chunks.get(chunks.size() - 1));
+        if (monitor.isCanceled()) {
+            cancel(true);
+        }
+    }
+
+    /**
+     * Adds the sequences read to the canvas (on the event dispatch thread).
+     */
+    @Override
+    protected void done() {
+        monitor.close();
+        if (!isCancelled()) {
+            try {
+                datamodel.addSequences(datamodel.getSize(), get());
+            } catch (InterruptedException ie) {
+                ie.printStackTrace(System.err);
+            } catch (ExecutionException ee) {
+                ee.getCause().printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Submits the tasks for reading a file to the thread pool.  If the file
+     * format supports it, the file is divided into ranges of entries, and a
+     * separate task is submitted for each range.
+     **
+     * @param  pool         the thread pool to submit the tasks to.
+     * @param  tasks        the list to add the submitted tasks to.
+     * @param  file         the file to read.
+     * @throws IOException  if an error occurs while detecting the file format.
+     */
+    private void submit(ExecutorService pool, List<Future<Dataset>> tasks,
+                        final File file) throws IOException {
+        // The format of the file.
+        final DataFormat fileFormat = (format != null ? format
+                : SequenceCanvas.detectFormat(file));
+
+        if (CompressedFile.isCompressed(file)) {
+            tasks.add(pool.submit(new Callable<Dataset>() {
+                public Dataset call() throws Exception {
+                    // The dataset to read the file into.
+                    final Dataset part = new Dataset(canvas);
+                    // The decompressed contents of the file.
+                    final BufferedReader in = new BufferedReader(
+                            new InterruptibleReader(
+                                    CompressedFile.openReader(file)));
+
+                    try {
+                        fileFormat.convertFrom(part, in, source(file), 0, 0);
+                    } finally {
+                        in.close();
+                    }
+                    return part;
+                }
+            }));
+        } else if (mapped) {
+            tasks.add(pool.submit(new Callable<Dataset>() {
+                public Dataset call() throws Exception {
+                    // The dataset to read the file into.
+                    final Dataset part = new Dataset(canvas);
+
+                    if (!fileFormat.convertMapped(part, file, 0)) {
+                        read(fileFormat, part, file, 0, file.length());
+                    }
+                    return part;
+                }
+            }));
+        } else {
+            // The boundaries of the ranges to read in parallel.
+            final long[] bounds = fileFormat.split(file, THREADS);
+
+            for (int count = 0; count < bounds.length - 1; count++) {
+                final long start = bounds[count];
+                final long end = bounds[count + 1];
+
+                tasks.add(pool.submit(new Callable<Dataset>() {
+                    public Dataset call() throws Exception {
+                        // The dataset to read the range into.
+                        final Dataset part = new Dataset(canvas);
+
+                        read(fileFormat, part, file, start, end);
+                        return part;
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Reads a range of a file into a Dataset object.
+     **
+     * @param  fileFormat   the format of the file.
+     * @param  part         the Dataset object to read the range into.
+     * @param  file         the file to read.
+     * @param  start        the byte offset of the start of the range.
+     * @param  end          the byte offset of the end of the range.
+     * @throws IOException  if an error occurs while reading the file.
+     */
+    private static void read(DataFormat fileFormat, Dataset part, File file,
+                             long start, final long end) throws IOException {
+        // The stream to read the range from.
+        InputStream in = new FileInputStream(file);
+
+        try {
+            // Skip to the start of the range.
+            long skipped = 0;
+            while (skipped < start) {
+                final long count = in.skip(start - skipped);
+                if (count <= 0) {
+                    throw new IOException("Cannot seek to " + start
+                            + " in " + file);
+                }
+                skipped += count;
+            }
+
+            // Limit the stream to the end of the range.
+            if (end < file.length()) {
+                in = new RangeInputStream(in, end - start);
+            }
+
+            // NOTE: the file is only passed as the source of the data if the
+            // range starts at the beginning of the file (otherwise, character
+            // offsets within the stream would not be file offsets).
+            fileFormat.convertFrom(part, new BufferedReader(
+                    new InterruptibleReader(new InputStreamReader(in))),
+                    (start == 0 ? file : null), 0, 0);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the source file to record for a file being parsed (i.e. the
+     * file which GenBank headers may be lazily re-read from -- see
+     * FileExcerpt).  Headers can be re-read from uncompressed files and from
+     * BGZF files (using the file's block index), but not from other
+     * compressed files (which can only be read from the beginning).
+     **
+     * @param  file         the file being parsed.
+     * @return the source file to record (or null, if there is none).
+     * @throws IOException  if an error occurs while reading the file.
+     */
+    static File source(File file) throws IOException {
+        // The compression format of the file.
+        final int compression = CompressedFile.detect(file);
+
+        return (compression == CompressedFile.NONE
+                || compression == CompressedFile.BGZF ? file : null);
+    }
+
+    /**
+     * An input stream which reads at most a fixed number of bytes from another
+     * input stream.
+     */
+    private static final class RangeInputStream extends FilterInputStream {
+
+        /**
+         * The number of bytes remaining in the range.
+         */
+        private long remaining;
+
+        /**
+         * Creates a new range input stream.
+         **
+         * @param in      the stream to read from.
+         * @param length  the maximum number of bytes to read.
+         */
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        /**
+         * Reads a single byte from the range.
+         **
+         * @return the byte read (or -1 at the end of the range).
+         * @throws IOException if an error occurs while reading the stream.
+         */
+        @Override
+        public int read() throws IOException {
+            int result = -1;
+
+            if (remaining > 0) {
+                result = super.read();
+                if (result >= 0) {
+                    remaining--;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Reads bytes from the range into an array.
+         **
+         * @param  b    the array to read into.
+         * @param  off  the offset within the array.
+         * @param  len  the maximum number of bytes to read.
+         * @return the number of bytes read (or -1 at the end of the range).
+         * @throws IOException if an error occurs while reading the stream.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = -1;
+
+            if (remaining > 0) {
+                result = super.read(b, off, (int) Math.min(len, remaining));
+                if (result > 0) {
+                    remaining -= result;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Skips bytes within the range.
+         **
+         * @param  n    the number of bytes to skip.
+         * @return the number of bytes skipped.
+         * @throws IOException if an error occurs while reading the stream.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            final long result = super.skip(Math.min(n, remaining));
+
+            remaining -= result;
+            return result;
+        }
+
+        /**
+         * Returns the number of bytes which can be read without blocking.
+         **
+         * @return the number of bytes available within the range.
+         * @throws IOException if an error occurs while reading the stream.
+         */
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        /**
+         * Marking is not supported by range input streams.
+         **
+         * @return false.
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * A reader which stops reading once the thread reading from it has been
+     * interrupted (i.e. once the importer has been cancelled -- see
+     * doInBackground).  Because the parsers read their input a buffer at a
+     * time, this stops a parser within one buffer of the cancellation, even
+     * while it is parsing a single large file.
+     */
+    private static final class InterruptibleReader extends FilterReader {
+
+        /**
+         * Creates a new interruptible reader.
+         **
+         * @param in  the reader to read from.
+         */
+        InterruptibleReader(Reader in) {
+            super(in);
+        }
+
+        /**
+         * Reads a single character.
+         **
+         * @return the character read (or -1 at the end of the stream).
+         * @throws IOException if an error occurs while reading the stream, or
+         *                     the thread has been interrupted.
+         */
+        @Override
+        public int read() throws IOException {
+            checkInterrupted();
+            return super.read();
+        }
+
+        /**
+         * Reads characters into an array.
+         **
+         * @param  cbuf the array to read into.
+         * @param  off  the offset within the array.
+         * @param  len  the maximum number of characters to read.
+         * @return the number of characters read (or -1 at the end of the
+         *         stream).
+         * @throws IOException if an error occurs while reading the stream, or
+         *                     the thread has been interrupted.
+         */
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            checkInterrupted();
+            return super.read(cbuf, off, len);
+        }
+
+        /**
+         * Throws an exception if the current thread has been interrupted.
+         **
+         * @throws InterruptedIOException if the thread has been interrupted.
+         */
+        private static void checkInterrupted() throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Reading cancelled");
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import javax.swing.JPopupMenu;
 import javax.swing.JTextField;
 import org.biolegato.sequence.data.DataFormat;
 import org.biolegato.sequence.data.Dataset;
+import org.biolegato.sequence.data.SequenceSelection;
 import org.biolegato.sequence.data.SequenceWindow;
 
 /**
@@ -461,41 +462,9 @@ public final class SequenceList extends JList implements SequenceCanvasObject {
      * </dl>
      */
     public void changeCase() {
-        // The length of the sequence to process.
-        int length = 0;
-        // The sequence data to process.
-        char[] data = null;
-
-        // Iterate through every sequence selected.
-        for (int sequenceNumber : getSelectedIndices()) {
-            // Obtain the length of the current sequence to alter.
-            length = datamodel.getSequenceLength(sequenceNumber);
-            
-            // Only update the size of the data array (the array to contain the
-            // sequence characters, which will have their case altered), if the
-            // length of the data array is less than the length of the current
-            // sequence (i.e., the sequence we wish to extract into 'data').
-            if (data == null || data.length < length) {
-                // Create a new array to contain the sequence data.
-                data   = new char[length];
-            }
-            
-            // Extract the characters for the current sequence from the Dataset
-            // sequence object container.
-            datamodel.getSequence(data, sequenceNumber, 0, length);
-
-            // invert the case of the sequence
-            for (int count = 0; count < length; count++) {
-                data[count] = (Character.isUpperCase(data[count])
-                    ? Character.toLowerCase(data[count])
-                    : Character.toUpperCase(data[count]));
-            }
-
-            // Delete the old version of the sequence, then insert the modified
-            // (case changed) version -- i.e. alter by replacement.
-            datamodel.delete(0, sequenceNumber, length, false);
-            datamodel.insert(0, sequenceNumber, data, 0, length, false);
-        }
+        // Invert the case of every sequence selected, in place.
+        datamodel.transform(getSelectedIndices(), 0, Integer.MAX_VALUE,
+                            Dataset.Transform.CHANGE_CASE, false);
     }
 
     /**
@@ -535,21 +504,31 @@ public final class SequenceList extends JList implements SequenceCanvasObject {
 
             // Sort the selected_rows array.
             Arrays.sort(selected_rows);
+        }
 
-            // Iterate through the indexes in selected_rows and perform the
-            // insertion where possible.
-            while (result && index < selected_rows.length) {
-                result = format.convertSequence(datamodel, source, 0,
+        // Add the sequences within a batch update, so the data model's
+        // listeners are only notified once for each run of adjacent sequences
+        // (see Dataset.beginUpdate).
+        datamodel.beginUpdate();
+        try {
+            if (selected_rows != null && selected_rows.length > 0) {
+                // Iterate through the indexes in selected_rows and perform
+                // the insertion where possible.
+                while (result && index < selected_rows.length) {
+                    result = format.convertSequence(datamodel, source, 0,
                                                   selected_rows[index], true);
-                index++;
+                    index++;
+                }
             }
-        }
 
-        // Translate any data in the buffer/stream beyond the scope of any
-        // insertion points (denoted by selected sequences).
-        while (result) {
-            result = format.convertSequence(datamodel, source, 0,
-                                              datamodel.getSize(), true);
+            // Translate any data in the buffer/stream beyond the scope of any
+            // insertion points (denoted by selected sequences).
+            while (result) {
+                result = format.convertSequence(datamodel, source, 0,
+                                                  datamodel.getSize(), true);
+            }
+        } finally {
+            datamodel.commitUpdate();
         }
     }
     /**
@@ -566,5 +545,18 @@ public final class SequenceList extends JList implements SequenceCanvasObject {
             fmt.convertTo(dest, datamodel, lineNumber);
         }
     }
+
+    /**
+     * Takes a snapshot of the sequences currently selected (see
+     * SequenceCanvasObject.snapshotSelection).
+     **
+     * @param  format the format to write the snapshot in.
+     * @return the snapshot of the selected sequences.
+     * @see org.biolegato.sequence.canvas.SequenceCanvasObject#snapshotSelection(org.biolegato.sequence.data.DataFormat)
+     */
+    public SequenceSelection snapshotSelection(DataFormat format) {
+        return new SequenceSelection(
+                datamodel.snapshot(getSelectedIndices()), 0, -1, format);
+    }
     
 }
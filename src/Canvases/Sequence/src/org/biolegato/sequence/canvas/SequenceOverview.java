@@ -0,0 +1,860 @@
+/*
+ * SequenceOverview.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import org.biolegato.main.BLMain;
+import org.biolegato.sequence.data.Dataset;
+import org.biolegato.sequence.data.TextLengthListener;
+
+/**
+ * <p>A zoomed-out overview (minimap) of every sequence in a canvas.</p>
+ *
+ * <p>The overview draws the entire alignment, scaled to fit the component.
+ * Each residue is drawn as a single coloured cell, using the colour mask of
+ * its sequence (or the default colour mask); where there are more residues
+ * than pixels, the colours of the residues are averaged.  Gaps and other
+ * characters which are not letters are drawn as the background colour.  The
+ * area currently displayed by the sequence text area is outlined, and
+ * clicking (or dragging) within the overview scrolls the text area to the
+ * position clicked.</p>
+ *
+ * <p>Because an alignment may contain hundreds of millions of residues, the
+ * overview is never drawn directly from the sequences.  Instead, the
+ * alignment is reduced, on a pool of background threads, to a base image of
+ * at most MAX_WIDTH by MAX_HEIGHT cells.  The base image is then repeatedly
+ * halved to form a pyramid of images, and the overview is painted by scaling
+ * the smallest image in the pyramid which is at least as large as the
+ * component.  Painting therefore only depends on the size of the component,
+ * not on the size of the alignment.</p>
+ *
+ * <p>Whenever sequences are modified, only the rows of the base image which
+ * contain the modified sequences are recalculated (unless sequences were
+ * added or removed, or the longest sequence changed length, in which case the
+ * whole image is recalculated).  Likewise, when the colours of computed
+ * colour masks change, only the columns of the base image which contain the
+ * changed columns are recalculated.  Modifications are collected for a short
+ * delay before the image is recalculated, so a series of edits only causes
+ * one recalculation.</p>
+ *
+ * <p><i>NOTE: the background threads never read the Dataset itself, which
+ *       may be edited on the event dispatch thread at any time.  Instead,
+ *       each calculation reads a snapshot of the Dataset, taken on the event
+ *       dispatch thread when the calculation starts (see Dataset.snapshot).
+ *       Any modification made during the calculation schedules the affected
+ *       rows to be recalculated again.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class SequenceOverview extends JComponent implements ListDataListener,
+        TextLengthListener, ChangeListener, MouseListener, MouseMotionListener {
+
+    /**
+     * The parent canvas of the overview (used to obtain the default colour
+     * mask).
+     */
+    private final SequenceCanvas canvas;
+    /**
+     * The data model to display the overview of.
+     */
+    private final Dataset datamodel;
+    /**
+     * The text area whose sequences are displayed (used to convert between
+     * rows and columns and screen co-ordinates).
+     */
+    private final SequenceTextArea area;
+    /**
+     * The scroll pane containing the text area.  The scroll bars of this pane
+     * are used to scroll the text area, when the overview is clicked.
+     */
+    private final JScrollPane pane;
+    /**
+     * The pyramid of overview images (the first image is the base image, each
+     * subsequent image is half the size of the image before it).  This is null
+     * until the first image is calculated.
+     */
+    private BufferedImage[] levels = null;
+    /**
+     * The pixels of the base image (used to recalculate only the modified rows
+     * of the base image).
+     */
+    private int[] base = null;
+    /**
+     * The number of rows (sequences) represented by the base image.
+     */
+    private int baseRows = 0;
+    /**
+     * The number of columns represented by the base image.
+     */
+    private int baseCols = 0;
+    /**
+     * The first row modified since the image was last calculated.
+     */
+    private int dirtyStart = 0;
+    /**
+     * The last row modified since the image was last calculated (-1 if no
+     * rows have been modified).
+     */
+    private int dirtyEnd = Integer.MAX_VALUE;
+    /**
+     * The first column whose colours changed since the image was last
+     * calculated (see masksChanged).
+     */
+    private int dirtyColStart = 0;
+    /**
+     * The last column whose colours changed since the image was last
+     * calculated (-1 if no colours have changed).
+     */
+    private int dirtyColEnd = -1;
+    /**
+     * Whether the whole image must be recalculated.
+     */
+    private boolean dirtyAll = true;
+    /**
+     * The background worker currently calculating the image (null if no
+     * calculation is running).
+     */
+    private Builder builder = null;
+    /**
+     * The timer used to delay recalculating the image after a modification.
+     */
+    private final Timer timer;
+    /**
+     * The maximum width (in cells) of the base image.
+     */
+    static final int MAX_WIDTH = 1024;
+    /**
+     * The maximum height (in cells) of the base image.
+     */
+    static final int MAX_HEIGHT = 2048;
+    /**
+     * The width of the overview component.
+     */
+    private static final int OVERVIEW_WIDTH = 160;
+    /**
+     * The delay (in milliseconds) between a modification and recalculating
+     * the image.
+     */
+    private static final int DELAY = 250;
+    /**
+     * The number of characters to read from a sequence at a time.
+     */
+    private static final int CHUNK = 65536;
+    /**
+     * The number of threads used to calculate the image.
+     */
+    private static final int THREADS
+            = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * The colour used to draw gaps, and the area beyond the end of each
+     * sequence.
+     */
+    private static final Color BACKGROUND = Color.WHITE;
+    /**
+     * The colour used to outline the area displayed by the text area.
+     */
+    private static final Color VIEWCOLOUR = Color.RED;
+    /**
+     * Used for serialization purposes.
+     */
+    private static final long serialVersionUID = 7526472295622777045L;
+
+    /**
+     * Creates a new overview of a sequence text area.
+     **
+     * @param canvas     the parent canvas of the overview.
+     * @param datamodel  the data model to display the overview of.
+     * @param area       the text area whose sequences are displayed.
+     * @param pane       the scroll pane containing the text area.
+     */
+    SequenceOverview(SequenceCanvas canvas, Dataset datamodel,
+                     SequenceTextArea area, JScrollPane pane) {
+        this.canvas = canvas;
+        this.datamodel = datamodel;
+        this.area = area;
+        this.pane = pane;
+
+        // Create the timer used to delay recalculating the image.
+        timer = new Timer(DELAY, new ActionListener() {
+            /**
+             * Starts recalculating the image.
+             **
+             * @param e ignored by this method.
+             */
+            public void actionPerformed(ActionEvent e) {
+                build();
+            }
+        });
+        timer.setRepeats(false);
+
+        // Listen for modifications to the sequences, scrolling of the text
+        // area, and mouse clicks within the overview.
+        datamodel.addListDataListener(this);
+        datamodel.addTextLengthListener(this);
+        pane.getViewport().addChangeListener(this);
+        addMouseListener(this);
+        addMouseMotionListener(this);
+
+        // Configure the size of the overview.
+        setPreferredSize(new Dimension(OVERVIEW_WIDTH, 150));
+        setMinimumSize(new Dimension(OVERVIEW_WIDTH, 0));
+        setMaximumSize(new Dimension(OVERVIEW_WIDTH, Integer.MAX_VALUE));
+        setBackground(BACKGROUND);
+        setOpaque(true);
+    }
+
+///////////////////////
+//*******************//
+//* DISPLAY METHODS *//
+//*******************//
+///////////////////////
+    /**
+     * Paints the overview.  The overview image is scaled from the smallest
+     * image in the pyramid which is at least as large as the component, and
+     * the area displayed by the text area is outlined.
+     **
+     * @param gfx the graphics object to paint to.
+     */
+    @Override
+    public void paintComponent(Graphics gfx) {
+        // The size of the overview.
+        final int width = getWidth();
+        final int height = getHeight();
+        // The image to paint.
+        BufferedImage image = null;
+
+        gfx.setColor(getBackground());
+        gfx.fillRect(0, 0, width, height);
+
+        if (levels != null && baseRows > 0 && baseCols > 0) {
+            // Find the smallest image which is at least as large as the
+            // component (or the base image, if none are large enough).
+            image = levels[0];
+            for (BufferedImage level : levels) {
+                if (level.getWidth() >= width && level.getHeight() >= height) {
+                    image = level;
+                }
+            }
+
+            // Scale the image smoothly when shrinking it, and draw each cell
+            // as a crisp block when enlarging it.
+            if (gfx instanceof Graphics2D) {
+                ((Graphics2D) gfx).setRenderingHint(
+                        RenderingHints.KEY_INTERPOLATION,
+                        (image.getWidth() > width || image.getHeight() > height
+                        ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                        : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR));
+            }
+            gfx.drawImage(image, 0, 0, width, height, null);
+
+            // Outline the area displayed by the text area.
+            final Rectangle view = pane.getViewport().getViewRect();
+            final int x = (int) ((long) view.x / area.colWidth * width
+                                 / baseCols);
+            final int y = (int) ((long) view.y / area.rowHeight * height
+                                 / baseRows);
+            final int w = (int) ((long) view.width / area.colWidth * width
+                                 / baseCols);
+            final int h = (int) ((long) view.height / area.rowHeight * height
+                                 / baseRows);
+
+            gfx.setColor(VIEWCOLOUR);
+            gfx.drawRect(x, y, Math.max(1, Math.min(w, width - x - 1)),
+                         Math.max(1, Math.min(h, height - y - 1)));
+        }
+    }
+
+    /**
+     * Starts recalculating the image, when the overview is displayed.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        timer.restart();
+    }
+
+    /**
+     * Stops recalculating the image, when the overview is hidden.
+     */
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+////////////////////////
+//********************//
+//* LISTENER METHODS *//
+//********************//
+////////////////////////
+    /**
+     * Schedules the rows of modified sequences to be recalculated.
+     **
+     * @param e the list data event corresponding to the modification.
+     */
+    public void contentsChanged(ListDataEvent e) {
+        if (e != null) {
+            invalidate(e.getIndex0(), e.getIndex1(), false);
+        } else {
+            invalidate(0, Integer.MAX_VALUE, true);
+        }
+    }
+
+    /**
+     * Schedules the whole image to be recalculated, when sequences are added.
+     **
+     * @param e the list data event corresponding to the addition.
+     */
+    public void intervalAdded(ListDataEvent e) {
+        invalidate(0, Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Schedules the whole image to be recalculated, when sequences are
+     * removed.
+     **
+     * @param e the list data event corresponding to the deletion.
+     */
+    public void intervalRemoved(ListDataEvent e) {
+        invalidate(0, Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Schedules the row of a sequence to be recalculated, when characters are
+     * inserted into, or deleted from, the sequence.
+     **
+     * @param x the column where the text length change began.
+     * @param y the row where the text length was changed.
+     * @param length the number of characters, by which the line was extended.
+     */
+    public void textLengthChanged(int x, int y, int length) {
+        invalidate(y, y, false);
+    }
+
+    /**
+     * Schedules the columns of the image containing a range of columns to be
+     * recalculated (in every row), when the colours of computed colour masks
+     * change (see ColumnProfile).
+     **
+     * @param startcol  the first column whose colours changed.
+     * @param stopcol   the last column whose colours changed.
+     */
+    public void masksChanged(int startcol, int stopcol) {
+        if (dirtyColEnd < 0) {
+            dirtyColStart = startcol;
+            dirtyColEnd = stopcol;
+        } else {
+            dirtyColStart = Math.min(dirtyColStart, startcol);
+            dirtyColEnd = Math.max(dirtyColEnd, stopcol);
+        }
+        timer.restart();
+    }
+
+    /**
+     * Repaints the overview when the text area is scrolled.
+     **
+     * @param e ignored by this method.
+     */
+    public void stateChanged(ChangeEvent e) {
+        repaint();
+    }
+
+    /**
+     * Scrolls the text area to the position clicked.
+     **
+     * @param event the mouse event for the click.
+     */
+    public void mousePressed(MouseEvent event) {
+        scrollTo(event.getX(), event.getY());
+    }
+
+    /**
+     * Scrolls the text area to the position dragged to.
+     **
+     * @param event the mouse event for the drag.
+     */
+    public void mouseDragged(MouseEvent event) {
+        scrollTo(event.getX(), event.getY());
+    }
+
+    /**
+     * Unused mouse event.
+     **
+     * @param event ignored by this method.
+     */
+    public void mouseClicked(MouseEvent event) {
+    }
+
+    /**
+     * Unused mouse event.
+     **
+     * @param event ignored by this method.
+     */
+    public void mouseReleased(MouseEvent event) {
+    }
+
+    /**
+     * Unused mouse event.
+     **
+     * @param event ignored by this method.
+     */
+    public void mouseEntered(MouseEvent event) {
+    }
+
+    /**
+     * Unused mouse event.
+     **
+     * @param event ignored by this method.
+     */
+    public void mouseExited(MouseEvent event) {
+    }
+
+    /**
+     * Unused mouse event.
+     **
+     * @param event ignored by this method.
+     */
+    public void mouseMoved(MouseEvent event) {
+    }
+
+////////////////////////
+//********************//
+//* INTERNAL METHODS *//
+//********************//
+////////////////////////
+    /**
+     * Scrolls the text area, so that the position within the overview is
+     * centred in the text area.
+     **
+     * @param x the X co-ordinate within the overview.
+     * @param y the Y co-ordinate within the overview.
+     */
+    private void scrollTo(int x, int y) {
+        if (baseRows > 0 && baseCols > 0 && getWidth() > 0
+                && getHeight() > 0) {
+            // The size of the area displayed by the text area.
+            final Rectangle view = pane.getViewport().getViewRect();
+            // The row and column clicked.
+            final long col = (long) x * baseCols / getWidth();
+            final long row = (long) y * baseRows / getHeight();
+
+            pane.getHorizontalScrollBar().setValue((int) Math.max(0,
+                    col * area.colWidth - view.width / 2));
+            pane.getVerticalScrollBar().setValue((int) Math.max(0,
+                    row * area.rowHeight - view.height / 2));
+        }
+    }
+
+    /**
+     * Schedules rows of the image to be recalculated.
+     **
+     * @param start the first row modified.
+     * @param end   the last row modified.
+     * @param all   whether the whole image must be recalculated.
+     */
+    private void invalidate(int start, int end, boolean all) {
+        if (dirtyEnd < 0) {
+            dirtyStart = start;
+            dirtyEnd = end;
+        } else {
+            dirtyStart = Math.min(dirtyStart, start);
+            dirtyEnd = Math.max(dirtyEnd, end);
+        }
+        dirtyAll |= all;
+        timer.restart();
+    }
+
+    /**
+     * Starts recalculating the modified rows (and columns) of the image, on a
+     * background thread.  If a calculation is already running, or the
+     * overview is not displayed, then the calculation is postponed.
+     */
+    private void build() {
+        if (builder == null && (dirtyEnd >= 0 || dirtyColEnd >= 0)
+                && isShowing()) {
+            // The snapshot of the sequences to display.
+            final Dataset data = datamodel.snapshot();
+            // The number of rows and columns to display.
+            final int rows = data.getSize();
+            final int cols = data.getLongestSequence();
+            // Whether to recalculate the whole image.  This is necessary
+            // whenever the number of rows or columns changes, because the
+            // cells of the image then represent different residues.
+            final boolean all = dirtyAll || base == null || rows != baseRows
+                    || cols != baseCols;
+
+            builder = new Builder(data, cols, (all ? null : base),
+                                  (all ? 0 : dirtyStart),
+                                  (all ? Integer.MAX_VALUE : dirtyEnd),
+                                  (all ? 0 : dirtyColStart),
+                                  (all ? -1 : dirtyColEnd));
+            dirtyStart = 0;
+            dirtyEnd = -1;
+            dirtyColStart = 0;
+            dirtyColEnd = -1;
+            dirtyAll = false;
+            builder.execute();
+        }
+    }
+
+    /**
+     * Calculates the first row or column of a sequence (or residue) within a
+     * cell of the base image.
+     **
+     * @param  cell   the row or column of the cell in the base image.
+     * @param  count  the number of rows or columns in the alignment.
+     * @param  cells  the number of rows or columns in the base image.
+     * @return the first row or column within the cell.
+     */
+    private static int first(int cell, int count, int cells) {
+        return (int) (((long) cell * count + cells - 1) / cells);
+    }
+
+    /**
+     * A background worker which calculates the overview image.
+     */
+    private final class Builder extends SwingWorker<BufferedImage[], Void> {
+
+        /**
+         * The snapshot of the sequences to display.
+         */
+        private final Dataset data;
+        /**
+         * The number of rows in the alignment.
+         */
+        private final int rows;
+        /**
+         * The number of columns in the alignment.
+         */
+        private final int cols;
+        /**
+         * The width of the base image.
+         */
+        private final int width;
+        /**
+         * The height of the base image.
+         */
+        private final int height;
+        /**
+         * The pixels of the base image.
+         */
+        private final int[] pixels;
+        /**
+         * The first row of the base image to calculate.
+         */
+        private final int startCell;
+        /**
+         * The last row of the base image to calculate (less than 'startCell'
+         * if no whole rows are to be calculated).
+         */
+        private final int endCell;
+        /**
+         * The first column of the base image to calculate in every row.
+         */
+        private final int startColCell;
+        /**
+         * The last column of the base image to calculate in every row (less
+         * than 'startColCell' if no columns are to be calculated).
+         */
+        private final int endColCell;
+        /**
+         * Creates a new background worker.  The whole of each row within the
+         * range of rows, and the range of columns within every row, are
+         * recalculated.
+         **
+         * @param data      the snapshot of the sequences to display (taken on
+         *                  the event dispatch thread).
+         * @param cols      the number of columns in the alignment.
+         * @param old       the pixels of the previous base image (or null if
+         *                  the whole image is to be recalculated).
+         * @param start     the first row (sequence) to recalculate.
+         * @param end       the last row (sequence) to recalculate (-1 if no
+         *                  whole rows are to be recalculated).
+         * @param startcol  the first column to recalculate in every row.
+         * @param endcol    the last column to recalculate in every row (-1
+         *                  if no columns are to be recalculated).
+         */
+        Builder(Dataset data, int cols, int[] old, int start, int end,
+                int startcol, int endcol) {
+            this.data = data;
+            this.rows = data.getSize();
+            this.cols = cols;
+            this.width = Math.max(1, Math.min(cols, MAX_WIDTH));
+            this.height = Math.max(1, Math.min(rows, MAX_HEIGHT));
+            this.pixels = (old != null ? old.clone()
+                                       : new int[width * height]);
+            this.startCell = (rows > 0 ? (int) ((long) Math.max(0, Math.min(
+                    start, rows - 1)) * height / rows) : 0);
+            this.endCell = (end < 0 ? startCell - 1 : rows > 0
+                    ? (int) ((long) Math.max(0, Math.min(end, rows - 1))
+                             * height / rows) : height - 1);
+            this.startColCell = (cols > 0 ? (int) ((long) Math.max(0,
+                    Math.min(startcol, cols - 1)) * width / cols) : 0);
+            this.endColCell = (endcol < 0 || cols <= 0 ? startColCell - 1
+                    : (int) ((long) Math.min(endcol, cols - 1) * width / cols));
+        }
+
+        /**
+         * Calculates the base image and its pyramid (on a background thread).
+         * The rows of the base image are divided among a pool of threads.
+         **
+         * @return the pyramid of overview images.
+         * @throws Exception if the calculation fails.
+         */
+        @Override
+        protected BufferedImage[] doInBackground() throws Exception {
+            // The thread pool used to calculate the rows of the base image.
+            final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            // The calculation tasks.
+            final List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+            // The rows of the base image to calculate (every row, if any
+            // columns are to be calculated).
+            final int firstCell = (endColCell >= startColCell ? 0
+                                                              : startCell);
+            final int lastCell = (endColCell >= startColCell ? height - 1
+                                                             : endCell);
+            // The number of base image rows calculated by each task.
+            final int step = Math.max(1, (lastCell - firstCell + 1)
+                                         / (THREADS * 4));
+            // The time the calculation started (used for debugging).
+            final long time = System.nanoTime();
+            // The pyramid of images.
+            final List<BufferedImage> result = new ArrayList<BufferedImage>();
+
+            try {
+                for (int cell = firstCell; cell <= lastCell; cell += step) {
+                    final int from = cell;
+                    final int to = Math.min(lastCell, cell + step - 1);
+
+                    tasks.add(pool.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            for (int count = from; count <= to; count++) {
+                                if (count >= startCell && count <= endCell) {
+                                    calculateRow(count, 0, width - 1);
+                                } else {
+                                    calculateRow(count, startColCell,
+                                                 endColCell);
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> task : tasks) {
+                    task.get();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            // Build the pyramid, by repeatedly halving the base image.
+            int[] level = pixels;
+            int w = width;
+            int h = height;
+            while (true) {
+                final BufferedImage image = new BufferedImage(w, h,
+                        BufferedImage.TYPE_INT_RGB);
+
+                image.setRGB(0, 0, w, h, level, 0, w);
+                result.add(image);
+                if (w == 1 && h == 1) {
+                    break;
+                }
+                level = halve(level, w, h);
+                w = (w + 1) / 2;
+                h = (h + 1) / 2;
+            }
+
+            if (BLMain.debug) {
+                System.err.println("SequenceOverview - calculated rows "
+                        + startCell + "-" + endCell + " and columns "
+                        + startColCell + "-" + endColCell + " of " + width + "x"
+                        + height + " image in "
+                        + ((System.nanoTime() - time) / 1000000) + " ms");
+            }
+            return result.toArray(new BufferedImage[result.size()]);
+        }
+
+        /**
+         * Installs the calculated image (on the event dispatch thread), and
+         * starts any calculation which was postponed.
+         */
+        @Override
+        protected void done() {
+            builder = null;
+            try {
+                levels = get();
+                base = pixels;
+                baseRows = rows;
+                baseCols = cols;
+                repaint();
+            } catch (InterruptedException ie) {
+                ie.printStackTrace(System.err);
+            } catch (ExecutionException ee) {
+                ee.getCause().printStackTrace(System.err);
+            }
+            if (dirtyEnd >= 0 || dirtyColEnd >= 0) {
+                timer.restart();
+            }
+        }
+
+        /**
+         * Calculates a range of cells within a row of the base image.  The
+         * colour of each cell is the average colour of the residues within
+         * the cell (positions beyond the end of a sequence, and gaps, are
+         * counted as the background colour).
+         **
+         * @param cell     the row of the base image to calculate.
+         * @param fromcol  the first column of the base image to calculate.
+         * @param tocol    the last column of the base image to calculate.
+         */
+        private void calculateRow(int cell, int fromcol, int tocol) {
+            // The sums of the red, green and blue values of each cell.
+            final long[] red = new long[width];
+            final long[] green = new long[width];
+            final long[] blue = new long[width];
+            // The number of residues within each cell.
+            final int[] residues = new int[width];
+            // The buffer to read the sequences into.
+            final char[] buffer = new char[Math.min(CHUNK, Math.max(1, cols))];
+            // The rows of the alignment within the cell.
+            final int firstRow = first(cell, rows, height);
+            final int endRow = Math.min(rows, first(cell + 1, rows, height));
+            // The residues within the columns to calculate.
+            final int fromResidue = first(fromcol, cols, width);
+            final int toResidue = first(tocol + 1, cols, width);
+
+            for (int row = firstRow; row < endRow; row++) {
+                // The colour mask of the sequence (or the default colour
+                // mask, if the sequence does not have a colour mask).
+                final ColourMask mask = (data.getMask(row) != null
+                        ? data.getMask(row) : canvas.DEFAULT_MASK);
+                // The end of the residues to read from the sequence.
+                final int length = Math.min(toResidue,
+                                            data.getSequenceLength(row));
+                // The current column of the base image, and the first residue
+                // of the next column.
+                int column = fromcol;
+                int next = first(fromcol + 1, cols, width);
+
+                for (int offset = fromResidue; offset < length;
+                                               offset += buffer.length) {
+                    // The number of characters read.
+                    final int count = data.getSequence(buffer, row,
+                            offset, Math.min(buffer.length, length - offset));
+
+                    for (int index = 0; index < count; index++) {
+                        // The character, and its position within the sequence.
+                        final char c = buffer[index];
+                        final int position = offset + index;
+
+                        while (position >= next && column < width - 1) {
+                            column++;
+                            next = first(column + 1, cols, width);
+                        }
+                        if (Character.isLetter(c)) {
+                            final int rgb = (mask != null
+                                    ? mask.getColour(c, position)
+                                    : ColourMask.FOREG).getRGB();
+
+                            red[column] += (rgb >> 16) & 0xFF;
+                            green[column] += (rgb >> 8) & 0xFF;
+                            blue[column] += rgb & 0xFF;
+                            residues[column]++;
+                        }
+                    }
+                }
+            }
+
+            // Average the colours of each cell.
+            final int bg = BACKGROUND.getRGB();
+            for (int column = fromcol; column <= tocol; column++) {
+                // The number of positions within the cell.
+                final long cellSize = (long) Math.max(1, endRow - firstRow)
+                        * Math.max(1, Math.min(cols, first(column + 1, cols,
+                                               width)) - first(column, cols,
+                                               width));
+                // The number of positions counted as background.
+                final long empty = Math.max(0, cellSize - residues[column]);
+
+                pixels[cell * width + column] =
+                        (int) ((red[column] + empty * ((bg >> 16) & 0xFF))
+                               / cellSize) << 16
+                        | (int) ((green[column] + empty * ((bg >> 8) & 0xFF))
+                                 / cellSize) << 8
+                        | (int) ((blue[column] + empty * (bg & 0xFF))
+                                 / cellSize);
+            }
+        }
+    }
+
+    /**
+     * Halves the size of an image, by averaging each 2x2 block of pixels.
+     **
+     * @param  pixels the pixels of the image.
+     * @param  width  the width of the image.
+     * @param  height the height of the image.
+     * @return the pixels of the halved image.
+     */
+    private static int[] halve(int[] pixels, int width, int height) {
+        // The size of the halved image.
+        final int w = (width + 1) / 2;
+        final int h = (height + 1) / 2;
+        // The pixels of the halved image.
+        final int[] result = new int[w * h];
+
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // The pixels within the block (clipped to the image).
+                final int x0 = x * 2;
+                final int y0 = y * 2;
+                final int x1 = Math.min(width - 1, x0 + 1);
+                final int y1 = Math.min(height - 1, y0 + 1);
+                final int a = pixels[y0 * width + x0];
+                final int b = pixels[y0 * width + x1];
+                final int c = pixels[y1 * width + x0];
+                final int d = pixels[y1 * width + x1];
+
+                result[y * w + x] =
+                        ((((a >> 16) & 0xFF) + ((b >> 16) & 0xFF)
+                          + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF)) / 4) << 16
+                        | ((((a >> 8) & 0xFF) + ((b >> 8) & 0xFF)
+                          + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF)) / 4) << 8
+                        | (((a & 0xFF) + (b & 0xFF) + (c & 0xFF)
+                          + (d & 0xFF)) / 4);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * SequenceSearch.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import org.biolegato.main.BLMain;
+import org.biolegato.sequence.data.Dataset;
+import org.biolegato.sequence.data.ResidueSearch;
+
+/**
+ * <p>A window for searching the residues of the sequences in a sequence canvas
+ * for a motif (see ResidueSearch).</p>
+ *
+ * <p>The search runs on a pool of background threads, on a snapshot of the
+ * canvas's Dataset object (see Dataset.snapshot); therefore, the canvas may
+ * be edited while a search is running.  The hits are added to the results
+ * list as each task of the search completes, rather than once the whole
+ * search is complete.  Clicking a hit selects the hit in the sequence text
+ * area, and scrolls the text area to display it.</p>
+ *
+ * <p>Each hit refers to the sequence it was found in, so clicking a hit
+ * still selects the right sequence after sequences are added or removed;
+ * hits whose sequence has been removed are dropped from the list when they
+ * are clicked.</p>
+ *
+ * <p><i>NOTE: the column numbers of the hits are those of the snapshot
+ *       searched; if the residues are edited after the search, the hits may
+ *       no longer select the residues which were found.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class SequenceSearch extends JDialog
+                        implements ActionListener, ListSelectionListener {
+
+    /**
+     * The Dataset object to search.
+     */
+    private final Dataset datamodel;
+    /**
+     * The text area to select the hits in.
+     */
+    private final SequenceTextArea textArea;
+    /**
+     * The text field for entering the motif to search for.
+     */
+    private final JTextField motifField = new JTextField(30);
+    /**
+     * A checkbox for searching both strands of nucleotide sequences.
+     */
+    private final JCheckBox strandsCB = new JCheckBox("Both strands", true);
+    /**
+     * A checkbox for ignoring gaps within the sequences.
+     */
+    private final JCheckBox gapsCB = new JCheckBox("Ignore gaps");
+    /**
+     * A checkbox for searching for a regular expression (rather than a
+     * residue pattern).
+     */
+    private final JCheckBox regexCB = new JCheckBox("Regular expression");
+    /**
+     * A button for starting a search.
+     */
+    private final JButton findB = new JButton("Find");
+    /**
+     * A button for stopping the current search.
+     */
+    private final JButton stopB = new JButton("Stop");
+    /**
+     * The hits found by the current (or last) search.
+     */
+    private final DefaultListModel<ResidueSearch.Hit> hits
+            = new DefaultListModel<ResidueSearch.Hit>();
+    /**
+     * The list displaying the hits.
+     */
+    private final JList<ResidueSearch.Hit> hitList
+            = new JList<ResidueSearch.Hit>(hits);
+    /**
+     * The status of the current (or last) search.
+     */
+    private final JLabel status = new JLabel(" ");
+    /**
+     * The current search (null if no search has been started).
+     */
+    private Searcher searcher = null;
+    /**
+     * The number of threads used to search the sequences.
+     */
+    private static final int THREADS
+            = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * Used for serialization purposes
+     */
+    private static final long serialVersionUID = 7526472295622777052L;
+
+    /**
+     * Creates a new search window (this must be called from the Swing event
+     * dispatch thread).
+     **
+     * @param window     the parent window.
+     * @param datamodel  the Dataset object to search.
+     * @param textArea   the text area to select the hits in.
+     */
+    SequenceSearch(JFrame window, Dataset datamodel,
+                   SequenceTextArea textArea) {
+        super(window, "Find");
+
+        // Create new box objects to display the search options.
+        final Box mainPane = new Box(BoxLayout.PAGE_AXIS);
+        final Box motifPane = new Box(BoxLayout.LINE_AXIS);
+        final Box optionPane = new Box(BoxLayout.LINE_AXIS);
+        // The scroll pane for the list of hits.
+        final JScrollPane hitPane = new JScrollPane(hitList);
+
+        this.datamodel = datamodel;
+        this.textArea = textArea;
+
+        // Add the motif field, and the find and stop buttons.  Pressing
+        // enter within the motif field also starts a search.
+        motifPane.add(new JLabel("Motif "));
+        motifPane.add(motifField);
+        motifPane.add(findB);
+        motifPane.add(stopB);
+        motifField.addActionListener(this);
+        findB.addActionListener(this);
+        stopB.addActionListener(this);
+        stopB.setEnabled(false);
+
+        // Add the search option checkboxes.
+        optionPane.add(strandsCB);
+        optionPane.add(gapsCB);
+        optionPane.add(regexCB);
+        optionPane.add(Box.createHorizontalGlue());
+
+        // Set up the list of hits.  The size of the list's cells is fixed, so
+        // the list does not measure every hit whenever hits are added.
+        hitList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        hitList.setFixedCellWidth(400);
+        hitList.setFixedCellHeight(
+                hitList.getFontMetrics(hitList.getFont()).getHeight() + 2);
+        hitList.addListSelectionListener(this);
+        hitPane.setPreferredSize(new Dimension(450, 300));
+
+        // Display the search window.
+        mainPane.add(motifPane);
+        mainPane.add(optionPane);
+        add(mainPane, BorderLayout.PAGE_START);
+        add(hitPane, BorderLayout.CENTER);
+        add(status, BorderLayout.PAGE_END);
+        setDefaultCloseOperation(JDialog.HIDE_ON_CLOSE);
+        pack();
+        setLocationRelativeTo(window);
+    }
+
+    /**
+     * Handles find and stop button clicks (and enter key presses within the
+     * motif field).
+     **
+     * @param evt the event object to handle.
+     */
+    public void actionPerformed(ActionEvent evt) {
+        // The new search to run.
+        ResidueSearch search;
+
+        if (searcher != null) {
+            searcher.cancel(true);
+        }
+        if (evt.getSource() != stopB) {
+            try {
+                search = new ResidueSearch(motifField.getText(),
+                        regexCB.isSelected(), strandsCB.isSelected(),
+                        gapsCB.isSelected());
+
+                hits.clear();
+                status.setText("Searching...");
+                findB.setEnabled(false);
+                stopB.setEnabled(true);
+                searcher = new Searcher(search.tasks(datamodel));
+                searcher.execute();
+            } catch (IllegalArgumentException iae) {
+                JOptionPane.showMessageDialog(this, iae.getMessage(),
+                        "Invalid search pattern", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Selects the hit clicked in the list of hits within the text area (or
+     * drops the hit, if its sequence has been removed from the Dataset).
+     **
+     * @param evt the list selection event to handle.
+     */
+    public void valueChanged(ListSelectionEvent evt) {
+        // The hit selected.
+        final ResidueSearch.Hit hit = hitList.getSelectedValue();
+        // The current row of the hit's sequence.
+        int row;
+
+        if (!evt.getValueIsAdjusting() && hit != null) {
+            row = hit.getRow(datamodel);
+            if (row >= 0) {
+                textArea.select(row, hit.getStart(), hit.getEnd());
+            } else {
+                hitList.clearSelection();
+                hits.removeElement(hit);
+                status.setText("The sequence of the hit has been removed: "
+                        + hits.size() + " hits");
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks of a search on a pool of background threads, and adds
+     * the hits found by each task to the list of hits as soon as the task is
+     * complete.
+     */
+    private final class Searcher extends SwingWorker<Integer,
+                                                     ResidueSearch.Hit> {
+
+        /**
+         * The tasks of the search.
+         */
+        private final List<Callable<List<ResidueSearch.Hit>>> tasks;
+
+        /**
+         * Creates a new search worker.  To start the search, call 'execute'.
+         **
+         * @param tasks  the tasks of the search (see ResidueSearch.tasks).
+         */
+        Searcher(List<Callable<List<ResidueSearch.Hit>>> tasks) {
+            this.tasks = tasks;
+        }
+
+        /**
+         * Runs the search (on a background thread).  The hits found by each
+         * task are published in the order the tasks complete.
+         **
+         * @return the number of hits found.
+         * @throws Exception if the search is interrupted.
+         */
+        @Override
+        protected Integer doInBackground() throws Exception {
+            // The number of hits found.
+            int count = 0;
+            // The thread pool used to run the tasks.
+            final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            // Returns the tasks in the order they complete.
+            final CompletionService<List<ResidueSearch.Hit>> service
+                    = new ExecutorCompletionService<List<ResidueSearch.Hit>>(
+                                                                        pool);
+            // The time the search started (used for debugging).
+            final long time = System.nanoTime();
+
+            try {
+                for (Callable<List<ResidueSearch.Hit>> task : tasks) {
+                    service.submit(task);
+                }
+                for (int done = 0; done < tasks.size() && !isCancelled();
+                                                                    done++) {
+                    try {
+                        // The hits found by the task.
+                        final List<ResidueSearch.Hit> found
+                                = service.take().get();
+
+                        if (!found.isEmpty()) {
+                            count += found.size();
+                            publish(found.toArray(
+                                    new ResidueSearch.Hit[found.size()]));
+                        }
+                    } catch (ExecutionException ee) {
+                        ee.getCause().printStackTrace(System.err);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            if (BLMain.debug) {
+                System.err.println("Search - found " + count + " hits using "
+                        + tasks.size() + " tasks in "
+                        + ((System.nanoTime() - time) / 1000000) + " ms");
+            }
+            return count;
+        }
+
+        /**
+         * Adds hits to the list of hits (on the event dispatch thread).
+         **
+         * @param chunks the hits to add.
+         */
+        @Override
+        protected void process(List<ResidueSearch.Hit> chunks) {
+            if (!isCancelled()) {
+                for (ResidueSearch.Hit hit : chunks) {
+                    hits.addElement(hit);
+                }
+                status.setText("Searching... " + hits.size() + " hits");
+            }
+        }
+
+        /**
+         * Displays the number of hits found (on the event dispatch thread).
+         */
+        @Override
+        protected void done() {
+            if (searcher == this) {
+                findB.setEnabled(true);
+                stopB.setEnabled(false);
+                if (isCancelled()) {
+                    status.setText("Search stopped: " + hits.size()
+                            + " hits");
+                } else if (hits.size() >= ResidueSearch.MAX_HITS) {
+                    status.setText(hits.size() + " hits (the search stopped"
+                            + " at the maximum number of hits)");
+                } else {
+                    status.setText(hits.size() + " hits");
+                }
+            }
+        }
+    }
+}
@@ -30,6 +30,8 @@ import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 import org.biolegato.main.BLMain;
 import org.biolegato.sequence.data.DataFormat;
+import org.biolegato.sequence.data.SequenceSelection;
+import org.biolegato.sequence.data.TextLengthListener;
 
 /**
  * <p>A general canvas with more functionality support than JTextArea.</p>
@@ -51,7 +53,8 @@ import org.biolegato.sequence.data.DataFormat;
  * @see org.biolegato.sequence.canvas.ColourMask
  */
 public class SequenceTextArea extends JComponent implements ListDataListener,
-        SequenceCanvasObject, KeyListener, MouseMotionListener, MouseListener {
+        TextLengthListener, SequenceCanvasObject, KeyListener,
+        MouseMotionListener, MouseListener {
 
     /**
      * The height of each row (in pixels) in the text area.  This is calculated
@@ -305,6 +308,14 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
      * @see javax.swing.JComponent#setPreferredSize(java.awt.Dimension)
      */
     private int longestline = 0;
+    /**
+     * The cache of rendered blocks of the text area.  This is used to avoid
+     * re-drawing the text of every visible row whenever the text area is
+     * repainted (e.g. when the caret moves, or the selection changes).
+     **
+     * @see org.biolegato.sequence.canvas.TileCache
+     */
+    private final TileCache tiles = new TileCache(this);
     /**
      * Self-reference (used for inner-classes).
      */
@@ -336,6 +347,7 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
 
         // Configure the text area to listen for events (such as key presses).
         datamodel.addListDataListener(blTextAreaSelf);
+        datamodel.addTextLengthListener(blTextAreaSelf);
         addKeyListener(blTextAreaSelf);
         addMouseListener(blTextAreaSelf);
         addMouseMotionListener(blTextAreaSelf);
@@ -377,12 +389,19 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
      * This function uses the current clip bounds to determine the area which
      * needs to be redrawn.  By using the current clip bounds, this method can
      * work faster by only redrawing the areas of the component which need
-     * redrawing (i.e. areas which have been updated).
+     * redrawing (i.e. areas which have been updated).  The background and
+     * unselected text are copied from the tile cache, whenever possible, so
+     * that only the selection and the text caret need to be drawn.
      **
      * @param gfx the graphics instance to paint the window to.
+     * @see org.biolegato.sequence.canvas.TileCache
      */
     @Override
     public void paintComponent(Graphics gfx) {
+        // The time the painting started (used for reporting the repaint cost
+        // in debug mode).
+        final long paintStart = System.nanoTime();
+
         try {
             ////////////////////////////////
             // Print adjustment constants //
@@ -462,22 +481,23 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
             int curr_y = ystart;
             int datalength = -1;
             char[] print = new char[collength];
-            ColourMask mask = null;
 
             try {
-                // Print the normal background first.  This must be done because
-                // selected text has a background different from the normal
-                // text background; therefore, we cannot ensure that the text
-                // we are drawing was not previously selected, and thus a
-                // different background colour.  Also, redrawing the background
-                // clears any problems created by redrawing different text.
+                // Paint the background and the unselected text first.  If
+                // possible, the background and text are copied from the tile
+                // cache; otherwise (e.g. when printing), the background and
+                // text are drawn directly.
                 gfx.setFont(getFont());
-                gfx.setColor(getBackground());
-                gfx.fillRect(startcol * colWidth, startrow * rowHeight,
-                        collength * colWidth,
-                        (stoprow - startrow + 1) * rowHeight);
+                if (TileCache.canPaint(gfx)) {
+                    tiles.paint(gfx, startrow, stoprow, startcol, collength,
+                                datamodel.getSize());
+                } else {
+                    paintRows(gfx, startrow, stoprow, startcol, collength);
+                }
 
                 // Paint the background for any selected text (the blue part).
+                // This covers any unselected text drawn underneath the
+                // selection.
                 if (startSelectX >= 0 && startSelectX < endSelectX
                         && maxsy >= startrow && minsy <= stoprow) {
                     // Determine the box area to print the text (Y-coordinates).
@@ -492,139 +512,29 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
                             endbox * rowHeight);
                 }
 
-                // Print each sequence row within the print area.
-                for (curr_row = startrow, curr_y = ystart;
-                        curr_row <= stoprow; curr_row++, curr_y += rowHeight) {
-
-                    // Extract a character array of sequence characters to print
-                    // within the current row.
-                    datalength = datamodel.getSequence(print, curr_row,
-                                                       startcol, collength);
-
-                    // If the array length is greater than zero, then there are
-                    // characters to print.  If not, then the row can be skipped
-                    // because the row's sequence does not contain any
-                    // characters within the printing/clip range given to this
-                    // method/function.
-                    if (datalength > 0) {
-
-                        // Use the colour masks specified for the current
-                        // sequence object, if available.  If no colour mask is
-                        // available for the current sequence, then use the
-                        // default sequence colour mask.
-                        mask = datamodel.getMask(curr_row);
-
-                        // Check whether the segment of the current row
-                        // to be drawn contains a portion of selected text.
-                        // If so, we must draw the selected text differently
-                        // (using the selected text foreground and background).
-                        if (curr_row >= minsy && curr_row <= maxsy
-                                              && maxsx >= startcol) {
-                            /////////////////////////////////
-                            // UNSELECTED TEXT TO THE LEFT //
-                            /////////////////////////////////
-                            // Since the line contains selected text, check
-                            // whether the selection starts before or after the
-                            // starting position of the area to draw.  If it is
-                            // after, then we must begin drawing the unselected
-                            // before (to the left of) the selected text.
-                            if (minsx > startcol) {
-                                // Branch based on whether a colour mask is
-                                // available to use for drawing.
-                                if (mask != null) {
-                                    // If a colour mask for the sequence is
-                                    // available, use it.
-                                    mask.drawString(gfx, print, 0,
-                                            Math.min(datalength, minsxcol),
-                                            xstart, curr_y);
-	                        } else if (canvas.DEFAULT_MASK != null) {
-                                    // If no colour mask is available for the
-                                    // sequence, BUT a default mask is available
-                                    // use the default mask.
-	                            canvas.DEFAULT_MASK.drawString(gfx, print,
-                                            0, datalength, xstart, curr_y);
-                                } else {
-                                    // If no colour mask is available for the
-                                    // sequence, and a default colour mask is
-                                    // also unavailable, use the default
-                                    // foreground colour (Colourmask.FOREG).
-                                    gfx.setColor(ColourMask.FOREG);
-                                    gfx.drawChars(print, 0, Math.min(datalength,
-                                            minsxcol), xstart, curr_y);
-                                }
-                            }
-
-                            ///////////////////
-                            // SELECTED TEXT //
-                            ///////////////////
-                            // Since the line contains selected text, first
-                            // check whether the line is long enough to have
-                            // any selected text to print, within the drawing
-                            // region defined by the clip area.  If so, then
-                            // set the foreground colour and paint the selected
-                            // text regions.  (Do not use any colour masking.)
-                            if (minsxcol <= datalength) {
-                                gfx.setColor(SELECTFG);
-                                gfx.drawChars(print, minsxcol,
-                                        (Math.min(maxsxcol, datalength)
-                                            - minsxcol), startSelectX, curr_y);
-                            }
-
-                            //////////////////////////////////
-                            // UNSELECTED TEXT TO THE RIGHT //
-                            //////////////////////////////////
-                            // Since the line contains selected text, check
-                            // whether there is any text, within the clip area
-                            // drawing region, to print after the selected text.
-                            // If so, print any text (to the right) of the
-                            // selected text region.
-                            if (maxsxcol <= datalength) {
-                                // Branch based on whether a colour mask is
-                                // available to use for drawing.
-                                if (mask != null) {
-                                    // If a colour mask for the sequence is
-                                    // available, use it.
-                                    mask.drawString(gfx, print, maxsxcol,
-                                            datalength - maxsxcol,
-                                            endSelectX, curr_y);
-	                        } else if (canvas.DEFAULT_MASK != null) {
-                                    // If no colour mask is available for the
-                                    // sequence, BUT a default mask is available
-                                    // use the default mask.
-	                            canvas.DEFAULT_MASK.drawString(gfx, print,
-                                            0, datalength, xstart, curr_y);
-                                } else {
-                                    // If no colour mask is available for the
-                                    // sequence, and a default colour mask is
-                                    // also unavailable, use the default
-                                    // foreground colour (Colourmask.FOREG).
-                                    gfx.setColor(ColourMask.FOREG);
-                                    gfx.drawChars(print, maxsxcol,
-                                            datalength - maxsxcol,
-                                            endSelectX, curr_y);
-                                }
-                            }
-                        } else if (mask != null) {
-                            // Since no text is selected, just print the text.
-                            // Because a colour mask is available, use it when
-                            // printing the text.
-                            mask.drawString(gfx, print, 0,
-                                    datalength, xstart, curr_y);
-                        } else if (canvas.DEFAULT_MASK != null) {
-                            // Since no text is selected, just print the text.
-                            // Because no colour mask is available for the
-                            // sequence, BUT a default mask is available, use
-                            // the default colour mask.
-                            canvas.DEFAULT_MASK.drawString(gfx, print, 0,
-                                    datalength, xstart, curr_y);
-                        } else {
-                            // Since no text is selected, just print the text.
-                            // Because no colour mask is available for the
-                            // sequence, and a default colour mask is also
-                            // unavailable, use the default foreground colour
-                            // for printing the sequence (Colourmask.FOREG).
-                            gfx.setColor(ColourMask.FOREG);
-                            gfx.drawChars(print, 0, datalength, xstart, curr_y);
+                // Print the selected text within each sequence row of the
+                // selection (which is also within the print area).  The
+                // selected text is drawn using the selected text foreground
+                // colour.  (Do not use any colour masking.)
+                if (maxsx >= startcol) {
+                    for (curr_row = Math.max(startrow, minsy),
+                            curr_y = ystart + (curr_row - startrow) * rowHeight;
+                            curr_row <= Math.min(stoprow, maxsy);
+                            curr_row++, curr_y += rowHeight) {
+
+                        // Extract a character array of sequence characters
+                        // to print within the current row.
+                        datalength = datamodel.getSequence(print, curr_row,
+                                startcol, collength);
+
+                        // Check whether the line is long enough to have any
+                        // selected text to print, within the drawing region
+                        // defined by the clip area.
+                        if (datalength > 0 && minsxcol <= datalength) {
+                            gfx.setColor(SELECTFG);
+                            gfx.drawChars(print, minsxcol,
+                                    (Math.min(maxsxcol, datalength)
+                                        - minsxcol), startSelectX, curr_y);
                         }
                     }
                 }
@@ -653,9 +563,16 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
                 System.err.println("    datalength:   " + datalength);
                 System.err.println("    print:        " + print);
                 System.err.println("    print.length: " + print.length);
-                System.err.println("    mask:         " + mask);
                 th.printStackTrace(System.err);
             }
+
+            // Report the repaint cost.
+            if (BLMain.debug) {
+                System.err.println("SequenceTextArea - painted rows "
+                        + startrow + "-" + stoprow + " (" + collength
+                        + " columns) in "
+                        + ((System.nanoTime() - paintStart) / 1000) + " us");
+            }
         } catch (Throwable th) {
             // Print a stack grace if any errors occur while initializing the
             // paint variables (i.e. calculation errors).
@@ -664,6 +581,80 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
         }
     }
 
+    /**
+     * Paints the background and the (unselected) text of a range of rows and
+     * columns.  Each row is drawn using its sequence's colour mask (if
+     * available), or the default colour mask.  This method is used both to
+     * render the tiles of the tile cache, and to paint the text area directly
+     * (e.g. when printing).
+     **
+     * @param gfx        the graphics object to paint to.
+     * @param startrow   the first row to paint.
+     * @param stoprow    the last row to paint.
+     * @param startcol   the first column to paint.
+     * @param collength  the number of columns to paint.
+     * @see org.biolegato.sequence.canvas.TileCache
+     */
+    void paintRows(Graphics gfx, int startrow, int stoprow, int startcol,
+                   int collength) {
+        // The print adjustment constants (see paintComponent).
+        final int fontcenterXmod = colWidth / 2;
+        final int fontcenterYmod = -5;
+        // The X co-ordinate to begin drawing each row at.
+        final int xstart = (startcol * colWidth) + fontcenterXmod;
+        // The sequence characters to print within the current row.  NOTE:
+        // ColourMask.drawString never draws the last character of the array;
+        // therefore, the array is one character longer than the number of
+        // columns to paint.
+        final char[] print = new char[collength + 1];
+        // The number of characters to print within the current row.
+        int datalength;
+        // The colour mask for the current row.
+        ColourMask mask;
+
+        // Print the normal background first.  Redrawing the background clears
+        // any problems created by redrawing different text.
+        gfx.setFont(getFont());
+        gfx.setColor(getBackground());
+        gfx.fillRect(startcol * colWidth, startrow * rowHeight,
+                collength * colWidth, (stoprow - startrow + 1) * rowHeight);
+
+        // Print each sequence row within the print area.
+        for (int curr_row = startrow, curr_y = (startrow * rowHeight)
+                + fontcenterYmod + rowHeight; curr_row <= stoprow;
+                curr_row++, curr_y += rowHeight) {
+
+            // Extract a character array of sequence characters to print
+            // within the current row.
+            datalength = datamodel.getSequence(print, curr_row, startcol,
+                                               collength);
+
+            // If the array length is greater than zero, then there are
+            // characters to print.
+            if (datalength > 0) {
+                // Use the colour masks specified for the current sequence
+                // object, if available.  If no colour mask is available for
+                // the current sequence, then use the default sequence colour
+                // mask.
+                mask = datamodel.getMask(curr_row);
+                if (mask == null) {
+                    mask = canvas.DEFAULT_MASK;
+                }
+
+                if (mask != null) {
+                    mask.drawString(gfx, print, 0, datalength, xstart, curr_y,
+                                    startcol);
+                } else {
+                    // If no colour mask is available for the sequence, and a
+                    // default colour mask is also unavailable, use the default
+                    // foreground colour (Colourmask.FOREG).
+                    gfx.setColor(ColourMask.FOREG);
+                    gfx.drawChars(print, 0, datalength, xstart, curr_y);
+                }
+            }
+        }
+    }
+
     /**
      * Updates the font for the text area.  This method also updates the row
      * height and column width, updates the size of the canvas (for scrolling)
@@ -734,33 +725,53 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
                 default:
                     // First, handle the readonly property (i.e. prevent any
                     // possible data manipulation if the editable status is on!)
-                    if (canvas.editable) {
-                        // If any text is selected, delete that text.  Or, if no
-                        // text is selected, but the insertion status is on,
-                        // (insertion status is controlled by the INSERT key)
-                        // then delete the next character in the sequence,
-                        // before inserting the new character (this will make
-                        // the insertion look like an overwrite to the user,
-                        // assuming the permissions are correct).
-                        if (!isSelectionEmpty()) {
-                            deleteSelection(true);
-                        } else if (insertMode && datamodel.getSize() > 0
-                                && datamodel.getSequenceLength(row) > 0) {
-                            canInsert = delete(col, row, 1, 0, true);
+                    // Control characters (e.g. CTRL+Z, which is typed as the
+                    // character '\u001a' by some platforms) are also skipped,
+                    // because they are handled by the menu accelerators.
+                    if (canvas.editable
+                            && !Character.isISOControl(event.getKeyChar())) {
+                        // Whether the new character replaces any text.  If so,
+                        // the deletion and the insertion are undone together.
+                        final boolean replace = !isSelectionEmpty()
+                                                || insertMode;
+
+                        if (replace) {
+                            datamodel.beginEdit();
                         }
+                        try {
+                            // If any text is selected, delete that text.  Or,
+                            // if no text is selected, but the insertion status
+                            // is on, (insertion status is controlled by the
+                            // INSERT key) then delete the next character in the
+                            // sequence, before inserting the new character
+                            // (this will make the insertion look like an
+                            // overwrite to the user, assuming the permissions
+                            // are correct).
+                            if (!isSelectionEmpty()) {
+                                deleteSelection(true);
+                            } else if (insertMode && datamodel.getSize() > 0
+                                    && datamodel.getSequenceLength(row) > 0) {
+                                canInsert = delete(col, row, 1, 0, true);
+                            }
 
-                        // Insert the new character, unless there was a problem
-                        // deleting characters in the selection (if text was
-                        // selected prior to calling this function), or unless
-                        // there was a problem deleting the next character, if
-                        // the insertion status was turned on prior to calling
-                        // this function (keyTyped).
-                        if (isSelectionEmpty() || !insertMode || canInsert) {
-                            // Insert the new character.
-                            insert(col, row,
-                                    new char[]{ event.getKeyChar() }, true);
-                            // Move the text caret forward one character.
-                            changePosition(false, col + 1, row);
+                            // Insert the new character, unless there was a
+                            // problem deleting characters in the selection (if
+                            // text was selected prior to calling this
+                            // function), or unless there was a problem deleting
+                            // the next character, if the insertion status was
+                            // turned on prior to calling this function.
+                            if (isSelectionEmpty() || !insertMode
+                                    || canInsert) {
+                                // Insert the new character.
+                                insert(col, row,
+                                        new char[]{ event.getKeyChar() }, true);
+                                // Move the text caret forward one character.
+                                changePosition(false, col + 1, row);
+                            }
+                        } finally {
+                            if (replace) {
+                                datamodel.endEdit();
+                            }
                         }
                     }
                     break;
@@ -1183,38 +1194,20 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
      * case of the first character in the sequence (i.e. "CDCDCD").
      */
     public void changeCase() {
-        // The number of characters, on each line, to change the case of.
-        int    length;
-        // An array used to extract and modify the sequence data's case.
-        char[] data;
+        // The line numbers of the selected rows.
+        int[] rows;
 
         // Ensure that some text is selected, before beginning.
         if (!isSelectionEmpty()) {
-            // Create a new array to use for extracting the sequence data.
-            data = new char[maxsx - minsx];
-
-            // Iterate through each line in the selected text.
+            rows = new int[maxsy - minsy + 1];
             for (int y = minsy; y <= maxsy; y++) {
-                // Determine the length of text selected on the current line.
-                length = datamodel.getSequence(data, y, minsx, maxsx - minsx);
-
-                // If there is text selected on the current line, then alter its
-                // case (from upper to lower, or lower to upper).
-                if (length > 0) {
-
-                    // Invert the case of the sequence data selected.
-                    for (int count = 0; count < length; count++) {
-                        data[count] = (Character.isUpperCase(data[count])
-                            ? Character.toLowerCase(data[count])
-                            : Character.toUpperCase(data[count]));
-                    }
-
-                    // Replace the original text with the altered-case version
-                    // of the text selected.
-                    datamodel.delete(minsx, y, length, false);
-                    datamodel.insert(minsx, y, data, 0, length, false);
-                }
+                rows[y - minsy] = y;
             }
+
+            // Invert the case of the text selected, in place (from upper to
+            // lower, or lower to upper).
+            datamodel.transform(rows, minsx, maxsx,
+                                Dataset.Transform.CHANGE_CASE, false);
         }
     }
 
@@ -1246,9 +1239,15 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
         // into all sequences in the group.  Otherwise, we just insert the text
         // into sequence 'y' only.
         if (groupinsert && group != null) {
-            // Iterate through the group and perform the mass insertion.
-            for (int number : group) {
-                insert(x, number, text, false);
+            // Iterate through the group and perform the mass insertion.  The
+            // insertions are recorded as a single step in the undo history.
+            datamodel.beginEdit();
+            try {
+                for (int number : group) {
+                    insert(x, number, text, false);
+                }
+            } finally {
+                datamodel.endEdit();
             }
         } else {
             datamodel.insert(x, y, text, 0, text.length, true);
@@ -1285,6 +1284,42 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
         // character deletion was successful (regardless of whether x+w exceeded
         // the sequence length of the successful deletion).
         boolean result = false;
+        // Whether the deletion may modify more than one sequence.  If so, the
+        // deletions are recorded as a single step in the undo history.
+        final boolean multiple = (h > 0
+                || (groupdel && datamodel.getgroup(y) != null));
+
+        if (multiple) {
+            datamodel.beginEdit();
+        }
+        try {
+            result = deleteRows(x, y, w, max, groupdel, group);
+        } finally {
+            if (multiple) {
+                datamodel.endEdit();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes characters from a range of sequences, and (optionally) the
+     * sequences grouped with them.  This is the body of <b>delete</b>.
+     **
+     * @param x the X-offset/column number to start the deletion from.
+     * @param y the first line number to delete characters from.
+     * @param w the number of characters to delete from each sequence.
+     * @param max the last line number to delete characters from.
+     * @param groupdel whether to delete from sequences outside the range that
+     *                 are grouped to at least one sequence within the range.
+     * @param group the set to collect the grouped sequence numbers in.
+     * @return true if the deletion was successful for at least one line.
+     */
+    private boolean deleteRows(final int x, final int y, final int w,
+                               final int max, final boolean groupdel,
+                               final Set<Integer> group) {
+        // The result boolean to return.
+        boolean result = false;
 
         // Iterate through every sequence in the deletion zone (x, y, w, h)
         for (int count = y; count <= max; count++) {
@@ -1421,6 +1456,9 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
             // Update the size of the textarea from the event object.
             updateLength(e.getIndex0(), e.getIndex1());
 
+            // Discard the cached tiles of the modified rows.
+            tiles.invalidateRows(e.getIndex0(), e.getIndex1());
+
             // Set the X co-ordinate to start repainting at.
             final int x = 0;
             // Obtain the width of the area to repaint.  This is the maximum
@@ -1431,8 +1469,8 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
             // Calculate the height of the area to repaint.
             final int h = row2Y(e.getIndex1() - e.getIndex0() + 1);
 
-            // Repaint the modified area of the text area.
-            repaint(x, y, w, h);
+            // Schedule the modified area of the text area to be repainted.
+            canvas.repaints.damage(this, x, y, w, h);
         } else {
             // In case the event object is null, this else-clause will provide a
             // backup method for repainting the canvas appropriately (albeit
@@ -1441,16 +1479,18 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
 
             // Update the size of the text area and repaint the canvas.
             updateLength(0, datamodel.getSize());
-            repaint();
+            tiles.clear();
+            canvas.repaints.damage(this);
         }
     }
     
     /**
      * Called when a sequence is added to a Dataset.  This method calculates the
      * area of the sequence text area that needs to be repainted.  This method
-     * is called, primarily, by the Dataset sequence object container.  This
-     * method also attempts to move parts of the canvas, so as to optimize the
-     * repainting speed.
+     * is called, primarily, by the Dataset sequence object container.  Because
+     * the following sequences are moved down, every row from the first
+     * sequence added onward is scheduled to be repainted (see
+     * RepaintScheduler).
      **
      * @param e the list data event corresponding to the addition.  This object
      *          contains information about the coordinates affected, and is used
@@ -1466,37 +1506,23 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
             // Update the size of the text area.
             updateLength(e.getIndex0(), e.getIndex1());
 
+            // Discard the cached tiles of every row from the first row
+            // affected onward (because the following rows are moved).
+            tiles.invalidateRows(e.getIndex0(), Integer.MAX_VALUE);
+
             // Set the X co-ordinate to start repainting at.
             final int x = 0;
             // Obtain the width of the area to repaint.  This is the maximum
             // possible X co-ordinate on the screen.
             final int w = (int) getSize().getWidth();
-            // Obtain the Y co-ordinate for the area of the screen to move down.
-            final int y = row2Y(e.getIndex0());
             // Obtain the Y co-ordinate to start repainting at.
-            final int dy = row2Y(e.getIndex1() + 1);
-            // Calculate the height of the area to move down.
+            final int y = row2Y(e.getIndex0());
+            // Calculate the height of the area to repaint (every row from the
+            // first sequence added to the bottom of the text area).
             final int h = (int) getSize().getHeight() - y;
-            // Cache the graphics object to use for moving parts of the screen.
-            final Graphics gfx = getGraphics();
-
-            // Ensure that the graphics object is not null, so we can move parts
-            // of the screen (thereby speeding up the repainting algorithm).
-            if (gfx != null) {
-                // Move the unchanged part of the canvas down one notch, to make
-                // room for the new sequence(s) added.
-                gfx.copyArea(x, y, w, h, x, dy);
-
-                // Repaint the modified area of the text area.  This is the area
-                // on the screen where the added sequences will be displayed.
-                repaint(x, y, w, dy - y);
-            } else {
-                // If no graphics object is available, ensure that the method
-                // still functions properly by repainting the entire modified
-                // area of the canvas (including the areas of the canvas which
-                // just move downwards by some offset).
-                repaint(x, y, w, h);
-            }
+
+            // Schedule the modified area of the text area to be repainted.
+            canvas.repaints.damage(this, x, y, w, h);
         } else {
             // In case the event object is null, this else-clause will provide a
             // backup method for repainting the canvas appropriately (albeit
@@ -1505,7 +1531,8 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
 
             // Update the size of the text area and repaint the canvas.
             updateLength(0, datamodel.getSize());
-            repaint();
+            tiles.clear();
+            canvas.repaints.damage(this);
         }
     }
 
@@ -1513,8 +1540,9 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
      * Called when a sequence is removed from a Dataset.  This method calculates
      * the area of the sequence text area that needs to be repainted.  This
      * method is called, primarily, by the Dataset sequence object container.
-     * This method also attempts to move parts of the canvas, so as to optimize
-     * the repainting speed.
+     * Because the following sequences are moved up, every row from the first
+     * sequence removed onward is scheduled to be repainted (see
+     * RepaintScheduler).
      **
      * @param e the list data event corresponding to the deletion.  This object
      *          contains information about the coordinates affected, and is used
@@ -1530,33 +1558,25 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
             // Update the size of the text area.
             updateLength(e.getIndex0(), e.getIndex1());
 
+            // Discard the cached tiles of every row from the first row
+            // affected onward (because the following rows are moved).
+            tiles.invalidateRows(e.getIndex0(), Integer.MAX_VALUE);
+
             // Set the X co-ordinate to start repainting at.
             final int x = 0;
             // Obtain the width of the area to repaint.  This is the maximum
             // possible X co-ordinate on the screen.
             final int w = (int) getSize().getWidth();
-            // The original Y co-ordinate of the area to move.
-            final int y = row2Y(e.getIndex1() + 1);
-            // The Y new co-ordinate for the area (which will be moved up).
-            final int dy = row2Y(e.getIndex0());
-            // Calculate the height of the area to move up.
-            final int h = (int) getSize().getHeight() - y;
-            // Cache the graphics object to use for moving parts of the screen.
-            final Graphics gfx = getGraphics();
-
-            // Ensure that the graphics object is not null, so we can move parts
-            // of the screen (thereby speeding up the repainting algorithm).
-            if (gfx != null) {
-                // Move the unchanged part of the canvas up one notch, thereby
-                // deleting the sequences from the screen.
-                gfx.copyArea(x, y, w, h, x, dy);
-            } else {
-                // If no graphics object is available, ensure that the method
-                // still functions properly by repainting the entire modified
-                // area of the canvas (including the areas of the canvas which
-                // just move downwards by some offset).
-                repaint(x, y, w, h);
-            }
+            // Obtain the Y co-ordinate to start repainting at.
+            final int y = row2Y(e.getIndex0());
+            // Calculate the height of the area to repaint (every row from the
+            // first sequence removed to the bottom of the text area, including
+            // the rows which were just vacated).
+            final int h = Math.max((int) getSize().getHeight(),
+                                   row2Y(e.getIndex1() + 1)) - y;
+
+            // Schedule the modified area of the text area to be repainted.
+            canvas.repaints.damage(this, x, y, w, h);
         } else {
             // In case the event object is null, this else-clause will provide a
             // backup method for repainting the canvas appropriately (albeit
@@ -1565,15 +1585,37 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
 
             // Update the size of the text area and repaint the canvas.
             updateLength(0, datamodel.getSize());
-            repaint();
+            tiles.clear();
+            canvas.repaints.damage(this);
         }
     }
 
+    /**
+     * Repaints a range of columns of the text area, when the colours of
+     * computed colour masks change (see ColumnProfile).  Because the colour
+     * of any character within the columns may have changed, the cached tiles
+     * of the columns are discarded (in every row).
+     **
+     * @param startcol  the first column whose colours changed.
+     * @param stopcol   the last column whose colours changed.
+     */
+    public void masksChanged(int startcol, int stopcol) {
+        // The area to repaint (including the adjacent columns, whose glyphs
+        // may extend into the columns changed).
+        final long x = (long) Math.max(0, startcol - 1) * colWidth;
+        final long width = (stopcol + 2L) * colWidth - x;
+
+        tiles.invalidateColumnRange(startcol, stopcol);
+        canvas.repaints.damage(this, (int) Math.min(Integer.MAX_VALUE, x), 0,
+                (int) Math.min(Integer.MAX_VALUE, width), getHeight());
+    }
+
     /**
      * Manages text length changes.  This method calculates the area of the
-     * sequence text area that needs to be repainted.  This method is called,
-     * primarily, by the SequenceCanvas class.  This method also attempts to
-     * move parts of the canvas, so as to optimize the repainting speed.
+     * sequence text area that needs to be repainted (the modified row, from
+     * the column of the insertion or deletion to the right edge of the text
+     * area), and schedules it to be repainted (see RepaintScheduler).  This
+     * method is called, primarily, by the Dataset sequence object container.
      **
      * @param x the X-coordinate/column where the text length change began.
      * @param y the Y-coordinate/line number where the text length was changed.
@@ -1584,44 +1626,30 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
     public void textLengthChanged(int x, int y, int length) {
         // Translate the column X-coordinate to a screen X-coordinate.
         final int xstart = x * this.colWidth;
-        // Determine the screen width of the text length change.
-        final int xwidth = Math.abs(length) * this.colWidth;
         // Translate the row Y-coordinate to a screen Y-coordinate.
-        final int ystart = row2Y(row);
-        // Cache the graphics object to use for moving parts of the screen.
-        final Graphics gfx = getGraphics();
+        final int ystart = row2Y(y);
 
-        // Update the size of the textarea.
+        // Update the size of the textarea, and discard the cached tiles of the
+        // modified part of the line.
         updateLength(y, y);
-        
-        // Ensure that the graphics object is not null, so we can move parts of
-        // the screen (thereby speeding up the repainting algorithm).
-        if (gfx != null) {
-            // Determine if the line grew (length > 0) or shrunk (length < 0).
-            // If length is equal to zero, we will use the shrunk code, only
-            // because it is simpler, and avoids a call to the repaint function.
-            if (length > 0) {
-                // Move the unchanged part of the canvas to the left, thereby
-                // making space for the new characters added.
-                gfx.copyArea(xstart, ystart, getWidth(), rowHeight, xwidth, 0);
-
-                // Repaint the area where the new characters are located.
-                repaint(xstart, ystart, xwidth, rowHeight);
-            } else {
-                // Move the unchanged part of the canvas to the right, thereby
-                // deleting characters from the screen.
-                gfx.copyArea(xstart + xwidth, ystart, getWidth(), rowHeight,
-                        0 - xwidth, 0);
-            }
-        } else {
-            // In case the event object is null, this else-clause will provide a
-            // backup method for repainting the canvas appropriately (albeit
-            // less efficiently).  In this case, the entire row, which was
-            // altered, will be repainted.
+        tiles.invalidateColumns(y, x);
+
+        // Schedule the modified part of the line to be repainted.  NOTE: the
+        // whole remainder of the line is repainted (rather than moving the
+        // unchanged characters with copyArea), because the unchanged
+        // characters are drawn from the cached tiles.
+        canvas.repaints.damage(this, xstart, ystart, getWidth() - xstart,
+                               rowHeight);
+    }
 
-            // Update the size of the text area and repaint the canvas.
-            repaint(xstart, ystart, getWidth(), rowHeight);
-        }
+    /**
+     * Stops the text area from listening to its Dataset object.  This is
+     * called when the text area is discarded (e.g. when a split text area is
+     * joined), so that the Dataset does not continue to update it.
+     */
+    void detach() {
+        datamodel.removeListDataListener(this);
+        datamodel.removeTextLengthListener(this);
     }
 
     /**
@@ -1663,7 +1691,7 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
         // update the row and column
         this.row = Math.max(0, Math.min(newy, maxlines));
         this.col = Math.max(0, Math.min(newx,
-                                       (datamodel.getSequenceLength(newy))));
+                                       (datamodel.getSequenceLength(row))));
 
         // Determine whether we are updating the text selection (1st branch).
         // If we are updating the text selection, then we do not move sx or sy
@@ -1758,6 +1786,27 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
         changePosition(false, col, row);
     }
 
+    /**
+     * Selects a range of columns within a single row, and scrolls the text
+     * area to display the selection (used to display search hits -- see
+     * SequenceSearch).  The text caret is placed at the start of the range.
+     **
+     * @param row    the row to select the columns within.
+     * @param start  the first column to select.
+     * @param end    the column after the last column to select.
+     * @see org.biolegato.sequence.canvas.SequenceTextArea#changePosition(boolean, int, int)
+     */
+    public final void select(int row, int start, int end) {
+        changePosition(false, end, row);
+        changePosition(true, start, row);
+
+        // Scroll to display as much of the selection as possible (the start
+        // of the selection is already displayed by changePosition).
+        scrollRectToVisible(new Rectangle(minsx * colWidth, minsy * rowHeight,
+                Math.max(1, maxsx - minsx) * colWidth, rowHeight));
+        requestFocusInWindow();
+    }
+
     /**
      * Refreshes the size of the text area (for scroll size purposes).  This
      * method will handle any changes to the size of the text area, and will
@@ -1819,35 +1868,25 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
     /**
      * Updates the internal counter which stores the length of the longest line
      * in the text area.  The longest line is used for determining the size and
-     * preferred size of the text area.
+     * preferred size of the text area.  The length of the longest line is
+     * obtained from the Dataset (which maintains it incrementally, in O(log n)
+     * time per modification); therefore, the rows modified do not need to be
+     * rescanned, and the text area shrinks when the longest line is shortened
+     * or removed.
      **
-     * @param start the first offset to examine for the update
-     * @param end the last offset to examine for the update
+     * @param start the first offset modified (unused).
+     * @param end the last offset modified (unused).
      * @see org.biolegato.sequence.canvas.SequenceTextArea#longestline
      * @see org.biolegato.sequence.canvas.SequenceTextArea#refreshSize()
+     * @see org.biolegato.sequence.data.Dataset#getLongestSequence()
      */
     public void updateLength(int start, int end) {
-        // Stores the new length of the current line being examined.
-        int newlength;
-        // Ensure that the end line does not exceed the Dataset sequence object
-        // container's length.
-        end = Math.min(datamodel.getSize() - 1, end);
-        // Ensure that the start position is not greater than the end position.
-        start = Math.min(start, end);
-        // Ensure that the start value is not negative.
-        Math.max(0, start);
-
-        // Iterate through each sequence, for which the length has been altered.
-        for (int count = start; count <= end; count++) {
-            // Extract the new length for the sequence.
-            newlength = datamodel.getSequenceLength(count) + 1;
-
-            // If the new length of the sequence is greater than the length of
-            // the longest line, update the length of the longest line.
-            if (newlength > longestline) {
-                longestline = newlength;
-            }
-        }
+        // Obtain the new length of the longest line (NOTE: the longest line
+        // counter includes one extra column for the cursor; an empty text area
+        // has a longest line length of zero).
+        longestline = (datamodel.getSize() > 0
+                ? datamodel.getLongestSequence() + 1 : 0);
+
         // Refresh the size of the canvas.
         refreshSize();
     }
@@ -1890,4 +1929,23 @@ public class SequenceTextArea extends JComponent implements ListDataListener,
             fmt.convertTo(dest, datamodel, lineNumber, minsx, length);
         }
     }
+
+    /**
+     * Takes a snapshot of the text currently selected (see
+     * SequenceCanvasObject.snapshotSelection).
+     **
+     * @param  format the format to write the snapshot in.
+     * @return the snapshot of the selected text.
+     * @see org.biolegato.sequence.canvas.SequenceCanvasObject#snapshotSelection(org.biolegato.sequence.data.DataFormat)
+     */
+    public SequenceSelection snapshotSelection(DataFormat format) {
+        // The line numbers of the sequences in the selection.
+        final int[] rows = new int[Math.max(0, maxsy - minsy + 1)];
+
+        for (int index = 0; index < rows.length; index++) {
+            rows[index] = minsy + index;
+        }
+        return new SequenceSelection(datamodel.snapshot(rows), minsx,
+                                     maxsx - minsx, format);
+    }
 }
@@ -0,0 +1,390 @@
+/*
+ * TileCache.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.canvas;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>An off-screen cache of rendered blocks (tiles) of a sequence text area.
+ * </p>
+ *
+ * <p>Every repaint of the sequence text area (including cursor blinks, caret
+ * movement and selection drags) would otherwise extract the characters of
+ * every visible row from the Dataset, and draw each character again.  To
+ * avoid this, the text area is divided into fixed size tiles of TILE_COLUMNS
+ * columns by TILE_ROWS rows.  Each tile contains the background and the
+ * (unselected) text of its block, and is rendered only once; repaints then
+ * copy the tiles to the screen, and only the selection and the text caret are
+ * drawn on top of the tiles (see SequenceTextArea.paintComponent).</p>
+ *
+ * <p>Tiles are discarded whenever the contents of their rows change (see the
+ * invalidate methods, which are called by the text area's Dataset listener
+ * methods), and whenever the font, background colour or display device of the
+ * text area changes.  The number of tiles kept is bounded, and the least
+ * recently used tiles are discarded first.  The bound is TILES_PER_VIEW
+ * times the number of tiles needed to cover the visible part of the text
+ * area, and is recalculated whenever the size of the visible area or of the
+ * font changes (so scrolling back and forth within a large window does not
+ * repeatedly discard and re-render the same tiles).</p>
+ *
+ * <p><i>NOTE: tiles are only used when the Graphics object is not scaled or
+ *       rotated (e.g. the text is drawn directly when printing).  This class,
+ *       like all Swing painting code, must only be used from the Swing event
+ *       dispatch thread.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class TileCache {
+
+    /**
+     * The text area whose tiles are cached.
+     */
+    private final SequenceTextArea area;
+    /**
+     * The font the cached tiles were rendered with.
+     */
+    private Font font = null;
+    /**
+     * The background colour the cached tiles were rendered with.
+     */
+    private Color background = null;
+    /**
+     * The display device configuration the cached tiles were created for.
+     */
+    private GraphicsConfiguration config = null;
+    /**
+     * The number of columns in each tile.
+     */
+    static final int TILE_COLUMNS = 64;
+    /**
+     * The number of rows in each tile.
+     */
+    static final int TILE_ROWS = 16;
+    /**
+     * The number of times over the visible part of the text area which the
+     * cached tiles may cover (see resize).
+     */
+    private static final int TILES_PER_VIEW = 3;
+    /**
+     * The minimum number of tiles to keep in the cache.
+     */
+    private static final int MIN_TILES = 64;
+    /**
+     * The maximum number of tiles to keep in the cache (see resize).
+     */
+    private int maxTiles = MIN_TILES;
+    /**
+     * The width (in pixels) of the visible part of the text area which
+     * 'maxTiles' was calculated for.
+     */
+    private int viewWidth = 0;
+    /**
+     * The height (in pixels) of the visible part of the text area which
+     * 'maxTiles' was calculated for.
+     */
+    private int viewHeight = 0;
+    /**
+     * The width (in pixels) of a tile when 'maxTiles' was calculated (this
+     * changes with the font).
+     */
+    private int tileWidth = 0;
+    /**
+     * The height (in pixels) of a tile when 'maxTiles' was calculated (this
+     * changes with the font).
+     */
+    private int tileHeight = 0;
+    /**
+     * The cached tiles (ordered by most recent access).  Each tile is keyed by
+     * its tile row and tile column (see the method 'key').
+     */
+    private final Map<Long, BufferedImage> tiles
+            = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+        /**
+         * Used for serialization purposes.
+         */
+        private static final long serialVersionUID = 7526472295622777044L;
+
+        /**
+         * Discards the least recently used tile, when the cache is full.
+         **
+         * @param  eldest the least recently used entry.
+         * @return whether to remove the entry.
+         */
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Long, BufferedImage> eldest) {
+            return size() > maxTiles;
+        }
+    };
+
+    /**
+     * Creates a new (empty) tile cache.
+     **
+     * @param area  the text area whose tiles are cached.
+     */
+    TileCache(SequenceTextArea area) {
+        this.area = area;
+    }
+
+    /**
+     * Determines whether the tile cache can be used to paint to a graphics
+     * object.  If the graphics object is scaled or rotated (e.g. when
+     * printing), then the text should be drawn directly.
+     **
+     * @param  gfx  the graphics object to paint to.
+     * @return whether tiles can be used.
+     */
+    static boolean canPaint(Graphics gfx) {
+        return gfx instanceof Graphics2D
+                && ((Graphics2D) gfx).getDeviceConfiguration() != null
+                && (((Graphics2D) gfx).getTransform().getType()
+                    & ~AffineTransform.TYPE_TRANSLATION) == 0;
+    }
+
+    /**
+     * Paints the background and (unselected) text of a range of rows and
+     * columns from the cached tiles.  Any tiles within the range which are not
+     * cached are rendered first.
+     **
+     * @param gfx        the graphics object to paint to (see canPaint).
+     * @param startrow   the first row to paint.
+     * @param stoprow    the last row to paint.
+     * @param startcol   the first column to paint.
+     * @param collength  the number of columns to paint.
+     * @param rows       the number of rows in the text area.
+     */
+    void paint(Graphics gfx, int startrow, int stoprow, int startcol,
+               int collength, int rows) {
+        // The width and height of each tile (in pixels).
+        final int width = TILE_COLUMNS * area.colWidth;
+        final int height = TILE_ROWS * area.rowHeight;
+        // The tile rows and columns to paint.
+        final int firstrow = startrow / TILE_ROWS;
+        final int lastrow = stoprow / TILE_ROWS;
+        final int firstcol = startcol / TILE_COLUMNS;
+        final int lastcol = (startcol + collength - 1) / TILE_COLUMNS;
+
+        // Discard every tile if the tiles were rendered for a different font,
+        // background colour or display device.
+        validate(((Graphics2D) gfx).getDeviceConfiguration());
+
+        // Recalculate the size of the cache, if the size of the visible part
+        // of the text area, or the size of the tiles, has changed.
+        resize(area.getVisibleRect().width, area.getVisibleRect().height,
+               width, height);
+
+        for (int tilerow = firstrow; tilerow <= lastrow; tilerow++) {
+            // The number of rows within the tile which are within the text
+            // area.  Only these rows are painted (the area below the last
+            // row of the text area is not painted -- as before tiles).
+            final int valid = Math.max(1, Math.min(TILE_ROWS,
+                                               rows - tilerow * TILE_ROWS));
+
+            for (int tilecol = firstcol; tilecol <= lastcol; tilecol++) {
+                // The tile to paint.
+                BufferedImage tile = tiles.get(key(tilerow, tilecol));
+                // The position of the tile within the text area.
+                final int x = tilecol * width;
+                final int y = tilerow * height;
+
+                if (tile == null) {
+                    tile = render(tilerow, tilecol, valid);
+                    tiles.put(key(tilerow, tilecol), tile);
+                }
+                gfx.drawImage(tile, x, y, x + width, y + valid * area.rowHeight,
+                              0, 0, width, valid * area.rowHeight, null);
+            }
+        }
+    }
+
+    /**
+     * Discards the tiles containing a range of rows.  Because the glyphs of a
+     * row may extend slightly into the rows above and below it, the tiles of
+     * the adjacent rows are also discarded.
+     **
+     * @param startrow  the first row modified.
+     * @param stoprow   the last row modified (Integer.MAX_VALUE discards every
+     *                  tile from 'startrow' onward).
+     */
+    void invalidateRows(int startrow, int stoprow) {
+        invalidate(startrow, stoprow, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Discards the tiles containing part of a row, from a given column to the
+     * end of the row.  The tiles of the adjacent rows and columns are also
+     * discarded (see invalidateRows).
+     **
+     * @param row       the row modified.
+     * @param startcol  the first column modified.
+     */
+    void invalidateColumns(int row, int startcol) {
+        invalidate(row, row, startcol, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Discards the tiles containing a range of columns, in every row.  The
+     * tiles of the adjacent columns are also discarded (see invalidateRows).
+     **
+     * @param startcol  the first column modified.
+     * @param stopcol   the last column modified.
+     */
+    void invalidateColumnRange(int startcol, int stopcol) {
+        invalidate(0, Integer.MAX_VALUE, startcol, stopcol);
+    }
+
+    /**
+     * Discards every cached tile.
+     */
+    void clear() {
+        tiles.clear();
+    }
+
+    /**
+     * Discards the tiles containing a range of rows and columns.
+     **
+     * @param startrow  the first row modified.
+     * @param stoprow   the last row modified.
+     * @param startcol  the first column modified.
+     * @param stopcol   the last column modified (Integer.MAX_VALUE for the
+     *                  end of each row).
+     */
+    private void invalidate(int startrow, int stoprow, int startcol,
+                            int stopcol) {
+        // The range of tile rows and columns to discard.
+        final int firstrow = Math.max(0, startrow - 1) / TILE_ROWS;
+        final int lastrow = (int) (Math.min(Integer.MAX_VALUE, stoprow + 1L)
+                                   / TILE_ROWS);
+        final int firstcol = Math.max(0, startcol - 1) / TILE_COLUMNS;
+        final int lastcol = (int) (Math.min(Integer.MAX_VALUE, stopcol + 1L)
+                                   / TILE_COLUMNS);
+        // The iterator used to remove the tiles.
+        final Iterator<Long> keys = tiles.keySet().iterator();
+
+        while (keys.hasNext()) {
+            // The tile row and column of the current tile.
+            final long key = keys.next();
+            final int tilerow = (int) (key >>> 32);
+            final int tilecol = (int) key;
+
+            if (tilerow >= firstrow && tilerow <= lastrow
+                    && tilecol >= firstcol && tilecol <= lastcol) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards every cached tile, if the tiles were rendered with a different
+     * font, background colour or display device than the text area currently
+     * uses.
+     **
+     * @param current  the configuration of the display device being painted.
+     */
+    private void validate(GraphicsConfiguration current) {
+        if (!area.getFont().equals(font)
+                || !area.getBackground().equals(background)
+                || !current.equals(config)) {
+            tiles.clear();
+            font = area.getFont();
+            background = area.getBackground();
+            config = current;
+        }
+    }
+
+    /**
+     * Recalculates the maximum number of tiles kept in the cache, so that the
+     * cached tiles can cover the visible part of the text area TILES_PER_VIEW
+     * times over (but never fewer than MIN_TILES tiles).  If the maximum is
+     * reduced, then the least recently used tiles are discarded.
+     **
+     * @param width   the width of the visible part of the text area.
+     * @param height  the height of the visible part of the text area.
+     * @param tilew   the width of a tile (in pixels).
+     * @param tileh   the height of a tile (in pixels).
+     */
+    private void resize(int width, int height, int tilew, int tileh) {
+        if (width != viewWidth || height != viewHeight || tilew != tileWidth
+                || tileh != tileHeight) {
+            // The number of tiles needed to cover the visible part of the
+            // text area (a partial tile may be visible at each edge).
+            final long visible = (width / Math.max(1, tilew) + 2L)
+                               * (height / Math.max(1, tileh) + 2L);
+            // The iterator used to discard the least recently used tiles.
+            final Iterator<Long> keys = tiles.keySet().iterator();
+
+            viewWidth = width;
+            viewHeight = height;
+            tileWidth = tilew;
+            tileHeight = tileh;
+            maxTiles = (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(MIN_TILES, TILES_PER_VIEW * visible));
+
+            for (int extra = tiles.size() - maxTiles; extra > 0; extra--) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Renders a tile.  The rows and columns adjacent to the tile are also
+     * drawn (clipped to the tile), so that glyphs which extend beyond their
+     * row or column appear in the tile exactly as they would if the text were
+     * drawn directly.
+     **
+     * @param  tilerow  the tile row of the tile to render.
+     * @param  tilecol  the tile column of the tile to render.
+     * @param  valid    the number of rows of the tile within the text area.
+     * @return the rendered tile.
+     */
+    private BufferedImage render(int tilerow, int tilecol, int valid) {
+        // The first row and column within the tile.
+        final int row = tilerow * TILE_ROWS;
+        final int col = tilecol * TILE_COLUMNS;
+        // The first row and column to draw (including the adjacent ones).
+        final int startrow = Math.max(0, row - 1);
+        final int startcol = Math.max(0, col - 1);
+        // The tile image.
+        final BufferedImage tile = config.createCompatibleImage(
+                TILE_COLUMNS * area.colWidth, TILE_ROWS * area.rowHeight);
+        // The graphics object used to render into the tile.
+        final Graphics2D gfx = tile.createGraphics();
+
+        try {
+            gfx.translate(-col * area.colWidth, -row * area.rowHeight);
+            gfx.clipRect(col * area.colWidth, row * area.rowHeight,
+                         TILE_COLUMNS * area.colWidth, valid * area.rowHeight);
+            area.paintRows(gfx, startrow, row + valid, startcol,
+                           col + TILE_COLUMNS + 1 - startcol);
+        } finally {
+            gfx.dispose();
+        }
+        return tile;
+    }
+
+    /**
+     * Calculates the cache key of a tile.
+     **
+     * @param  tilerow  the tile row of the tile.
+     * @param  tilecol  the tile column of the tile.
+     * @return the key of the tile.
+     */
+    private static Long key(int tilerow, int tilecol) {
+        return Long.valueOf(((long) tilerow << 32) | (tilecol & 0xFFFFFFFFL));
+    }
+}
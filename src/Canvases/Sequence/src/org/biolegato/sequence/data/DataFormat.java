@@ -8,8 +8,13 @@
  */
 package org.biolegato.sequence.data;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 import javax.swing.filechooser.FileFilter;
 
 /**
@@ -64,6 +69,18 @@ public abstract class DataFormat extends FileFilter {
     public static final DataFormat[] FORMAT_LIST = new DataFormat[]{
         GENBANK, GDEFILE, GDEFLAT, FASTA
     };
+    /**
+     * The maximum number of characters to read ahead from a Reader object
+     * when auto-detecting its file format.  All of the formats supported by
+     * BioLegato can be identified by the first non-blank line of the data.
+     */
+    public static final int DETECT_LIMIT = 8192;
+    /**
+     * The pattern used to skip any leading whitespace before parsing a data
+     * stream with a Scanner object (identical to the pattern used to skip
+     * whitespace in the Scanner version of autodetect).
+     */
+    private static final Pattern LEADING_SPACE = Pattern.compile("[\\s\n\r]*");
 
     /**
      * Creates a new instance of DataFormat
@@ -173,11 +190,158 @@ public abstract class DataFormat extends FileFilter {
         // left to extract simultaneously increment the y co-ordinate, so the
         // newly extracted sequences will be in sequential order (i.e. in the
         // sequence from which they were extracted from the scanner).
-        while (convertSequence(datamodel, data, x, y, false)) {
-            y++;
+        //
+        // NOTE: the sequences are added within a batch update, so the data
+        // model's listeners are only notified once (see Dataset.beginUpdate).
+        datamodel.beginUpdate();
+        try {
+            while (convertSequence(datamodel, data, x, y, false)) {
+                y++;
+            }
+        } finally {
+            datamodel.commitUpdate();
+        }
+    }
+
+    /**
+     * <p>Converts data from a Reader object in the given file format into the
+     * BioLegato internal format.</p>
+     *
+     * <p>This version is a stub method to call the more elaborate version of
+     * the method which handles the source file parameter (passing null, since
+     * the Reader object is not known to be reading from a file).</p>
+     **
+     * @param  datamodel    the destination data model to store the converted
+     *                      sequence data.
+     * @param  data         the Reader object to parse data from.
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @throws IOException  any exceptions that occur while reading the stream.
+     * @see org.biolegato.sequence.data.DataFormat#convertFrom(org.biolegato.sequence.data.Dataset, java.io.Reader, java.io.File, int, int)
+     */
+    public final void convertFrom(Dataset datamodel, Reader data, int x, int y)
+                                                            throws IOException {
+        convertFrom(datamodel, data, null, x, y);
+    }
+
+    /**
+     * <p>Converts data from a Reader object in the given file format into the
+     * BioLegato internal format.</p>
+     *
+     * <p>The data is parsed by the method convertStream, within a batch update
+     * of the data model (see Dataset.beginUpdate); therefore, the data model's
+     * listeners are notified of the sequences added only once, after the
+     * entire stream is parsed.</p>
+     *
+     * <p>The 'source' parameter is the file which the Reader object is reading
+     * from (if known).  If the Reader object reads the file from its beginning,
+     * decoded using the default character set, then parsers may record the
+     * positions of data within the file to re-read later, rather than keeping
+     * a copy of the data in memory.</p>
+     **
+     * @param  datamodel    the destination data model to store the converted
+     *                      sequence data.
+     * @param  data         the Reader object to parse data from.
+     * @param  source       the file the Reader object reads from (or null, if
+     *                      not applicable or not known).
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @throws IOException  any exceptions that occur while reading the stream.
+     * @see org.biolegato.sequence.data.DataFormat#convertStream(org.biolegato.sequence.data.Dataset, java.io.Reader, java.io.File, int, int)
+     */
+    public final void convertFrom(Dataset datamodel, Reader data, File source,
+                                        int x, int y) throws IOException {
+        datamodel.beginUpdate();
+        try {
+            convertStream(datamodel, data, source, x, y);
+        } finally {
+            datamodel.commitUpdate();
         }
     }
 
+    /**
+     * <p>Parses data from a Reader object in the given file format into the
+     * BioLegato internal format (see convertFrom).</p>
+     *
+     * <p>This implementation of the method simply wraps the Reader object in a
+     * Scanner object (skipping any leading whitespace, as autodetect would),
+     * and calls the Scanner version of convertFrom.  Formats which can be
+     * parsed more efficiently without the Scanner object's regular expression
+     * matching (such as FastA and GenBank) should override this method with
+     * their own streaming parser.</p>
+     **
+     * @param  datamodel    the destination data model to store the converted
+     *                      sequence data.
+     * @param  data         the Reader object to parse data from.
+     * @param  source       the file the Reader object reads from (or null, if
+     *                      not applicable or not known).
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @throws IOException  any exceptions that occur while reading the stream.
+     * @see org.biolegato.sequence.data.DataFormat#convertFrom(org.biolegato.sequence.data.Dataset, java.util.Scanner, int, int)
+     */
+    protected void convertStream(Dataset datamodel, Reader data, File source,
+                                        int x, int y) throws IOException {
+        // Create a scanner object to read the data, and skip any leading
+        // whitespace.
+        Scanner scanner = new Scanner(data);
+        scanner.skip(LEADING_SPACE);
+
+        convertFrom(datamodel, scanner, x, y);
+    }
+
+    /**
+     * <p>Reads a file into the BioLegato internal format, without loading the
+     * sequence data into memory (i.e. by memory-mapping the file, and reading
+     * the sequence data from the mapped file as it is displayed).</p>
+     *
+     * <p>Formats which support this method may also store an index of the
+     * entries within the file in a sidecar file (see FastAIndex), so the file
+     * does not need to be scanned again when it is re-opened.</p>
+     *
+     * <p>Formats which cannot be read in this manner return false, in which
+     * case the file should be read normally (e.g. via. convertFrom).  This
+     * implementation of the method always returns false.</p>
+     **
+     * @param  datamodel    the destination data model to store the sequences.
+     * @param  source       the file to read.
+     * @param  y            the Y-coordinate (line) in the data model to add
+     *                      the sequences.
+     * @return whether the file was read (false if the format does not support
+     *         memory-mapped reading).
+     * @throws IOException  if the file cannot be read or mapped.
+     */
+    public boolean convertMapped(Dataset datamodel, File source, int y)
+                                                            throws IOException {
+        return false;
+    }
+
+    /**
+     * <p>Divides a file into ranges which can be parsed independently (e.g.
+     * by separate threads), each using convertFrom on a Reader object which
+     * reads only that range of the file.</p>
+     *
+     * <p>The ranges are returned as an array of boundary positions (byte
+     * offsets within the file): range N begins at element N and ends at
+     * element N + 1.  Each range must begin at the start of an entry.  This
+     * implementation of the method does not divide the file (i.e. it returns
+     * a single range for the entire file).</p>
+     **
+     * @param  file         the file to divide.
+     * @param  parts        the maximum number of ranges to divide the file into.
+     * @return the boundaries of the ranges.
+     * @throws IOException  if an error occurs while reading the file.
+     */
+    public long[] split(File file, int parts) throws IOException {
+        return new long[] {0, file.length()};
+    }
+
     /**
      * <p>Converts a single sequence from a scanner into BioLegato.</p>
      * <p>Please be sure to set the delimiter for the scanner object before
@@ -249,6 +413,44 @@ public abstract class DataFormat extends FileFilter {
         return result;
     }
 
+    /**
+     * <p>Used to auto-detect the file format of a Reader object.</p>
+     *
+     * <p>Unlike the Scanner version of this method, this method does NOT
+     *    consume any of the data used for the detection.  Instead, only the
+     *    first DETECT_LIMIT characters of the data are examined (via. mark and
+     *    reset).  Thus, the Reader object may be passed directly to the
+     *    streaming version of the convertFrom method after the format is
+     *    detected.</p>
+     **
+     * @param  data the Reader to detect the file format of (this Reader MUST
+     *              support the mark operation, e.g. a BufferedReader).
+     * @return the detected file format.
+     * @throws IOException  if an error occurs while reading the data,
+     *                      or the Reader does not support marking.
+     * @see org.biolegato.sequence.data.DataFormat#autodetect(java.util.Scanner)
+     */
+    public static DataFormat autodetect(Reader data) throws IOException {
+        // The number of characters read into the detection buffer.
+        int count = 0;
+        // The number of characters read by the last call to 'read'.
+        int read = 0;
+        // The buffer to store the characters to auto-detect.
+        char[] prefix = new char[DETECT_LIMIT];
+
+        // Read the detection buffer, and then return the Reader object to the
+        // beginning of the data.
+        data.mark(DETECT_LIMIT);
+        while (count < DETECT_LIMIT
+                && (read = data.read(prefix, count, DETECT_LIMIT - count)) >= 0) {
+            count += read;
+        }
+        data.reset();
+
+        // Perform the auto-detection using the Scanner version of this method.
+        return autodetect(new Scanner(new String(prefix, 0, count)));
+    }
+
 ////////////////////////
 //********************//
 //* STATIC FUNCTIONS *//
@@ -279,4 +481,26 @@ public abstract class DataFormat extends FileFilter {
         }
         return found;
     }
+
+    /**
+     * Writes a block of characters to an Appendable object, using the most
+     * direct method available (i.e. without creating a String copy of the
+     * block, when writing to a Writer or a StringBuilder).
+     **
+     * @param  out    the destination Appendable object.
+     * @param  buffer the array containing the characters to write.
+     * @param  offset the position of the first character to write.
+     * @param  length the number of characters to write.
+     * @throws IOException if an error occurs while writing to the destination.
+     */
+    static void write(Appendable out, char[] buffer, int offset, int length)
+                                                            throws IOException {
+        if (out instanceof Writer) {
+            ((Writer) out).write(buffer, offset, length);
+        } else if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(buffer, offset, length);
+        } else {
+            out.append(CharBuffer.wrap(buffer, offset, length));
+        }
+    }
 }
@@ -8,12 +8,19 @@
  */
 package org.biolegato.sequence.data;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.swing.AbstractListModel;
 import org.biolegato.sequence.canvas.ColourMask;
 import org.biolegato.sequence.canvas.SequenceCanvas;
@@ -62,6 +69,161 @@ public class Dataset extends AbstractListModel {
      * corresponds to a groupID number.
      */
     private static Set<Seq>[] group2seq = new Set[DEFAULT_MAX_GROUPS];
+    /**
+     * The number of nested updates currently in progress (see beginUpdate).
+     * While this is greater than zero, interval added events are coalesced,
+     * rather than sent immediately to the listeners.
+     */
+    private int updateDepth = 0;
+    /**
+     * The line number of the first sequence added (during the current update)
+     * which has not yet been reported to the listeners (-1 if none).
+     */
+    private int pendingStart = -1;
+    /**
+     * The line number of the last sequence added (during the current update)
+     * which has not yet been reported to the listeners.
+     */
+    private int pendingEnd = -1;
+    /**
+     * A counted multiset of the lengths of the sequences in the Dataset (i.e.
+     * maps each sequence length to the number of sequences of that length).
+     * This is maintained by every method which adds, removes, or modifies the
+     * length of a sequence, so the length of the longest sequence can be
+     * determined in O(log n) time (see getLongestSequence), and is always
+     * exact (i.e. it shrinks when the longest sequence is shortened or
+     * removed).
+     */
+    private final TreeMap<Integer, Integer> lengths
+            = new TreeMap<Integer, Integer>();
+    /**
+     * The undo/redo history of the insertions, deletions and transforms
+     * applied to the sequences in the Dataset (see undo and redo).
+     */
+    private final EditJournal journal = new EditJournal(this);
+    /**
+     * The character class for alignment characters (see isProtectionsOn).
+     */
+    private static final byte ALIGN = 0;
+    /**
+     * The character class for ambiguous sequence characters.
+     */
+    private static final byte AMBIGUOUS = 1;
+    /**
+     * The character class for unambiguous sequence characters.
+     */
+    private static final byte UNAMBIGUOUS = 2;
+    /**
+     * A lookup table of the character class of each of the first 256
+     * characters, for nucleotide (DNA and RNA) sequences.
+     */
+    private static final byte[] NUCLEOTIDE_CLASSES = new byte[256];
+    /**
+     * A lookup table of the character class of each of the first 256
+     * characters, for amino acid (protein) sequences.
+     */
+    private static final byte[] PROTEIN_CLASSES = new byte[256];
+    /**
+     * The translation table for the CHANGE_CASE transform (see transform).
+     */
+    private static final byte[] CASE_TABLE = new byte[256];
+    /**
+     * The translation table for complementing DNA sequences.
+     */
+    private static final byte[] DNA_COMPLEMENT = new byte[256];
+    /**
+     * The translation table for complementing RNA sequences.
+     */
+    private static final byte[] RNA_COMPLEMENT = new byte[256];
+    /**
+     * The translation table for the TRANSCRIBE transform (T to U, and U to T).
+     */
+    private static final byte[] TRANSCRIBE_TABLE = new byte[256];
+    /**
+     * The translation table for the GAP transform (every residue to a gap).
+     */
+    private static final byte[] GAP_TABLE = new byte[256];
+    /**
+     * The IUPAC nucleotide codes, and their complements (in the same order),
+     * used to build the complement tables.
+     */
+    private static final String IUPAC = "ACGTURYKMBVDHSWN";
+    /**
+     * The complement of each IUPAC nucleotide code (for DNA sequences).
+     */
+    private static final String IUPAC_COMPLEMENT = "TGCAAYRMKVBHDSWN";
+    /**
+     * The minimum number of residues which must be transformed before the
+     * rows are transformed in parallel (see transform).
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    /**
+     * The bulk residue transformations which can be applied to a range of
+     * columns, in place (see transform).
+     */
+    public static enum Transform {
+        /**
+         * Changes the case of every letter (upper case letters become lower
+         * case, and lower case letters become upper case).
+         */
+        CHANGE_CASE,
+        /**
+         * Reverses, and complements, the residues of nucleotide sequences
+         * (using the IUPAC codes; case is preserved).
+         */
+        REVERSE_COMPLEMENT,
+        /**
+         * Replaces T with U, and U with T, in nucleotide sequences (case is
+         * preserved).
+         */
+        TRANSCRIBE,
+        /**
+         * Replaces every residue with a gap ('-').
+         */
+        GAP;
+    }
+
+    /**
+     * Fills the character class lookup tables (see isProtectionsOn).
+     */
+    static {
+        for (char c = 0; c < NUCLEOTIDE_CLASSES.length; c++) {
+            NUCLEOTIDE_CLASSES[c] = nucleotideClass(c);
+            PROTEIN_CLASSES[c] = proteinClass(c);
+
+            // Build the translation tables (by default, every character is
+            // left unchanged).
+            CASE_TABLE[c] = DNA_COMPLEMENT[c] = RNA_COMPLEMENT[c]
+                    = TRANSCRIBE_TABLE[c] = (byte) c;
+            if (Character.isUpperCase(c)
+                    && Character.toLowerCase(c) < CASE_TABLE.length) {
+                CASE_TABLE[c] = (byte) Character.toLowerCase(c);
+            } else if (Character.isLowerCase(c)
+                    && Character.toUpperCase(c) < CASE_TABLE.length) {
+                CASE_TABLE[c] = (byte) Character.toUpperCase(c);
+            }
+            GAP_TABLE[c] = (byte) '-';
+        }
+        for (int count = 0; count < IUPAC.length(); count++) {
+            // The nucleotide code, and its DNA complement.
+            final char code = IUPAC.charAt(count);
+            final char complement = IUPAC_COMPLEMENT.charAt(count);
+            // The RNA complement of the nucleotide code.
+            final char rna = (complement == 'T' ? 'U' : complement);
+
+            DNA_COMPLEMENT[code] = (byte) complement;
+            DNA_COMPLEMENT[Character.toLowerCase(code)]
+                    = (byte) Character.toLowerCase(complement);
+            RNA_COMPLEMENT[code] = (byte) rna;
+            RNA_COMPLEMENT[Character.toLowerCase(code)]
+                    = (byte) Character.toLowerCase(rna);
+        }
+        TRANSCRIBE_TABLE['T'] = 'U';
+        TRANSCRIBE_TABLE['U'] = 'T';
+        TRANSCRIBE_TABLE['t'] = 'u';
+        TRANSCRIBE_TABLE['u'] = 't';
+    }
 
     /**
      * Creates a new instance of the Dataset object.
@@ -99,7 +261,8 @@ public class Dataset extends AbstractListModel {
         if (seq != null && y >= 0 && y <= getSize()) {
             // Insert the sequence and notify all listener methods.
             lines.add(y, seq);
-            fireIntervalAdded(this, y, y);
+            addLength(seq.sequence.length());
+            intervalAdded(y, y);
             result = true;
         }
         return result;
@@ -137,6 +300,8 @@ public class Dataset extends AbstractListModel {
     public boolean insert(int x, int y, char[] text, int offset,
             int length, boolean protect) {
         Seq current;
+        int oldlength;
+        int col;
         boolean result = false;
 
         // Ensure that the parameters passed to this function are appropriate.
@@ -148,16 +313,19 @@ public class Dataset extends AbstractListModel {
             if (!protect || !Dataset.isProtectionsOn(current.type,
                     current.protect_align, current.protect_ambig,
                     current.protect_unambig, text, 0, text.length)) {
-                // BRANCH
-                // if we are at the end of the sequence, we are appending
-                // characters to the sequence; otherwise, we are inserting
-                // characters.  This branch mainly has to do with performance
-                // and avoiding possible exceptions.
-                if (current.sequence.length() > x) {
-                    current.sequence.insert(x, text, offset, length);
-                } else {
-                    current.sequence.append(text, offset, length);
-                }
+                // Insert the characters into the sequence.  NOTE: if we are
+                // at the end of the sequence, the residue store will append
+                // the characters to the sequence instead.  Because the residue
+                // store is a gap buffer, consecutive insertions at the cursor
+                // do not shift the remainder of the sequence.
+                // The column the text is actually inserted at (i.e. after the
+                // residue store clamps it to the length of the sequence) is
+                // recorded, so that the insertion can be undone.
+                oldlength = current.sequence.length();
+                col = Math.max(0, Math.min(x, oldlength));
+                current.sequence.insert(x, text, offset, length);
+                changeLength(oldlength, current.sequence.length());
+                journal.inserted(current, y, col, text, offset, length);
 
                 // Deletes GenBank original copies of the sequence
                 // this is because we are modifying the sequence, so we do not
@@ -166,7 +334,9 @@ public class Dataset extends AbstractListModel {
 
                 // Call the canvas and notify it that the sequence length has
                 // changed.  This is essential for repainting the text area.
-                SequenceCanvas.textLengthChanged(x, y, text.length);
+                flushUpdate();
+                fireTextLengthChanged(x, y, text.length);
+                result = true;
             }
         }
         return result;
@@ -236,7 +406,13 @@ public class Dataset extends AbstractListModel {
                 // if the characters deleted from the sequence are
                 // not protected, then delete them.
                 if (!pseq) {
+                    // NOTE: the residue store is a gap buffer; therefore, the
+                    // deletion only widens the gap (it does not shift the
+                    // remainder of the sequence, unless the gap is moved).
+                    journal.deleting(curr, y, x, length);
                     curr.sequence.delete(x, x + length);
+                    changeLength(curr.sequence.length() + length,
+                                 curr.sequence.length());
 
                     // Deletes GenBank original copies of the sequence
                     // this is because we are modifying the sequence, so we do
@@ -247,7 +423,8 @@ public class Dataset extends AbstractListModel {
                     // has changed (+ a positive length indicates an insertion;
                     // - a negative length indicates a deletion) hence we negate
                     // the length.
-                    SequenceCanvas.textLengthChanged(x, y, 0 - length);
+                    flushUpdate();
+                    fireTextLengthChanged(x, y, 0 - length);
                     result = true;
                 }
             }
@@ -282,7 +459,38 @@ public class Dataset extends AbstractListModel {
             // insert the sequences and notify all listener methods.
             result = lines.addAll(y, seqs);
             if (result) {
-                fireIntervalAdded(this, y, y + seqs.size() - 1);
+                for (Seq seq : seqs) {
+                    addLength(seq.sequence.length());
+                }
+                intervalAdded(y, y + seqs.size() - 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves all of the sequences from another Dataset object into this Dataset
+     * sequence object container (leaving the other Dataset empty).  This is
+     * used to merge sequences which were read into a separate (scratch) Dataset
+     * object, e.g. by a background thread, into the Dataset displayed by the
+     * canvas, using only one interval added event.
+     **
+     * @param  y      the line index number to insert the sequences at.
+     * @param  source the Dataset object to move the sequences from.
+     * @return true if the insertion was successful, otherwise false.
+     */
+    public boolean addSequences(int y, Dataset source) {
+        // The number of sequences moved.
+        final int count = (source != null ? source.getSize() : 0);
+        boolean result = false;
+
+        // Ensure that the parameters are appropriate.
+        if (source != null && source != this && count > 0) {
+            result = addSequences(y, source.lines);
+            if (result) {
+                source.lines.clear();
+                source.lengths.clear();
+                source.fireIntervalRemoved(source, 0, count - 1);
             }
         }
         return result;
@@ -307,6 +515,10 @@ public class Dataset extends AbstractListModel {
         // below.
         Arrays.sort(indices);
 
+        // Report any pending additions before removing the sequences (so the
+        // listeners receive the events in the correct order).
+        flushUpdate();
+
         // Ensure that there are height to delete.
         if (!lines.isEmpty() && indices != null) {
             // Iterate backwards through each sequence y number and delete it
@@ -373,14 +585,14 @@ public class Dataset extends AbstractListModel {
                 // ListDataEvent object.
                 while (low_idx > 0 && indices[low_idx - 1]
                         == indices[low_idx] - 1) {
-                    ungroup(lines.remove(indices[low_idx]));
+                    ungroup(removeLine(indices[low_idx]));
                     low_idx--;
                 }
 
                 // remove the final line (NOTE: the above method will remove
                 // every sequence in the interval, EXCEPT the last one (i.e. the
                 // lowest index).
-                ungroup(lines.remove(indices[low_idx]));
+                ungroup(removeLine(indices[low_idx]));
 
                 // Send an interval removed event to all of this dataset's
                 // ListDataListeners.
@@ -390,6 +602,531 @@ public class Dataset extends AbstractListModel {
         }
     }
 
+    /**
+     * <p>Begins a batch update of the Dataset.  Until the matching call to
+     * commitUpdate, any sequences added to the Dataset (via. add or
+     * addSequences) are not reported to the listeners individually.  Instead,
+     * consecutive additions are coalesced, and reported by a single interval
+     * added event when the update is committed.  This prevents the canvas from
+     * resizing and repainting itself once for each sequence read from a file
+     * (which, for files containing thousands of sequences, is the dominant
+     * cost of reading the file).</p>
+     *
+     * <p>Updates may be nested; the events are only sent when the outermost
+     * update is committed.  Every call to beginUpdate must be matched by a
+     * call to commitUpdate (preferably within a finally clause).</p>
+     *
+     * <p><i>NOTE: any other modification of the Dataset (e.g. removing
+     *    sequences) during an update first reports the pending additions, so
+     *    the listeners always receive the events in the correct order.</i></p>
+     **
+     * @see org.biolegato.sequence.data.Dataset#commitUpdate()
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * Ends a batch update of the Dataset (see beginUpdate).  If this ends the
+     * outermost update, then any pending additions are reported to the
+     * listeners.
+     **
+     * @see org.biolegato.sequence.data.Dataset#beginUpdate()
+     */
+    public void commitUpdate() {
+        if (updateDepth > 0) {
+            updateDepth--;
+        }
+        if (updateDepth == 0) {
+            flushUpdate();
+        }
+    }
+
+    /**
+     * Records that sequences were added to the Dataset.  If no batch update
+     * is in progress, then the listeners are notified immediately; otherwise,
+     * the interval is merged with the pending interval (if the sequences added
+     * are adjacent to, or within, the pending interval).  If the interval
+     * cannot be merged, then the pending interval is reported first.
+     **
+     * @param start the line number of the first sequence added.
+     * @param end   the line number of the last sequence added.
+     */
+    private void intervalAdded(int start, int end) {
+        if (updateDepth == 0) {
+            fireIntervalAdded(this, start, end);
+        } else if (pendingStart >= 0 && start >= pendingStart
+                                     && start <= pendingEnd + 1) {
+            // NOTE: inserting sequences anywhere within (or directly after)
+            // the pending interval simply extends the pending interval.
+            pendingEnd += end - start + 1;
+        } else {
+            flushUpdate();
+            pendingStart = start;
+            pendingEnd = end;
+        }
+    }
+
+    /**
+     * <p>Transforms the residues within a range of columns of a set of
+     * sequences, in place (see Dataset.Transform).  Unlike deleting the
+     * residues and inserting the transformed residues, the length of each
+     * sequence never changes; therefore, no residues outside of the range are
+     * moved, and a single contents changed event (covering every row
+     * transformed) is sent to the listeners, rather than two text length
+     * changes per row.</p>
+     *
+     * <p>If the number of residues to transform is large, then the rows are
+     * transformed in parallel (each row is transformed by a single thread).
+     * </p>
+     *
+     * <p>Rows for which the transform is not applicable (e.g. reverse
+     * complementing a protein sequence) are skipped.  Rows which contain
+     * protected characters within the range (see isProtectionsOn) are also
+     * skipped, if 'protect' is true.  Columns past the end of a sequence are
+     * ignored.</p>
+     **
+     * @param  rows    the line numbers of the sequences to transform.
+     * @param  start   the first column to transform.
+     * @param  end     the column after the last column to transform
+     *                 (Integer.MAX_VALUE transforms to the end of each
+     *                 sequence).
+     * @param  op      the transformation to apply.
+     * @param  protect whether to test the protections of each sequence
+     *                 before transforming it.
+     * @return the number of rows transformed.
+     */
+    public int transform(int[] rows, int start, int end, Transform op,
+                         boolean protect) {
+        // The sequences to transform (each sequence only appears once, so no
+        // two threads ever transform the same sequence).
+        final List<Seq> seqs = new ArrayList<Seq>(rows.length);
+        // The translation table for each sequence to transform.
+        final List<byte[]> tables = new ArrayList<byte[]>(rows.length);
+        // The first and last rows transformed.
+        int low = Integer.MAX_VALUE;
+        int high = -1;
+        // The rows already included (used to skip duplicate rows).
+        final Set<Seq> included = new HashSet<Seq>();
+        // The row number of each sequence to transform.
+        final int[] numbers = new int[rows.length];
+        // The array used to test the protections of each sequence.
+        char[] test = null;
+
+        start = Math.max(0, start);
+        for (int row : rows) {
+            // The sequence to transform, and its translation table.
+            final Seq current = getLine(row);
+            final byte[] table = (current != null
+                    ? transformTable(op, current.type) : null);
+
+            if (table != null && included.add(current)
+                    && start < Math.min(end, current.sequence.length())) {
+                // The number of residues to transform.
+                final int length = Math.min(end, current.sequence.length())
+                        - start;
+                // The end position passed to isProtectionsOn (which tests
+                // nucleotide sequences up to and including the end position,
+                // but protein sequences only up to the end position).
+                final int last = (current.type == Seq.Type.DNA
+                        || current.type == Seq.Type.RNA ? length - 1 : length);
+
+                // Check the sequence's protection settings.
+                if (protect) {
+                    if (test == null || test.length < length + 1) {
+                        test = new char[length + 1];
+                    }
+                    current.sequence.getChars(start, start + length, test, 0);
+                }
+                if (!protect || !isProtectionsOn(current.type,
+                        current.protect_align, current.protect_ambig,
+                        current.protect_unambig, test, 0, last)) {
+                    numbers[seqs.size()] = row;
+                    seqs.add(current);
+                    tables.add(table);
+                    low = Math.min(low, row);
+                    high = Math.max(high, row);
+                }
+            }
+        }
+
+        if (!seqs.isEmpty()) {
+            journal.transforming(seqs, Arrays.copyOf(numbers, seqs.size()),
+                    tables, start, end, op == Transform.REVERSE_COMPLEMENT);
+            applyTransform(seqs, tables, start, end,
+                           op == Transform.REVERSE_COMPLEMENT);
+
+            // Notify the listeners of the modified rows.
+            rowsChanged(low, high);
+        }
+        return seqs.size();
+    }
+
+    /**
+     * Applies translation tables to a range of columns of a list of
+     * sequences, in place (without notifying the listeners -- see transform).
+     * If the number of residues to transform is large, then the sequences
+     * are transformed in parallel.
+     **
+     * @param seqs    the sequences to transform (each sequence must only
+     *                appear once in the list).
+     * @param tables  the translation table for each sequence.
+     * @param start   the first column to transform.
+     * @param end     the column after the last column to transform.
+     * @param reverse whether to reverse the order of the residues.
+     */
+    void applyTransform(List<Seq> seqs, List<byte[]> tables, int start,
+                        int end, boolean reverse) {
+        // The task used to transform the rows.
+        final TransformTask task = new TransformTask(seqs, tables, start, end,
+                                                     reverse, 0, seqs.size());
+        // The total number of residues to transform.
+        long total = 0;
+
+        for (Seq current : seqs) {
+            total += Math.max(0, Math.min(end, current.sequence.length())
+                                 - start);
+        }
+        if (total >= PARALLEL_THRESHOLD && seqs.size() > 1) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    /**
+     * Notifies the listeners that the contents of a range of rows changed
+     * (without any change to their lengths).
+     **
+     * @param low   the first row modified.
+     * @param high  the last row modified.
+     */
+    void rowsChanged(int low, int high) {
+        flushUpdate();
+        fireContentsChanged(this, low, high);
+    }
+
+    /**
+     * Finds the current row of a sequence object.
+     **
+     * @param  seq   the sequence object to find.
+     * @param  hint  the row the sequence was last known to be at (the row is
+     *               checked first, so finding a sequence which has not moved
+     *               takes constant time).
+     * @return the row of the sequence (or -1 if it is no longer in the
+     *         Dataset).
+     */
+    int indexOf(Seq seq, int hint) {
+        int result = -1;
+
+        if (hint >= 0 && hint < lines.size() && lines.get(hint) == seq) {
+            result = hint;
+        } else {
+            for (int index = 0; result < 0 && index < lines.size(); index++) {
+                if (lines.get(index) == seq) {
+                    result = index;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>Undoes the most recent edit (insertion, deletion or transform) to
+     * the sequences in the Dataset.  Consecutive keystrokes are undone
+     * together, as are groups of edits (see beginEdit).</p>
+     *
+     * <p>The cost of undoing an edit is proportional to the size of the edit,
+     * not the size of the Dataset (see EditJournal).</p>
+     **
+     * @return whether any edit was undone.
+     */
+    public boolean undo() {
+        return journal.undo();
+    }
+
+    /**
+     * Redoes the most recently undone edit.  Redo is only possible until the
+     * sequences are edited again.
+     **
+     * @return whether any edit was redone.
+     */
+    public boolean redo() {
+        return journal.redo();
+    }
+
+    /**
+     * Determines whether there are any edits which can be undone.
+     **
+     * @return whether undo will have any effect.
+     */
+    public boolean canUndo() {
+        return journal.canUndo();
+    }
+
+    /**
+     * Determines whether there are any edits which can be redone.
+     **
+     * @return whether redo will have any effect.
+     */
+    public boolean canRedo() {
+        return journal.canRedo();
+    }
+
+    /**
+     * Begins a group of edits, which are undone (and redone) as one step
+     * (e.g. inserting text into every sequence in a group).  Every call to
+     * beginEdit must be matched by a call to endEdit (preferably within a
+     * finally clause).
+     **
+     * @see org.biolegato.sequence.data.Dataset#endEdit()
+     */
+    public void beginEdit() {
+        journal.begin();
+    }
+
+    /**
+     * Ends a group of edits (see beginEdit).
+     **
+     * @see org.biolegato.sequence.data.Dataset#beginEdit()
+     */
+    public void endEdit() {
+        journal.end();
+    }
+
+    /**
+     * Obtains the translation table for applying a transform to a sequence.
+     **
+     * @param  op    the transform to apply.
+     * @param  type  the type of the sequence.
+     * @return the translation table (or null, if the transform does not apply
+     *         to the sequence type).
+     */
+    private static byte[] transformTable(Transform op, Seq.Type type) {
+        // Whether the sequence is a nucleotide sequence.
+        final boolean nucleotide = (type == Seq.Type.DNA
+                                    || type == Seq.Type.RNA);
+        // The translation table.
+        byte[] table = null;
+
+        switch (op) {
+            case CHANGE_CASE:
+                table = CASE_TABLE;
+                break;
+            case REVERSE_COMPLEMENT:
+                if (nucleotide) {
+                    table = (type == Seq.Type.RNA ? RNA_COMPLEMENT
+                                                  : DNA_COMPLEMENT);
+                }
+                break;
+            case TRANSCRIBE:
+                if (nucleotide) {
+                    table = TRANSCRIBE_TABLE;
+                }
+                break;
+            case GAP:
+                table = GAP_TABLE;
+                break;
+        }
+        return table;
+    }
+
+    /**
+     * A fork/join task which transforms a range of the sequences passed to
+     * the transform method.  Ranges containing more than one sequence are
+     * split in half (so each sequence is transformed by a single thread).
+     */
+    private static final class TransformTask extends RecursiveAction {
+
+        /**
+         * The sequences to transform.
+         */
+        private final List<Seq> seqs;
+        /**
+         * The translation table for each sequence.
+         */
+        private final List<byte[]> tables;
+        /**
+         * The first column to transform.
+         */
+        private final int start;
+        /**
+         * The column after the last column to transform.
+         */
+        private final int end;
+        /**
+         * Whether to reverse the order of the residues transformed.
+         */
+        private final boolean reverse;
+        /**
+         * The index of the first sequence (in 'seqs') to transform.
+         */
+        private final int from;
+        /**
+         * The index after the last sequence (in 'seqs') to transform.
+         */
+        private final int to;
+        /**
+         * Used for serialization purposes.
+         */
+        private static final long serialVersionUID = 7526472295622777048L;
+
+        /**
+         * Creates a new transform task.
+         **
+         * @param seqs     the sequences to transform.
+         * @param tables   the translation table for each sequence.
+         * @param start    the first column to transform.
+         * @param end      the column after the last column to transform.
+         * @param reverse  whether to reverse the order of the residues.
+         * @param from     the index of the first sequence to transform.
+         * @param to       the index after the last sequence to transform.
+         */
+        TransformTask(List<Seq> seqs, List<byte[]> tables, int start, int end,
+                      boolean reverse, int from, int to) {
+            this.seqs = seqs;
+            this.tables = tables;
+            this.start = start;
+            this.end = end;
+            this.reverse = reverse;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Transforms the sequences (or splits the range of sequences).
+         */
+        @Override
+        protected void compute() {
+            if (to - from > 1 && getPool() != null) {
+                final int middle = (from + to) >>> 1;
+
+                invokeAll(new TransformTask(seqs, tables, start, end, reverse,
+                                            from, middle),
+                          new TransformTask(seqs, tables, start, end, reverse,
+                                            middle, to));
+            } else {
+                for (int index = from; index < to; index++) {
+                    final Seq current = seqs.get(index);
+
+                    current.sequence.transform(start, end, tables.get(index),
+                                               reverse);
+
+                    // Deletes GenBank original copies of the sequence
+                    // this is because we are modifying the sequence, so we do
+                    // not want the original sequence to be exported.
+                    current.original = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a listener to be notified whenever text is inserted into, or
+     * deleted from, a sequence in the Dataset.
+     **
+     * @param l the listener to add.
+     */
+    public void addTextLengthListener(TextLengthListener l) {
+        listenerList.add(TextLengthListener.class, l);
+    }
+
+    /**
+     * Removes a text length listener from the Dataset.
+     **
+     * @param l the listener to remove.
+     */
+    public void removeTextLengthListener(TextLengthListener l) {
+        listenerList.remove(TextLengthListener.class, l);
+    }
+
+    /**
+     * Notifies every text length listener that text was inserted into, or
+     * deleted from, a sequence.  The listeners are notified in the reverse
+     * order they were added (the same order as the list data listeners).
+     **
+     * @param x      the column where the text length change began.
+     * @param y      the line number of the sequence modified.
+     * @param length the number of characters inserted (negative for a
+     *               deletion).
+     */
+    private void fireTextLengthChanged(int x, int y, int length) {
+        final Object[] listeners = listenerList.getListenerList();
+
+        for (int count = listeners.length - 2; count >= 0; count -= 2) {
+            if (listeners[count] == TextLengthListener.class) {
+                ((TextLengthListener) listeners[count + 1]).textLengthChanged(
+                        x, y, length);
+            }
+        }
+    }
+
+    /**
+     * Reports any pending additions (see beginUpdate) to the listeners.
+     */
+    private void flushUpdate() {
+        if (pendingStart >= 0) {
+            final int start = pendingStart;
+            final int end = pendingEnd;
+
+            pendingStart = pendingEnd = -1;
+            fireIntervalAdded(this, start, end);
+        }
+    }
+
+    /**
+     * Removes a sequence from the list of sequences (without notifying the
+     * listeners), and removes its length from the multiset of lengths.
+     **
+     * @param  index the line number of the sequence to remove.
+     * @return the sequence removed.
+     */
+    private Seq removeLine(int index) {
+        final Seq removed = lines.remove(index);
+
+        removeLength(removed.sequence.length());
+        return removed;
+    }
+
+    /**
+     * Adds a sequence length to the multiset of sequence lengths.
+     **
+     * @param length the length to add.
+     */
+    private void addLength(int length) {
+        final Integer count = lengths.get(length);
+
+        lengths.put(length, (count == null ? 1 : count + 1));
+    }
+
+    /**
+     * Removes a sequence length from the multiset of sequence lengths.
+     **
+     * @param length the length to remove.
+     */
+    private void removeLength(int length) {
+        final Integer count = lengths.get(length);
+
+        if (count != null && count > 1) {
+            lengths.put(length, count - 1);
+        } else {
+            lengths.remove(length);
+        }
+    }
+
+    /**
+     * Updates the multiset of sequence lengths after a sequence was modified.
+     **
+     * @param oldlength the length of the sequence before it was modified.
+     * @param newlength the length of the sequence after it was modified.
+     */
+    private void changeLength(int oldlength, int newlength) {
+        if (oldlength != newlength) {
+            removeLength(oldlength);
+            addLength(newlength);
+        }
+    }
+
 //////////////////////
 //******************//
 //* DATA RETRIEVAL *//
@@ -437,6 +1174,17 @@ public class Dataset extends AbstractListModel {
         return (current != null ? current.sequence.length() : -1);
     }
 
+    /**
+     * Retrieves the length (in characters) of the longest sequence in the
+     * Dataset sequence object container.  This is calculated in O(log n) time
+     * from the multiset of sequence lengths (see the variable 'lengths').
+     **
+     * @return the length of the longest sequence (0 if the Dataset is empty).
+     */
+    public int getLongestSequence() {
+        return (lengths.isEmpty() ? 0 : lengths.lastKey());
+    }
+
     /**
      * Retrieves the colour mask object for a given sequence 'line' in the
      * Dataset sequence object container.  The sequence is specified by its
@@ -508,6 +1256,151 @@ public class Dataset extends AbstractListModel {
         return endpos - offset;
     }
 
+    /**
+     * <p>Creates a snapshot of the Dataset: a consistent, detached copy of
+     * every sequence in the Dataset, which may be read by other threads
+     * (e.g. to write the sequences to a file for a PCD command) while the
+     * Dataset continues to be edited on the event dispatch thread.</p>
+     *
+     * <p>The residues of the sequences are shared between the Dataset and the
+     * snapshot (copy-on-write -- see ResidueStore.snapshot); therefore, taking
+     * a snapshot only costs one small object per sequence, regardless of the
+     * length of the sequences.  The residues of a sequence are copied the
+     * first time the sequence is modified after the snapshot is taken (only
+     * the sequences actually modified are copied).</p>
+     *
+     * <p><i>NOTE: the snapshot must be taken on the event dispatch thread,
+     *       and must not be modified (it is a read-only view of the Dataset;
+     *       it has no listeners or undo history of its own).</i></p>
+     **
+     * @return the snapshot of the Dataset.
+     */
+    public Dataset snapshot() {
+        // The line numbers of every sequence in the Dataset.
+        final int[] rows = new int[lines.size()];
+
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = row;
+        }
+        return snapshot(rows);
+    }
+
+    /**
+     * Creates a snapshot of some of the sequences in the Dataset (see
+     * snapshot()).  The sequences appear in the snapshot in the order of the
+     * line numbers given; invalid line numbers are skipped.
+     **
+     * @param  rows  the line numbers of the sequences to include.
+     * @return the snapshot of the sequences.
+     */
+    public Dataset snapshot(int[] rows) {
+        // The snapshot of the Dataset.
+        final Dataset result = new Dataset(null);
+
+        for (int row : rows) {
+            final Seq current = getLine(row);
+
+            if (current != null) {
+                result.lines.add(current.snapshot());
+                result.addLength(current.sequence.length());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>Ensures that none of the sequences in the Dataset are read from a
+     * file which is about to be overwritten (e.g. when the canvas is saved
+     * over the file it was opened from).</p>
+     *
+     * <p>Sequences opened as a large file (see DataFormat.convertMapped) read
+     * their residues directly from a memory-mapping of the file until they
+     * are modified.  Truncating the file, while it is mapped, would cause
+     * the sequences to be read from a truncated mapping (which can crash the
+     * Java virtual machine, or write a corrupt file); therefore, the residues
+     * of such sequences are copied into memory first.  The residues are
+     * shared with any snapshots of the sequences (see ResidueStore.unmap), so
+     * snapshots taken before the file is overwritten (e.g. the clipboard, or
+     * a running search) remain readable.</p>
+     *
+     * <p>Likewise, the original GenBANK headers of sequences read from a
+     * GenBANK file are stored as excerpts of the file (see FileExcerpt).  The
+     * headers read from the file are also copied into memory; otherwise, the
+     * headers could not be read back while the file is being written, and
+     * the features of the sequences would be lost.  The same applies to the
+     * headers stored by the undo history (see EditJournal.releaseFile).</p>
+     *
+     * <p><i>NOTE: this must be called on the event dispatch thread, before
+     *       the file is opened for writing.</i></p>
+     **
+     * @param  file         the file which is about to be overwritten.
+     * @throws IOException  if the sequences or headers cannot be copied into
+     *                      memory (in which case the file must not be
+     *                      overwritten).
+     */
+    public void releaseFile(File file) throws IOException {
+        // The file to release, with any symbolic links resolved.
+        final File target = file.getCanonicalFile();
+        // Whether each of the files the sequences are read from is the file
+        // to release (each file only needs to be resolved once).
+        final Map<File, Boolean> matches = new HashMap<File, Boolean>();
+
+        try {
+            for (Seq seq : lines) {
+                // The file the residues of the sequence are mapped from.
+                final File source = seq.sequence.getMappedFile();
+                // The file the original GenBANK header is read from.
+                final File header = (seq.original instanceof FileExcerpt
+                        ? ((FileExcerpt) seq.original).getFile() : null);
+
+                if (source != null && isFile(target, source, matches)) {
+                    seq.sequence.unmap();
+                }
+                if (header != null && isFile(target, header, matches)) {
+                    try {
+                        seq.original = ((FileExcerpt) seq.original).read();
+                    } catch (IOException ioe) {
+                        throw new IOException("Cannot read the original"
+                                + " GenBANK header of " + seq.name + " from "
+                                + file + " (" + ioe.getMessage() + ").  Please"
+                                + " save to a different file.", ioe);
+                    }
+                }
+            }
+            journal.releaseFile(target, matches);
+        } catch (IllegalStateException ise) {
+            throw new IOException(ise.getMessage()
+                    + "  Please save to a different file.", ise);
+        } catch (OutOfMemoryError oome) {
+            throw new IOException("There is not enough memory to load the"
+                    + " sequences read from " + file + " before overwriting"
+                    + " it.  Please save to a different file.");
+        }
+    }
+
+    /**
+     * Determines whether a file is the same file as the target of releaseFile.
+     * The result for each file is stored in a map, so each file only needs
+     * to be resolved once (see File.getCanonicalFile).
+     **
+     * @param  target   the canonical file to compare against.
+     * @param  file     the file to test.
+     * @param  matches  the results for the files already tested.
+     * @return whether the file is the target file.
+     * @throws IOException if the file's path cannot be resolved.
+     */
+    static boolean isFile(File target, File file,
+                          Map<File, Boolean> matches) throws IOException {
+        // Whether the file is the target file.
+        Boolean result = matches.get(file);
+
+        if (result == null) {
+            result = target.equals(file.getCanonicalFile());
+            matches.put(file, result);
+        }
+        return result;
+    }
+
     /**
      * Called when a field in a sequence is modified.  This method is currently
      * called from within the Dataset class, and by the SequenceWindow class.
@@ -518,6 +1411,7 @@ public class Dataset extends AbstractListModel {
      * @see org.biolegato.sequence.data.SequenceWindow
      */
     void sequenceChanged(final int index) {
+        flushUpdate();
         fireContentsChanged(this, index, index);
     }
 
@@ -820,110 +1714,33 @@ public class Dataset extends AbstractListModel {
         // settings are off, then the text is unprotected and any character may
         // be inserted or deleted).
         if (protect_ambig || protect_uambig || protect_align) {
+            // The protection status of each character class (indexed by the
+            // character class constants ALIGN, AMBIGUOUS and UNAMBIGUOUS).
+            final boolean[] status = new boolean[3];
+            status[ALIGN] = protect_align;
+            status[AMBIGUOUS] = protect_ambig;
+            status[UNAMBIGUOUS] = protect_uambig;
+
             // Branch based on whether the sequence is a nucleotide sequence, or
             // an amino acid/protein sequence.  If the sequence is neither an
             // amino acid or nucleotide sequence, then this method will return
             // false (i.e. the text to be inserted or deleted is unprotected).
+            //
+            // Iterate through each character in the text string until we
+            // either reach the end of the string, or a protected character is
+            // found.  The class of each character is obtained from a lookup
+            // table (see nucleotideClass and proteinClass).
             if (type == Seq.Type.DNA || type == Seq.Type.RNA) {
                 for (int count = start; !protect && count <= end; count++) {
-                    // Iterate through each character in the text string until
-                    // we either reach the end of the string, or a protected
-                    // character is found.  Character types are based on a
-                    // combination of the sources listed below and a thorough
-                    // testing of character protections in GDE.
-                    //
-                    // SOURCES:
-                    //  http://home.cc.umanitoba.ca/~psgendb/formats.html
-                    switch (Character.toLowerCase(test[count])) {
-                        case 'b':   // G or T or C
-                        case 'd':   // G or T or A
-                        case 'h':   // A or C or T
-                        case 'i':   // RESERVED(?) -- Copied behaviour from GDE.
-                        case 'k':   // G or T
-                        case 'm':   // A or C
-                        case 'n':   // Any
-                        case 'r':   // Purine (A or G)
-                        case 's':   // G or C
-                        case 'v':   // G or C or A
-                        case 'w':   // A or T
-                        case 'y':   // Pyrimidine (C or T)
-                            protect = protect_ambig;
-                            break;
-
-                        case 'a':   // Adenosine (A)
-                        case 'c':   // Cytosine  (C)
-                        case 'g':   // Guanine   (G)
-                        case 't':   // Thymine   (T)
-                        case 'u':   // Uracil    (U)
-                            protect = protect_uambig;
-                            break;
-                            
-                        default:
-                            protect = protect_align;
-                            break;
-                    }
+                    final char c = test[count];
+                    protect = status[c < NUCLEOTIDE_CLASSES.length
+                            ? NUCLEOTIDE_CLASSES[c] : nucleotideClass(c)];
                 }
             } else if (type == Seq.Type.PROTEIN) {
                 for (int count = start; !protect && count < end; count++) {
-                    // Iterate through each character in the text string until
-                    // we either reach the end of the string, or a protected
-                    // character is found.  Character types are based on a
-                    // combination of the sources listed below and a thorough
-                    // testing of character protections in GDE.
-                    //
-                    // SOURCES:
-                    //  http://home.cc.umanitoba.ca/~psgendb/formats.html
-                    //  http://www.ddbj.nig.ac.jp/sub/ref2-e.html
-                    //  http://www.bioinformatics.org/sms/iupac.html
-                    switch (Character.toLowerCase(test[count])) {
-                        // Various standard alignment and whitespace characters.
-                        case ' ': case '\n': case '\t': case '\r': case '-':
-                            protect = protect_align;
-                            break;
-
-                        case 'b':   // Aspartic acid or Asparagine (Asx)
-                        case 'j':   // Leucine or isoleucine       (Leu or Ile)
-                        case 'x':   // UNKNOWN                     (ANY)
-                        case 'z':   // Glutamic acid or Glutamine  (Glx)
-                        case '*':   // STOP
-                            protect = protect_ambig;
-                            break;
-
-                        // The current implementation treats every character
-                        // (not just letter) -- excluding NOT B, J, X, Z, *, a
-                        // whitespace character (space, tab, new-line, carriage
-                        // return), or a dash -- as an unambiguous sequence
-                        // character.  To change this implementation to the
-                        // such that only letters are considered (and everything
-                        // which is not a letter is considered an alignment
-                        // gap), move the 'default:' case to the end of the
-                        // protect_align multiple-case statement.
-                        case 'a':   // Alanine (Ala)
-                        case 'c':   // Cysteine (Cys)
-                        case 'd':   // Aspartic Acid (Asp)
-                        case 'e':   // Gluamic Acid (Glu)
-                        case 'f':   // Phenylalanine (Phe)
-                        case 'g':   // Glycine (Gly)
-                        case 'h':   // Histidine (His)
-                        case 'i':   // Isoleucine (Ile)
-                        case 'k':   // Lysine (Lys)
-                        case 'l':   // Leucine (Leu)
-                        case 'm':   // Methionine (Met)
-                        case 'n':   // Asparagine (Asn)
-                        case 'o':   // **Pyrrolysine (Pyl) -- NON-STANDARD AA!
-                        case 'q':   // Glutamine (Gln)
-                        case 'p':   // Proline (Pro)
-                        case 'r':   // Arginine (Arg)
-                        case 's':   // Serine (Ser)
-                        case 't':   // Threonine (Thr)
-                        case 'u':   // Selenocysteine (Sec)
-                        case 'v':   // Valine (Val)
-                        case 'w':   // Tryptophan (Trp)
-                        case 'y':   // Tyrosine (Tyr)
-                        default:
-                            protect = protect_uambig;
-                            break;
-                    }
+                    final char c = test[count];
+                    protect = status[c < PROTEIN_CLASSES.length
+                            ? PROTEIN_CLASSES[c] : proteinClass(c)];
                 }
             }
         }
@@ -931,4 +1748,123 @@ public class Dataset extends AbstractListModel {
         // Return the status of the protections test.
         return protect;
     }
+
+    /**
+     * Determines the character class of a nucleotide sequence character (for
+     * the purpose of sequence protections -- see isProtectionsOn).  This
+     * method is used to fill the table NUCLEOTIDE_CLASSES, and for any
+     * characters beyond the end of the table.
+     **
+     * @param  c the character to classify.
+     * @return the class of the character (ALIGN, AMBIGUOUS or UNAMBIGUOUS).
+     */
+    private static byte nucleotideClass(char c) {
+        // The class of the character.
+        byte result;
+
+        // Character types are based on a combination of the sources listed
+        // below and a thorough testing of character protections in GDE.
+        //
+        // SOURCES:
+        //  http://home.cc.umanitoba.ca/~psgendb/formats.html
+        switch (Character.toLowerCase(c)) {
+            case 'b':   // G or T or C
+            case 'd':   // G or T or A
+            case 'h':   // A or C or T
+            case 'i':   // RESERVED(?) -- Copied behaviour from GDE.
+            case 'k':   // G or T
+            case 'm':   // A or C
+            case 'n':   // Any
+            case 'r':   // Purine (A or G)
+            case 's':   // G or C
+            case 'v':   // G or C or A
+            case 'w':   // A or T
+            case 'y':   // Pyrimidine (C or T)
+                result = AMBIGUOUS;
+                break;
+
+            case 'a':   // Adenosine (A)
+            case 'c':   // Cytosine  (C)
+            case 'g':   // Guanine   (G)
+            case 't':   // Thymine   (T)
+            case 'u':   // Uracil    (U)
+                result = UNAMBIGUOUS;
+                break;
+
+            default:
+                result = ALIGN;
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Determines the character class of an amino acid sequence character (for
+     * the purpose of sequence protections -- see isProtectionsOn).  This
+     * method is used to fill the table PROTEIN_CLASSES, and for any
+     * characters beyond the end of the table.
+     **
+     * @param  c the character to classify.
+     * @return the class of the character (ALIGN, AMBIGUOUS or UNAMBIGUOUS).
+     */
+    private static byte proteinClass(char c) {
+        // The class of the character.
+        byte result;
+
+        // Character types are based on a combination of the sources listed
+        // below and a thorough testing of character protections in GDE.
+        //
+        // SOURCES:
+        //  http://home.cc.umanitoba.ca/~psgendb/formats.html
+        //  http://www.ddbj.nig.ac.jp/sub/ref2-e.html
+        //  http://www.bioinformatics.org/sms/iupac.html
+        switch (Character.toLowerCase(c)) {
+            // Various standard alignment and whitespace characters.
+            case ' ': case '\n': case '\t': case '\r': case '-':
+                result = ALIGN;
+                break;
+
+            case 'b':   // Aspartic acid or Asparagine (Asx)
+            case 'j':   // Leucine or isoleucine       (Leu or Ile)
+            case 'x':   // UNKNOWN                     (ANY)
+            case 'z':   // Glutamic acid or Glutamine  (Glx)
+            case '*':   // STOP
+                result = AMBIGUOUS;
+                break;
+
+            // The current implementation treats every character (not just
+            // letter) -- excluding NOT B, J, X, Z, *, a whitespace character
+            // (space, tab, new-line, carriage return), or a dash -- as an
+            // unambiguous sequence character.  To change this implementation
+            // to the such that only letters are considered (and everything
+            // which is not a letter is considered an alignment gap), move the
+            // 'default:' case to the end of the ALIGN multiple-case statement.
+            case 'a':   // Alanine (Ala)
+            case 'c':   // Cysteine (Cys)
+            case 'd':   // Aspartic Acid (Asp)
+            case 'e':   // Gluamic Acid (Glu)
+            case 'f':   // Phenylalanine (Phe)
+            case 'g':   // Glycine (Gly)
+            case 'h':   // Histidine (His)
+            case 'i':   // Isoleucine (Ile)
+            case 'k':   // Lysine (Lys)
+            case 'l':   // Leucine (Leu)
+            case 'm':   // Methionine (Met)
+            case 'n':   // Asparagine (Asn)
+            case 'o':   // **Pyrrolysine (Pyl) -- NON-STANDARD AA!
+            case 'q':   // Glutamine (Gln)
+            case 'p':   // Proline (Pro)
+            case 'r':   // Arginine (Arg)
+            case 's':   // Serine (Ser)
+            case 't':   // Threonine (Thr)
+            case 'u':   // Selenocysteine (Sec)
+            case 'v':   // Valine (Val)
+            case 'w':   // Tryptophan (Trp)
+            case 'y':   // Tyrosine (Tyr)
+            default:
+                result = UNAMBIGUOUS;
+                break;
+        }
+        return result;
+    }
 }
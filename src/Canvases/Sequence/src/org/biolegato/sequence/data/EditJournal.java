@@ -0,0 +1,801 @@
+/*
+ * EditJournal.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The undo/redo history of a Dataset object.</p>
+ *
+ * <p>Every insertion, deletion and transform applied to the sequences of a
+ * Dataset is recorded as a compact edit record: the sequence modified, its
+ * row, the column of the edit, and the residues inserted or removed (stored
+ * one byte per residue, like ResidueStore).  Undoing or redoing an edit only
+ * replays the record; therefore, the cost of recording, undoing and redoing
+ * an edit is proportional to the size of the edit, and does not depend on
+ * the size of the alignment (no copy of the Dataset is ever made).</p>
+ *
+ * <p>Transforms which are their own inverse (e.g. changing case, or
+ * reverse complementing a DNA sequence which contains no U's -- see
+ * Dataset.transform) are undone by applying the transform again; therefore,
+ * no residues are stored for them.  The residues of any other transform are
+ * stored before the transform is applied.</p>
+ *
+ * <p>Consecutive single keystrokes (i.e. insertions directly after the
+ * previous insertion, or deletions directly before or at the previous
+ * deletion, in the same sequence) which occur within COALESCE_TIME of each
+ * other are merged into one edit, so typing a word is undone in one step.
+ * Edits may also be grouped explicitly (see begin and end), so that an
+ * operation which modifies several sequences (e.g. typing into a group of
+ * sequences) is undone in one step.</p>
+ *
+ * <p>The journal is bounded: once the residues stored exceed MAX_BYTES, or
+ * the number of steps exceeds MAX_STEPS, the oldest steps are discarded.
+ * An edit which is larger than MAX_BYTES on its own clears the history
+ * (i.e. it cannot be undone).</p>
+ *
+ * <p>Each record refers to its sequence object (rather than only its row
+ * number), so edits can still be undone after sequences are added to, or
+ * removed from, the Dataset.  Edits to sequences which have since been
+ * removed from the Dataset are skipped.</p>
+ *
+ * <p>Modifying a sequence discards its original GenBANK header (see
+ * Seq.original); therefore, each record also refers to the header the
+ * sequence had before the edit, and undoing the edit restores it.</p>
+ *
+ * <p><i>NOTE: like the Dataset class, this class must only be used from the
+ *       Swing event dispatch thread.</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class EditJournal {
+
+    /**
+     * The Dataset whose edits are recorded.
+     */
+    private final Dataset datamodel;
+    /**
+     * The edits which can be undone (most recent last).
+     */
+    private final Deque<Edit> undo = new ArrayDeque<Edit>();
+    /**
+     * The edits which can be redone (most recently undone last).
+     */
+    private final Deque<Edit> redo = new ArrayDeque<Edit>();
+    /**
+     * The number of bytes stored by the edits in both histories.
+     */
+    private long bytes = 0;
+    /**
+     * The number of steps in the undo history.
+     */
+    private int steps = 0;
+    /**
+     * The number of the most recent step.
+     */
+    private int step = 0;
+    /**
+     * The number of nested groups currently open (see begin).
+     */
+    private int depth = 0;
+    /**
+     * Whether the journal is currently undoing or redoing an edit (in which
+     * case, the modifications are not recorded).
+     */
+    private boolean replaying = false;
+    /**
+     * The maximum time (in milliseconds) between two keystrokes for them to
+     * be merged into one edit.
+     */
+    private static final long COALESCE_TIME = 1000;
+    /**
+     * The maximum number of bytes stored by the journal.
+     */
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+    /**
+     * The maximum number of steps which can be undone.
+     */
+    private static final int MAX_STEPS = 10000;
+    /**
+     * The approximate memory overhead (in bytes) of each edit record.
+     */
+    private static final int OVERHEAD = 64;
+    /**
+     * The number of residues read at a time, when testing whether a transform
+     * is its own inverse (see isInvolution).
+     */
+    private static final int BLOCK = 8192;
+    /**
+     * The edit type for insertions.
+     */
+    private static final byte INSERT = 0;
+    /**
+     * The edit type for deletions.
+     */
+    private static final byte DELETE = 1;
+    /**
+     * The edit type for transforms.
+     */
+    private static final byte TRANSFORM = 2;
+
+    /**
+     * Creates a new (empty) edit journal.
+     **
+     * @param datamodel  the Dataset whose edits are recorded.
+     */
+    EditJournal(Dataset datamodel) {
+        this.datamodel = datamodel;
+    }
+
+    /**
+     * Begins a group of edits, which are undone and redone as one step.
+     * Groups may be nested; every call to begin must be matched by a call to
+     * end (preferably within a finally clause).
+     */
+    void begin() {
+        if (depth++ == 0) {
+            step++;
+        }
+    }
+
+    /**
+     * Ends a group of edits (see begin).
+     */
+    void end() {
+        if (depth > 0) {
+            depth--;
+        }
+    }
+
+    /**
+     * Determines whether there are any edits which can be undone.
+     **
+     * @return whether undo will have any effect.
+     */
+    boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    /**
+     * Determines whether there are any edits which can be redone.
+     **
+     * @return whether redo will have any effect.
+     */
+    boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /**
+     * Discards the whole undo and redo history.
+     */
+    void clear() {
+        undo.clear();
+        redo.clear();
+        bytes = 0;
+        steps = 0;
+    }
+
+    /**
+     * Copies the original GenBANK headers stored by the edits into memory, if
+     * they are read from a file which is about to be overwritten (see
+     * Dataset.releaseFile); otherwise, undoing the edits could not restore
+     * the headers.  Headers which can no longer be read are discarded.
+     **
+     * @param  target   the canonical file which is about to be overwritten.
+     * @param  matches  the files already compared against the target file.
+     * @throws IOException if the path of a file cannot be resolved.
+     */
+    void releaseFile(File target, Map<File, Boolean> matches)
+            throws IOException {
+        for (Edit edit : undo) {
+            edit.release(target, matches);
+        }
+        for (Edit edit : redo) {
+            edit.release(target, matches);
+        }
+    }
+
+///////////////////////
+//*******************//
+//* RECORDING EDITS *//
+//*******************//
+///////////////////////
+    /**
+     * Records an insertion (this is called by Dataset.insert, after the text
+     * is inserted).
+     **
+     * @param seq    the sequence modified.
+     * @param row    the row of the sequence.
+     * @param col    the column the text was inserted at.
+     * @param text   the array containing the text inserted.
+     * @param offset the offset of the text within the array.
+     * @param length the number of characters inserted.
+     */
+    void inserted(Seq seq, int row, int col, char[] text, int offset,
+                  int length) {
+        if (!replaying && length > 0) {
+            // The most recent edit (which may be extended by this insertion).
+            final Edit last = coalescable(seq, INSERT);
+
+            if (last != null && col == last.col + last.length) {
+                last.append(text, offset, length);
+                account(length);
+            } else {
+                final Edit edit = new Edit(INSERT, seq, row, col);
+
+                edit.append(text, offset, length);
+                record(edit);
+            }
+        }
+    }
+
+    /**
+     * Records a deletion (this is called by Dataset.delete, before the text
+     * is deleted, so the text can be stored).
+     **
+     * @param seq    the sequence modified.
+     * @param row    the row of the sequence.
+     * @param col    the column of the first character deleted.
+     * @param length the number of characters deleted.
+     */
+    void deleting(Seq seq, int row, int col, int length) {
+        if (!replaying && length > 0) {
+            // The most recent edit (which may be extended by this deletion).
+            final Edit last = coalescable(seq, DELETE);
+
+            if (last != null && col + length == last.col) {
+                // Backspace (delete before the previous deletion).
+                last.prepend(seq.sequence, col, length);
+                account(length);
+            } else if (last != null && col == last.col) {
+                // Delete (delete after the previous deletion).
+                last.append(seq.sequence, col, length);
+                account(length);
+            } else {
+                final Edit edit = new Edit(DELETE, seq, row, col);
+
+                edit.append(seq.sequence, col, length);
+                record(edit);
+            }
+        }
+    }
+
+    /**
+     * Records a transform (this is called by Dataset.transform, before the
+     * transform is applied).
+     **
+     * @param seqs    the sequences to transform.
+     * @param rows    the row of each sequence.
+     * @param tables  the translation table for each sequence.
+     * @param start   the first column to transform.
+     * @param end     the column after the last column to transform.
+     * @param reverse whether the order of the residues is reversed.
+     */
+    void transforming(List<Seq> seqs, int[] rows, List<byte[]> tables,
+                      int start, int end, boolean reverse) {
+        if (!replaying && !seqs.isEmpty()) {
+            final Edit edit = new Edit(TRANSFORM, null, 0, start);
+
+            edit.seqs = seqs.toArray(new Seq[seqs.size()]);
+            edit.rows = rows;
+            edit.tables = tables.toArray(new byte[tables.size()][]);
+            edit.end = end;
+            edit.reverse = reverse;
+            edit.prior = new byte[edit.seqs.length][];
+            edit.originals = new CharSequence[edit.seqs.length];
+
+            // Store the residues of every sequence whose transform is not its
+            // own inverse (for the residues within the range).
+            for (int index = 0; index < edit.seqs.length; index++) {
+                final ResidueStore residues = edit.seqs[index].sequence;
+                final int stop = Math.min(end, residues.length());
+
+                edit.originals[index] = edit.seqs[index].original;
+                if (!isInvolution(edit.tables[index], residues, start, stop)) {
+                    edit.prior[index] = new byte[stop - start];
+                    residues.getBytes(start, stop, edit.prior[index], 0);
+                    edit.length += stop - start;
+                }
+            }
+            record(edit);
+        }
+    }
+
+/////////////////////
+//*****************//
+//* UNDO AND REDO *//
+//*****************//
+/////////////////////
+    /**
+     * Undoes the most recent step.
+     **
+     * @return whether any edit was undone.
+     */
+    boolean undo() {
+        return replay(undo, redo, true);
+    }
+
+    /**
+     * Redoes the most recently undone step.
+     **
+     * @return whether any edit was redone.
+     */
+    boolean redo() {
+        return replay(redo, undo, false);
+    }
+
+    /**
+     * Undoes or redoes every edit of the most recent step of a history, and
+     * moves the edits to the opposite history.  If an edit cannot be replayed
+     * (i.e. the sequences were modified without being recorded), then the
+     * whole history is discarded, and no edit is reported as replayed.
+     **
+     * @param  from      the history to replay the step from.
+     * @param  to        the history to move the step to.
+     * @param  backwards whether to undo (true) or redo (false) the edits.
+     * @return whether any edit was replayed.
+     */
+    private boolean replay(Deque<Edit> from, Deque<Edit> to,
+                           boolean backwards) {
+        // The step to replay.
+        final int current = (from.isEmpty() ? 0 : from.peekLast().step);
+        // Whether every edit was replayed successfully.
+        boolean success = true;
+        // Whether any edits were replayed.
+        boolean result = false;
+
+        replaying = true;
+        try {
+            while (success && !from.isEmpty()
+                    && from.peekLast().step == current) {
+                final Edit edit = from.removeLast();
+
+                success = apply(edit, backwards);
+                to.addLast(edit);
+                result = true;
+            }
+            if (!success) {
+                System.err.println("WARNING: the undo history no longer"
+                        + " matches the sequences, and has been discarded.");
+                clear();
+                result = false;
+            } else if (result) {
+                steps += (backwards ? -1 : 1);
+            }
+        } catch (IndexOutOfBoundsException ioobe) {
+            ioobe.printStackTrace(System.err);
+            clear();
+            result = false;
+        } finally {
+            replaying = false;
+        }
+        return result;
+    }
+
+    /**
+     * Undoes or redoes a single edit.  Undoing an edit also restores the
+     * original GenBANK headers the sequences had before the edit.
+     **
+     * @param  edit      the edit to replay.
+     * @param  backwards whether to undo (true) or redo (false) the edit.
+     * @return whether the edit was replayed (edits to sequences which have
+     *         been removed from the Dataset are skipped successfully).
+     */
+    private boolean apply(Edit edit, boolean backwards) {
+        // The result of the method.
+        boolean result = true;
+
+        if (edit.type == TRANSFORM) {
+            // The sequences to transform again (i.e. all of the sequences,
+            // when redoing; or the sequences without stored residues, when
+            // undoing), and their translation tables.
+            final List<Seq> seqs = new ArrayList<Seq>();
+            final List<byte[]> tables = new ArrayList<byte[]>();
+            // The first and last rows modified.
+            int low = Integer.MAX_VALUE;
+            int high = -1;
+
+            for (int index = 0; index < edit.seqs.length; index++) {
+                final int row = datamodel.indexOf(edit.seqs[index],
+                                                  edit.rows[index]);
+
+                if (row >= 0) {
+                    edit.rows[index] = row;
+                    low = Math.min(low, row);
+                    high = Math.max(high, row);
+                    if (backwards && edit.prior[index] != null) {
+                        edit.seqs[index].sequence.setBytes(edit.col,
+                                edit.prior[index], 0, edit.prior[index].length);
+                    } else {
+                        seqs.add(edit.seqs[index]);
+                        tables.add(edit.tables[index]);
+                    }
+                }
+            }
+            if (high >= 0) {
+                datamodel.applyTransform(seqs, tables, edit.col, edit.end,
+                                         edit.reverse);
+                for (int index = 0; backwards && index < edit.seqs.length;
+                        index++) {
+                    edit.seqs[index].original = edit.originals[index];
+                }
+                datamodel.rowsChanged(low, high);
+            }
+        } else {
+            // The current row of the sequence.
+            final int row = datamodel.indexOf(edit.seq, edit.row);
+
+            if (row >= 0) {
+                edit.row = row;
+                if ((edit.type == INSERT) == backwards) {
+                    result = datamodel.delete(edit.col, row, edit.length,
+                                              false);
+                } else {
+                    // The residues to insert (as characters).
+                    final char[] text = new char[edit.length];
+
+                    for (int index = 0; index < edit.length; index++) {
+                        text[index] = (char) (edit.payload[index] & 0xFF);
+                    }
+                    result = datamodel.insert(edit.col, row, text, 0,
+                                              edit.length, false);
+                }
+                if (result && backwards) {
+                    edit.seq.original = edit.original;
+                }
+            }
+        }
+        return result;
+    }
+
+////////////////////////
+//********************//
+//* INTERNAL METHODS *//
+//********************//
+////////////////////////
+    /**
+     * Obtains the most recent edit, if a new single keystroke edit may be
+     * merged with it.  Keystrokes are only merged with edits of the same type
+     * and sequence, which were the only edit of their step, and which were
+     * last extended within COALESCE_TIME.
+     **
+     * @param  seq  the sequence of the new edit.
+     * @param  type the type of the new edit.
+     * @return the edit to merge with (or null, if the new edit may not be
+     *         merged).
+     */
+    private Edit coalescable(Seq seq, byte type) {
+        // The most recent edit.
+        final Edit last = undo.peekLast();
+        // The result of the method.
+        Edit result = null;
+
+        if (last != null && redo.isEmpty() && last.type == type
+                && last.seq == seq && last.single
+                && System.currentTimeMillis() - last.time <= COALESCE_TIME
+                && (depth == 0 || last.step == step)) {
+            result = last;
+        }
+        return result;
+    }
+
+    /**
+     * Adds a new edit to the undo history, and discards the redo history.
+     **
+     * @param edit  the edit to add.
+     */
+    private void record(Edit edit) {
+        // Whether the edit begins a new step.
+        final boolean first = (depth == 0 || undo.isEmpty()
+                               || undo.peekLast().step != step);
+
+        for (Edit old : redo) {
+            bytes -= old.length + OVERHEAD;
+        }
+        redo.clear();
+
+        if (depth == 0) {
+            step++;
+        }
+        if (!first) {
+            undo.peekLast().single = false;
+            edit.single = false;
+        } else {
+            steps++;
+        }
+        edit.step = step;
+        undo.addLast(edit);
+        account(edit.length + OVERHEAD);
+    }
+
+    /**
+     * Accounts for additional bytes stored in the undo history, and discards
+     * the oldest steps while the journal exceeds its bounds.
+     **
+     * @param added  the number of bytes added.
+     */
+    private void account(long added) {
+        bytes += added;
+        while (!undo.isEmpty() && (bytes > MAX_BYTES || steps > MAX_STEPS)) {
+            // The oldest step.
+            final int oldest = undo.peekFirst().step;
+
+            // Never discard the step in progress; clear the history instead.
+            if (oldest == undo.peekLast().step) {
+                clear();
+            } else {
+                while (undo.peekFirst().step == oldest) {
+                    bytes -= undo.removeFirst().length + OVERHEAD;
+                }
+                steps--;
+            }
+        }
+    }
+
+    /**
+     * Determines whether applying a translation table twice leaves every
+     * residue within a range unchanged (i.e. whether the table is its own
+     * inverse for the residues in the range).  For example, the DNA
+     * complement table is its own inverse, unless the range contains a U
+     * (which is complemented to A, and back to T).
+     **
+     * @param  table    the translation table to test.
+     * @param  residues the residues the table is applied to.
+     * @param  start    the first residue the table is applied to.
+     * @param  stop     the position after the last residue.
+     * @return whether the table is its own inverse for the range.
+     */
+    private static boolean isInvolution(byte[] table, ResidueStore residues,
+                                        int start, int stop) {
+        // Whether each residue is changed by applying the table twice.
+        final boolean[] changed = new boolean[table.length];
+        // Whether any residue is changed by applying the table twice.
+        boolean any = false;
+        // The buffer used to read the residues.
+        byte[] buffer = null;
+        // The result of the method.
+        boolean result = true;
+
+        for (int c = 0; c < table.length; c++) {
+            changed[c] = (table[table[c] & 0xFF] != (byte) c);
+            any |= changed[c];
+        }
+
+        // Read the range in blocks, and test each residue (this is only
+        // necessary if the table is not its own inverse for every residue).
+        if (any) {
+            buffer = new byte[Math.min(stop - start, BLOCK)];
+            for (int pos = start; result && pos < stop; pos += buffer.length) {
+                final int count = Math.min(buffer.length, stop - pos);
+
+                residues.getBytes(pos, pos + count, buffer, 0);
+                for (int index = 0; result && index < count; index++) {
+                    result = !changed[buffer[index] & 0xFF];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A single edit record.
+     */
+    private static final class Edit {
+
+        /**
+         * The type of the edit (INSERT, DELETE or TRANSFORM).
+         */
+        final byte type;
+        /**
+         * The sequence modified (insertions and deletions only).
+         */
+        final Seq seq;
+        /**
+         * The row of the sequence, when it was last modified (used to find
+         * the sequence quickly -- see Dataset.indexOf).
+         */
+        int row;
+        /**
+         * The column of the edit (the first column, for transforms).
+         */
+        int col;
+        /**
+         * The original GenBANK header of the sequence before the edit
+         * (insertions and deletions only).
+         */
+        CharSequence original;
+        /**
+         * The number of residues stored by the edit.
+         */
+        int length = 0;
+        /**
+         * The residues inserted or deleted (one byte per residue; only the
+         * first 'length' bytes are used).
+         */
+        byte[] payload = null;
+        /**
+         * The step the edit belongs to.
+         */
+        int step;
+        /**
+         * Whether the edit is the only edit in its step.
+         */
+        boolean single = true;
+        /**
+         * The time the edit was last extended (see coalescable).
+         */
+        long time = 0;
+        /**
+         * The sequences transformed (transforms only).
+         */
+        Seq[] seqs;
+        /**
+         * The row of each sequence transformed.
+         */
+        int[] rows;
+        /**
+         * The translation table of each sequence transformed.
+         */
+        byte[][] tables;
+        /**
+         * The residues of each sequence before the transform (null for
+         * sequences whose transform is its own inverse).
+         */
+        byte[][] prior;
+        /**
+         * The original GenBANK header of each sequence before the transform.
+         */
+        CharSequence[] originals;
+        /**
+         * The column after the last column transformed.
+         */
+        int end;
+        /**
+         * Whether the transform reversed the order of the residues.
+         */
+        boolean reverse;
+
+        /**
+         * Creates a new edit record.
+         **
+         * @param type the type of the edit.
+         * @param seq  the sequence modified (null for transforms).
+         * @param row  the row of the sequence.
+         * @param col  the column of the edit.
+         */
+        Edit(byte type, Seq seq, int row, int col) {
+            this.type = type;
+            this.seq = seq;
+            this.row = row;
+            this.col = col;
+            this.original = (seq != null ? seq.original : null);
+        }
+
+        /**
+         * Copies the original GenBANK headers of the edit into memory, if they
+         * are read from a file which is about to be overwritten (see
+         * EditJournal.releaseFile).
+         **
+         * @param  target   the canonical file which is about to be
+         *                  overwritten.
+         * @param  matches  the files already compared against the target.
+         * @throws IOException if the path of a file cannot be resolved.
+         */
+        void release(File target, Map<File, Boolean> matches)
+                throws IOException {
+            original = release(original, target, matches);
+            for (int index = 0; originals != null && index < originals.length;
+                    index++) {
+                originals[index] = release(originals[index], target, matches);
+            }
+        }
+
+        /**
+         * Copies an original GenBANK header into memory, if it is read from a
+         * file which is about to be overwritten.
+         **
+         * @param  header   the header to copy.
+         * @param  target   the canonical file which is about to be
+         *                  overwritten.
+         * @param  matches  the files already compared against the target.
+         * @return the header (or null, if the header can no longer be read).
+         * @throws IOException if the path of a file cannot be resolved.
+         */
+        private static CharSequence release(CharSequence header, File target,
+                                            Map<File, Boolean> matches)
+                                            throws IOException {
+            // The result of the method.
+            CharSequence result = header;
+
+            if (header instanceof FileExcerpt && Dataset.isFile(target,
+                    ((FileExcerpt) header).getFile(), matches)) {
+                try {
+                    result = ((FileExcerpt) header).read();
+                } catch (IOException ioe) {
+                    System.err.println("WARNING: an original GenBANK header"
+                            + " in the undo history can no longer be read ("
+                            + ioe.getMessage() + "), and has been discarded.");
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Appends characters to the residues of the edit.
+         **
+         * @param text   the array of characters.
+         * @param offset the offset of the first character.
+         * @param count  the number of characters.
+         */
+        void append(char[] text, int offset, int count) {
+            grow(count);
+            for (int index = 0; index < count; index++) {
+                final char c = text[offset + index];
+
+                payload[length + index] = (c <= 0xFF ? (byte) c : (byte) '?');
+            }
+            length += count;
+        }
+
+        /**
+         * Appends residues, read from a sequence, to the residues of the edit.
+         **
+         * @param residues the residues of the sequence.
+         * @param start    the position of the first residue to append.
+         * @param count    the number of residues to append.
+         */
+        void append(ResidueStore residues, int start, int count) {
+            grow(count);
+            residues.getBytes(start, start + count, payload, length);
+            length += count;
+        }
+
+        /**
+         * Prepends residues, read from a sequence, to the residues of the
+         * edit, and moves the edit's column back accordingly.
+         **
+         * @param residues the residues of the sequence.
+         * @param start    the position of the first residue to prepend.
+         * @param count    the number of residues to prepend.
+         */
+        void prepend(ResidueStore residues, int start, int count) {
+            grow(count);
+            System.arraycopy(payload, 0, payload, count, length);
+            residues.getBytes(start, start + count, payload, 0);
+            length += count;
+            col = start;
+        }
+
+        /**
+         * Ensures that the payload can hold 'count' more residues (this is
+         * called whenever residues are added to the edit, so it also updates
+         * the time the edit was last extended).
+         **
+         * @param count the number of residues to be added.
+         */
+        private void grow(int count) {
+            time = System.currentTimeMillis();
+            if (payload == null || payload.length < length + count) {
+                final byte[] grown = new byte[Math.max(length + count,
+                        (payload == null ? 0 : payload.length * 2))];
+
+                if (payload != null) {
+                    System.arraycopy(payload, 0, grown, 0, length);
+                }
+                payload = grown;
+            }
+        }
+    }
+}
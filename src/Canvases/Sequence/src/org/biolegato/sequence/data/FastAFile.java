@@ -10,7 +10,15 @@ package org.biolegato.sequence.data;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import org.biolegato.main.BLMain;
 
 
 /**
@@ -28,6 +36,33 @@ public class FastAFile extends DataFormat {
      * (i.e. the > symbol at the beginning of a line).
      */
     private static final String DELIMITER = "(?m:^)>";
+    /**
+     * The size of the character buffer used by the streaming FastA parser.
+     */
+    private static final int BUFFER_SIZE = 65536;
+    /**
+     * The minimum size of each range, when dividing a file into ranges to be
+     * parsed in parallel (see split).  Smaller files are not divided.
+     */
+    private static final long MIN_SPLIT = 16L * 1024 * 1024;
+    /**
+     * Parser state: at the beginning of a line (the next character determines
+     * whether the line is a header, comment or sequence line).
+     */
+    private static final int LINE_START = 0;
+    /**
+     * Parser state: reading a header ('>') line.
+     */
+    private static final int HEADER = 1;
+    /**
+     * Parser state: reading residues from a sequence line.
+     */
+    private static final int RESIDUES = 2;
+    /**
+     * Parser state: skipping a comment (the remainder of the line following
+     * a ';' or '#' character), or any data before the first header line.
+     */
+    private static final int COMMENT = 3;
 
     /**
      * Creates a new instance of FastAFile
@@ -56,11 +91,365 @@ public class FastAFile extends DataFormat {
                 result.append(" ").append(seq.get("description"));
             }*/
             result.append("\n");
-            result.append(seq.getSequence(), offset, offset + length);
+            seq.getSequence().appendTo(result, offset, offset + length);
             result.append("\n");
         }
     }
 
+    /**
+     * <p>Translates FastA data from a Reader object into BioLegato.</p>
+     *
+     * <p>This method is a hand-written streaming replacement for calling
+     * convertSequence repeatedly.  Rather than splitting the data into one
+     * String per entry (and then filtering the String with regular
+     * expressions), the data is read into a fixed size character buffer and
+     * parsed one character at a time by a simple state machine.  Residues are
+     * appended directly into the sequence's ResidueStore, so no intermediate
+     * copies of the sequence are ever made.</p>
+     *
+     * <p>The parsing rules are the same as convertSequence: a line starting
+     * with '>' begins a new entry (the remainder of the line is parsed into a
+     * name and description), a ';' or '#' character begins a comment which
+     * extends to the end of the line, and only the characters A-Z, a-z, '*'
+     * and '-' are kept from sequence lines.  Any data before the first '>'
+     * header line is ignored.</p>
+     **
+     * @param  datamodel    the destination data model to store the converted
+     *                      sequence data.
+     * @param  data         the Reader object to parse data from.
+     * @param  source       the file the Reader object reads from (unused).
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @throws IOException  any exceptions that occur while reading the stream.
+     */
+    @Override
+    protected void convertStream(Dataset datamodel, Reader data, File source,
+                                        int x, int y) throws IOException {
+        // The current state of the parser.
+        int state = LINE_START;
+        // The number of characters in the buffer.
+        int read = 0;
+        // The current character being parsed.
+        char c;
+        // The total number of characters read (used for reporting the
+        // throughput of the parser in debug mode).
+        long total = 0;
+        // The time the parsing started at (also used for debug reporting).
+        final long start = System.nanoTime();
+        // Stores the number of sequences in the data model at the time the
+        // function is called.
+        final int modellength = datamodel.getSize();
+        // The character buffer for reading the data.
+        final char[] buffer = new char[BUFFER_SIZE];
+        // The buffer for the current header line.
+        final StringBuilder header = new StringBuilder();
+        // The residues of the current entry (null if no entry has been
+        // started yet).
+        ResidueStore residues = null;
+
+        while ((read = data.read(buffer, 0, BUFFER_SIZE)) >= 0) {
+            // The start of the current run of residues within the buffer.
+            int run = 0;
+            // The position to write the next residue to within the buffer.
+            // Because residues are only ever removed, never added, the
+            // residues of each line can be compacted within the read buffer
+            // itself (i.e. 'write' is always less than or equal to 'index').
+            int write = 0;
+
+            total += read;
+            for (int index = 0; index < read; index++) {
+                c = buffer[index];
+
+                // Any line within an entry, other than a header line, is a
+                // sequence line (the first character of the line is parsed as
+                // part of the sequence line).
+                if (state == LINE_START && c != '>' && residues != null) {
+                    state = RESIDUES;
+                    run = write = index;
+                }
+
+                switch (state) {
+                    case LINE_START:
+                        // Determine the type of line.
+                        if (c == '>') {
+                            // Store the previous entry in the data model,
+                            // and begin a new header.
+                            if (residues != null) {
+                                addEntry(datamodel, header, residues, x, y,
+                                         modellength);
+                                y++;
+                            }
+                            header.setLength(0);
+                            residues = new ResidueStore();
+                            state = HEADER;
+                        } else if (c != '\n') {
+                            // Skip any data before the first header line.
+                            state = COMMENT;
+                        }
+                        break;
+                    case RESIDUES:
+                        if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+                                || c == '*' || c == '-') {
+                            buffer[write] = c;
+                            write++;
+                        } else if (c == '\n' || c == ';' || c == '#') {
+                            // Flush the current run of residues.
+                            residues.append(buffer, run, write - run);
+                            run = write;
+                            state = (c == '\n' ? LINE_START : COMMENT);
+                        }
+                        break;
+                    case HEADER:
+                        if (c == '\n') {
+                            state = LINE_START;
+                        } else {
+                            header.append(c);
+                        }
+                        break;
+                    case COMMENT:
+                        // Skip the remainder of the line.
+                        if (c == '\n') {
+                            state = LINE_START;
+                        }
+                        break;
+                }
+            }
+
+            // Flush any residues remaining at the end of the buffer.
+            if (state == RESIDUES) {
+                residues.append(buffer, run, write - run);
+            }
+        }
+
+        // Store the final entry in the data model.
+        if (residues != null) {
+            addEntry(datamodel, header, residues, x, y, modellength);
+        }
+
+        // Report the throughput of the parser.
+        if (BLMain.debug) {
+            final double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            final double megabytes = total / (1024.0 * 1024.0);
+            System.err.println("FastA parser - read " + total
+                    + " characters in " + seconds + " s ("
+                    + (megabytes / seconds) + " MB/s)");
+        }
+    }
+
+    /**
+     * <p>Divides a FastA file into ranges which can be parsed in parallel.</p>
+     *
+     * <p>The file is divided into ranges of (approximately) equal size, and
+     * each range boundary is moved forward to the start of the next entry
+     * (i.e. the next '>' character at the beginning of a line).  Files are
+     * only divided if each range would be at least MIN_SPLIT bytes, and if the
+     * default character set encodes the '\n' and '>' characters as single
+     * bytes (so byte positions can be used as boundaries).</p>
+     **
+     * @param  file         the file to divide.
+     * @param  parts        the maximum number of ranges to divide the file into.
+     * @return the boundaries of the ranges.
+     * @throws IOException  if an error occurs while reading the file.
+     */
+    @Override
+    public long[] split(File file, int parts) throws IOException {
+        // The size of the file.
+        final long size = file.length();
+        // The boundaries of the ranges (the first boundary is always zero).
+        final long[] bounds = new long[parts + 1];
+        // The number of boundaries found.
+        int count = 1;
+        // The buffer used to search for the start of the next entry.
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        // The file object used to read the file.
+        RandomAccessFile in = null;
+
+        // Limit the number of ranges (so each range is at least MIN_SPLIT).
+        parts = (int) Math.max(1, Math.min(parts, size / MIN_SPLIT));
+
+        if (parts > 1 && FileExcerpt.canMapOffsets(Charset.defaultCharset())) {
+            try {
+                in = new RandomAccessFile(file, "r");
+                for (int part = 1; part < parts; part++) {
+                    // Search for the next "\n>" after the approximate
+                    // boundary position.
+                    long position = Math.max(size / parts * part,
+                                             bounds[count - 1]);
+                    long found = -1;
+                    int read;
+
+                    in.seek(position);
+                    while (found < 0 && (read = in.read(buffer)) > 0) {
+                        for (int index = 0; index < read - 1; index++) {
+                            if (buffer[index] == '\n'
+                                    && buffer[index + 1] == '>') {
+                                found = position + index + 1;
+                                break;
+                            }
+                        }
+                        // NOTE: overlap the buffers by one byte, so a "\n>"
+                        // spanning two buffers is not missed.
+                        position += Math.max(1, read - 1);
+                        in.seek(position);
+                    }
+                    if (found > bounds[count - 1] && found < size) {
+                        bounds[count] = found;
+                        count++;
+                    }
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+        bounds[count] = size;
+        return Arrays.copyOf(bounds, count + 1);
+    }
+
+    /**
+     * <p>Reads a FastA file, without loading its residues into memory.</p>
+     *
+     * <p>The file is memory-mapped, and an index of its entries is either
+     * read from the file's sidecar index file, or built by scanning the file
+     * once (see FastAIndex.open).  Entries with a regular line layout are
+     * added to the data model as sequences which read their residues directly
+     * from the mapped file, so only the residues which are displayed are ever
+     * read.  Entries with an irregular layout (e.g. varying line lengths,
+     * comments or whitespace within the sequence) are loaded into memory as
+     * usual.</p>
+     **
+     * @param  datamodel    the destination data model to store the sequences.
+     * @param  source       the file to read.
+     * @param  y            the Y-coordinate (line) in the data model to add
+     *                      the sequences.
+     * @return true (FastA files can always be mapped).
+     * @throws IOException  if the file cannot be read or mapped.
+     */
+    @Override
+    public boolean convertMapped(Dataset datamodel, File source, int y)
+                                                            throws IOException {
+        // The time the indexing started at (used for debug reporting).
+        final long start = System.nanoTime();
+        // The memory-mapped file.
+        final MappedFile mapped = new MappedFile(source);
+        // The index of the FastA entries in the file.
+        final FastAIndex index = FastAIndex.open(mapped);
+        // The sequences read from the file.
+        final List<Seq> sequences = new ArrayList<Seq>(index.size());
+
+        // Add all of the sequences to the data model (using a single call to
+        // addSequences, so the data model's listeners are only notified once).
+        for (int count = 0; count < index.size(); count++) {
+            // Stop reading if the thread has been interrupted (e.g. the file
+            // is being read by a SequenceImporter which has been cancelled).
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Reading cancelled");
+            }
+            sequences.add(toSeq(index.getHeader(count), index.getType(count),
+                                index.getResidues(mapped, count)));
+        }
+        datamodel.addSequences(y, sequences);
+
+        // Report the throughput of the indexer.
+        if (BLMain.debug) {
+            final double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            System.err.println("FastA mapped reader - indexed " + index.size()
+                    + " entries (" + mapped.size() + " bytes) in " + seconds
+                    + " s (" + (mapped.size() / (1024.0 * 1024.0) / seconds)
+                    + " MB/s)");
+        }
+        return true;
+    }
+
+    /**
+     * <p>Adds a single entry, parsed by the streaming FastA parser, to the
+     * data model.</p>
+     *
+     * <p>The header line is parsed into a name and description exactly as
+     * in the convertSequence method.</p>
+     **
+     * @param  datamodel    the destination data model to store the entry.
+     * @param  header       the contents of the header line (minus the '>').
+     * @param  residues     the residues of the entry.
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @param  modellength  the number of sequences in the data model at the
+     *                      time the parser was called.
+     */
+    private static void addEntry(Dataset datamodel, CharSequence header,
+                    ResidueStore residues, int x, int y, int modellength) {
+        // Either insert the residues into an existing line, or add a new
+        // sequence to the data model (see convertSequence).
+        if (y < modellength) {
+            char[] text = new char[residues.length()];
+            residues.getChars(0, text.length, text, 0);
+            datamodel.insert(x, y, text, 0, text.length, true);
+        } else {
+            residues.trimToSize();
+            datamodel.add(y, toSeq(header, Seq.detectType(residues),
+                                   residues));
+        }
+    }
+
+    /**
+     * <p>Creates a new sequence object from a FastA header line.</p>
+     *
+     * <p>The header line is parsed into a name and description exactly as
+     * in the convertSequence method (see parseHeader).</p>
+     **
+     * @param  header       the contents of the header line (minus the '>').
+     * @param  type         the type of the sequence.
+     * @param  residues     the residues of the sequence.
+     * @return the new sequence object.
+     */
+    static Seq toSeq(CharSequence header, Seq.Type type,
+                     ResidueStore residues) {
+        // The name and description parsed from the header line.
+        final String[] fields = parseHeader(header);
+
+        return new Seq(type, fields[0], residues, fields[1]);
+    }
+
+    /**
+     * <p>Parses a FastA header line into a name and description.</p>
+     *
+     * <p>The header line is parsed exactly as in the convertSequence method:
+     * the name is the text before the first space (with all GenBank '|'
+     * fields removed, except the first two), and the description is the text
+     * after the first space.</p>
+     **
+     * @param  header       the contents of the header line (minus the '>').
+     * @return an array containing the name and the description.
+     */
+    static String[] parseHeader(CharSequence header) {
+        String prefix = "";
+        String description = "";
+        String name = header.toString().trim();
+
+        // Locate description data, if applicable, with the name field.
+        if (name.indexOf(' ') > 0) {
+            description = name.substring(name.indexOf(' ') + 1);
+            name = name.substring(0, name.indexOf(' '));
+        }
+
+        // Remove all GenBank '|' fields from the name field,
+        // (except the GI number, if applicable).
+        if (name.indexOf('|') >= 0) {
+            prefix = name.substring(0, name.indexOf('|'));
+            name = name.substring(name.indexOf('|') + 1);
+            if (name.indexOf('|') >= 0) {
+                name = name.substring(0, name.indexOf('|'));
+            }
+            name = prefix + "|" + name;
+        }
+        return new String[] {name, description};
+    }
+
     /**
      * Translates a single sequence from a scanner into BioLegato
      **
@@ -101,9 +490,6 @@ public class FastAFile extends DataFormat {
             // Get the next sequence to parse.
             curr = source.next();
 
-            // Remove all comments from the sequence.
-            curr.replaceAll("[#;][^\n]*\n", "\n");
-
             // Determine the index of the first new-line character in the
             // text to be parsed into a sequence.
             nlidx = curr.indexOf('\n');
@@ -114,8 +500,11 @@ public class FastAFile extends DataFormat {
                 String prefix = "";
                 String description = "";
                 String name = curr.substring(0, nlidx).trim();
+                // Remove all comments from the sequence lines, and then remove
+                // all non-residue characters from the sequence.
                 StringBuffer sbuff = new StringBuffer(curr.substring(nlidx + 1
-                        ).replaceAll("[^A-Za-z\\*\\-]", "").trim());
+                        ).replaceAll("[#;][^\n]*", "").replaceAll(
+                        "[^A-Za-z\\*\\-]", "").trim());
 
                 // Locate description data, if applicable, with the name field.
                 if (name.indexOf(' ') > 0) {
@@ -0,0 +1,528 @@
+/*
+ * FastAIndex.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.biolegato.main.BLMain;
+
+/**
+ * <p>An index of the entries within a memory-mapped FastA file.</p>
+ *
+ * <p>The index stores, for each entry, the header line, the position of the
+ * entry's sequence data within the file, the number of residues, the line
+ * layout of the sequence data, and the sequence type.  This is all of the
+ * information required to display the entries in BioLegato without loading
+ * their residues into memory (see MappedRecord).</p>
+ *
+ * <p>An entry's sequence data is considered regular if every line of the data
+ * (except the last) contains the same number of residues, and the same number
+ * of bytes, and the data contains no characters other than residues and line
+ * terminators.  Irregular entries (e.g. entries containing comments, spaces
+ * or numbers within the sequence data) cannot be read directly from the file,
+ * so they are parsed into memory when they are read.</p>
+ *
+ * <p><u>SIDECAR INDEX FILES</u></p>
+ * <!--  ------------------- -->
+ * <p>Once an index is built, it is saved next to the indexed file (with the
+ * suffix ".blidx"), so the file does not need to be scanned again when it is
+ * re-opened.  The sidecar file is a tab-delimited text file, similar to
+ * samtools' .fai files.  Its first line contains a magic string, a version
+ * number, and the size and modification time of the indexed file (if either
+ * of these differ from the indexed file, the sidecar file is ignored and
+ * rebuilt).  Each following line describes one entry:</p>
+ *
+ * <pre>
+ *      offset  end  length  line-bases  line-bytes  type  header</pre>
+ *
+ * <p>If the sidecar file cannot be written (e.g. the directory is read-only)
+ * the index is simply not saved.</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class FastAIndex {
+
+    /**
+     * The entries within the index.
+     */
+    private final List<Entry> entries = new ArrayList<Entry>();
+    /**
+     * The suffix appended to the name of the indexed file to obtain the name
+     * of its sidecar index file.
+     */
+    static final String SUFFIX = ".blidx";
+    /**
+     * The magic string at the beginning of every sidecar index file.
+     */
+    private static final String MAGIC = "#BLIDX";
+    /**
+     * The version number of the sidecar index file format.
+     */
+    private static final String VERSION = "1";
+    /**
+     * The character set used to read and write sidecar index files.
+     */
+    private static final Charset INDEX_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * A single entry within the index.
+     */
+    private static final class Entry {
+        /**
+         * The header line of the entry (without the '>' character).
+         */
+        String header;
+        /**
+         * The position of the first byte of the entry's sequence data within
+         * the file (i.e. the byte following the header line).
+         */
+        long offset;
+        /**
+         * The position after the last byte of the entry's sequence data.
+         */
+        long end;
+        /**
+         * The number of residues in the entry.
+         */
+        int length = 0;
+        /**
+         * The number of residues on each line of sequence data (zero if the
+         * entry's layout is irregular).
+         */
+        int lineBases = 0;
+        /**
+         * The number of bytes on each line of sequence data, including the
+         * line terminator.
+         */
+        int lineBytes = 0;
+        /**
+         * The type of the sequence.
+         */
+        Seq.Type type = Seq.Type.DNA;
+        /**
+         * The residues of the entry, if the entry's layout is irregular
+         * (otherwise null).
+         */
+        ResidueStore residues = null;
+    }
+
+    /**
+     * Creates a new empty index.
+     */
+    private FastAIndex() {
+    }
+
+    /**
+     * <p>Obtains an index for a memory-mapped FastA file.</p>
+     *
+     * <p>If a valid sidecar index file exists for the file, the index is read
+     * from the sidecar file.  Otherwise, the index is built by scanning the
+     * file, and then saved to the sidecar file (if possible).</p>
+     **
+     * @param  file the memory-mapped file to index.
+     * @return the index of the file.
+     * @throws InterruptedIOException if the thread is interrupted while the
+     *                                index is being built.
+     */
+    static FastAIndex open(MappedFile file) throws InterruptedIOException {
+        // The sidecar index file.
+        final File sidecar = new File(file.getFile().getPath() + SUFFIX);
+        // The index of the file.
+        FastAIndex index = load(file, sidecar);
+
+        if (index == null) {
+            index = build(file);
+            index.save(file, sidecar);
+        } else if (BLMain.debug) {
+            System.err.println("FastA index - read " + index.size()
+                    + " entries from " + sidecar);
+        }
+        return index;
+    }
+
+    /**
+     * <p>Builds an index for a memory-mapped FastA file.</p>
+     *
+     * <p>The file is scanned line by line.  Lines beginning with '>' begin
+     * new entries, and all other lines are examined to determine the number of
+     * residues, the sequence type, and whether the entry's layout is regular.
+     * Any data before the first header line is ignored.</p>
+     *
+     * <p>If the thread is interrupted (e.g. the file is being read by a
+     * SequenceImporter which has been cancelled), then the scan stops at the
+     * next line, and no index is returned (or saved).</p>
+     **
+     * @param  file the memory-mapped file to index.
+     * @return the index of the file.
+     * @throws InterruptedIOException if the thread is interrupted.
+     */
+    static FastAIndex build(MappedFile file) throws InterruptedIOException {
+        // The current position within the file.
+        long position = 0;
+        // The current byte being scanned.
+        byte b;
+        // The index being built.
+        final FastAIndex index = new FastAIndex();
+        // The size of the file.
+        final long size = file.size();
+        // The entry currently being scanned (null before the first header).
+        Entry current = null;
+        // Whether the current entry has had a line with fewer residues than
+        // a full line (which must be the last line of the entry).
+        boolean lastLine = false;
+
+        while (position < size) {
+            // The position of the first byte of the line.
+            final long lineStart = position;
+            // The number of residues on the current line.
+            int residues = 0;
+            // Whether the current line contains only residues.
+            boolean clean = true;
+
+            // Stop scanning if the thread has been interrupted.
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing cancelled");
+            }
+
+            if (file.get(position) == '>') {
+                // Finish the previous entry, and begin a new entry.
+                index.finish(file, current, lineStart);
+
+                // Read the header line.
+                position++;
+                while (position < size && file.get(position) != '\n') {
+                    position++;
+                }
+                current = new Entry();
+                current.header = decode(file, lineStart + 1, position);
+
+                // Skip the line terminator.
+                if (position < size) {
+                    position++;
+                }
+                current.offset = position;
+                lastLine = false;
+                continue;
+            }
+
+            // Scan the sequence line.
+            while (position < size && (b = file.get(position)) != '\n') {
+                if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z')
+                        || b == '*' || b == '-') {
+                    residues++;
+                    if (current != null && current.type == Seq.Type.DNA) {
+                        current.type = Seq.residueType((char) b);
+                    }
+                } else if (b != '\r' || position + 1 < size
+                        && file.get(position + 1) != '\n') {
+                    // NOTE: carriage returns are only valid as part of the
+                    // line terminator.
+                    clean = false;
+                }
+                position++;
+            }
+            if (position < size) {
+                position++;
+            }
+
+            // Update the layout of the entry.
+            if (current != null && current.lineBases >= 0) {
+                // The number of bytes in the line (including the terminator).
+                final int lineBytes = (int) (position - lineStart);
+
+                if (!clean || (lastLine && residues > 0)) {
+                    // The layout is irregular (i.e. the line contains
+                    // non-residue characters, or a short line is followed by
+                    // further sequence data).
+                    current.lineBases = -1;
+                } else if (residues == 0) {
+                    // A blank line must be the end of the sequence data.
+                    lastLine = true;
+                } else if (current.lineBases == 0) {
+                    // The first line of the sequence determines the layout.
+                    current.lineBases = residues;
+                    current.lineBytes = lineBytes;
+                } else if (residues > current.lineBases) {
+                    current.lineBases = -1;
+                } else if (residues < current.lineBases
+                            || lineBytes != current.lineBytes) {
+                    // A short line must be the last line of the sequence.
+                    lastLine = true;
+                }
+                current.length += residues;
+            }
+        }
+
+        // Finish the final entry.
+        index.finish(file, current, size);
+        return index;
+    }
+
+    /**
+     * Finishes scanning an entry, and adds it to the index.  If the entry's
+     * layout is irregular, then the entry's sequence data is parsed into
+     * memory.
+     **
+     * @param file    the memory-mapped file.
+     * @param entry   the entry to finish (may be null).
+     * @param end     the position after the last byte of the entry.
+     */
+    private void finish(MappedFile file, Entry entry, long end) {
+        if (entry != null) {
+            entry.end = end;
+            if (entry.lineBases < 0) {
+                // Parse the irregular entry into memory.
+                entry.residues = parse(file, entry.offset, end);
+                entry.length = entry.residues.length();
+                entry.type = Seq.detectType(entry.residues);
+                entry.lineBases = 0;
+                entry.lineBytes = 0;
+            }
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     **
+     * @return the number of entries.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the header line of an entry.
+     **
+     * @param  number the number of the entry.
+     * @return the header line (without the '>' character).
+     */
+    String getHeader(int number) {
+        return entries.get(number).header;
+    }
+
+    /**
+     * Returns the sequence type of an entry.
+     **
+     * @param  number the number of the entry.
+     * @return the sequence type.
+     */
+    Seq.Type getType(int number) {
+        return entries.get(number).type;
+    }
+
+    /**
+     * Returns the residues of an entry.  Regular entries are read directly
+     * from the memory-mapped file; irregular entries are parsed into memory.
+     **
+     * @param  file   the memory-mapped file.
+     * @param  number the number of the entry.
+     * @return the residues of the entry.
+     */
+    ResidueStore getResidues(MappedFile file, int number) {
+        final Entry entry = entries.get(number);
+        ResidueStore result = entry.residues;
+
+        if (result == null && entry.lineBases == 0) {
+            // The entry is irregular (and the index was read from a sidecar
+            // file), so the entry must be parsed into memory.
+            result = parse(file, entry.offset, entry.end);
+        } else if (result == null) {
+            result = new ResidueStore(new MappedRecord(file, entry.offset,
+                    entry.length, entry.lineBases, entry.lineBytes));
+        }
+        return result;
+    }
+
+    /**
+     * Saves the index to a sidecar index file.  If the file cannot be
+     * written, the index is not saved (any partially written file is
+     * deleted).
+     **
+     * @param file      the memory-mapped (indexed) file.
+     * @param sidecar   the sidecar index file to write.
+     */
+    private void save(MappedFile file, File sidecar) {
+        // The writer used to write the sidecar file.
+        Writer out = null;
+
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(sidecar), INDEX_CHARSET));
+
+            // Write the header line.
+            out.write(MAGIC + "\t" + VERSION + "\t" + file.size() + "\t"
+                    + file.lastModified() + "\n");
+
+            // Write each entry.
+            for (Entry entry : entries) {
+                out.write(entry.offset + "\t" + entry.end + "\t"
+                        + entry.length + "\t" + entry.lineBases + "\t"
+                        + entry.lineBytes + "\t" + entry.type.name() + "\t"
+                        + entry.header + "\n");
+            }
+            out.close();
+            out = null;
+        } catch (IOException ioe) {
+            // The sidecar file is optional, so only report the error when
+            // debugging.
+            if (BLMain.debug) {
+                System.err.println("FastA index - could not write " + sidecar
+                        + " (" + ioe.getMessage() + ")");
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                }
+                sidecar.delete();
+            }
+        }
+    }
+
+    /**
+     * Loads an index from a sidecar index file.  The sidecar file is only used
+     * if it describes a file of the same size and modification time as the
+     * memory-mapped file.
+     **
+     * @param  file     the memory-mapped (indexed) file.
+     * @param  sidecar  the sidecar index file to read.
+     * @return the index (or null, if the sidecar file does not exist, is out
+     *         of date, or cannot be read).
+     */
+    private static FastAIndex load(MappedFile file, File sidecar) {
+        // The current line of the sidecar file.
+        String line;
+        // The reader used to read the sidecar file.
+        BufferedReader in = null;
+        // The index read from the sidecar file.
+        FastAIndex result = null;
+
+        if (sidecar.isFile()) {
+            try {
+                in = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(sidecar), INDEX_CHARSET));
+
+                // Validate the header line.
+                line = in.readLine();
+                if (line != null && line.equals(MAGIC + "\t" + VERSION + "\t"
+                        + file.size() + "\t" + file.lastModified())) {
+                    result = new FastAIndex();
+
+                    // Read each entry.
+                    while ((line = in.readLine()) != null) {
+                        final String[] fields = line.split("\t", 7);
+                        final Entry entry = new Entry();
+
+                        entry.offset = Long.parseLong(fields[0]);
+                        entry.end = Long.parseLong(fields[1]);
+                        entry.length = Integer.parseInt(fields[2]);
+                        entry.lineBases = Integer.parseInt(fields[3]);
+                        entry.lineBytes = Integer.parseInt(fields[4]);
+                        entry.type = Seq.Type.valueOf(fields[5]);
+                        entry.header = fields[6];
+
+                        // Ensure that the entry is within the file.
+                        if (entry.offset < 0 || entry.end > file.size()
+                                || entry.offset > entry.end
+                                || entry.lineBases < 0) {
+                            throw new IOException("invalid entry: " + line);
+                        }
+                        result.entries.add(entry);
+                    }
+                }
+            } catch (Exception ex) {
+                // Any malformed sidecar file is rebuilt.
+                if (BLMain.debug) {
+                    System.err.println("FastA index - ignoring " + sidecar
+                            + " (" + ex + ")");
+                }
+                result = null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace(System.err);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the sequence data of an irregular entry into memory.  The same
+     * rules are used as the streaming FastA parser: ';' and '#' begin comments
+     * which extend to the end of the line, and only the characters A-Z, a-z,
+     * '*' and '-' are kept.
+     **
+     * @param  file   the memory-mapped file.
+     * @param  start  the position of the first byte of the sequence data.
+     * @param  end    the position after the last byte of the sequence data.
+     * @return the residues parsed.
+     */
+    static ResidueStore parse(MappedFile file, long start, long end) {
+        // The current byte being parsed.
+        byte b;
+        // Whether the parser is currently within a comment.
+        boolean comment = false;
+        // The residues parsed.
+        final ResidueStore result = new ResidueStore(
+                (int) Math.min(end - start, Integer.MAX_VALUE - 16));
+
+        for (long position = start; position < end; position++) {
+            b = file.get(position);
+            if (b == '\n') {
+                comment = false;
+            } else if (comment) {
+                continue;
+            } else if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z')
+                    || b == '*' || b == '-') {
+                result.append((char) b);
+            } else if (b == ';' || b == '#') {
+                comment = true;
+            }
+        }
+        result.trimToSize();
+        return result;
+    }
+
+    /**
+     * Decodes a header line from the memory-mapped file (using the default
+     * character set, as the streaming parser's FileReader would).  Any
+     * trailing carriage return is removed from the header.
+     **
+     * @param  file   the memory-mapped file.
+     * @param  start  the position of the first byte of the header.
+     * @param  end    the position after the last byte of the header.
+     * @return the decoded header.
+     */
+    private static String decode(MappedFile file, long start, long end) {
+        // Strip the carriage return from the end of the line (if present).
+        if (end > start && file.get(end - 1) == '\r') {
+            end--;
+        }
+
+        final byte[] bytes = new byte[(int) (end - start)];
+
+        file.get(start, bytes, 0, bytes.length);
+        return new String(bytes, Charset.defaultCharset());
+    }
+}
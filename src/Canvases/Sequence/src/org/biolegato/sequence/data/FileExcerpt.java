@@ -0,0 +1,226 @@
+/*
+ * FileExcerpt.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import org.biopcd.parser.CompressedFile;
+
+/**
+ * <p>A read-only character sequence which is lazily re-read from a region of
+ * a file.</p>
+ *
+ * <p>This class is used to store the original headers of GenBank entries.
+ * Rather than keeping a copy of every header in memory (which, for RefSeq
+ * sized files, can be larger than the sequence data itself), only the
+ * location of the header within the file is stored.  The header is re-read
+ * from the file only when it is needed (i.e. when the sequence is written in
+ * GenBank format).  The most recently read text is cached through a soft
+ * reference, so it may be reclaimed by the garbage collector at any time.</p>
+ *
+ * <p>Because the file may be changed or deleted after it is read, the size
+ * and modification time of the file are recorded when the excerpt is created.
+ * If either of these differs when the excerpt is read, then the excerpt is
+ * considered stale (see isValid).</p>
+ *
+ * <p>If the file is a BGZF (bgzip) compressed file, then the offset and
+ * length of the excerpt are positions within the decompressed data, and the
+ * excerpt is re-read by decompressing only the blocks which contain it (see
+ * CompressedFile.BgzfIndex).</p>
+ *
+ * <p><i>NOTE: the offset and length of the excerpt are byte positions within
+ *       the file; therefore, excerpts should only be created for ASCII text
+ *       (see canMapOffsets and LineReader.isASCII).</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class FileExcerpt implements CharSequence, Serializable {
+
+    /**
+     * The file containing the text.
+     */
+    private final File file;
+    /**
+     * The byte offset of the text within the file.
+     */
+    private final long offset;
+    /**
+     * The length of the text (in bytes, which are also characters).
+     */
+    private final int length;
+    /**
+     * The size of the file when the excerpt was created.
+     */
+    private final long size;
+    /**
+     * The modification time of the file when the excerpt was created.
+     */
+    private final long modified;
+    /**
+     * A cached copy of the text (may be cleared by the garbage collector).
+     */
+    private transient SoftReference<String> cache = null;
+    /**
+     * Used for serialization purposes.
+     */
+    private static final long serialVersionUID = 7526472295622777041L;
+
+    /**
+     * Creates a new file excerpt.
+     **
+     * @param file      the file containing the text.
+     * @param offset    the byte offset of the text within the file.
+     * @param length    the length of the text.
+     * @param size      the size of the file at the time the text was read.
+     * @param modified  the modification time of the file at the time the text
+     *                  was read.
+     */
+    FileExcerpt(File file, long offset, int length, long size, long modified) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    /**
+     * Returns whether the file is unchanged since the excerpt was created
+     * (i.e. whether the excerpt can still be read from the file).
+     **
+     * @return true if the file still has the same size and modification time.
+     */
+    boolean isValid() {
+        return file.isFile() && file.length() == size
+                && file.lastModified() == modified;
+    }
+
+    /**
+     * Returns the length of the text.
+     **
+     * @return the number of characters in the excerpt.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns a character within the text.
+     **
+     * @param  index the index of the character to return.
+     * @return the character at the index specified.
+     */
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    /**
+     * Returns a portion of the text.
+     **
+     * @param  start the start of the portion (inclusive).
+     * @param  end   the end of the portion (exclusive).
+     * @return the text between 'start' and 'end'.
+     */
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Reads the text from the file (or returns the cached copy, if it has not
+     * yet been garbage collected).  If the file cannot be read, then an empty
+     * string is returned (see read).
+     **
+     * @return the text of the excerpt.
+     */
+    @Override
+    public String toString() {
+        // The text of the excerpt.
+        String result;
+
+        try {
+            result = read();
+        } catch (IOException ioe) {
+            ioe.printStackTrace(System.err);
+            result = "";
+        }
+        return result;
+    }
+
+    /**
+     * Reads the text from the file (or returns the cached copy, if it has not
+     * yet been garbage collected).
+     **
+     * @return the text of the excerpt.
+     * @throws IOException if the file has been modified since the excerpt was
+     *                     created (see isValid), or cannot be read.
+     */
+    String read() throws IOException {
+        // The text of the excerpt.
+        String result = (cache != null ? cache.get() : null);
+
+        if (result == null) {
+            // The raw bytes of the excerpt.
+            final byte[] data = new byte[length];
+            // The file object to read the excerpt from.
+            RandomAccessFile in = null;
+
+            if (!isValid()) {
+                throw new IOException("The file " + file + " has been"
+                        + " modified since it was opened.");
+            }
+            try {
+                if (CompressedFile.detect(file) == CompressedFile.BGZF) {
+                    CompressedFile.BgzfIndex.forFile(file).readFully(offset,
+                            data, 0, length);
+                } else {
+                    in = new RandomAccessFile(file, "r");
+                    in.seek(offset);
+                    in.readFully(data);
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+
+            // NOTE: ISO-8859-1 maps each byte directly to a character.
+            result = new String(data, "ISO-8859-1");
+            cache = new SoftReference<String>(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the file containing the text.
+     **
+     * @return the file the excerpt is read from.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Determines whether a character set encodes ASCII characters as single
+     * bytes (i.e. whether character offsets within ASCII text decoded using
+     * the character set are equal to byte offsets in the file).
+     **
+     * @param  charset the character set to test.
+     * @return whether the character set is ASCII compatible.
+     */
+    static boolean canMapOffsets(Charset charset) {
+        // A sample of ASCII text to test the character set with.
+        final String sample = "\n>AZaz09";
+
+        return charset.canEncode()
+                && sample.equals(new String(sample.getBytes(charset),
+                                            Charset.forName("ISO-8859-1")));
+    }
+}
@@ -54,9 +54,9 @@ public class GDEFlatfile extends DataFormat {
             type = typeToFlatFile((Type) seq.getType());
 
             // NOTE: append is faster than + or concat operators
-            out.append(type).append(seq.getName()).append("\n"
-                    ).append(seq.getSequence(), offset, offset + length
-                    ).append("\n");
+            out.append(type).append(seq.getName()).append("\n");
+            seq.getSequence().appendTo(out, offset, offset + length);
+            out.append("\n");
         }
     }
 
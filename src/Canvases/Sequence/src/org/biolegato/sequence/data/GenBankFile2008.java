@@ -13,7 +13,10 @@ import org.biolegato.sequence.data.Seq.Topology;
 import org.biolegato.sequence.data.Seq.Strandedness;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.Scanner;
 import java.util.regex.*;
@@ -49,6 +52,58 @@ public class GenBankFile2008 extends DataFormat {
             = Pattern.compile("^LOCUS\\s+([^\\s]+)\\s+(?:\\d+\\s+)?"
             + "(aa|bp\\s+[\\w-]+)\\s+(circular\\s+|linear\\s+)?",
             Pattern.CASE_INSENSITIVE);
+    /**
+     * Streaming parser section: outside of any entry (i.e. before the first
+     * LOCUS line, or after a '//' line).
+     */
+    private static final int OUTSIDE = 0;
+    /**
+     * Streaming parser section: reading the header of an entry (i.e. the
+     * LOCUS, DEFINITION, ..., FEATURES sections).
+     */
+    private static final int HEADER = 1;
+    /**
+     * Streaming parser section: reading the sequence of an entry (i.e. the
+     * lines following the ORIGIN line).
+     */
+    private static final int SEQUENCE = 2;
+    /**
+     * The maximum length of a line of sequence written by convertTo (a new
+     * line character, a position number of up to ten digits, and six groups
+     * of ten residues, each preceded by a space).
+     */
+    private static final int LINE_LENGTH = 1 + 10 + 6 * 11;
+    /**
+     * The number of lines of sequence which are formatted into the buffer
+     * before the buffer is written to the destination (see convertTo).
+     */
+    private static final int BLOCK_LINES = 128;
+    /**
+     * The buffer used to format blocks of sequence lines.  Because the
+     * GenBank format object is shared (see DataFormat.GENBANK), and sequences
+     * may be written by threads other than the event dispatch thread (see
+     * Dataset.snapshot), each thread has its own buffer.
+     */
+    private static final ThreadLocal<char[]> BUFFER
+            = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[LINE_LENGTH * BLOCK_LINES];
+        }
+    };
+    /**
+     * The format of the date written on generated LOCUS lines.
+     */
+    private static final SimpleDateFormat DATE_FORMAT
+            = new SimpleDateFormat("dd-MMM-yyyy");
+    /**
+     * The current date, as written on generated LOCUS lines (see today).
+     */
+    private static String dateText = null;
+    /**
+     * The time at which dateText must be regenerated (i.e. the next midnight).
+     */
+    private static long dateExpires = 0;
 
     /**
      * Creates a new instance of GenBankFile2008
@@ -75,8 +130,14 @@ public class GenBankFile2008 extends DataFormat {
         int namelength;
         // The total length of the original sequence.
         int sequenceLength;
-        // A StringBuffer to store the sequence data to print.
-        StringBuffer sequence;
+        // The residue store containing the sequence data to print.
+        ResidueStore sequence;
+        // The original GenBank header of the sequence (if any).
+        CharSequence original;
+        // The buffer used to format the sequence lines.
+        final char[] buffer = BUFFER.get();
+        // The number of characters in the buffer.
+        int position = 0;
         // Stores the maximum position within the sequence to print.
         final int sequencemax = offset + length;
 
@@ -86,10 +147,11 @@ public class GenBankFile2008 extends DataFormat {
             // Obtain the sequence characters to print.
             sequence = seq.getSequence();
             sequenceLength = Math.min(sequencemax, sequence.length());
+            original = seq.getOriginal();
 
             // If there is an original field in the sequence object, use that
             // instead of a fake generated BioLegato GenBANK header.
-            if (seq.getOriginal() == null || offset != 0
+            if (original == null || offset != 0
                     || length != sequence.length()) {
                 // Begin the locus line.
                 result.append("LOCUS       ");
@@ -102,11 +164,14 @@ public class GenBankFile2008 extends DataFormat {
                     result.append(seq.getName()).append(SPACEPAD,
                             0, 16 - namelength);
                 } else {
-                    result.append(seq.getName().substring(0, 16));
+                    result.append(seq.getName(), 0, 16);
                 }
 
                 // Print the length of the sequence stored in the file.
-                result.append(" ").append(String.format("%11d", length));
+                buffer[0] = ' ';
+                position = putNumber(buffer, 1, length, 11);
+                DataFormat.write(result, buffer, 0, position);
+                position = 0;
 
                 // Print the strandedness of the nucleotide data in the GenBANK
                 // file (if it is not a protein GenBANK file).
@@ -155,8 +220,7 @@ public class GenBankFile2008 extends DataFormat {
 //                }
                 
                 // Print the time the GenBANK file was generated.
-                result.append((new SimpleDateFormat("dd-MMM-yyyy")).format(
-                        new Date()).toUpperCase());
+                result.append(today());
                 result.append("\n");
 
                 // Print the description field for the sequence.
@@ -165,35 +229,261 @@ public class GenBankFile2008 extends DataFormat {
                             seq.getDescription()).append("\n");
                 }
             } else {
-                // We have to remove the last newline from the end of the annotation.
-                // Apparently, the append function adds a newline, so if we don't do
-                // this, an extra blank line appears between the end of the annotation
-                // and the ORIGIN line.
-                result.append(seq.getOriginal().subSequence(0, seq.getOriginal().length()-1));
+                // Print the original header (everything from the LOCUS line
+                // up to, but not including, the ORIGIN line).
+                result.append(original);
             }
             // Print the ORIGIN line and begin writing the sequence.
             // NOTE:  GenBANK sequences have a special format involving spacing,
             //        numbering, and a limited number of characters per row.
             result.append("ORIGIN");
 
-            // Print the sequence (60 characters per row).
+            // Print the sequence (60 characters per row).  The rows are
+            // formatted into the buffer, and the buffer is written to the
+            // destination whenever it cannot hold another row (i.e. in
+            // blocks of BLOCK_LINES rows).
             for (int count = offset; count < sequenceLength; count += 60) {
+                if (position > buffer.length - LINE_LENGTH) {
+                    DataFormat.write(result, buffer, 0, position);
+                    position = 0;
+                }
+
                 // Print the sequence position counter.
-                result.append("\n").append(String.format("%9d", (count + 1)));
+                buffer[position++] = '\n';
+                position = putNumber(buffer, position, count + 1, 9);
 
                 // Print the spacing and sequence characters.
                 for (int spaceCount = count, next = count + 10;
                         spaceCount < count + 60 && spaceCount < sequenceLength;
                         spaceCount = next, next += 10) {
-                    result.append(" ").append(sequence, spaceCount,
-                            // math.min
-                            (sequenceLength < next ? sequenceLength : next));
+                    // math.min
+                    final int end = (sequenceLength < next
+                                        ? sequenceLength : next);
+
+                    buffer[position++] = ' ';
+                    sequence.getChars(spaceCount, end, buffer, position);
+                    position += end - spaceCount;
                 }
             }
+            if (position > 0) {
+                DataFormat.write(result, buffer, 0, position);
+            }
             result.append("\n//\n"); // Two right slashes denote end of a GenBank entry
         }
     }
 
+    /**
+     * <p>Translates GenBank data from a Reader object into BioLegato.</p>
+     *
+     * <p>This method is a line-oriented streaming replacement for calling
+     * convertSequence repeatedly.  Each line is classified by the section
+     * keyword at its beginning (LOCUS, DEFINITION, FEATURES, ORIGIN, etc., or
+     * the '//' entry terminator).  The lines from the LOCUS line up to the
+     * ORIGIN line form the header of the entry, and the residues on the lines
+     * following the ORIGIN line are copied directly into the sequence's
+     * ResidueStore (skipping the position numbers and spacing).  Continuation
+     * lines (i.e. lines starting with whitespace, such as feature qualifiers)
+     * never start a new section; therefore, text such as "ORIGIN" within a
+     * feature qualifier is not mistaken for the sequence data.</p>
+     *
+     * <p>If the source file is known, and the file is ASCII text, then the
+     * original header of each entry is not kept in memory.  Instead, only the
+     * position of the header within the file is stored, and the header is
+     * re-read from the file when needed (see FileExcerpt).</p>
+     **
+     * @param  datamodel    the destination data model to store the converted
+     *                      sequence data.
+     * @param  data         the Reader object to parse data from.
+     * @param  source       the file the Reader object reads from (or null).
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @throws IOException  any exceptions that occur while reading the stream.
+     */
+    @Override
+    protected void convertStream(Dataset datamodel, Reader data, File source,
+                                        int x, int y) throws IOException {
+        // The current section of the entry being parsed.
+        int section = OUTSIDE;
+        // The character offset of the current entry's LOCUS line.
+        long headerStart = 0;
+        // The line reader used to parse the data.
+        final LineReader reader = new LineReader(data);
+        // Stores the number of sequences in the data model at the time the
+        // function is called.
+        final int modellength = datamodel.getSize();
+        // The size and modification time of the source file.  These are used
+        // to detect whether the file has changed before re-reading headers.
+        final long size = (source != null ? source.length() : 0);
+        final long modified = (source != null ? source.lastModified() : 0);
+        // Whether headers may be stored as excerpts of the source file.
+        final boolean lazy = (source != null
+                && FileExcerpt.canMapOffsets(Charset.defaultCharset()));
+        // The header of the current entry.  This buffer is re-used for every
+        // entry, and is only copied into the sequence if the header cannot be
+        // re-read from the source file.
+        final StringBuilder header = new StringBuilder();
+        // The locus line of the current entry.
+        Matcher locus = null;
+        // The original header of the current entry, if it is stored as an
+        // excerpt of the source file (otherwise null).
+        CharSequence excerpt = null;
+        // The residues of the current entry.
+        ResidueStore residues = null;
+
+        while (reader.next()) {
+            // Classify the line based on its section keyword.  NOTE: only
+            // lines which start with a keyword can change the section.
+            if (reader.startsWith("LOCUS")) {
+                // Store the previous entry (if any).
+                if (section != OUTSIDE) {
+                    if (section == HEADER) {
+                        excerpt = headerEnd(header, reader, lazy, source,
+                                            headerStart, size, modified);
+                    }
+                    if (addEntry(datamodel, locus, header, excerpt, residues,
+                                 x, y, modellength)) {
+                        y++;
+                    }
+                }
+
+                // Begin a new entry.
+                section = HEADER;
+                headerStart = reader.offset;
+                header.setLength(0);
+                excerpt = null;
+                residues = new ResidueStore();
+                locus = LOCUS_PATTERN.matcher(reader.toString());
+                reader.appendLine(header);
+            } else if (section != OUTSIDE && reader.startsWith("//")) {
+                // End the current entry.
+                if (section == HEADER) {
+                    excerpt = headerEnd(header, reader, lazy, source,
+                                        headerStart, size, modified);
+                }
+                if (addEntry(datamodel, locus, header, excerpt, residues,
+                             x, y, modellength)) {
+                    y++;
+                }
+                section = OUTSIDE;
+            } else if (section == HEADER && reader.startsWith("ORIGIN")) {
+                // End the header and begin reading the sequence.
+                excerpt = headerEnd(header, reader, lazy, source,
+                                    headerStart, size, modified);
+                section = SEQUENCE;
+            } else if (section == HEADER) {
+                // Add the line to the header.
+                reader.appendLine(header);
+            } else if (section == SEQUENCE) {
+                // Copy the residues into the residue store.  The NCBI
+                // GenBank Release Notes do not specify which characters are
+                // legal in a SEQUENCE. Apparently, a gap character is okay.
+                // So we add gap as a legal character.  NOTE: the residues are
+                // compacted within the line buffer (since residues are only
+                // ever removed, never added) and copied in a single call.
+                final char[] buffer = reader.buffer;
+                int write = reader.start;
+
+                for (int index = reader.start; index < reader.end; index++) {
+                    final char c = buffer[index];
+                    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                            || c == '-') {
+                        buffer[write] = c;
+                        write++;
+                    }
+                }
+                residues.append(buffer, reader.start, write - reader.start);
+            }
+        }
+
+        // Store the final entry (if the file is missing the '//' line).
+        if (section != OUTSIDE) {
+            if (section == HEADER) {
+                excerpt = headerEnd(header, reader, lazy, source,
+                                    headerStart, size, modified);
+            }
+            addEntry(datamodel, locus, header, excerpt, residues,
+                     x, y, modellength);
+        }
+    }
+
+    /**
+     * <p>Finishes reading the header of a GenBank entry.</p>
+     *
+     * <p>If the header can be re-read from the source file (i.e. the source
+     * file is known and all of the text read so far is ASCII), then the
+     * header is recorded as a FileExcerpt, and the in-memory copy of the
+     * header is cleared.  Otherwise, null is returned and the in-memory copy
+     * of the header is left unchanged.</p>
+     **
+     * @param  header       the in-memory copy of the header.
+     * @param  reader       the line reader (positioned on the line following
+     *                      the header).
+     * @param  lazy         whether headers may be stored as file excerpts.
+     * @param  source       the source file.
+     * @param  headerStart  the character offset of the header in the file.
+     * @param  size         the size of the source file.
+     * @param  modified     the modification time of the source file.
+     * @return the header as a file excerpt (or null, if not applicable).
+     */
+    private static FileExcerpt headerEnd(StringBuilder header,
+            LineReader reader, boolean lazy, File source, long headerStart,
+            long size, long modified) {
+        FileExcerpt result = null;
+
+        // NOTE: the header ends where the current line begins (unless the end
+        // of the file was reached).
+        if (lazy && reader.isASCII() && header.length() > 0
+                && reader.offset - headerStart == header.length()) {
+            result = new FileExcerpt(source, headerStart, header.length(),
+                                     size, modified);
+            header.setLength(0);
+        }
+        return result;
+    }
+
+    /**
+     * <p>Adds a single entry, parsed by the streaming GenBank parser, to the
+     * data model.</p>
+     **
+     * @param  datamodel    the destination data model to store the entry.
+     * @param  locus        a matcher for the entry's LOCUS line.
+     * @param  header       the in-memory copy of the entry's header.
+     * @param  excerpt      the entry's header as an excerpt of the source file
+     *                      (or null, to use the in-memory copy).
+     * @param  residues     the residues of the entry.
+     * @param  x            the X-coordinate (character offset) in the data
+     *                      model to insert the converted sequence data.
+     * @param  y            the Y-coordinate (line) in the data model to insert
+     *                      the converted sequence data.
+     * @param  modellength  the number of sequences in the data model at the
+     *                      time the parser was called.
+     * @return whether the entry was stored (false if the LOCUS line is not
+     *         valid).
+     */
+    private static boolean addEntry(Dataset datamodel, Matcher locus,
+            StringBuilder header, CharSequence excerpt, ResidueStore residues,
+            int x, int y, int modellength) {
+        // Whether the locus line is valid.
+        final boolean result = locus.find();
+
+        if (result) {
+            if (y < modellength) {
+                // INSERT the sequence data into the canvas.
+                char[] text = new char[residues.length()];
+                residues.getChars(0, text.length, text, 0);
+                datamodel.insert(x, y, text, 0, text.length, true);
+            } else {
+                // ADD a new sequence to the end of the data model.
+                residues.trimToSize();
+                datamodel.add(y, toSeq(locus, residues, (excerpt != null
+                                        ? excerpt : header.toString())));
+            }
+        }
+        return result;
+    }
+
     /**
      * Converts a single sequence from a scanner into BioLegato
      **
@@ -274,40 +564,8 @@ public class GenBankFile2008 extends DataFormat {
                         datamodel.insert(x, y, text, 0, text.length, true);
                     } else {
                         // ADD a new sequence to the end of the data model.
-                        // begin by reading further information from the locus
-                        // line.
-                        Type type = Type.DNA;
-                        Direction direction = Direction.FROM5TO3;
-                        Strandedness strandedness = Strandedness.SINGLE;
-                        Topology topology = (locusMatcher.group(3) != null
-                                && "circular".equals(locusMatcher.group(3
-                                    ).toLowerCase().trim())
-                                ? Seq.Topology.CIRCULAR : Seq.Topology.LINEAR);
-                        String name = locusMatcher.group(1);
-                        String type_text = locusMatcher.group(2).toLowerCase();
-                        StringBuilder original
-                                = new StringBuilder(parray[0]).append("\n");
-
-                        // Determine if the sequence is protein or nucleic acid.
-                        // If the sequence is nucleic acid, determine the
-                        // strandedness, and use toType to determine if the
-                        // sequence is RNA or DNA.
-                        if ("aa".equals(type_text)) {
-                            type = Type.PROTEIN;
-                        } else if (type_text.startsWith("bp")) {
-                            int dashidx = type_text.indexOf('-');
-                            if (dashidx >= 0) {
-                                strandedness = toStrandedness(
-                                        type_text.substring(3, dashidx).trim());
-                                type = toType(type_text.substring(dashidx + 1));
-                            } else {
-                                type = toType(type_text.substring(3));
-                            }
-                        }
-
-                        // Add the sequence to the canvas.
-                        datamodel.add(y, new Seq(type, name, sequencebuffer,
-                                direction, topology, strandedness, original));
+                        datamodel.add(y, toSeq(locusMatcher, sequencebuffer,
+                                new StringBuilder(parray[0])));
                     }
                     // Increment the line counter to the next line.
                     y++;
@@ -370,6 +628,115 @@ public class GenBankFile2008 extends DataFormat {
         return "GenBank file (*.gb,*.gp,*.gen)";
     }
 
+    /**
+     * Creates a new sequence object from the fields of a GenBank LOCUS line.
+     **
+     * @param  locus     the matcher used to match the LOCUS line (after a
+     *                   successful call to find).
+     * @param  residues  the residues of the sequence.
+     * @param  original  the original GenBank header of the sequence.
+     * @return the new sequence object.
+     */
+    private static Seq toSeq(Matcher locus, CharSequence residues,
+                             CharSequence original) {
+        // Begin by reading further information from the locus line.
+        Type type = Type.DNA;
+        Direction direction = Direction.FROM5TO3;
+        Strandedness strandedness = Strandedness.SINGLE;
+        Topology topology = (locus.group(3) != null
+                && "circular".equals(locus.group(3).toLowerCase().trim())
+                ? Seq.Topology.CIRCULAR : Seq.Topology.LINEAR);
+        String name = locus.group(1);
+        String type_text = locus.group(2).toLowerCase();
+
+        // Determine if the sequence is protein or nucleic acid.
+        // If the sequence is nucleic acid, determine the
+        // strandedness, and use toType to determine if the
+        // sequence is RNA or DNA.
+        if ("aa".equals(type_text)) {
+            type = Type.PROTEIN;
+        } else if (type_text.startsWith("bp")) {
+            int dashidx = type_text.indexOf('-');
+            if (dashidx >= 0) {
+                strandedness = toStrandedness(
+                        type_text.substring(3, dashidx).trim());
+                type = toType(type_text.substring(dashidx + 1));
+            } else {
+                type = toType(type_text.substring(3));
+            }
+        }
+        return new Seq(type, name, residues, direction, topology,
+                       strandedness, original);
+    }
+
+    /**
+     * Stores a number in a character array, right-aligned (padded on the left
+     * with spaces) within a field of a given width.  This replaces
+     * String.format("%9d", ...), which was called for every line of sequence
+     * written, and is several times slower (because it parses the format
+     * string, and creates a Formatter object and a String, on every call).
+     * Like String.format, a number wider than the field is not truncated.
+     **
+     * @param  buffer   the destination array.
+     * @param  position the position in the array to store the field at.
+     * @param  value    the number to store (must not be negative).
+     * @param  width    the width of the field.
+     * @return the position in the array after the end of the field.
+     */
+    private static int putNumber(char[] buffer, int position, int value,
+                                 int width) {
+        // The number of digits in the number.
+        int digits = 1;
+
+        // Count the digits of the number.
+        for (int test = value; test >= 10; test /= 10) {
+            digits++;
+        }
+
+        // Pad the field with spaces.
+        for (; width > digits; width--) {
+            buffer[position++] = ' ';
+        }
+
+        // Store the digits of the number (from right to left).
+        position += digits;
+        for (int index = position - 1; digits > 0; digits--, index--) {
+            buffer[index] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the current date, as written on generated LOCUS lines (e.g.
+     * "30-JAN-2008").  The date is only formatted once per day (rather than
+     * creating and using a new SimpleDateFormat object for every sequence
+     * written).
+     **
+     * @return the current date, in GenBank format.
+     */
+    private static synchronized String today() {
+        // The current time.
+        final long now = System.currentTimeMillis();
+        // Used to calculate the next midnight.
+        Calendar midnight;
+
+        if (dateText == null || now >= dateExpires) {
+            dateText = DATE_FORMAT.format(new Date(now)).toUpperCase();
+
+            // Regenerate the date at the next midnight.
+            midnight = Calendar.getInstance();
+            midnight.setTimeInMillis(now);
+            midnight.set(Calendar.HOUR_OF_DAY, 0);
+            midnight.set(Calendar.MINUTE, 0);
+            midnight.set(Calendar.SECOND, 0);
+            midnight.set(Calendar.MILLISECOND, 0);
+            midnight.add(Calendar.DAY_OF_MONTH, 1);
+            dateExpires = midnight.getTimeInMillis();
+        }
+        return dateText;
+    }
+
     /**
      * Used to convert GB's strandedness to BioLegato's strandedness structure
      **
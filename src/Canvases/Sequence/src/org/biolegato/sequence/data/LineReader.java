@@ -0,0 +1,257 @@
+/*
+ * LineReader.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <p>A buffered, line-oriented reader used by the streaming file format
+ * parsers.</p>
+ *
+ * <p>Unlike BufferedReader.readLine, this class does not create a new String
+ * object for every line read.  Instead, each line is exposed as a region of
+ * the reader's internal character buffer (from 'start' to 'end'), which is
+ * only valid until the next call to 'next'.  In addition, this class keeps
+ * track of the exact character offset of each line within the stream (line
+ * terminators included), so the parsers can record where data was read from
+ * (e.g. for re-reading GenBank headers lazily from the file).</p>
+ *
+ * <p>This class also records whether any non-ASCII characters have been read
+ * from the stream.  If only ASCII characters were read, then the character
+ * offsets are identical to the byte offsets within the file (for any
+ * ASCII-compatible character set).</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class LineReader {
+
+    /**
+     * The stream to read from.
+     */
+    private final Reader in;
+    /**
+     * The character buffer.  The current line is stored within the buffer
+     * from the index 'start' to the index 'end'.
+     */
+    char[] buffer;
+    /**
+     * The index of the first character of the current line in the buffer.
+     */
+    int start = 0;
+    /**
+     * The index after the last character of the current line in the buffer
+     * (NOT including the line terminator -- i.e. '\n' or "\r\n").
+     */
+    int end = 0;
+    /**
+     * The character offset of the first character of the current line,
+     * relative to the beginning of the stream.
+     */
+    long offset = 0;
+    /**
+     * The index in the buffer after the current line's terminator (i.e. the
+     * first character of the next line).
+     */
+    private int next = 0;
+    /**
+     * The number of characters currently stored in the buffer.
+     */
+    private int limit = 0;
+    /**
+     * The character offset of the first character in the buffer, relative to
+     * the beginning of the stream.
+     */
+    private long position = 0;
+    /**
+     * Whether the end of the stream has been reached.
+     */
+    private boolean eof = false;
+    /**
+     * Whether all of the characters read (up to and including the current
+     * line) are ASCII characters.
+     */
+    private boolean ascii = true;
+    /**
+     * The default size of the character buffer.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Creates a new line reader.
+     **
+     * @param in the stream to read lines from.
+     */
+    LineReader(Reader in) {
+        this.in = in;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * <p>Reads the next line from the stream.</p>
+     **
+     * @return whether a line was read (false if the end of the stream was
+     *         reached).
+     * @throws IOException if an exception occurs while reading the stream.
+     */
+    boolean next() throws IOException {
+        // The index of the character currently being scanned.
+        int index = next;
+        // The character currently being scanned.
+        char c;
+        // Whether a line terminator has been found.
+        boolean found = false;
+
+        // Scan the buffer for the next line terminator, filling the buffer as
+        // necessary.  Each character is also checked to ensure that it is an
+        // ASCII character.
+        while (!found) {
+            for (; index < limit; index++) {
+                c = buffer[index];
+                if (c == '\n') {
+                    found = true;
+                    break;
+                } else if (c >= 0x80) {
+                    ascii = false;
+                }
+            }
+            if (!found) {
+                // The number of characters of the current line already
+                // scanned (NOTE: 'fill' moves the current line to the
+                // beginning of the buffer, so the scanning index must be
+                // adjusted accordingly).
+                final int scanned = index - next;
+
+                // Handle the end of the stream.
+                if (eof || !fill()) {
+                    if (next >= limit) {
+                        return false;
+                    }
+                    break;
+                }
+                index = next + scanned;
+            }
+        }
+
+        // Store the bounds of the current line.
+        offset = position + next;
+        start = next;
+        end = index;
+        next = (found ? index + 1 : index);
+
+        // Strip any carriage return characters from the end of the line.
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the character offset, relative to the beginning of the stream,
+     * of the line following the current line.
+     **
+     * @return the offset of the next line within the stream.
+     */
+    long nextOffset() {
+        return position + next;
+    }
+
+    /**
+     * Returns whether all of the characters read so far are ASCII characters.
+     **
+     * @return true if no characters beyond 0x7F have been read.
+     */
+    boolean isASCII() {
+        return ascii;
+    }
+
+    /**
+     * Returns the number of characters in the current line.
+     **
+     * @return the length of the current line.
+     */
+    int length() {
+        return end - start;
+    }
+
+    /**
+     * Tests whether the current line starts with a given keyword (ignoring
+     * the case of the characters).
+     **
+     * @param  keyword the keyword to test for (in upper-case).
+     * @return whether the current line starts with the keyword.
+     */
+    boolean startsWith(String keyword) {
+        boolean result = (end - start >= keyword.length());
+
+        for (int index = 0; result && index < keyword.length(); index++) {
+            result = (Character.toUpperCase(buffer[start + index])
+                        == keyword.charAt(index));
+        }
+        return result;
+    }
+
+    /**
+     * Appends the current line, including its line terminator (if any), to a
+     * StringBuilder object.
+     **
+     * @param out the StringBuilder to append the line to.
+     */
+    void appendLine(StringBuilder out) {
+        out.append(buffer, start, next - start);
+    }
+
+    /**
+     * Returns the current line as a String object (without any line
+     * terminator).
+     **
+     * @return the current line.
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, start, end - start);
+    }
+
+    /**
+     * Reads more characters into the buffer.  Any characters before the
+     * current line are discarded (the current line is moved to the beginning
+     * of the buffer), and the buffer is enlarged if a single line fills the
+     * entire buffer.
+     **
+     * @return whether any characters were read.
+     * @throws IOException if an exception occurs while reading the stream.
+     */
+    private boolean fill() throws IOException {
+        // The number of characters read from the stream.
+        int read;
+
+        // Discard the previous lines from the buffer.
+        if (next > 0) {
+            System.arraycopy(buffer, next, buffer, 0, limit - next);
+            position += next;
+            limit -= next;
+            start = end = next = 0;
+        }
+
+        // Enlarge the buffer if the current line fills the whole buffer.
+        if (limit == buffer.length) {
+            char[] larger = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        }
+
+        // Read the characters into the buffer.
+        read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return read > 0;
+    }
+}
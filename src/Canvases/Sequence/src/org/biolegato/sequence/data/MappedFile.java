@@ -0,0 +1,213 @@
+/*
+ * MappedFile.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>A read-only, memory-mapped view of a file.</p>
+ *
+ * <p>Because a single MappedByteBuffer cannot exceed 2 GB, files are mapped
+ * as a series of fixed size segments.  Each byte within the file is accessed
+ * by its (long) position within the file, and the segment containing the byte
+ * is determined by the upper bits of the position.  The contents of the file
+ * are paged in by the operating system only as they are accessed; therefore,
+ * mapping a multi-gigabyte file does not consume any of the Java heap.</p>
+ *
+ * <p>All of the accessor methods use absolute positions, and never modify the
+ * state of the underlying buffers; therefore, this class may be read by
+ * multiple threads at the same time.</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class MappedFile {
+
+    /**
+     * The file which is mapped.
+     */
+    private final File file;
+    /**
+     * The size of the file (in bytes) at the time it was mapped.
+     */
+    private final long size;
+    /**
+     * The modification time of the file at the time it was mapped.
+     */
+    private final long modified;
+    /**
+     * The memory-mapped segments of the file.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * The time (in milliseconds) after which the file must be checked again
+     * for modifications (see checkValid).
+     */
+    private volatile long nextCheck = 0;
+    /**
+     * Whether the file has been modified since it was mapped.
+     */
+    private volatile boolean stale = false;
+    /**
+     * The minimum time (in milliseconds) between two checks of whether the
+     * file has been modified (see checkValid).  Checking the file requires
+     * system calls; therefore, it is not done on every access.
+     */
+    private static final long CHECK_INTERVAL = 250;
+    /**
+     * The number of bits used to address a byte within a segment
+     * (i.e. each segment is 1 GB).
+     */
+    private static final int SEGMENT_BITS = 30;
+    /**
+     * The size of each segment (except possibly the last).
+     */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    /**
+     * The mask used to obtain the position of a byte within its segment.
+     */
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Maps a file into memory (read-only).
+     **
+     * @param  file         the file to map.
+     * @throws IOException  if the file cannot be opened or mapped.
+     */
+    MappedFile(File file) throws IOException {
+        // The file object used to obtain a channel to map the file.
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        this.file = file;
+        this.modified = file.lastModified();
+
+        try {
+            // The channel used to map the file.
+            final FileChannel channel = raf.getChannel();
+
+            size = channel.size();
+            segments = new MappedByteBuffer[
+                    (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+
+            // Map each segment of the file.  NOTE: the mappings remain valid
+            // after the channel is closed.
+            for (int index = 0; index < segments.length; index++) {
+                final long start = (long) index << SEGMENT_BITS;
+                segments[index] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the file which is mapped.
+     **
+     * @return the mapped file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the size of the mapped file.
+     **
+     * @return the number of bytes mapped.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns the modification time of the file at the time it was mapped.
+     **
+     * @return the modification time of the mapped file.
+     */
+    long lastModified() {
+        return modified;
+    }
+
+    /**
+     * Returns whether the file is unchanged since it was mapped.  If the file
+     * is changed (e.g. truncated) while it is mapped, then the contents of the
+     * mapping are undefined.
+     **
+     * @return true if the file still has the same size and modification time.
+     */
+    boolean isValid() {
+        return file.isFile() && file.length() == size
+                && file.lastModified() == modified;
+    }
+
+    /**
+     * <p>Ensures that the file has not been modified since it was mapped
+     * (see isValid).  Reading a mapping of a file which has been truncated
+     * can crash the Java virtual machine; therefore, every access to the
+     * residues of a mapped record calls this method first.  The file itself
+     * is checked at most once every CHECK_INTERVAL milliseconds.</p>
+     *
+     * <p>BioLegato never modifies a file which is still mapped (see
+     * Dataset.releaseFile); therefore, this only fails if the file is
+     * modified by another program.</p>
+     **
+     * @throws IllegalStateException if the file has been modified.
+     */
+    void checkValid() {
+        // The current time.
+        final long now = System.currentTimeMillis();
+
+        if (!stale && now >= nextCheck) {
+            stale = !isValid();
+            nextCheck = now + CHECK_INTERVAL;
+        }
+        if (stale) {
+            throw new IllegalStateException("The file " + file
+                    + " has been modified since it was opened;"
+                    + " its sequences can no longer be read.");
+        }
+    }
+
+    /**
+     * Returns a byte from the mapped file.
+     **
+     * @param  position the position of the byte within the file.
+     * @return the byte at the position specified.
+     */
+    byte get(long position) {
+        try {
+            return segments[(int) (position >>> SEGMENT_BITS)].get(
+                    (int) (position & SEGMENT_MASK));
+        } catch (InternalError ie) {
+            // The Java virtual machine reports a fault within a mapping
+            // (e.g. if the file was truncated since the last checkValid)
+            // as an InternalError.
+            stale = true;
+            throw new IllegalStateException("The file " + file
+                    + " has been modified since it was opened;"
+                    + " its sequences can no longer be read.", ie);
+        }
+    }
+
+    /**
+     * Copies a region of the mapped file into a byte array.
+     **
+     * @param position  the position within the file to start copying from.
+     * @param dst       the destination array.
+     * @param offset    the offset within the destination array.
+     * @param length    the number of bytes to copy.
+     */
+    void get(long position, byte[] dst, int offset, int length) {
+        for (int index = 0; index < length; index++, position++) {
+            dst[offset + index] = get(position);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * MappedRecord.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.File;
+
+/**
+ * <p>The location of a sequence's residues within a memory-mapped file.</p>
+ *
+ * <p>This class is used for lazily loading sequences from large files.  Only
+ * sequences whose residues are laid out regularly within the file can be
+ * represented by this class (i.e. every line, except the last, contains the
+ * same number of residues, and is the same number of bytes long, including
+ * the line terminator).  This is the same restriction as is used by samtools'
+ * .fai indices.  Given this layout, the position of any residue within the
+ * file can be calculated directly:</p>
+ *
+ * <pre>
+ *      offset + (index / lineBases) * lineBytes + (index % lineBases)</pre>
+ *
+ * <p>A record is shared by a residue store and all of its snapshots (see
+ * ResidueStore.snapshot).  Before the file is overwritten, the residues of
+ * the record are copied into memory (see load); therefore, the snapshots
+ * (e.g. the clipboard, or a running search) remain readable after the
+ * file is overwritten.</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class MappedRecord {
+
+    /**
+     * The mapped file containing the residues.
+     */
+    final MappedFile file;
+    /**
+     * The position of the first residue within the file.
+     */
+    final long offset;
+    /**
+     * The number of residues in the record.
+     */
+    final int length;
+    /**
+     * The number of residues on each line (except possibly the last).
+     */
+    final int lineBases;
+    /**
+     * The number of bytes on each line, including the line terminator.
+     */
+    final int lineBytes;
+    /**
+     * The residues of the record, once they are copied into memory (null
+     * while the residues are read from the mapped file -- see load).
+     */
+    private volatile byte[] loaded = null;
+
+    /**
+     * Creates a new mapped record.
+     **
+     * @param file       the mapped file containing the residues.
+     * @param offset     the position of the first residue within the file.
+     * @param length     the number of residues in the record.
+     * @param lineBases  the number of residues on each full line.
+     * @param lineBytes  the number of bytes on each full line (including the
+     *                   line terminator).
+     */
+    MappedRecord(MappedFile file, long offset, int length, int lineBases,
+                 int lineBytes) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.lineBases = Math.max(lineBases, 1);
+        this.lineBytes = Math.max(lineBytes, 1);
+    }
+
+    /**
+     * Copies the residues of the record into memory, so the record (and every
+     * residue store which shares it) no longer reads from the mapped file
+     * (e.g. before the file is overwritten -- see Dataset.releaseFile).  This
+     * must be called on the event dispatch thread.
+     **
+     * @throws IllegalStateException if the file has been modified since it
+     *         was mapped (see MappedFile.checkValid).
+     */
+    void load() {
+        if (loaded == null) {
+            // The residues of the record.
+            final byte[] residues = new byte[length];
+
+            getBytes(0, length, residues, 0);
+            loaded = residues;
+        }
+    }
+
+    /**
+     * Returns the file the residues are read from.
+     **
+     * @return the mapped file (null if the residues have been copied into
+     *         memory -- see load).
+     */
+    File getFile() {
+        return (loaded == null ? file.getFile() : null);
+    }
+
+    /**
+     * Calculates the position of a residue within the mapped file.
+     **
+     * @param  index the index of the residue within the record.
+     * @return the position of the residue within the file.
+     */
+    long position(int index) {
+        return offset + (long) (index / lineBases) * lineBytes
+                + (index % lineBases);
+    }
+
+    /**
+     * Returns a residue from the record.
+     **
+     * @param  index the index of the residue within the record.
+     * @return the residue.
+     * @throws IllegalStateException if the file has been modified since it
+     *         was mapped (see MappedFile.checkValid).
+     */
+    char charAt(int index) {
+        // The residues of the record (if copied into memory).
+        final byte[] residues = loaded;
+
+        if (residues != null) {
+            return (char) (residues[index] & 0xFF);
+        }
+        file.checkValid();
+        return (char) (file.get(position(index)) & 0xFF);
+    }
+
+    /**
+     * Copies residues from the record into a character array.  The residues
+     * are copied one line at a time (so the position of each residue within
+     * the file only needs to be calculated once per line).
+     **
+     * @param start   the index of the first residue to copy.
+     * @param end     the index after the last residue to copy.
+     * @param dst     the destination array.
+     * @param offset  the offset within the destination array.
+     * @throws IllegalStateException if the file has been modified since it
+     *         was mapped (see MappedFile.checkValid).
+     */
+    void getChars(int start, int end, char[] dst, int offset) {
+        // The residues of the record (if copied into memory).
+        final byte[] residues = loaded;
+
+        if (residues != null) {
+            for (int index = start; index < end; index++, offset++) {
+                dst[offset] = (char) (residues[index] & 0xFF);
+            }
+            return;
+        }
+        file.checkValid();
+        while (start < end) {
+            // The number of residues to copy from the current line.
+            final int run = Math.min(end - start,
+                    lineBases - (start % lineBases));
+            // The position of the first residue of the run within the file.
+            long position = position(start);
+
+            for (int index = 0; index < run; index++, position++) {
+                dst[offset + index] = (char) (file.get(position) & 0xFF);
+            }
+            start += run;
+            offset += run;
+        }
+    }
+
+    /**
+     * Copies residues from the record into a byte array.
+     **
+     * @param start   the index of the first residue to copy.
+     * @param end     the index after the last residue to copy.
+     * @param dst     the destination array.
+     * @param offset  the offset within the destination array.
+     * @throws IllegalStateException if the file has been modified since it
+     *         was mapped (see MappedFile.checkValid).
+     */
+    void getBytes(int start, int end, byte[] dst, int offset) {
+        // The residues of the record (if copied into memory).
+        final byte[] residues = loaded;
+
+        if (residues != null) {
+            System.arraycopy(residues, start, dst, offset, end - start);
+            return;
+        }
+        file.checkValid();
+        while (start < end) {
+            // The number of residues to copy from the current line.
+            final int run = Math.min(end - start,
+                    lineBases - (start % lineBases));
+
+            file.get(position(start), dst, offset, run);
+            start += run;
+            offset += run;
+        }
+    }
+}
@@ -0,0 +1,1038 @@
+/*
+ * ResidueSearch.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Searches the residues of the sequences in a Dataset for a motif.</p>
+ *
+ * <p>A motif may be either a residue pattern or a regular expression.  Within
+ * a residue pattern, each IUPAC nucleotide code matches any nucleotide it
+ * represents (e.g. 'R' matches 'A' or 'G'; 'N' matches any nucleotide) in DNA
+ * and RNA sequences, and 'B', 'J', 'Z' and 'X' match the amino acids they
+ * represent in protein sequences.  Any other character only matches itself.
+ * Degenerate residues within the sequences only match pattern codes which
+ * include every nucleotide they represent (e.g. an 'R' in a sequence is
+ * matched by 'R' or 'N', but not by 'A').  All matching is case-insensitive.
+ * </p>
+ *
+ * <p>Nucleotide sequences may be searched on both strands; hits on the
+ * reverse strand are matches of the reverse complement of the motif.  Gaps
+ * (see GAPS) may be ignored, in which case a hit may span any number of gaps
+ * within the sequence (and any gaps within the motif itself are removed).</p>
+ *
+ * <p><u>HOW ARE RESIDUE PATTERNS MATCHED?</u></p>
+ * <!--  -------------------------------- -->
+ * <p>Residue patterns of up to 64 residues are matched using the "shift-and"
+ * (bit-parallel) algorithm.  Each residue pattern is compiled into a table,
+ * which stores, for every possible residue (byte), a 64-bit mask of the
+ * positions within the pattern the residue matches.  The state of the search
+ * is a 64-bit mask of the prefixes of the pattern which end at the current
+ * residue; therefore, each residue is matched against every position in the
+ * pattern (on both strands) at once, by a table lookup, a shift and an AND.
+ * Degenerate codes cost nothing extra, and the residues are scanned directly
+ * within their single byte representation (see ResidueStore.getBytes).</p>
+ *
+ * <p>Longer residue patterns, and regular expressions, are matched using
+ * java.util.regex (a residue pattern is converted into a regular expression
+ * of character classes).  The reverse strand is searched by matching the
+ * regular expression against a reverse complemented view of the sequence.
+ * </p>
+ *
+ * <p><u>PARALLEL SEARCHING</u></p>
+ * <!--  ------------------ -->
+ * <p>The search is divided into tasks (see tasks), which may be run in any
+ * order, and on any number of threads.  Each task searches one sequence, or
+ * one segment of a long sequence (residue patterns only), and returns the
+ * hits found within it.  The search is run on a snapshot of the Dataset
+ * (see Dataset.snapshot), so that the sequences may be searched while the
+ * canvas continues to be edited.  Each hit refers to the sequence object it
+ * was found in, so the hit can still be found after sequences are added to,
+ * or removed from, the Dataset (see Hit.getRow).</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+public final class ResidueSearch {
+
+    /**
+     * The bit-parallel table for matching the pattern in nucleotide sequences
+     * (null if the pattern is matched using a regular expression).
+     */
+    private final long[] nucleotideTable;
+    /**
+     * The bit-parallel table for matching the reverse complement of the
+     * pattern in nucleotide sequences (null if the reverse strand is not
+     * searched, or if the pattern is matched using a regular expression).
+     */
+    private final long[] reverseTable;
+    /**
+     * The bit-parallel table for matching the pattern in all other sequences
+     * (null if the pattern is matched using a regular expression).
+     */
+    private final long[] otherTable;
+    /**
+     * The length of the pattern (the number of residues), when matched using
+     * the bit-parallel tables.
+     */
+    private final int length;
+    /**
+     * The regular expression used for matching nucleotide sequences (null if
+     * the pattern is matched using the bit-parallel tables).
+     */
+    private final Pattern nucleotideRegex;
+    /**
+     * The regular expression used for matching all other sequences (null if
+     * the pattern is matched using the bit-parallel tables).
+     */
+    private final Pattern otherRegex;
+    /**
+     * Whether to search the reverse strand of nucleotide sequences.
+     */
+    private final boolean bothStrands;
+    /**
+     * Whether to ignore gaps within the sequences.
+     */
+    private final boolean ignoreGaps;
+    /**
+     * The maximum number of hits reported by a search (see tasks).  Searching
+     * for a very short or very degenerate pattern could otherwise produce a
+     * hit for almost every residue in the Dataset.
+     */
+    public static final int MAX_HITS = 100000;
+    /**
+     * The characters which are treated as gaps (when ignoring gaps).  These
+     * are the alignment characters recognised by BioLegato (whitespace and
+     * dashes -- see Dataset.isProtectionsOn), and the dots and tildes used
+     * as gaps by other alignment formats (e.g. MSF).
+     */
+    private static final String GAPS = "-.~ \t\r\n";
+    /**
+     * The IUPAC nucleotide codes.
+     */
+    private static final String IUPAC = "ACGTURYSWKMBDHVN";
+    /**
+     * The nucleotides represented by each IUPAC nucleotide code (in the same
+     * order as IUPAC), as a bitmask: A = 1, C = 2, G = 4 and T (or U) = 8.
+     */
+    private static final byte[] IUPAC_MASKS
+            = { 1, 2, 4, 8, 8, 5, 10, 6, 9, 12, 3, 14, 13, 11, 7, 15 };
+    /**
+     * A lookup table of the nucleotide bitmask of each residue (zero for any
+     * residue which is not an IUPAC nucleotide code).
+     */
+    private static final byte[] NUCLEOTIDES = new byte[256];
+    /**
+     * A lookup table of the DNA complement of each residue (case is
+     * preserved; any residue which is not a nucleotide code is unchanged).
+     */
+    private static final char[] DNA_COMPLEMENT = new char[256];
+    /**
+     * A lookup table of the RNA complement of each residue (see
+     * DNA_COMPLEMENT).
+     */
+    private static final char[] RNA_COMPLEMENT = new char[256];
+    /**
+     * A lookup table of whether each residue is a gap (see GAPS).
+     */
+    private static final boolean[] IS_GAP = new boolean[256];
+    /**
+     * A lookup table of a bitmask for each residue: all bits are set for gaps,
+     * and no bits are set for any other residue (see scanGaps).
+     */
+    private static final long[] GAP_MASKS = new long[256];
+    /**
+     * The length of the segments long sequences are divided into, for
+     * searching in parallel (residue patterns only).
+     */
+    private static final int SEGMENT_SIZE = 1 << 22;
+    /**
+     * The number of residues copied out of a sequence at a time, when
+     * matching a residue pattern.
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+    /**
+     * The longest pattern which can be matched by the bit-parallel tables.
+     */
+    private static final int MAX_TABLE_LENGTH = 64;
+
+    /**
+     * Fills the nucleotide, complement and gap lookup tables.
+     */
+    static {
+        for (char c = 0; c < DNA_COMPLEMENT.length; c++) {
+            DNA_COMPLEMENT[c] = RNA_COMPLEMENT[c] = c;
+        }
+        for (int count = 0; count < IUPAC.length(); count++) {
+            // The nucleotide code, and the nucleotides it represents.
+            final char code = IUPAC.charAt(count);
+            final byte mask = IUPAC_MASKS[count];
+
+            NUCLEOTIDES[code] = NUCLEOTIDES[Character.toLowerCase(code)]
+                    = mask;
+        }
+        for (int count = 0; count < IUPAC.length(); count++) {
+            // The nucleotide code, and the code for its complement.
+            final char code = IUPAC.charAt(count);
+            final char dna = codeFor(complement(IUPAC_MASKS[count]));
+            final char rna = (dna == 'T' ? 'U' : dna);
+
+            DNA_COMPLEMENT[code] = dna;
+            DNA_COMPLEMENT[Character.toLowerCase(code)]
+                    = Character.toLowerCase(dna);
+            RNA_COMPLEMENT[code] = rna;
+            RNA_COMPLEMENT[Character.toLowerCase(code)]
+                    = Character.toLowerCase(rna);
+        }
+        for (int count = 0; count < GAPS.length(); count++) {
+            IS_GAP[GAPS.charAt(count)] = true;
+            GAP_MASKS[GAPS.charAt(count)] = -1L;
+        }
+    }
+
+    /**
+     * Creates a new residue search.
+     **
+     * @param  motif        the residue pattern or regular expression to
+     *                      search for.
+     * @param  regex        whether the motif is a regular expression (rather
+     *                      than a residue pattern).
+     * @param  bothStrands  whether to also search the reverse strand of
+     *                      nucleotide sequences.
+     * @param  ignoreGaps   whether to ignore gaps within the sequences.
+     * @throws IllegalArgumentException if the motif is empty (or only
+     *                      contains gaps), or is an invalid regular
+     *                      expression (see PatternSyntaxException).
+     */
+    public ResidueSearch(String motif, boolean regex, boolean bothStrands,
+                         boolean ignoreGaps) {
+        // The residues of the pattern (with any gaps removed, if ignoring
+        // gaps; otherwise, the motif unchanged).
+        final StringBuilder pattern = new StringBuilder(motif.length());
+
+        for (int index = 0; index < motif.length(); index++) {
+            final char c = motif.charAt(index);
+
+            if (regex || !ignoreGaps || c >= 256 || !IS_GAP[c]) {
+                pattern.append(c);
+            }
+        }
+        if (pattern.length() == 0) {
+            throw new IllegalArgumentException("The search pattern is empty");
+        }
+
+        this.bothStrands = bothStrands;
+        this.ignoreGaps = ignoreGaps;
+        this.length = pattern.length();
+
+        if (!regex && length <= MAX_TABLE_LENGTH) {
+            // Compile the residue pattern into bit-parallel tables.
+            this.nucleotideTable = new long[256];
+            this.reverseTable = new long[256];
+            this.otherTable = new long[256];
+            for (int c = 0; c < 256; c++) {
+                for (int index = 0; index < length; index++) {
+                    final char code = pattern.charAt(index);
+                    final char reverse = pattern.charAt(length - index - 1);
+                    final char complement = (reverse < 256
+                            ? DNA_COMPLEMENT[reverse] : reverse);
+
+                    if (matchesNucleotide(code, c)) {
+                        nucleotideTable[c] |= 1L << index;
+                    }
+                    if (bothStrands && matchesNucleotide(complement, c)) {
+                        reverseTable[c] |= 1L << index;
+                    }
+                    if (matchesResidue(code, c)) {
+                        otherTable[c] |= 1L << index;
+                    }
+                }
+            }
+            this.nucleotideRegex = null;
+            this.otherRegex = null;
+        } else {
+            // Compile the regular expressions (converting a long residue
+            // pattern into a regular expression of character classes).
+            this.nucleotideTable = null;
+            this.reverseTable = null;
+            this.otherTable = null;
+            this.nucleotideRegex = Pattern.compile(regex ? pattern.toString()
+                    : toRegex(pattern, true), Pattern.CASE_INSENSITIVE);
+            this.otherRegex = (regex ? nucleotideRegex : Pattern.compile(
+                    toRegex(pattern, false), Pattern.CASE_INSENSITIVE));
+        }
+    }
+
+    /**
+     * <p>Divides a search of a Dataset into tasks.  Each task searches one
+     * sequence (or one segment of a long sequence) and returns the hits found,
+     * in the order of their positions.  The tasks may be run in any order, and
+     * on any number of threads; the hits of each task may be displayed as soon
+     * as the task is complete.</p>
+     *
+     * <p>The tasks stop searching once MAX_HITS hits have been found by all of
+     * the tasks combined.  Running tasks also stop searching if their thread
+     * is interrupted.</p>
+     *
+     * <p>The tasks search a snapshot of the Dataset, taken when this method is
+     * called (see Dataset.snapshot); therefore, this method must be called
+     * on the event dispatch thread.</p>
+     **
+     * @param  datamodel  the Dataset to search.
+     * @return the tasks which perform the search.
+     */
+    public List<Callable<List<Hit>>> tasks(final Dataset datamodel) {
+        // The snapshot of the Dataset searched.
+        final Dataset data = datamodel.snapshot();
+        // The tasks which perform the search.
+        final List<Callable<List<Hit>>> result
+                = new ArrayList<Callable<List<Hit>>>();
+        // The number of hits which may still be reported (shared by the
+        // tasks, to enforce MAX_HITS).
+        final AtomicInteger remaining = new AtomicInteger(MAX_HITS);
+
+        for (int row = 0; row < data.getSize(); row++) {
+            final int line = row;
+            final Seq seq = data.getLine(row);
+            // The sequence object in the Dataset (which the hits refer to).
+            final Seq target = datamodel.getLine(row);
+            final int size = seq.getSequence().length();
+
+            if (nucleotideTable == null) {
+                // Regular expressions may match any number of residues;
+                // therefore, each sequence is searched by a single task.
+                result.add(new Callable<List<Hit>>() {
+                    public List<Hit> call() {
+                        return searchRegex(target, line, seq, remaining);
+                    }
+                });
+            } else {
+                for (int start = 0; start < size; start += SEGMENT_SIZE) {
+                    final int from = start;
+                    final int to = (int) Math.min(size,
+                                                  (long) start + SEGMENT_SIZE);
+
+                    result.add(new Callable<List<Hit>>() {
+                        public List<Hit> call() {
+                            return searchTable(target, line, seq, from, to,
+                                               remaining);
+                        }
+                    });
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>Searches a segment of a sequence for the pattern, using the
+     * bit-parallel tables (see the class description).  Only hits which start
+     * within the segment are reported; the search continues past the end of
+     * the segment only as far as is needed to complete such hits.</p>
+     *
+     * <p>When gaps are not ignored, every residue is matched; therefore, the
+     * start of each hit is found from its end, and the residues are matched
+     * by a separate loop, which does not record the position of each residue
+     * matched (this is the most common, and fastest, kind of search).</p>
+     *
+     * <p>Hits which are found on both strands at the same position (i.e. hits
+     * of palindromic patterns, such as most restriction sites) are only
+     * reported once, as forward strand hits.</p>
+     **
+     * @param  target     the sequence object in the Dataset.
+     * @param  row        the row number of the sequence.
+     * @param  seq        the sequence to search (from the snapshot).
+     * @param  from       the position of the start of the segment.
+     * @param  to         the position after the end of the segment.
+     * @param  remaining  the number of hits which may still be reported.
+     * @return the hits found within the segment.
+     */
+    private List<Hit> searchTable(Seq target, int row, Seq seq, int from,
+                                  int to, AtomicInteger remaining) {
+        // The hits found.
+        final List<Hit> result = new ArrayList<Hit>();
+        // The residues of the sequence.
+        final ResidueStore store = seq.getSequence();
+        // Whether the sequence is a nucleotide sequence.
+        final boolean nucleotide = isNucleotide(seq);
+        // The tables to match the residues with.
+        final long[] forward = (nucleotide ? nucleotideTable : otherTable);
+        final long[] reverse = (nucleotide && bothStrands ? reverseTable
+                                                          : new long[256]);
+        // The bit which is set in the state when the whole pattern matches.
+        final long last = 1L << (length - 1);
+        // The positions of the most recent residues matched (i.e. not gaps),
+        // used to find the start of each hit when gaps are ignored.
+        final int[] recent = new int[MAX_TABLE_LENGTH];
+        // The residues copied out of the sequence.
+        final byte[] block = new byte[Math.min(BLOCK_SIZE,
+                                               Math.max(1, store.length()))];
+        // The state of the search (see scan and scanGaps): the prefixes of
+        // the pattern (and of its reverse complement) which end at the last
+        // residue matched, and the number of residues matched (i.e. not gaps)
+        // when gaps are ignored.
+        final long[] state = new long[3];
+        // The number of residues in the current block.
+        int blockLength;
+        // The position after the last residue to search.  When gaps are not
+        // ignored, every hit which starts within the segment ends before this
+        // position; otherwise, the search stops as soon as possible (see
+        // stop) before this position.
+        final int end = (ignoreGaps ? store.length()
+                : (int) Math.min(store.length(), (long) to + length - 1));
+
+        for (int position = from; position < end
+                && !(ignoreGaps && stop(position, to, recent, (int) state[2]))
+                && remaining.get() > 0
+                && !Thread.currentThread().isInterrupted();
+                position += blockLength) {
+            blockLength = Math.min(block.length, end - position);
+            store.getBytes(position, position + blockLength, block, 0);
+
+            // Match the residues in the block, stopping at each hit.
+            for (int index = 0; index < blockLength; index++) {
+                index = (ignoreGaps
+                        ? scanGaps(block, index, blockLength, position,
+                                   forward, reverse, last, recent, state)
+                        : scan(block, index, blockLength, forward, reverse,
+                               last, state));
+
+                if (index < blockLength) {
+                    // The position of the first residue of the hit.
+                    final int start = (ignoreGaps
+                            ? recent[(int) (state[2] - length)
+                                     & (MAX_TABLE_LENGTH - 1)]
+                            : position + index - length + 1);
+
+                    if (start < to) {
+                        if (remaining.decrementAndGet() < 0) {
+                            return result;
+                        }
+                        result.add(new Hit(target, row, seq.getName(), start,
+                                position + index + 1,
+                                (state[0] & last) == 0));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Matches residues against the bit-parallel tables, until the end of the
+     * block or the next hit (when gaps are not ignored).  This loop is kept
+     * in a small method of its own, so that it is compiled separately, with
+     * the state of the search held in registers.
+     **
+     * @param  block    the residues to match.
+     * @param  index    the position of the first residue to match.
+     * @param  end      the position after the last residue to match.
+     * @param  forward  the table for the pattern.
+     * @param  reverse  the table for the reverse complement of the pattern.
+     * @param  last     the bit which is set when the whole pattern matches.
+     * @param  state    the state of the search (see searchTable).
+     * @return the position of the residue which completes the next hit (or
+     *         'end', if there is no hit within the block).
+     */
+    private static int scan(byte[] block, int index, int end, long[] forward,
+                            long[] reverse, long last, long[] state) {
+        // The prefixes of the pattern, and of its reverse complement, which
+        // end at the current residue.
+        long fwdState = state[0];
+        long revState = state[1];
+
+        for (; index < end; index++) {
+            final int residue = block[index] & 0xFF;
+
+            fwdState = ((fwdState << 1) | 1L) & forward[residue];
+            revState = ((revState << 1) | 1L) & reverse[residue];
+            if (((fwdState | revState) & last) != 0) {
+                break;
+            }
+        }
+        state[0] = fwdState;
+        state[1] = revState;
+        return index;
+    }
+
+    /**
+     * Matches residues against the bit-parallel tables, skipping gaps, until
+     * the end of the block or the next hit (see scan).  The position of each
+     * residue matched is recorded, so that the start of each hit can be found.
+     **
+     * @param  block     the residues to match.
+     * @param  index     the position of the first residue to match.
+     * @param  end       the position after the last residue to match.
+     * @param  position  the position of the block within the sequence.
+     * @param  forward   the table for the pattern.
+     * @param  reverse   the table for the reverse complement of the pattern.
+     * @param  last      the bit which is set when the whole pattern matches.
+     * @param  recent    the positions of the most recent residues matched.
+     * @param  state     the state of the search (see searchTable).
+     * @return the position of the residue which completes the next hit (or
+     *         'end', if there is no hit within the block).
+     */
+    private static int scanGaps(byte[] block, int index, int end,
+                                int position, long[] forward, long[] reverse,
+                                long last, int[] recent, long[] state) {
+        // The prefixes of the pattern, and of its reverse complement, which
+        // end at the current residue.
+        long fwdState = state[0];
+        long revState = state[1];
+        // The number of residues matched.
+        int count = (int) state[2];
+
+        // NOTE: to avoid mispredicted branches, gaps are skipped without
+        //       testing for them.  For a gap, the bitmask is all ones, so the
+        //       state is kept unchanged (the tables never match gaps, because
+        //       gaps are removed from the pattern), the position recorded is
+        //       overwritten by the next residue, and no hit is reported.
+        for (; index < end; index++) {
+            final int residue = block[index] & 0xFF;
+            final long gap = GAP_MASKS[residue];
+
+            fwdState = (((fwdState << 1) | 1L) & forward[residue])
+                    | (fwdState & gap);
+            revState = (((revState << 1) | 1L) & reverse[residue])
+                    | (revState & gap);
+            recent[count & (MAX_TABLE_LENGTH - 1)] = position + index;
+            count += (int) (gap + 1);
+            if (((fwdState | revState) & last & ~gap) != 0) {
+                break;
+            }
+        }
+        state[0] = fwdState;
+        state[1] = revState;
+        state[2] = count;
+        return index;
+    }
+
+    /**
+     * Determines whether a segment search, which ignores gaps, has gone far
+     * enough past the end of its segment (see searchTable); i.e. whether
+     * every hit which could still be found would start after the end of the
+     * segment.
+     **
+     * @param  position  the position of the next residue to search.
+     * @param  to        the position after the end of the segment.
+     * @param  recent    the positions of the most recent residues matched.
+     * @param  count     the number of residues matched so far.
+     * @return whether to stop searching the segment.
+     */
+    private boolean stop(int position, int to, int[] recent, int count) {
+        // The number of residues, already searched, which would be part of
+        // the next hit found.
+        final int overlap = length - 1;
+
+        return position >= to && (overlap == 0 || (count >= overlap
+                && recent[(count - overlap) & (MAX_TABLE_LENGTH - 1)] >= to));
+    }
+
+    /**
+     * Searches a sequence for a regular expression (or for a residue pattern
+     * too long to be matched using the bit-parallel tables).  Empty matches
+     * are not reported, and hits found on both strands at the same position
+     * are only reported once (see searchTable).
+     **
+     * @param  target     the sequence object in the Dataset.
+     * @param  row        the row number of the sequence.
+     * @param  seq        the sequence to search (from the snapshot).
+     * @param  remaining  the number of hits which may still be reported.
+     * @return the hits found within the sequence.
+     */
+    private List<Hit> searchRegex(Seq target, int row, Seq seq,
+                                  AtomicInteger remaining) {
+        // The hits found.
+        final List<Hit> result = new ArrayList<Hit>();
+        // The residues of the sequence.
+        final ResidueStore store = seq.getSequence();
+        // Whether the sequence is a nucleotide sequence.
+        final boolean nucleotide = isNucleotide(seq);
+        // The residues of the sequence, with any gaps removed (if ignoring
+        // gaps).
+        final byte[] text = new byte[store.length()];
+        // The positions (within the text) after which gaps were removed, and
+        // the total number of gaps removed up to each of those positions.
+        int[] gapAt = new int[0];
+        int[] gapTotal = new int[0];
+        // The number of gap runs removed.
+        int runs = 0;
+        // The number of residues in the text.
+        int size = 0;
+        // The start and end of each forward strand hit (used to report hits
+        // of palindromic patterns only once -- see searchTable).
+        final Set<Long> forward = new HashSet<Long>();
+        // The matcher for each strand.
+        Matcher matcher;
+        // The start and end columns of the current hit.
+        int start;
+        int end;
+
+        store.getBytes(0, text.length, text, 0);
+        if (ignoreGaps) {
+            for (int index = 0; index < text.length; index++) {
+                if (!IS_GAP[text[index] & 0xFF]) {
+                    text[size++] = text[index];
+                } else if (runs > 0 && gapAt[runs - 1] == size) {
+                    gapTotal[runs - 1]++;
+                } else {
+                    if (runs == gapAt.length) {
+                        gapAt = Arrays.copyOf(gapAt, runs * 2 + 8);
+                        gapTotal = Arrays.copyOf(gapTotal, runs * 2 + 8);
+                    }
+                    gapAt[runs] = size;
+                    gapTotal[runs] = (runs > 0 ? gapTotal[runs - 1] : 0) + 1;
+                    runs++;
+                }
+            }
+        } else {
+            size = text.length;
+        }
+
+        // Search the forward strand.
+        matcher = (nucleotide ? nucleotideRegex : otherRegex).matcher(
+                new ResidueText(text, size, null));
+        while (matcher.find() && !Thread.currentThread().isInterrupted()) {
+            if (matcher.end() > matcher.start()) {
+                if (remaining.decrementAndGet() < 0) {
+                    return result;
+                }
+                start = column(matcher.start(), gapAt, gapTotal, runs);
+                end = column(matcher.end() - 1, gapAt, gapTotal, runs) + 1;
+                forward.add(((long) start << 32) | end);
+                result.add(new Hit(target, row, seq.getName(), start, end,
+                                   false));
+            }
+        }
+
+        // Search the reverse strand (the reverse complement of the text).
+        if (nucleotide && bothStrands) {
+            matcher = nucleotideRegex.matcher(new ResidueText(text, size,
+                    seq.getType() == Seq.Type.RNA ? RNA_COMPLEMENT
+                                                  : DNA_COMPLEMENT));
+            while (matcher.find()
+                    && !Thread.currentThread().isInterrupted()) {
+                start = column(size - matcher.end(), gapAt, gapTotal, runs);
+                end = column(size - matcher.start() - 1, gapAt, gapTotal,
+                             runs) + 1;
+                if (matcher.end() > matcher.start()
+                        && !forward.contains(((long) start << 32) | end)) {
+                    if (remaining.decrementAndGet() < 0) {
+                        return result;
+                    }
+                    result.add(new Hit(target, row, seq.getName(), start,
+                                       end, true));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts a position within a sequence, with its gaps removed, into a
+     * column within the sequence (see searchRegex).
+     **
+     * @param  position  the position within the sequence (gaps removed).
+     * @param  gapAt     the positions after which gaps were removed.
+     * @param  gapTotal  the total number of gaps removed up to each position.
+     * @param  runs      the number of entries in gapAt and gapTotal.
+     * @return the column within the sequence.
+     */
+    private static int column(int position, int[] gapAt, int[] gapTotal,
+                              int runs) {
+        // The index of the entry for the last gap run at or before the
+        // position (found by binary search).
+        int low = 0;
+        int high = runs - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+
+            if (gapAt[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return position + (high >= 0 ? gapTotal[high] : 0);
+    }
+
+    /**
+     * Converts a residue pattern into a regular expression; each position in
+     * the pattern becomes a character class of the residues it matches (or,
+     * if it matches no residue, an expression which never matches).
+     **
+     * @param  pattern     the residue pattern.
+     * @param  nucleotide  whether the regular expression is for matching
+     *                     nucleotide sequences.
+     * @return the regular expression.
+     */
+    private static String toRegex(CharSequence pattern, boolean nucleotide) {
+        // The regular expression.
+        final StringBuilder result = new StringBuilder();
+        // The character class for the current position in the pattern.
+        final StringBuilder residues = new StringBuilder();
+
+        for (int index = 0; index < pattern.length(); index++) {
+            residues.setLength(0);
+            for (int c = 0; c < 256; c++) {
+                if (nucleotide ? matchesNucleotide(pattern.charAt(index), c)
+                               : matchesResidue(pattern.charAt(index), c)) {
+                    residues.append(String.format("\\x%02x", c));
+                }
+            }
+            if (residues.length() > 0) {
+                result.append('[').append(residues).append(']');
+            } else {
+                result.append("(?!)");
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Determines whether a pattern code matches a residue in a nucleotide
+     * sequence (see the class description).
+     **
+     * @param  code     the pattern code.
+     * @param  residue  the residue.
+     * @return whether the code matches the residue.
+     */
+    private static boolean matchesNucleotide(char code, int residue) {
+        // The nucleotides represented by the code and by the residue.
+        final int codeMask = (code < 256 ? NUCLEOTIDES[code] : 0);
+        final int residueMask = NUCLEOTIDES[residue];
+
+        return (codeMask != 0 ? residueMask != 0
+                                && (residueMask & ~codeMask) == 0
+                              : sameLetter(code, residue));
+    }
+
+    /**
+     * Determines whether a pattern code matches a residue in a protein (or
+     * any other non-nucleotide) sequence (see the class description).
+     **
+     * @param  code     the pattern code.
+     * @param  residue  the residue.
+     * @return whether the code matches the residue.
+     */
+    private static boolean matchesResidue(char code, int residue) {
+        // The upper case code and residue.
+        final char upperCode = Character.toUpperCase(code);
+        final char upper = Character.toUpperCase((char) residue);
+        // Whether the code matches the residue.
+        boolean result = sameLetter(code, residue);
+
+        switch (upperCode) {
+            case 'B':   // Aspartic acid or Asparagine (Asx)
+                result |= (upper == 'D' || upper == 'N');
+                break;
+            case 'J':   // Leucine or isoleucine       (Leu or Ile)
+                result |= (upper == 'L' || upper == 'I');
+                break;
+            case 'Z':   // Glutamic acid or Glutamine  (Glx)
+                result |= (upper == 'E' || upper == 'Q');
+                break;
+            case 'X':   // UNKNOWN                     (ANY)
+                result |= Character.isLetter(upper) || upper == '*';
+                break;
+            default:
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether a pattern code and a residue are the same character
+     * (ignoring case).
+     **
+     * @param  code     the pattern code.
+     * @param  residue  the residue.
+     * @return whether the code and residue are the same.
+     */
+    private static boolean sameLetter(char code, int residue) {
+        return Character.toUpperCase(code)
+                == Character.toUpperCase((char) residue);
+    }
+
+    /**
+     * Determines whether a sequence is a nucleotide (DNA or RNA) sequence.
+     **
+     * @param  seq  the sequence.
+     * @return whether the sequence is a nucleotide sequence.
+     */
+    private static boolean isNucleotide(Seq seq) {
+        return seq.getType() == Seq.Type.DNA || seq.getType() == Seq.Type.RNA;
+    }
+
+    /**
+     * Complements a nucleotide bitmask (A with T, and C with G).
+     **
+     * @param  mask  the nucleotide bitmask.
+     * @return the bitmask of the complementary nucleotides.
+     */
+    private static int complement(int mask) {
+        return ((mask & 1) << 3) | ((mask & 8) >> 3)
+                | ((mask & 2) << 1) | ((mask & 4) >> 1);
+    }
+
+    /**
+     * Returns the IUPAC nucleotide code which represents a bitmask of
+     * nucleotides (T is used for the bitmask 8, rather than U).
+     **
+     * @param  mask  the nucleotide bitmask.
+     * @return the IUPAC code.
+     */
+    private static char codeFor(int mask) {
+        // The IUPAC code.
+        char result = 'N';
+
+        for (int count = 0; count < IUPAC_MASKS.length; count++) {
+            if (IUPAC_MASKS[count] == mask) {
+                result = IUPAC.charAt(count);
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A hit found by a residue search.
+     */
+    public static final class Hit {
+
+        /**
+         * The sequence object the hit was found in.
+         */
+        private final Seq seq;
+        /**
+         * The row number of the sequence, when it was last found (used to
+         * find the sequence quickly -- see Dataset.indexOf).
+         */
+        private int row;
+        /**
+         * The name of the sequence the hit was found in.
+         */
+        private final String name;
+        /**
+         * The column of the first residue of the hit.
+         */
+        private final int start;
+        /**
+         * The column after the last residue of the hit.
+         */
+        private final int end;
+        /**
+         * Whether the hit is on the reverse strand.
+         */
+        private final boolean reverse;
+
+        /**
+         * Creates a new hit.
+         **
+         * @param seq      the sequence object the hit was found in.
+         * @param row      the row number of the sequence.
+         * @param name     the name of the sequence.
+         * @param start    the column of the first residue of the hit.
+         * @param end      the column after the last residue of the hit.
+         * @param reverse  whether the hit is on the reverse strand.
+         */
+        Hit(Seq seq, int row, String name, int start, int end,
+            boolean reverse) {
+            this.seq = seq;
+            this.row = row;
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.reverse = reverse;
+        }
+
+        /**
+         * Returns the current row number of the sequence the hit was found in
+         * (the sequence may have moved since the search, if sequences were
+         * added to, or removed from, the Dataset).  This must be called on
+         * the event dispatch thread.
+         **
+         * @param  datamodel  the Dataset which was searched.
+         * @return the row number (or -1 if the sequence is no longer in the
+         *         Dataset).
+         */
+        public int getRow(Dataset datamodel) {
+            // The current row of the sequence.
+            final int current = datamodel.indexOf(seq, row);
+
+            if (current >= 0) {
+                row = current;
+            }
+            return current;
+        }
+
+        /**
+         * Returns the column of the first residue of the hit.
+         **
+         * @return the start column.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the column after the last residue of the hit.
+         **
+         * @return the end column.
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns whether the hit is on the reverse strand.
+         **
+         * @return true if the hit is on the reverse strand.
+         */
+        public boolean isReverse() {
+            return reverse;
+        }
+
+        /**
+         * Returns a description of the hit, for display in a list (the
+         * columns are displayed starting from 1, as in a sequence file).
+         **
+         * @return a description of the hit.
+         */
+        @Override
+        public String toString() {
+            return name + "  " + (start + 1) + ".." + end
+                    + (reverse ? "  (-)" : "  (+)");
+        }
+    }
+
+    /**
+     * A read-only character sequence view of an array of residues (or of the
+     * reverse complement of the residues), used for regular expression
+     * matching without converting the residues into a String.
+     */
+    private static final class ResidueText implements CharSequence {
+
+        /**
+         * The residues.
+         */
+        private final byte[] residues;
+        /**
+         * The position of the first residue within the view.
+         */
+        private final int offset;
+        /**
+         * The number of residues within the view.
+         */
+        private final int count;
+        /**
+         * The complement lookup table (null if the view is of the forward
+         * strand, rather than the reverse complement).
+         */
+        private final char[] complement;
+
+        /**
+         * Creates a view of the first 'count' residues in an array.
+         **
+         * @param residues    the residues.
+         * @param count       the number of residues.
+         * @param complement  the complement table to view the reverse
+         *                    complement with (null to view the residues
+         *                    unchanged).
+         */
+        ResidueText(byte[] residues, int count, char[] complement) {
+            this(residues, 0, count, complement);
+        }
+
+        /**
+         * Creates a view of a range of residues in an array.
+         **
+         * @param residues    the residues.
+         * @param offset      the position of the first residue.
+         * @param count       the number of residues.
+         * @param complement  the complement table (see above).
+         */
+        private ResidueText(byte[] residues, int offset, int count,
+                            char[] complement) {
+            this.residues = residues;
+            this.offset = offset;
+            this.count = count;
+            this.complement = complement;
+        }
+
+        /**
+         * Returns the number of residues within the view.
+         **
+         * @return the length of the view.
+         */
+        public int length() {
+            return count;
+        }
+
+        /**
+         * Returns a residue within the view.
+         **
+         * @param  index  the position within the view.
+         * @return the residue.
+         */
+        public char charAt(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("index " + index
+                        + ", length " + count);
+            }
+            return (complement == null
+                    ? (char) (residues[offset + index] & 0xFF)
+                    : complement[residues[offset + count - index - 1]
+                                 & 0xFF]);
+        }
+
+        /**
+         * Returns a range of the view.
+         **
+         * @param  start  the position of the first residue of the range.
+         * @param  end    the position after the last residue of the range.
+         * @return the view of the range.
+         */
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > count || start > end) {
+                throw new IndexOutOfBoundsException("start " + start
+                        + ", end " + end + ", length " + count);
+            }
+            return (complement == null
+                    ? new ResidueText(residues, offset + start, end - start,
+                                      null)
+                    : new ResidueText(residues, offset + count - end,
+                                      end - start, complement));
+        }
+
+        /**
+         * Returns the residues within the view as a String.
+         **
+         * @return the residues.
+         */
+        @Override
+        public String toString() {
+            // The residues.
+            final StringBuilder result = new StringBuilder(count);
+
+            for (int index = 0; index < count; index++) {
+                result.append(charAt(index));
+            }
+            return result.toString();
+        }
+    }
+}
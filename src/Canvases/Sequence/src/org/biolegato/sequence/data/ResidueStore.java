@@ -0,0 +1,763 @@
+/*
+ * ResidueStore.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * <p>A compact container for the residues (characters) of a sequence.</p>
+ *
+ * <p>Previously, each sequence object stored its residues within a
+ * StringBuffer.  StringBuffers use two bytes per character, and obtain a lock
+ * every time a character is read or written (e.g. every time the sequence
+ * text area paints a row).  Because nucleotide, amino acid, gap and colour
+ * mask characters are all single byte (ASCII) characters, this class stores
+ * each residue as a single byte, thereby halving the memory footprint of the
+ * sequences stored in BioLegato, and avoids the locking overhead.</p>
+ *
+ * <p>Any character which cannot be represented by a single byte (i.e. any
+ * character beyond ISO-8859-1) is stored as a question mark ('?').  Such
+ * characters are never produced by any of BioLegato's file format parsers.</p>
+ *
+ * <p><u>WHY A GAP BUFFER?</u></p>
+ * <!--  ----------------- -->
+ * <p>The residues are stored within a gap buffer.  A gap buffer is an array
+ * which contains an unused region (the gap) positioned where the last edit
+ * took place.  Insertions at the gap simply fill the gap, and deletions at the
+ * gap simply widen it; therefore, typing or deleting characters at the cursor
+ * is O(1) amortised, regardless of the length of the sequence.  In contrast,
+ * StringBuffer.insert and StringBuffer.delete shift the entire tail of the
+ * sequence on every keystroke, which is very slow for genome-length rows.
+ * Moving the gap only costs the distance between two successive edits.</p>
+ *
+ * <pre>
+ *      data:   [A C G T _ _ _ _ A C G T]
+ *                       ^       ^
+ *                   gapStart  gapEnd</pre>
+ *
+ * <p><u>MEMORY-MAPPED RESIDUES</u></p>
+ * <!--  --------------------- -->
+ * <p>A residue store may also be created from a MappedRecord (i.e. a sequence
+ * within a memory-mapped file).  Such residue stores do not allocate any
+ * array; instead, all residues are read directly from the mapped file, as
+ * they are needed (e.g. only the columns painted by the sequence text area).
+ * The residues are copied into a gap buffer the first time the residue store
+ * is modified.</p>
+ *
+ * <p><i>NOTE: this class is NOT thread safe.  All modifications to sequences
+ *       are performed on the Swing event dispatch thread (through the Dataset
+ *       class).</i></p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+final class ResidueStore implements CharSequence, Serializable {
+
+    /**
+     * The number of residues currently stored in the container.
+     */
+    private transient int count = 0;
+    /**
+     * The array of residues (one byte per residue), including the gap.
+     */
+    private transient byte[] data;
+    /**
+     * The position within the array of the first unused byte (i.e. the start
+     * of the gap).  This is also the position of the last edit.
+     */
+    private transient int gapStart = 0;
+    /**
+     * The position within the array after the last unused byte (i.e. the end
+     * of the gap).  Residues after the gap are stored from here to the end of
+     * the array.
+     */
+    private transient int gapEnd = 0;
+    /**
+     * The location of the residues within a memory-mapped file (null if the
+     * residues are stored in the array 'data').
+     */
+    private transient MappedRecord mapped = null;
+    /**
+     * Whether the array 'data' is shared with a snapshot of the container
+     * (see snapshot).  If so, the array is copied before the container is
+     * next modified (copy-on-write), so the snapshot is never modified.
+     */
+    private transient boolean shared = false;
+    /**
+     * The character used to store any characters which cannot be represented
+     * within a single byte.
+     */
+    private static final byte UNKNOWN = (byte) '?';
+    /**
+     * The default initial capacity of an empty residue store.
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+    /**
+     * The maximum number of residues to convert to characters at a time,
+     * when writing the residues to an Appendable object.
+     */
+    private static final int WRITE_CHUNK = 8192;
+    /**
+     * Used for serialization purposes.
+     */
+    private static final long serialVersionUID = 7526472295622777040L;
+
+    /**
+     * Creates a new empty residue store.
+     */
+    ResidueStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new empty residue store, which can hold 'capacity' residues
+     * before having to resize its internal array.
+     **
+     * @param capacity the initial capacity of the residue store.
+     */
+    ResidueStore(int capacity) {
+        data = new byte[Math.max(capacity, 1)];
+        gapEnd = data.length;
+    }
+
+    /**
+     * Creates a new residue store containing the characters of a character
+     * sequence object (e.g. a String or StringBuffer).
+     **
+     * @param text the text to store in the new residue store.
+     */
+    ResidueStore(CharSequence text) {
+        this(text.length());
+        append(text, 0, text.length());
+    }
+
+    /**
+     * Creates a new residue store which reads its residues from a
+     * memory-mapped file (until the residue store is modified).
+     **
+     * @param record the location of the residues within the mapped file.
+     */
+    ResidueStore(MappedRecord record) {
+        mapped = record;
+        count = record.length;
+    }
+
+//////////////////////
+//******************//
+//* DATA RETRIEVAL *//
+//******************//
+//////////////////////
+    /**
+     * Returns the number of residues stored in the container.
+     **
+     * @return the number of residues in the container.
+     */
+    public int length() {
+        return count;
+    }
+
+    /**
+     * Returns a single residue from the container.
+     **
+     * @param  index the position of the residue to return.
+     * @return the residue at the given position.
+     */
+    public char charAt(int index) {
+        // Ensure that the position is within the bounds of the container.
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index
+                    + ", length " + count);
+        }
+
+        // Read the residue from the mapped file, if applicable.
+        if (mapped != null) {
+            return mapped.charAt(index);
+        }
+
+        // Skip over the gap for positions after the gap.
+        if (index >= gapStart) {
+            index += gapEnd - gapStart;
+        }
+        return (char) (data[index] & 0xFF);
+    }
+
+    /**
+     * Copies residues from the container into a character array.
+     **
+     * @param srcBegin the position of the first residue to copy.
+     * @param srcEnd   the position after the last residue to copy.
+     * @param dst      the destination array for the residues.
+     * @param dstBegin the position within the destination array to begin
+     *                 copying the residues to.
+     */
+    void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        // The length of the gap (i.e. the offset of all residues after the
+        // gap within the array).
+        final int gapLength = gapEnd - gapStart;
+        // The position to stop copying residues from before the gap.
+        final int split = Math.min(srcEnd, gapStart);
+
+        // Ensure that the range is within the bounds of the container.
+        checkRange(srcBegin, srcEnd);
+
+        // Read the residues from the mapped file, if applicable.
+        if (mapped != null) {
+            mapped.getChars(srcBegin, srcEnd, dst, dstBegin);
+            return;
+        }
+
+        // Copy (and widen) each residue before the gap.
+        for (; srcBegin < split; srcBegin++, dstBegin++) {
+            dst[dstBegin] = (char) (data[srcBegin] & 0xFF);
+        }
+
+        // Copy (and widen) each residue after the gap.
+        for (int index = srcBegin + gapLength; srcBegin < srcEnd;
+                srcBegin++, index++, dstBegin++) {
+            dst[dstBegin] = (char) (data[index] & 0xFF);
+        }
+    }
+
+    /**
+     * Copies a range of residues, in their single byte representation, into a
+     * byte array (used to record edits -- see EditJournal).
+     **
+     * @param srcBegin the position of the first residue to copy.
+     * @param srcEnd   the position after the last residue to copy.
+     * @param dst      the destination array.
+     * @param dstBegin the offset within the destination array to copy to.
+     */
+    void getBytes(int srcBegin, int srcEnd, byte[] dst, int dstBegin) {
+        // The position to stop copying residues from before the gap.
+        final int split = Math.min(srcEnd, gapStart);
+
+        // Ensure that the range is within the bounds of the container.
+        checkRange(srcBegin, srcEnd);
+
+        if (mapped != null) {
+            // Read the residues from the mapped file.
+            mapped.getBytes(srcBegin, srcEnd, dst, dstBegin);
+        } else {
+            // Copy the residues before the gap, then the residues after it.
+            if (srcBegin < split) {
+                System.arraycopy(data, srcBegin, dst, dstBegin,
+                                 split - srcBegin);
+                dstBegin += split - srcBegin;
+                srcBegin = split;
+            }
+            if (srcBegin < srcEnd) {
+                System.arraycopy(data, srcBegin + gapEnd - gapStart, dst,
+                                 dstBegin, srcEnd - srcBegin);
+            }
+        }
+    }
+
+    /**
+     * <p>Writes a range of residues to an Appendable object.</p>
+     *
+     * <p>The residues are converted to characters in blocks, so that writing
+     * a large sequence to a Writer object does not require creating a String
+     * copy of the entire sequence (as Appendable.append(CharSequence) would).
+     * </p>
+     **
+     * @param  out   the destination Appendable object to write the residues.
+     * @param  start the position of the first residue to write.
+     * @param  end   the position after the last residue to write.
+     * @throws IOException if an error occurs while writing to the destination.
+     */
+    void appendTo(Appendable out, int start, int end) throws IOException {
+        // The number of residues to convert within the current block.
+        int length = 0;
+        // The buffer used to convert the residues to characters.
+        char[] buffer = null;
+
+        // Ensure that the range is within the bounds of the container.
+        checkRange(start, end);
+
+        // Write the residues to the destination, block by block.
+        if (start < end) {
+            buffer = new char[Math.min(end - start, WRITE_CHUNK)];
+            while (start < end) {
+                length = Math.min(buffer.length, end - start);
+                getChars(start, start + length, buffer, 0);
+
+                DataFormat.write(out, buffer, 0, length);
+                start += length;
+            }
+        }
+    }
+
+    /**
+     * Returns a portion of the container as a String object.
+     **
+     * @param  start the position of the first residue to return.
+     * @param  end   the position after the last residue to return.
+     * @return a String containing the residues within the given range.
+     */
+    public CharSequence subSequence(int start, int end) {
+        // The array to copy the residues into.
+        char[] result = null;
+
+        // Ensure that the range is within the bounds of the container.
+        checkRange(start, end);
+
+        // Copy the residues into a String object.
+        result = new char[end - start];
+        getChars(start, end, result, 0);
+        return new String(result);
+    }
+
+    /**
+     * Returns the content of the container as a String object.
+     **
+     * @return a String containing all of the residues in the container.
+     */
+    @Override
+    public String toString() {
+        return subSequence(0, count).toString();
+    }
+
+    /**
+     * Finds the first residue which matches a character class.  The character
+     * class is specified as a 256-entry lookup table (indexed by the residue's
+     * single byte representation).  The array is scanned directly (skipping
+     * the gap), without converting each residue to a character.
+     **
+     * @param  matches  the character class lookup table.
+     * @return the position of the first matching residue (-1 if none match).
+     */
+    int indexOf(boolean[] matches) {
+        // The position of the first matching residue.
+        int result = -1;
+
+        if (mapped != null) {
+            // Read the residues from the mapped file.
+            for (int index = 0; result < 0 && index < count; index++) {
+                if (matches[mapped.charAt(index)]) {
+                    result = index;
+                }
+            }
+        } else {
+            // The length of the gap.
+            final int gapLength = gapEnd - gapStart;
+
+            // Scan the residues before the gap.
+            for (int index = 0; result < 0 && index < gapStart; index++) {
+                if (matches[data[index] & 0xFF]) {
+                    result = index;
+                }
+            }
+
+            // Scan the residues after the gap.
+            for (int index = gapEnd; result < 0 && index < count + gapLength;
+                                                                    index++) {
+                if (matches[data[index] & 0xFF]) {
+                    result = index - gapLength;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the file the residues are read from, if they are read directly
+     * from a memory-mapped file (i.e. if the residue store has not been
+     * modified since it was created from a MappedRecord).
+     **
+     * @return the mapped file (null if the residues are stored in memory).
+     */
+    File getMappedFile() {
+        return (mapped != null ? mapped.getFile() : null);
+    }
+
+    /**
+     * Copies the residues from the memory-mapped file (if applicable) into
+     * memory, so the residue store no longer reads from the file (e.g.
+     * before the file is overwritten -- see Dataset.releaseFile).  The
+     * residues are copied into the mapped record itself (see
+     * MappedRecord.load); therefore, any snapshots of the residue store,
+     * which share the record, no longer read from the file either.
+     */
+    void unmap() {
+        if (mapped != null) {
+            mapped.load();
+        }
+    }
+
+    /**
+     * <p>Creates a snapshot of the container: a new container holding the
+     * same residues, which shares the array of residues with this container
+     * (i.e. no residues are copied, so taking a snapshot costs the same for
+     * any length of sequence).</p>
+     *
+     * <p>The array is copied the next time either container is modified
+     * (copy-on-write; see materialize).  Therefore, as long as the snapshot
+     * itself is not modified, it may be read by any thread, while this
+     * container continues to be modified by the event dispatch thread.</p>
+     **
+     * @return the snapshot.
+     */
+    ResidueStore snapshot() {
+        // The snapshot of the container.
+        final ResidueStore result = new ResidueStore(0);
+
+        result.data = data;
+        result.count = count;
+        result.gapStart = gapStart;
+        result.gapEnd = gapEnd;
+        result.mapped = mapped;
+        result.shared = true;
+        shared = (mapped == null);
+        return result;
+    }
+
+////////////////////////////////
+//****************************//
+//* DIRECT DATA MODIFICATION *//
+//****************************//
+////////////////////////////////
+    /**
+     * Appends a single character to the end of the container.
+     **
+     * @param  c the character to append.
+     * @return this residue store object.
+     */
+    ResidueStore append(char c) {
+        materialize();
+        moveGap(count);
+        ensureGap(1);
+        data[gapStart] = pack(c);
+        gapStart++;
+        count++;
+        return this;
+    }
+
+    /**
+     * Appends characters from a character array to the end of the container.
+     **
+     * @param  text   the array of characters to append.
+     * @param  offset the offset within the array of the first character to
+     *                append to the container.
+     * @param  length the number of characters to append.
+     * @return this residue store object.
+     */
+    ResidueStore append(char[] text, int offset, int length) {
+        return insert(count, text, offset, length);
+    }
+
+    /**
+     * Appends characters from a character sequence object to the end of the
+     * container.
+     **
+     * @param  text  the character sequence to append.
+     * @param  start the position of the first character to append.
+     * @param  end   the position after the last character to append.
+     * @return this residue store object.
+     */
+    ResidueStore append(CharSequence text, int start, int end) {
+        // Move the gap to the end of the container, and ensure that there is
+        // enough room in the gap for the text.
+        materialize();
+        moveGap(count);
+        ensureGap(end - start);
+
+        // Copy the text, character by character, into the gap.
+        for (int index = start; index < end; index++, gapStart++) {
+            data[gapStart] = pack(text.charAt(index));
+        }
+        count += end - start;
+        return this;
+    }
+
+    /**
+     * Inserts characters from a character array into the container.  If the
+     * insertion position is past the end of the container, the characters are
+     * appended to the end of the container.
+     **
+     * @param  x      the position within the container to insert the text.
+     * @param  text   the array of characters to insert.
+     * @param  offset the offset within the array of the first character to
+     *                insert into the container.
+     * @param  length the number of characters to insert.
+     * @return this residue store object.
+     */
+    ResidueStore insert(int x, char[] text, int offset, int length) {
+        // Ensure that the insertion position is valid.
+        x = Math.max(0, Math.min(x, count));
+
+        // Move the gap to the insertion point, and ensure that there is enough
+        // room in the gap for the text.
+        materialize();
+        moveGap(x);
+        ensureGap(length);
+
+        // Copy the new characters into the gap.
+        for (int index = offset; index < offset + length; index++, gapStart++) {
+            data[gapStart] = pack(text[index]);
+        }
+        count += length;
+        return this;
+    }
+
+    /**
+     * Deletes a range of residues from the container.
+     **
+     * @param  start the position of the first residue to delete.
+     * @param  end   the position after the last residue to delete.
+     * @return this residue store object.
+     */
+    ResidueStore delete(int start, int end) {
+        // Limit the end position to the length of the container.
+        end = Math.min(end, count);
+
+        // Ensure that the range is within the bounds of the container.
+        checkRange(start, end);
+
+        // Move the gap to the deletion point, and widen the gap to cover the
+        // deleted residues.
+        materialize();
+        moveGap(start);
+        gapEnd += end - start;
+        count -= end - start;
+        return this;
+    }
+
+    /**
+     * Replaces a range of residues in place, using a translation table (and
+     * optionally reverses the order of the range).  Because the length of the
+     * container does not change, no residues outside of the range are moved
+     * (except, if the gap lies within the range, the residues between the
+     * start of the range and the gap).
+     **
+     * @param  start   the position of the first residue to replace.
+     * @param  end     the position after the last residue to replace.
+     * @param  table   the replacement for each of the 256 possible residues.
+     * @param  reverse whether to reverse the order of the range.
+     * @return this residue store object.
+     */
+    ResidueStore transform(int start, int end, byte[] table, boolean reverse) {
+        // Limit the end position to the length of the container.
+        end = Math.min(end, count);
+
+        // Ensure that the range is within the bounds of the container.
+        checkRange(start, end);
+
+        // Ensure that the range is stored contiguously within the array (i.e.
+        // move the gap out of the range, if necessary).
+        materialize();
+        if (gapStart > start && gapStart < end) {
+            moveGap(start);
+        }
+
+        // The positions of the range within the array.
+        int low = (start < gapStart ? start : start + gapEnd - gapStart);
+        int high = low + end - start - 1;
+
+        if (reverse) {
+            // Swap (and replace) the residues from both ends of the range,
+            // towards the middle.
+            for (; low < high; low++, high--) {
+                final byte swap = data[low];
+                data[low] = table[data[high] & 0xFF];
+                data[high] = table[swap & 0xFF];
+            }
+            if (low == high) {
+                data[low] = table[data[low] & 0xFF];
+            }
+        } else {
+            for (; low <= high; low++) {
+                data[low] = table[data[low] & 0xFF];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Overwrites a range of residues, in place, with residues in their single
+     * byte representation (used to undo edits -- see EditJournal).  The
+     * length of the container does not change.
+     **
+     * @param  start  the position of the first residue to overwrite.
+     * @param  src    the array of residues to copy.
+     * @param  offset the offset within the array of the first residue.
+     * @param  length the number of residues to overwrite.
+     * @return this residue store object.
+     */
+    ResidueStore setBytes(int start, byte[] src, int offset, int length) {
+        // Ensure that the range is within the bounds of the container.
+        checkRange(start, start + length);
+
+        // Ensure that the range is stored contiguously within the array (i.e.
+        // move the gap out of the range, if necessary).
+        materialize();
+        if (gapStart > start && gapStart < start + length) {
+            moveGap(start);
+        }
+        System.arraycopy(src, offset, data, (start < gapStart ? start
+                         : start + gapEnd - gapStart), length);
+        return this;
+    }
+
+    /**
+     * Releases any unused capacity within the container.  This should be
+     * called by the file format parsers after a sequence is finished loading.
+     */
+    void trimToSize() {
+        // The new array to store the residues.
+        byte[] trimmed = null;
+
+        if (mapped == null && data.length > count && count > 0) {
+            trimmed = new byte[count];
+            System.arraycopy(data, 0, trimmed, 0, gapStart);
+            System.arraycopy(data, gapEnd, trimmed, gapStart, count - gapStart);
+            data = trimmed;
+            gapStart = count;
+            gapEnd = count;
+            shared = false;
+        }
+    }
+
+////////////////////////
+//********************//
+//* INTERNAL METHODS *//
+//********************//
+////////////////////////
+    /**
+     * Copies the residues from the mapped file (if applicable) into the array
+     * 'data', so the residue store can be modified.  This is called before
+     * the first modification of a memory-mapped residue store.  Likewise, if
+     * the array is shared with a snapshot (see snapshot), then the array is
+     * copied, so the snapshot is not modified.
+     */
+    private void materialize() {
+        if (mapped != null) {
+            data = new byte[count + DEFAULT_CAPACITY];
+            mapped.getBytes(0, count, data, 0);
+            gapStart = count;
+            gapEnd = data.length;
+            mapped = null;
+        } else if (shared) {
+            data = data.clone();
+        }
+        shared = false;
+    }
+
+    /**
+     * Moves the gap to a given position within the container.  The cost of
+     * this operation is proportional to the distance the gap is moved (thus,
+     * successive edits at the cursor do not move any residues).
+     **
+     * @param position the new position of the gap.
+     */
+    private void moveGap(int position) {
+        // The length of the gap.
+        final int gapLength = gapEnd - gapStart;
+
+        if (position < gapStart) {
+            // Shift the residues between the position and the gap to the
+            // right (after the gap).
+            System.arraycopy(data, position, data, position + gapLength,
+                    gapStart - position);
+        } else if (position > gapStart) {
+            // Shift the residues between the gap and the position to the left
+            // (before the gap).
+            System.arraycopy(data, gapEnd, data, gapStart,
+                    position - gapStart);
+        }
+        gapStart = position;
+        gapEnd = position + gapLength;
+    }
+
+    /**
+     * Ensures that the gap can hold at least 'length' residues.
+     **
+     * @param length the minimum number of residues to accommodate in the gap.
+     */
+    private void ensureGap(int length) {
+        // The new array to store the residues.
+        byte[] grown = null;
+        // The number of residues stored after the gap.
+        final int tail = data.length - gapEnd;
+
+        // Grow the array by 50% (or to the size required, if larger).
+        if (gapEnd - gapStart < length) {
+            grown = new byte[Math.max(count + length, data.length
+                    + (data.length >> 1) + DEFAULT_CAPACITY)];
+            System.arraycopy(data, 0, grown, 0, gapStart);
+            System.arraycopy(data, gapEnd, grown, grown.length - tail, tail);
+            gapEnd = grown.length - tail;
+            data = grown;
+        }
+    }
+
+    /**
+     * Ensures that a range of positions is within the bounds of the container.
+     **
+     * @param start the start of the range.
+     * @param end   the end of the range.
+     */
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > count || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end "
+                    + end + ", length " + count);
+        }
+    }
+
+    /**
+     * Converts a character into its single byte representation.
+     **
+     * @param  c the character to convert.
+     * @return the single byte representation of the character.
+     */
+    private static byte pack(char c) {
+        return (c <= 0xFF ? (byte) c : UNKNOWN);
+    }
+
+    /**
+     * Writes the residues to a serialization stream (without the gap).
+     **
+     * @param  out the stream to write the residues to.
+     * @throws IOException if an error occurs while writing the stream.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(count);
+        if (mapped != null) {
+            // Copy the residues from the mapped file, block by block.
+            final byte[] buffer = new byte[Math.min(count, WRITE_CHUNK)];
+            for (int start = 0; start < count; start += buffer.length) {
+                final int length = Math.min(buffer.length, count - start);
+                mapped.getBytes(start, start + length, buffer, 0);
+                out.write(buffer, 0, length);
+            }
+        } else {
+            out.write(data, 0, gapStart);
+            out.write(data, gapEnd, count - gapStart);
+        }
+    }
+
+    /**
+     * Reads the residues from a serialization stream.
+     **
+     * @param  in the stream to read the residues from.
+     * @throws IOException if an error occurs while reading the stream.
+     * @throws ClassNotFoundException if a class in the stream cannot be found.
+     */
+    private void readObject(ObjectInputStream in)
+                                    throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        count = in.readInt();
+        data = new byte[Math.max(count, 1)];
+        in.readFully(data, 0, count);
+        gapStart = count;
+        gapEnd = data.length;
+    }
+}
@@ -9,6 +9,7 @@
 package org.biolegato.sequence.data;
 
 import org.biolegato.sequence.canvas.ColourMask;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -358,9 +359,15 @@ public final class Seq implements Cloneable, Serializable {
      */
     Strandedness strandedness = Strandedness.SINGLE;
     /**
-     * The actual sequence data for the current sequence.
+     * <p>The actual sequence data for the current sequence.</p>
+     *
+     * <p>The residues are stored one byte per residue (see ResidueStore), rather
+     * than within a StringBuffer, to reduce the memory used by large
+     * alignments.</p>
+     **
+     * @see org.biolegato.sequence.data.ResidueStore
      */
-    StringBuffer sequence;
+    ResidueStore sequence;
     /**
      * The colour mask to display the sequence with.
      */
@@ -481,6 +488,26 @@ public final class Seq implements Cloneable, Serializable {
      * Used for serialization purposes.
      */
     private static final long serialVersionUID = 7526472295622777024L;
+    /**
+     * A lookup table of the sequence types implied by each of the first 256
+     * characters (see residueType).
+     */
+    private static final Type[] RESIDUE_TYPES = new Type[256];
+    /**
+     * A lookup table of whether each of the first 256 characters implies a
+     * sequence type other than DNA (used by detectType to scan residue stores).
+     */
+    private static final boolean[] NOT_DNA = new boolean[256];
+
+    /**
+     * Fills the residue type lookup tables.
+     */
+    static {
+        for (char residue = 0; residue < RESIDUE_TYPES.length; residue++) {
+            RESIDUE_TYPES[residue] = classifyResidue(residue);
+            NOT_DNA[residue] = (RESIDUE_TYPES[residue] != Type.DNA);
+        }
+    }
 
 ///////////////
 //***********//
@@ -497,7 +524,7 @@ public final class Seq implements Cloneable, Serializable {
      * sequence.</p>
      */
     public Seq() {
-        this(Type.DNA, "", new StringBuffer());
+        this(Type.DNA, "", new ResidueStore());
     }
 
     /**
@@ -523,19 +550,28 @@ public final class Seq implements Cloneable, Serializable {
      * @see org.biolegato.sequence.data.Seq#name
      * @see org.biolegato.sequence.data.Seq#sequence
      * @see org.biolegato.sequence.data.Seq#Seq()
-     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.StringBuffer, java.lang.String)
-     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.StringBuffer, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness)
-     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.StringBuffer, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, java.lang.CharSequence)
-     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.StringBuffer, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, int, java.lang.String)
+     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.CharSequence, java.lang.String)
+     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.CharSequence, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness)
+     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.CharSequence, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, java.lang.CharSequence)
+     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.CharSequence, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, int, java.lang.String)
      */
-    public Seq(Type type, String name, StringBuffer sequence) {
+    public Seq(Type type, String name, CharSequence sequence) {
         // Copy the parameters specified in the constructor to the new object.
         this.name = name;
         this.type = type;
-        this.sequence = sequence;
+
+        // Store the sequence data in a compact residue store object (unless
+        // the sequence data is already stored within a residue store object).
+        if (sequence instanceof ResidueStore) {
+            this.sequence = (ResidueStore) sequence;
+        } else if (sequence != null) {
+            this.sequence = new ResidueStore(sequence);
+        } else {
+            this.sequence = new ResidueStore();
+        }
 
         // Set the default protections to false if the sequence is empty.
-        if (this.sequence != null && sequence.length() == 0) {
+        if (this.sequence.length() == 0) {
             protect_align = false;
             protect_ambig = false;
             protect_unambig = false;
@@ -564,7 +600,7 @@ public final class Seq implements Cloneable, Serializable {
      * @see org.biolegato.sequence.data.FastAFile
      */
     public Seq(Type type, String name,
-            StringBuffer sequence, String description) {
+            CharSequence sequence, String description) {
         this(type, name, sequence);
         
         this.description = description;
@@ -594,10 +630,10 @@ public final class Seq implements Cloneable, Serializable {
      * @see org.biolegato.sequence.data.Seq#direction
      * @see org.biolegato.sequence.data.Seq#topology
      * @see org.biolegato.sequence.data.Seq#strandedness
-     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.StringBuffer, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, java.lang.CharSequence)
-     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.StringBuffer, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, int, java.lang.String)
+     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.CharSequence, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, java.lang.CharSequence)
+     * @see org.biolegato.sequence.data.Seq#Seq(org.biolegato.sequence.data.Seq.Type, java.lang.String, java.lang.CharSequence, org.biolegato.sequence.data.Seq.Direction, org.biolegato.sequence.data.Seq.Topology, org.biolegato.sequence.data.Seq.Strandedness, int, java.lang.String)
      */
-    public Seq(Type type, String name, StringBuffer sequence,
+    public Seq(Type type, String name, CharSequence sequence,
             Direction direction, Topology topology, Strandedness strandedness) {
         this(type, name, sequence);
 
@@ -634,7 +670,7 @@ public final class Seq implements Cloneable, Serializable {
      * @see org.biolegato.sequence.data.Seq#original
      * @see org.biolegato.sequence.data.GenBankFile2008
      */
-    public Seq(Type type, String name, StringBuffer sequence,
+    public Seq(Type type, String name, CharSequence sequence,
             Direction direction, Topology topology, Strandedness strandedness,
             CharSequence original) {
         this(type, name, sequence, direction, topology, strandedness);
@@ -672,7 +708,7 @@ public final class Seq implements Cloneable, Serializable {
      * @see org.biolegato.sequence.data.Seq#description
      * @see org.biolegato.sequence.data.GDEFile
      */
-    public Seq(Type type, String name, StringBuffer sequence,
+    public Seq(Type type, String name, CharSequence sequence,
             Direction direction, Topology topology, Strandedness strandedness,
             int groupID, String description) {
         this(type, name, sequence, direction, topology, strandedness);
@@ -703,6 +739,26 @@ public final class Seq implements Cloneable, Serializable {
         this.original = data.original;
     }
 
+    /**
+     * Creates a snapshot of the sequence object: a detached copy, whose
+     * residues are shared with this sequence object until either is modified
+     * (copy-on-write -- see ResidueStore.snapshot).  Thus, taking a snapshot
+     * does not copy any residues, and later modifications to this sequence
+     * object do not affect the snapshot.  The snapshot also keeps the colour
+     * mask of the sequence (so views may be drawn from the snapshot).
+     **
+     * @return the snapshot of the sequence object.
+     */
+    Seq snapshot() {
+        // The snapshot of the sequence object.
+        final Seq result = new Seq(this);
+
+        result.sequence = sequence.snapshot();
+        result.groupID = groupID;
+        result.mask = mask;
+        return result;
+    }
+
 //////////////////////////
 //**********************//
 //* SEQUENCE FUNCTIONS *//
@@ -796,12 +852,30 @@ public final class Seq implements Cloneable, Serializable {
      * user.  The reasons for storing and using this information are outlined
      * in the field 'strandedness' in this same class.  If no information is
      * present, a value of null is returned.
+     *
+     * <p>If the header is stored lazily (i.e. as an excerpt of the file it was
+     * read from), then the header is read into memory.  If the file has since
+     * been modified, then the header can no longer be read; therefore, a
+     * warning is printed, and the header is discarded and null is returned
+     * (see Dataset.releaseFile, which reads the headers before the file they
+     * were read from is overwritten).</p>
      **
      * @return the original GenBANK header of the data stored in the sequence
      *         object (null if either not present or applicable).
      * @see org.biolegato.sequence.data.Seq#original
+     * @see org.biolegato.sequence.data.FileExcerpt#isValid()
      */
     final CharSequence getOriginal() {
+        if (original instanceof FileExcerpt) {
+            try {
+                return ((FileExcerpt) original).read();
+            } catch (IOException ioe) {
+                System.err.println("WARNING: the original GenBANK header of "
+                        + name + " could not be read, and has been discarded ("
+                        + ioe.getMessage() + ")");
+                original = null;
+            }
+        }
         return original;
     }
 
@@ -813,7 +887,7 @@ public final class Seq implements Cloneable, Serializable {
      *         stored by this object.
      * @see org.biolegato.sequence.data.Seq#sequence
      */
-    final StringBuffer getSequence() {
+    final ResidueStore getSequence() {
         return sequence;
     }
     
@@ -921,39 +995,84 @@ public final class Seq implements Cloneable, Serializable {
      * @param data the sequence object to detect the type for.
      * @return the sequence type detected.
      */
-    public static Type detectType(StringBuffer data) {
+    public static Type detectType(CharSequence data) {
         Seq.Type result = Seq.Type.DNA;
 
-        // The current character in the sequence to examine.
-        char test;
-        // Create a new array to contain the sequence data to examine.
-        char[] array = new char[data.length()];
-
-        // Extract the the sequence data into an array.
-        data.getChars(0, data.length(), array, 0);
-
-        // Iterate through the sequence array until we either reach the end of
-        // the array, or until the sequence type is determined not to be DNA.
-        for (int count = 0; count < array.length
-                && result == Seq.Type.DNA; count++) {
-            // Convert the test character to upper-case (this way we avoid
-            // testing both upper and lower case letters for matches).
-            test = Character.toUpperCase(array[count]);
-            
-            if (test == 'U') {
-                // If the sequence contains the character U, it is likely
-                // (but not necessarily) an RNA nucleotide sequence.
-                result = Seq.Type.RNA;
-            } else if (test == 'F' || test == 'E' || test == 'J'
-                    || test == 'L' || test == 'O' || test == 'Q'
-                    || test == 'X' || test == 'Z') {
-                // If the sequence contains F, E, J, L, O, Q, X or Z, it is
-                // likely (but not necessarily) an amino acid sequence.
-                result = Seq.Type.PROTEIN;
+        if (data instanceof ResidueStore) {
+            // Scan the residue store's array directly (without copying the
+            // residues, or calling charAt for every residue) for the first
+            // residue which does not imply DNA.
+            final ResidueStore store = (ResidueStore) data;
+            final int index = store.indexOf(NOT_DNA);
+
+            if (index >= 0) {
+                result = residueType(store.charAt(index));
+            }
+        } else {
+            // The number of characters in the sequence to examine.
+            final int length = data.length();
+
+            // Iterate through the sequence data until we either reach the end
+            // of the data, or until the sequence type is determined not to be
+            // DNA.
+            for (int count = 0; count < length
+                    && result == Seq.Type.DNA; count++) {
+                result = residueType(data.charAt(count));
             }
         }
 
         // Return the results of the type detection.
         return result;
     }
+
+    /**
+     * <p>Determines the sequence type implied by a single residue (used by
+     * detectType).</p>
+     *
+     * <p>The character U implies an RNA sequence; the characters F, E, J, L,
+     * O, Q, X and Z imply a protein sequence; all other characters are
+     * considered to be DNA (i.e. they do not imply any other type).  Thus, the
+     * type of a sequence is the type implied by the first residue which does
+     * not imply DNA.</p>
+     *
+     * <p>The types of the first 256 characters are precomputed in the table
+     * RESIDUE_TYPES (so no case conversion or comparisons are performed for
+     * any character which can be stored in a sequence).</p>
+     **
+     * @param  residue the residue to test.
+     * @return the sequence type implied by the residue.
+     */
+    static Type residueType(char residue) {
+        return (residue < RESIDUE_TYPES.length ? RESIDUE_TYPES[residue]
+                                               : classifyResidue(residue));
+    }
+
+    /**
+     * Calculates the sequence type implied by a single residue (see
+     * residueType).  This method is used to fill the table RESIDUE_TYPES, and
+     * for any characters beyond the end of the table.
+     **
+     * @param  residue the residue to test.
+     * @return the sequence type implied by the residue.
+     */
+    private static Type classifyResidue(char residue) {
+        Seq.Type result = Seq.Type.DNA;
+
+        // Convert the test character to upper-case (this way we avoid
+        // testing both upper and lower case letters for matches).
+        final char test = Character.toUpperCase(residue);
+
+        if (test == 'U') {
+            // If the sequence contains the character U, it is likely
+            // (but not necessarily) an RNA nucleotide sequence.
+            result = Seq.Type.RNA;
+        } else if (test == 'F' || test == 'E' || test == 'J'
+                || test == 'L' || test == 'O' || test == 'Q'
+                || test == 'X' || test == 'Z') {
+            // If the sequence contains F, E, J, L, O, Q, X or Z, it is
+            // likely (but not necessarily) an amino acid sequence.
+            result = Seq.Type.PROTEIN;
+        }
+        return result;
+    }
 }
@@ -0,0 +1,549 @@
+/*
+ * SequenceSelection.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+package org.biolegato.sequence.data;
+
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>A lazy clipboard Transferable for sequences copied from the sequence
+ * canvas.</p>
+ *
+ * <p>Previously, copying a selection wrote the whole selection in GenBank
+ * format into a StringBuilder, and then copied the StringBuilder into a
+ * String for the clipboard, all on the Swing event dispatch thread.  Copying
+ * a large block froze BioLegato, and held two formatted copies of the
+ * selection in memory.</p>
+ *
+ * <p>Instead, only a snapshot of the selected sequences is taken when the
+ * selection is copied (no residues are copied -- see Dataset.snapshot).  The
+ * text is generated when (and only if) the clipboard contents are pasted;
+ * therefore, pasting into another program generates the text on the thread
+ * which services the clipboard request, not on the event dispatch thread.
+ * Likewise, a selection may be written out by a background thread (see
+ * writeTo), while the sequences continue to be edited.</p>
+ *
+ * <p>The text is offered in two forms: as a Reader (READER_FLAVOR), which
+ * generates the text one sequence at a time into a reusable buffer, and as a
+ * String (DataFlavor.stringFlavor).  Because a String must hold the entire
+ * text at once, the String form is only offered for selections whose text
+ * is estimated to be smaller than MAX_STRING characters.</p>
+ *
+ * <p>The text may be written in any of the data formats (e.g. FastA, which
+ * is much cheaper to generate than GenBank), or as raw sequence text (one
+ * line of residues per sequence, with no names).</p>
+ *
+ * <p>Large selections (e.g. the whole canvas, when writing a file for a PCD
+ * command) are formatted in parallel by writeTo: the sequences are divided
+ * into blocks, each block is formatted into its own buffer by a pool of
+ * threads, and the buffers are written to the destination in order.  Only a
+ * fixed amount of text is formatted ahead of the destination, and sequences
+ * too large to fit in a block are written directly to the destination, so
+ * the memory used does not depend on the size of the selection (or of the
+ * sequences within it).</p>
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ */
+public final class SequenceSelection implements Transferable, ClipboardOwner {
+
+    /**
+     * The data flavor for reading the text of a selection through a Reader
+     * object (i.e. without generating the entire text at once).
+     */
+    public static final DataFlavor READER_FLAVOR = new DataFlavor(
+            "text/plain; class=java.io.Reader", "Plain text");
+    /**
+     * The maximum estimated length (in characters) of the text of a selection
+     * which may be transferred as a single String.
+     */
+    private static final long MAX_STRING = 64L * 1024 * 1024;
+    /**
+     * The estimated length of a generated header (e.g. a GenBank LOCUS line).
+     */
+    private static final int HEADER_ESTIMATE = 256;
+    /**
+     * The number of threads used to format large selections (see writeTo).
+     */
+    private static final int THREADS
+            = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * The estimated length (in characters) of the text of each block of
+     * sequences formatted by a separate task (see writeTo).
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    /**
+     * The maximum estimated size (in bytes) of the blocks which may be
+     * formatted but not yet written to the destination (see writeTo).  Each
+     * character of a block's buffer takes two bytes.
+     */
+    private static final long MAX_PENDING = 32L * 1024 * 1024;
+    /**
+     * The size of the buffer used to copy formatted blocks to the
+     * destination (see writeTo).
+     */
+    private static final int COPY_SIZE = 8192;
+    /**
+     * The snapshot of the sequences selected.
+     */
+    private final Dataset data;
+    /**
+     * The first column of the selection.
+     */
+    private final int offset;
+    /**
+     * The number of columns in the selection (a value less than zero selects
+     * the remainder of each sequence).
+     */
+    private final int length;
+    /**
+     * The format to write the sequences in (null for raw sequence text).
+     */
+    private final DataFormat format;
+    /**
+     * The estimated length of the text of the selection (in characters).
+     */
+    private final long estimate;
+
+    /**
+     * Creates a new selection.
+     **
+     * @param data   the snapshot of the sequences selected (see
+     *               Dataset.snapshot).
+     * @param offset the first column of the selection.
+     * @param length the number of columns in the selection (a value less
+     *               than zero selects the remainder of each sequence).
+     * @param format the format to write the sequences in (null for raw
+     *               sequence text).
+     */
+    public SequenceSelection(Dataset data, int offset, int length,
+                             DataFormat format) {
+        // The estimated length of the text.
+        long total = 0;
+
+        this.data = data;
+        this.offset = Math.max(0, offset);
+        this.length = length;
+        this.format = format;
+
+        // Estimate the length of the text.
+        for (int row = 0; row < data.getSize(); row++) {
+            total += estimate(data.getLine(row));
+        }
+        estimate = total;
+    }
+
+    /**
+     * Returns the flavors which the selection can be transferred as.
+     **
+     * @return the supported data flavors (READER_FLAVOR, and, if the
+     *         selection is small enough, DataFlavor.stringFlavor).
+     */
+    public DataFlavor[] getTransferDataFlavors() {
+        return (estimate <= MAX_STRING
+                ? new DataFlavor[]{ READER_FLAVOR, DataFlavor.stringFlavor }
+                : new DataFlavor[]{ READER_FLAVOR });
+    }
+
+    /**
+     * Determines whether the selection can be transferred as a data flavor.
+     **
+     * @param  flavor the data flavor to test.
+     * @return whether the flavor is supported.
+     */
+    public boolean isDataFlavorSupported(DataFlavor flavor) {
+        return READER_FLAVOR.equals(flavor)
+                || (DataFlavor.stringFlavor.equals(flavor)
+                    && estimate <= MAX_STRING);
+    }
+
+    /**
+     * Generates the text of the selection.  This is called when the clipboard
+     * contents are pasted (possibly by another program).
+     **
+     * @param  flavor the data flavor to transfer the selection as.
+     * @return a Reader object (for READER_FLAVOR), or a String (for
+     *         DataFlavor.stringFlavor), containing the text of the selection.
+     * @throws UnsupportedFlavorException if the flavor is not supported.
+     * @throws IOException if an error occurs while generating the text.
+     */
+    public Object getTransferData(DataFlavor flavor)
+            throws UnsupportedFlavorException, IOException {
+        // The text of the selection (as a String).
+        StringBuilder text;
+        // The object to return.
+        Object result;
+
+        if (READER_FLAVOR.equals(flavor)) {
+            result = new SelectionReader();
+        } else if (isDataFlavorSupported(flavor)) {
+            text = new StringBuilder((int) estimate);
+            writeTo(text);
+            result = text.toString();
+        } else {
+            throw new UnsupportedFlavorException(flavor);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the text of the selection to an Appendable object.  This method
+     * may be called by any thread.  If the selection is large, and more than
+     * one processor is available, then the text is formatted in parallel
+     * (see the class description); the text written is the same either way.
+     **
+     * @param  dest the destination Appendable object.
+     * @throws IOException if an error occurs while writing the text.
+     */
+    public void writeTo(Appendable dest) throws IOException {
+        if (format != null && THREADS > 1 && estimate > BLOCK_SIZE) {
+            writeParallel(dest);
+        } else {
+            for (int row = 0; row < data.getSize(); row++) {
+                write(dest, data.getLine(row));
+            }
+        }
+    }
+
+    /**
+     * Called when the selection is replaced on the clipboard (no action is
+     * necessary, because the selection does not hold any resources).
+     **
+     * @param clipboard the clipboard.
+     * @param contents  the selection which was replaced.
+     */
+    public void lostOwnership(Clipboard clipboard, Transferable contents) {
+    }
+
+    /**
+     * <p>Formats the text of the selection in parallel, and writes the text to
+     * an Appendable object (in order).  The sequences are divided into blocks
+     * of about BLOCK_SIZE characters of text; each block is formatted into
+     * its own buffer by a separate task.  Blocks are only submitted while the
+     * estimated size of the blocks not yet written is less than MAX_PENDING
+     * bytes, so only a bounded amount of text is held in memory at once.</p>
+     *
+     * <p>A sequence whose text is estimated to be at least BLOCK_SIZE
+     * characters is not placed in a block; instead, it is formatted directly
+     * into the destination (by the calling thread) once all of the blocks
+     * before it have been written.  Blocks after the sequence continue to be
+     * formatted in the meantime.</p>
+     **
+     * @param  dest the destination Appendable object.
+     * @throws IOException if an error occurs while writing the text.
+     */
+    private void writeParallel(Appendable dest) throws IOException {
+        // The blocks being formatted (in the order they must be written).
+        final Deque<Block> blocks = new ArrayDeque<Block>();
+        // The thread pool used to format the blocks.
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        // The buffer used to copy each block to the destination.
+        final char[] buffer = new char[COPY_SIZE];
+        // The index of the first sequence of the next block to submit.
+        int row = 0;
+        // The estimated length of the text of the sequence at 'row'.
+        long next = (data.getSize() > 0 ? estimate(data.getLine(0)) : 0);
+        // The estimated size (in bytes) of the blocks not yet written.
+        long pending = 0;
+
+        try {
+            while (row < data.getSize() || !blocks.isEmpty()) {
+                if (row < data.getSize() && next >= BLOCK_SIZE) {
+                    // Write the large sequence directly, in order.
+                    blocks.add(new Block(row, null, 0));
+                    row++;
+                    next = (row < data.getSize()
+                            ? estimate(data.getLine(row)) : 0);
+                } else if (row < data.getSize() && pending < MAX_PENDING) {
+                    // The first sequence of the block.
+                    final int first = row;
+                    // The estimated length of the text of the block.
+                    long size = 0;
+
+                    // Find the end of the block (the block ends before any
+                    // large sequence, so it holds less than 2 * BLOCK_SIZE
+                    // characters).
+                    do {
+                        size += next;
+                        row++;
+                        next = (row < data.getSize()
+                                ? estimate(data.getLine(row)) : 0);
+                    } while (row < data.getSize() && size < BLOCK_SIZE
+                             && next < BLOCK_SIZE);
+
+                    final int last = row;
+                    final int capacity = (int) size;
+
+                    // Format the block on the thread pool.
+                    blocks.add(new Block(first, pool.submit(
+                            new Callable<StringBuilder>() {
+                        public StringBuilder call() throws IOException {
+                            // The text of the block.
+                            final StringBuilder text
+                                    = new StringBuilder(capacity);
+
+                            for (int index = first; index < last; index++) {
+                                write(text, data.getLine(index));
+                            }
+                            return text;
+                        }
+                    }), 2 * size));
+                    pending += 2 * size;
+                } else {
+                    // The oldest block.
+                    final Block block = blocks.removeFirst();
+
+                    if (block.text == null) {
+                        write(dest, data.getLine(block.row));
+                    } else {
+                        // The text of the block.
+                        final StringBuilder text = block.text.get();
+
+                        for (int start = 0, length = 0;
+                                start < text.length(); start += length) {
+                            length = Math.min(buffer.length,
+                                              text.length() - start);
+                            text.getChars(start, start + length, buffer, 0);
+                            DataFormat.write(dest, buffer, 0, length);
+                        }
+                        pending -= block.size;
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted while formatting"
+                    + " the selection");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException(ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Estimates the length of the text of the selected part of a sequence.
+     * NOTE: GenBank is the most verbose format, using 75 characters for every
+     * 60 residues (i.e. 1.25 times the number of residues), plus its header.
+     **
+     * @param  seq the sequence.
+     * @return the estimated length of the text (in characters).
+     */
+    private long estimate(Seq seq) {
+        // The number of residues selected.
+        final int count = stop(seq) - start(seq);
+
+        return count + count / 4 + 1
+                + (seq.original != null ? seq.original.length()
+                                        : HEADER_ESTIMATE);
+    }
+
+    /**
+     * Writes the selected part of a sequence (in the selection's format) to
+     * an Appendable object.
+     **
+     * @param  dest the destination Appendable object.
+     * @param  seq  the sequence to write.
+     * @throws IOException if an error occurs while writing the sequence (or
+     *         if the sequence is read from a file which has been modified
+     *         since the selection was made -- see MappedFile.checkValid).
+     */
+    private void write(Appendable dest, Seq seq) throws IOException {
+        try {
+            if (format != null) {
+                format.convertTo(dest, seq, start(seq),
+                                 stop(seq) - start(seq));
+            } else {
+                seq.sequence.appendTo(dest, start(seq), stop(seq));
+                dest.append('\n');
+            }
+        } catch (IllegalStateException ise) {
+            throw new IOException(ise.getMessage(), ise);
+        }
+    }
+
+    /**
+     * Returns the position of the first residue selected in a sequence.
+     **
+     * @param  seq the sequence.
+     * @return the position of the first residue selected.
+     */
+    private int start(Seq seq) {
+        return Math.min(offset, seq.sequence.length());
+    }
+
+    /**
+     * Returns the position after the last residue selected in a sequence.
+     **
+     * @param  seq the sequence.
+     * @return the position after the last residue selected.
+     */
+    private int stop(Seq seq) {
+        return (length < 0 ? seq.sequence.length()
+                : Math.min(seq.sequence.length(), start(seq) + length));
+    }
+
+    /**
+     * A block of sequences to write to the destination (see writeParallel).
+     */
+    private static final class Block {
+
+        /**
+         * The first sequence of the block.
+         */
+        final int row;
+        /**
+         * The formatted text of the block (null if the block is a single
+         * large sequence, which is written directly to the destination).
+         */
+        final Future<StringBuilder> text;
+        /**
+         * The estimated size of the block's text (in bytes).
+         */
+        final long size;
+
+        /**
+         * Creates a new block.
+         **
+         * @param row  the first sequence of the block.
+         * @param text the formatted text of the block (or null).
+         * @param size the estimated size of the block's text (in bytes).
+         */
+        Block(int row, Future<StringBuilder> text, long size) {
+            this.row = row;
+            this.text = text;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Reads the text of the selection, generating the text of one sequence
+     * at a time into a reusable buffer.  Raw sequence text is read directly
+     * from the residues of each sequence (i.e. without any buffering).
+     */
+    private final class SelectionReader extends Reader {
+
+        /**
+         * The buffer containing the text of the current sequence.
+         */
+        private final StringBuilder buffer = new StringBuilder();
+        /**
+         * The position of the next character to read from the buffer.
+         */
+        private int position = 0;
+        /**
+         * The index of the next sequence to write into the buffer.
+         */
+        private int next = 0;
+        /**
+         * The position of the next residue to read, when reading raw
+         * sequence text (-1 if no sequence is being read).
+         */
+        private int residue = -1;
+
+        /**
+         * Reads characters from the text of the selection.
+         **
+         * @param  cbuf   the destination array.
+         * @param  off    the position in the array to store the characters.
+         * @param  len    the maximum number of characters to read.
+         * @return the number of characters read (or -1 at the end of the
+         *         text).
+         * @throws IOException if an error occurs while generating the text.
+         */
+        @Override
+        public int read(char[] cbuf, int off, int len)
+                throws IOException {
+            // The number of characters read.
+            int count = 0;
+
+            while (count == 0 && len > 0 && fill()) {
+                if (residue >= 0) {
+                    // Read the residues directly from the sequence.
+                    final Seq seq = data.getLine(next - 1);
+                    final ResidueStore residues = seq.sequence;
+
+                    count = Math.min(len, stop(seq) - residue);
+                    try {
+                        residues.getChars(residue, residue + count, cbuf, off);
+                    } catch (IllegalStateException ise) {
+                        throw new IOException(ise.getMessage(), ise);
+                    }
+                    residue += count;
+                } else {
+                    count = Math.min(len, buffer.length() - position);
+                    buffer.getChars(position, position + count, cbuf, off);
+                    position += count;
+                }
+            }
+            return (count == 0 && len > 0 ? -1 : count);
+        }
+
+        /**
+         * Ensures that there is text to read (i.e. moves to the next
+         * sequence, if all of the current sequence has been read).
+         **
+         * @return whether there is text left to read.
+         * @throws IOException if an error occurs while generating the text.
+         */
+        private boolean fill() throws IOException {
+            // Whether there is text left to read.
+            boolean result = true;
+
+            while (result && ((residue < 0 && position >= buffer.length())
+                    || (residue >= 0
+                        && residue >= stop(data.getLine(next - 1))))) {
+                if (residue >= 0) {
+                    // Finish the raw sequence text with a new line.
+                    residue = -1;
+                    buffer.setLength(0);
+                    buffer.append('\n');
+                    position = 0;
+                } else if (next < data.getSize()) {
+                    buffer.setLength(0);
+                    position = 0;
+                    if (format != null) {
+                        write(buffer, data.getLine(next));
+                    } else {
+                        residue = start(data.getLine(next));
+                    }
+                    next++;
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Releases the text of the selection.
+         */
+        @Override
+        public void close() {
+            next = data.getSize();
+            residue = -1;
+            buffer.setLength(0);
+            buffer.trimToSize();
+            position = 0;
+        }
+    }
+}
@@ -455,6 +455,10 @@ public class SequenceWindow extends JDialog implements ActionListener,
                 // annotation, and other header data (when present) is not lost
                 // from unaltered GenBANK files read into BioLegato.
                 boolean modified = false;
+                // A boolean for determining if the colour mask of the sequence
+                // was changed.  Although this does not count as a
+                // modification, the sequence must still be redrawn.
+                boolean recoloured = false;
 
                 // Get the sequence to alter.
                 Seq seq = datamodel.getLine(y);
@@ -487,8 +491,9 @@ public class SequenceWindow extends JDialog implements ActionListener,
                 // Modify the colour mask of the sequences selected (when the
                 // new colour mask value is NOT null).  This will NOT count as a
                 // modification because the sequence data is unaltered.
-                if (mask != null) {
+                if (mask != null && mask != seq.mask) {
                     seq.mask = mask;
+                    recoloured = true;
                 }
 
                 // Alter the protection status for the sequence selected (this
@@ -518,6 +523,11 @@ public class SequenceWindow extends JDialog implements ActionListener,
                 // delete the original GenBANK header.
                 if (modified) {
                     seq.original = null;
+                }
+                // Notify the listeners if the sequence was modified, or its
+                // colour mask was changed (so it is redrawn in its new
+                // colours).
+                if (modified || recoloured) {
                     datamodel.sequenceChanged(y);
                 }
             }
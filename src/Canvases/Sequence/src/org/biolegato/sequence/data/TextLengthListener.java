@@ -0,0 +1,36 @@
+/*
+ * TextLengthListener.java
+ *
+ * To change this template, choose Tools | Template Manager
+ * and open the template in the editor.
+ */
+
+package org.biolegato.sequence.data;
+
+import java.util.EventListener;
+
+/**
+ * A listener for insertions into, and deletions from, the text of the
+ * sequences in a Dataset object.  Unlike ListDataListener (which only reports
+ * which sequences were modified), this listener is told the column and number
+ * of characters inserted or deleted; therefore, views of the Dataset (such as
+ * the sequence text areas) only need to update the part of the sequence after
+ * the modification.
+ **
+ * @author Graham Alvare
+ * @author Brian Fristensky
+ * @see org.biolegato.sequence.data.Dataset#addTextLengthListener(org.biolegato.sequence.data.TextLengthListener)
+ */
+public interface TextLengthListener extends EventListener {
+
+    /**
+     * Called when text is inserted into, or deleted from, a sequence.
+     **
+     * @param x the column where the text length change began.
+     * @param y the line number of the sequence modified.
+     * @param length the number of characters, by which the sequence was
+     *               extended.  If length is less than zero, then the sequence
+     *               was shrunk instead of extended.
+     */
+    public void textLengthChanged(int x, int y, int length);
+}
@@ -11,7 +11,6 @@ import java.awt.FlowLayout;
 import java.awt.BorderLayout;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.sql.ResultSet;
@@ -40,6 +39,7 @@ import javax.swing.filechooser.FileFilter;
 import javax.swing.table.DefaultTableModel;
 import org.biolegato.main.BLMain;
 import org.biolegato.main.DataCanvas;
+import org.biopcd.parser.CompressedFile;
 import org.biopcd.parser.PCD;
 
 /*
@@ -1158,10 +1158,12 @@ public class TableCanvas extends DataCanvas {
                                 try {
                                     // Read the file into the table canvas,
                                     // using the appropriate file filter (csv,
-                                    // or tsv).
+                                    // or tsv), and decompressing the file if
+                                    // it is compressed.
                                     readFile((openDlg.getFileFilter()
                                             == CSV_FILTER ? "csv" : "tsv"),
-                                        new FileReader(opf), false,false);
+                                        CompressedFile.openReader(opf),
+                                        false,false);
                                 } catch (IOException ioe) {
                                     // Print a stack trace if any error occurs.
                                     ioe.printStackTrace(System.err);
@@ -10,7 +10,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -32,6 +31,7 @@ import javax.swing.JMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
 import org.biopcd.parser.CommandThread;
+import org.biopcd.parser.CompressedFile;
 import org.biopcd.parser.PCD;
 import org.biopcd.parser.PCDObject;
 import org.biopcd.parser.RunWindow;
@@ -514,7 +514,9 @@ public class BLMain {
                 try {
                     if (file != null && file.exists() && file.isFile()
                             && file.length() > 0) {
-                        canvas.readFile("", new FileReader(file), false,false);
+                        // NOTE: compressed files are decompressed.
+                        canvas.readFile("", CompressedFile.openReader(file),
+                                false,false);
                     }
                 } catch (FileNotFoundException ex) {
                     ex.printStackTrace(System.err);